@@ -1,14 +1,36 @@
 package crossnet;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import crossnet.flow.Publisher;
+import crossnet.flow.Subscriber;
 import crossnet.listener.ConnectionListener;
 import crossnet.listener.ConnectionListenerHandler;
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
 import crossnet.message.Message;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.crossnet.messages.HandshakeMessage;
 import crossnet.message.crossnet.messages.KeepAliveMessage;
 import crossnet.message.crossnet.messages.PingMessage;
+import crossnet.message.crossnet.messages.RpcMessage;
+import crossnet.message.crossnet.messages.SnapshotAckMessage;
+import crossnet.message.crossnet.messages.SnapshotMessage;
 import crossnet.message.crossnet.messages.TieredCrossNetMessage;
+import crossnet.message.delta.DeltaDecoder;
+import crossnet.message.delta.DeltaEncoder;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.metrics.ConnectionMetrics;
+import crossnet.metrics.DisconnectReason;
+import crossnet.metrics.LatencyTracer;
+import crossnet.rpc.RpcException;
+import crossnet.rpc.RpcFuture;
+import crossnet.rpc.RpcHandlerRegistry;
+import crossnet.rpc.RpcSession;
+import crossnet.util.ByteArrayReader;
 
 /**
  * A Connection between a {@link CrossNetClient} and a {@link CrossNetServer}.
@@ -38,6 +60,31 @@ public class Connection {
 	 */
 	private ConnectionListenerHandler connectionListenerHandler = new ConnectionListenerHandler();
 
+	/**
+	 * Encodes the snapshots sent through this.
+	 */
+	private final DeltaEncoder deltaEncoder = new DeltaEncoder();
+
+	/**
+	 * Decodes the snapshots received through this.
+	 */
+	private final DeltaDecoder deltaDecoder = new DeltaDecoder();
+
+	/**
+	 * The remote procedure calls made through this, awaiting their responses.
+	 */
+	private final RpcSession rpcSession = new RpcSession();
+
+	/**
+	 * Publishes the Messages received through this.
+	 */
+	private final InboundPublisher inboundPublisher = new InboundPublisher( this );
+
+	/**
+	 * The OutboundSubscribers sending through this.
+	 */
+	private final List< OutboundSubscriber > outboundSubscribers = new CopyOnWriteArrayList<>();
+
 	@SuppressWarnings( "hiding" )
 	final void initialize( final TransportLayer transportLayer ) {
 		this.transportLayer = transportLayer;
@@ -87,14 +134,35 @@ public class Connection {
 		return this.isConnected;
 	}
 
+	/**
+	 * Sets the number of snapshots remembered for the delta compression, in both directions. Must be set before
+	 * connecting.
+	 * 
+	 * @param historySize
+	 *            The number of snapshots.
+	 */
+	void setSnapshotHistorySize( final int historySize ) {
+		this.deltaEncoder.setHistorySize( historySize );
+		this.deltaDecoder.setHistorySize( historySize );
+	}
+
 	/**
 	 * Set the connected status.
+	 * <p>
+	 * When (re)connecting, any snapshot state from a previous connection is forgotten.
 	 * 
 	 * @param isConnected
 	 *            {@code true} iff considered fully connected.
 	 */
 	void setConnected( boolean isConnected ) {
+		if ( isConnected ) {
+			this.deltaEncoder.reset();
+			this.deltaDecoder.reset();
+		}
 		this.isConnected = isConnected;
+		if ( isConnected ) {
+			this.inboundPublisher.connected();
+		}
 	}
 
 	/**
@@ -141,15 +209,26 @@ public class Connection {
 	 * Notify the {@link ConnectionListener}s of this, that it is now idle.
 	 */
 	void notifyIdle() {
+		for ( OutboundSubscriber outboundSubscriber : this.outboundSubscribers ) {
+			outboundSubscriber.idle();
+		}
 		this.connectionListenerHandler.idle( this );
 	}
 
 	/**
 	 * Notify the {@link ConnectionListener}s of this, that it received a Message.
 	 * <p>
-	 * KeepAlive messages are filtered.
+	 * KeepAlive and Handshake messages are filtered.
 	 * <p>
 	 * PingMessages are announced if they update the RTT of this.
+	 * <p>
+	 * SnapshotMessages are decoded and acknowledged, and the snapshot is announced.
+	 * <p>
+	 * FlyweightMessages of registered templates are decoded by the {@link FlyweightRegistry}.
+	 * <p>
+	 * RpcMessages are handled by the {@link RpcHandlerRegistry} if requests, and complete their calls otherwise.
+	 * <p>
+	 * The Messages announced are also published by the {@link #getInboundPublisher()}.
 	 * 
 	 * @param message
 	 *            The Message received.
@@ -157,22 +236,92 @@ public class Connection {
 	void notifyReceived( Message message ) {
 		// Log
 		if ( message instanceof TieredCrossNetMessage ) {
-			Log.debug( "CrossNet", this + " received: " + message.getMessageClass() );
-		} else {
-			Log.trace( "CrossNet", this + " received: " + message.getMessageClass() );
+			if ( Log.DEBUG ) {
+				Log.debug( "CrossNet", "{} received: {}", this, message.getMessageClass() );
+			}
+		} else if ( Log.TRACE ) {
+			Log.trace( "CrossNet", "{} received: {}", this, message.getMessageClass() );
 		}
 
 		// Handle
 		if ( message instanceof KeepAliveMessage ) {
 			// Ignore
 			return;
+		} else if ( message instanceof HandshakeMessage ) {
+			// Handled by the TransportLayer
+			return;
 		} else if ( message instanceof PingMessage ) {
 			if ( !this.transportLayer.gotPingMessage( (PingMessage) message ) ) {
 				return;
 			}
+		} else if ( message instanceof SnapshotAckMessage ) {
+			this.deltaEncoder.acknowledge( (SnapshotAckMessage) message );
+			return;
+		} else if ( message instanceof SnapshotMessage ) {
+			this.gotSnapshotMessage( (SnapshotMessage) message );
+			return;
+		} else if ( message instanceof FlyweightMessage ) {
+			// Received in a bundle, or with framing that is not read in place. Unregistered templates are passed on.
+			ByteBuffer buffer = ( (FlyweightMessage) message ).getBuffer();
+			if ( this.transportLayer.flyweightRegistry.dispatch( this, buffer, 0, buffer.capacity() ) ) {
+				return;
+			}
+		} else if ( message instanceof RpcMessage ) {
+			this.gotRpcMessage( (RpcMessage) message );
+			return;
 		}
 
+		NetworkEventListener eventListener = this.transportLayer.networkEventListener;
+		long dispatchStart = ( eventListener != null ) ? System.nanoTime() : 0;
+		long traceStart = this.transportLayer.latencyTracer.start();
 		this.connectionListenerHandler.received( this, message );
+		this.inboundPublisher.offer( message );
+		this.transportLayer.latencyTracer.end( LatencyTracer.Stage.DISPATCH, traceStart );
+		if ( eventListener != null ) {
+			eventListener.dispatched( this, message, System.nanoTime() - dispatchStart );
+		}
+	}
+
+	/**
+	 * Decodes and acknowledges a SnapshotMessage, and announces the snapshot. If the baseline of the snapshot is
+	 * unknown, a full snapshot is requested instead.
+	 * 
+	 * @param snapshotMessage
+	 *            The SnapshotMessage received.
+	 */
+	private void gotSnapshotMessage( SnapshotMessage snapshotMessage ) {
+		byte[] snapshot = this.deltaDecoder.decode( snapshotMessage );
+		if ( snapshot == null ) {
+			this.send( new SnapshotAckMessage( SnapshotAckMessage.REQUEST_FULL ) );
+			return;
+		}
+
+		this.send( new SnapshotAckMessage( snapshotMessage.getSequence() ) );
+
+		Message message = this.transportLayer.messageParser.parseData( new ByteArrayReader( snapshot ) );
+		if ( message != null ) {
+			this.notifyReceived( message );
+		}
+	}
+
+	/**
+	 * Handles a request by replying, or completes the call of a response or error.
+	 * 
+	 * @param rpcMessage
+	 *            The RpcMessage received.
+	 */
+	private void gotRpcMessage( RpcMessage rpcMessage ) {
+		if ( rpcMessage.getKind() != RpcMessage.Kind.REQUEST ) {
+			this.rpcSession.received( rpcMessage );
+			return;
+		}
+
+		RpcHandlerRegistry rpcHandlerRegistry = this.transportLayer.rpcHandlerRegistry;
+		if ( rpcHandlerRegistry == null ) {
+			this.send( RpcMessage.error( rpcMessage.getCorrelationId(), "Calls are not handled." ) );
+		} else {
+			this.send( rpcHandlerRegistry.handle( this, rpcMessage ) );
+		}
 	}
 
 	/**
@@ -190,7 +339,7 @@ public class Connection {
 		try {
 			int length = this.transportLayer.send( message );
 			if ( length == 0 ) {
-				Log.trace( "CrossNet", this + " had nothing to send." );
+				Log.trace( "CrossNet", "{} had nothing to send.", this );
 			} else if ( Log.DEBUG ) {
 				if ( message instanceof TieredCrossNetMessage ) {
 					Log.debug( "CrossNet", this + " sent: " + message.getMessageClass() + " (" + length + ")" );
@@ -201,21 +350,161 @@ public class Connection {
 			return length;
 		} catch ( IOException ex ) {
 			Log.debug( "CrossNet", "Unable to send with connection: " + this, ex );
-			this.close();
+			this.close( DisconnectReason.of( ex ) );
 			return 0;
 		}
 	}
 
+	/**
+	 * Send a snapshot through this Connection.
+	 * <p>
+	 * The snapshot is sent as a delta against the last snapshot the other end acknowledged, or in full if there is
+	 * none. The other end receives the snapshot as the original Message.
+	 * 
+	 * @param message
+	 *            The snapshot to send.
+	 * @return The number of bytes added to the send buffer.
+	 */
+	public int sendSnapshot( Message message ) {
+		if ( message == null ) {
+			throw new IllegalArgumentException( "Cannot send null." );
+		}
+
+		byte[] snapshot = message.getBytes();
+		if ( snapshot == null ) {
+			return 0;
+		}
+
+		return this.send( this.deltaEncoder.encode( snapshot ) );
+	}
+
+	/**
+	 * Make a remote procedure call through this Connection, waiting the {@link RpcSession#DEFAULT_TIMEOUT_MILLIS}
+	 * for the response.
+	 * 
+	 * @param message
+	 *            The request.
+	 * @return The pending response.
+	 * @see #request(Message, int)
+	 */
+	public RpcFuture request( Message message ) {
+		return this.request( message, RpcSession.DEFAULT_TIMEOUT_MILLIS );
+	}
+
+	/**
+	 * Make a remote procedure call through this Connection.
+	 * <p>
+	 * The request is handled by the {@link RpcHandlerRegistry} of the other end. Any number of calls can be outstanding
+	 * at once, and the responses may arrive in any order. The call fails if no response arrives in time, or if this is
+	 * closed first.
+	 * 
+	 * @param message
+	 *            The request.
+	 * @param timeoutMillis
+	 *            The time in milliseconds to wait for the response.
+	 * @return The pending response.
+	 */
+	public RpcFuture request( Message message, int timeoutMillis ) {
+		if ( message == null ) {
+			throw new IllegalArgumentException( "Cannot request null." );
+		}
+
+		if ( !this.isConnected ) {
+			return RpcFuture.failed( new RpcException( RpcException.Reason.DISCONNECTED, this + " is not connected." ) );
+		}
+
+		RpcFuture rpcFuture = this.rpcSession.newRequest( timeoutMillis );
+		if ( !this.isConnected ) {
+			// Closed meanwhile, possibly after failing the outstanding calls
+			this.rpcSession.failAll( new RpcException( RpcException.Reason.DISCONNECTED, this + " was closed." ) );
+			return rpcFuture;
+		}
+		this.send( RpcMessage.request( rpcFuture.getCorrelationId(), message ) );
+		return rpcFuture;
+	}
+
+	/**
+	 * Fails the remote procedure calls that are past their deadline.
+	 * 
+	 * @param time
+	 *            The current time stamp.
+	 */
+	void expireRequests( long time ) {
+		this.rpcSession.expire( time );
+	}
+
+	/**
+	 * Gets the Publisher of the Messages received through this; those announced to the {@link ConnectionListener}s. It
+	 * takes one Subscriber at a time, and completes it when this is closed; or right away, if this is closed already.
+	 * <p>
+	 * While the Subscriber has no demand, this stops reading from its socket, such that TCP flow control pushes back on
+	 * the sender rather than the Messages piling up in memory, and this does not time out meanwhile. The Messages
+	 * already read, at most a read buffer of them, are still parsed and announced to the ConnectionListeners right away;
+	 * only the Subscriber waits for them. The ConnectionListeners see no further Messages until there is demand again.
+	 * 
+	 * @return The Publisher of the Messages received.
+	 */
+	public Publisher< Message > getInboundPublisher() {
+		return this.inboundPublisher;
+	}
+
+	/**
+	 * Creates a Subscriber that sends the Messages it is given through this. It only requests more while this is idle,
+	 * such that a slow socket pushes back on the Publisher. It cancels its Subscription when this is closed.
+	 * 
+	 * @return The new Subscriber.
+	 */
+	public Subscriber< Message > newOutboundSubscriber() {
+		return new OutboundSubscriber( this );
+	}
+
+	void addOutboundSubscriber( OutboundSubscriber outboundSubscriber ) {
+		this.outboundSubscribers.add( outboundSubscriber );
+	}
+
+	void removeOutboundSubscriber( OutboundSubscriber outboundSubscriber ) {
+		this.outboundSubscribers.remove( outboundSubscriber );
+	}
+
+	/**
+	 * Gets the traffic counters of this.
+	 * 
+	 * @return The traffic counters.
+	 */
+	public ConnectionMetrics getMetrics() {
+		return this.transportLayer.getMetrics();
+	}
+
 	/**
 	 * Close the {@link Connection}.
 	 */
 	public void close() {
+		this.close( DisconnectReason.LOCAL );
+	}
+
+	/**
+	 * Close the {@link Connection}, recording why.
+	 * 
+	 * @param reason
+	 *            The reason for closing.
+	 */
+	void close( DisconnectReason reason ) {
 		boolean wasConnected = this.isConnected;
 		this.setConnected( false );
 		this.transportLayer.close();
+		this.rpcSession.failAll( new RpcException( RpcException.Reason.DISCONNECTED, this + " was closed." ) );
+		for ( OutboundSubscriber outboundSubscriber : this.outboundSubscribers ) {
+			outboundSubscriber.closed();
+		}
 		if ( wasConnected ) {
+			this.inboundPublisher.complete();
+			this.transportLayer.getMetrics().setDisconnectReason( reason );
+			NetworkEventListener eventListener = this.transportLayer.networkEventListener;
+			if ( eventListener != null ) {
+				eventListener.disconnected( this, reason );
+			}
 			this.notifyDisconnected();
-			Log.info( "CrossNet", this + " disconnected." );
+			Log.info( "CrossNet", this + " disconnected (" + reason + ")." );
 		}
 	}
 }
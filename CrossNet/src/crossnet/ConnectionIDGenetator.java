@@ -3,6 +3,13 @@ package crossnet;
 /**
  * Generates unique IDs for {@link Connection}s.
  * <p>
+ * An ID consists of a slot, in the low {@value #SLOT_BITS} bits, and a generation in the bits above. Slots start at 1
+ * and generations at 0, so the first IDs are 1, 2, 3 and so on. Slots of released IDs are reused, oldest first, with
+ * the next generation, such that a stale ID does not match the Connection that reuses its slot, until the generation
+ * wraps around. IDs are always positive.
+ * <p>
+ * This is thread safe.
+ * <p>
  * NB: Per instance of this.
  * 
  * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
@@ -10,15 +17,145 @@ package crossnet;
  */
 public class ConnectionIDGenetator {
 
-	private int nextId = 1;
+	/**
+	 * Number of bits of an ID used for the slot.
+	 */
+	public static final int SLOT_BITS = 20;
+
+	/**
+	 * Number of slots. Slot 0 is not used, so at most {@code MAX_SLOTS - 1} IDs are in use at once.
+	 */
+	public static final int MAX_SLOTS = 1 << ConnectionIDGenetator.SLOT_BITS;
+
+	private static final int SLOT_MASK = ConnectionIDGenetator.MAX_SLOTS - 1;
+
+	/**
+	 * Generations are 0 up to this, such that IDs are positive.
+	 */
+	private static final int MAX_GENERATION = ( 1 << ( 31 - ConnectionIDGenetator.SLOT_BITS ) ) - 1;
+
+	/**
+	 * The generation of each slot; the current one if in use, else the next one.
+	 */
+	private int[] generations = new int[16];
+
+	/**
+	 * {@code True} for the slots in use.
+	 */
+	private boolean[] inUse = new boolean[16];
+
+	/**
+	 * The number of slots ever used, counting the unused slot 0.
+	 */
+	private int slotCount = 1;
+
+	/**
+	 * Ring buffer of released slots, oldest first.
+	 */
+	private int[] freeSlots = new int[16];
+
+	private int freeHead = 0;
+
+	private int freeCount = 0;
 
 	/**
 	 * Gets the next unique ID.
 	 * 
 	 * @return The next unique ID.
 	 */
-	public int getNextId() {
-		return this.nextId++;
+	public synchronized int getNextId() {
+		int slot;
+		if ( this.freeCount > 0 ) {
+			slot = this.freeSlots[this.freeHead];
+			this.freeHead = ( this.freeHead + 1 ) % this.freeSlots.length;
+			this.freeCount--;
+		} else {
+			if ( this.slotCount == ConnectionIDGenetator.MAX_SLOTS ) {
+				throw new IllegalStateException( "All " + ( ConnectionIDGenetator.MAX_SLOTS - 1 ) + " IDs are in use." );
+			}
+			slot = this.slotCount++;
+			this.ensureCapacity( this.slotCount );
+		}
+
+		this.inUse[slot] = true;
+
+		return ( this.generations[slot] << ConnectionIDGenetator.SLOT_BITS ) | slot;
+	}
+
+	/**
+	 * Releases an ID, such that its slot can be reused.
+	 * 
+	 * @param id
+	 *            The ID to release.
+	 * @return {@code True} iff the ID was in use.
+	 */
+	public synchronized boolean releaseId( int id ) {
+		if ( !this.isInUse( id ) ) {
+			return false;
+		}
+
+		int slot = ConnectionIDGenetator.slotOf( id );
+		this.inUse[slot] = false;
+		// The next use of the slot gets the next generation
+		int generation = this.generations[slot] + 1;
+		if ( generation > ConnectionIDGenetator.MAX_GENERATION ) {
+			generation = 0;
+		}
+		this.generations[slot] = generation;
+		this.freeSlots[( this.freeHead + this.freeCount ) % this.freeSlots.length] = slot;
+		this.freeCount++;
+		return true;
+	}
+
+	/**
+	 * Determines if an ID is in use; i.e. generated and not released since.
+	 * 
+	 * @param id
+	 *            The ID.
+	 * @return {@code True} iff the ID is in use.
+	 */
+	public synchronized boolean isInUse( int id ) {
+		if ( id <= 0 ) {
+			return false;
+		}
+		int slot = ConnectionIDGenetator.slotOf( id );
+		return ( slot < this.slotCount ) && this.inUse[slot] && ( this.generations[slot] == ( id >>> ConnectionIDGenetator.SLOT_BITS ) );
+	}
+
+	/**
+	 * Gets the slot of an ID.
+	 * 
+	 * @param id
+	 *            The ID.
+	 * @return The slot, from 1 to {@link #MAX_SLOTS} exclusive.
+	 */
+	public static int slotOf( int id ) {
+		return id & ConnectionIDGenetator.SLOT_MASK;
+	}
+
+	/**
+	 * Grows the arrays to hold a number of slots. The free ring is unwrapped when grown.
+	 */
+	private void ensureCapacity( int slots ) {
+		if ( slots <= this.generations.length ) {
+			return;
+		}
+
+		int capacity = Math.min( this.generations.length * 2, ConnectionIDGenetator.MAX_SLOTS );
+		int[] generations = new int[capacity];
+		System.arraycopy( this.generations, 0, generations, 0, this.generations.length );
+		this.generations = generations;
+
+		boolean[] inUse = new boolean[capacity];
+		System.arraycopy( this.inUse, 0, inUse, 0, this.inUse.length );
+		this.inUse = inUse;
+
+		int[] freeSlots = new int[capacity];
+		for ( int i = 0; i < this.freeCount; i++ ) {
+			freeSlots[i] = this.freeSlots[( this.freeHead + i ) % this.freeSlots.length];
+		}
+		this.freeSlots = freeSlots;
+		this.freeHead = 0;
 	}
 
 }
@@ -0,0 +1,198 @@
+package crossnet;
+
+import crossnet.message.StringTableMessage;
+import crossnet.message.crossnet.messages.BundleMessage;
+import crossnet.message.crossnet.messages.HandshakeMessage;
+import crossnet.packet.PacketFactory;
+import crossnet.packet.checksum.ChecksumPacketFactory;
+import crossnet.packet.deflate.DeflatePacketFactory;
+import crossnet.packet.length.LengthPacket;
+import crossnet.packet.length.LengthPacketFactory;
+import crossnet.packet.varint.VarIntLengthPacket;
+import crossnet.packet.varint.VarIntLengthPacketFactory;
+import crossnet.util.StringTable;
+
+/**
+ * The options of the transport of a {@link Connection}: a set of capability flags, and the maximum payload size.
+ * <p>
+ * Set on a {@link LocalEndPoint}, they are the options it supports. A {@link CrossNetClient} offers them to the
+ * {@link CrossNetServer} on registration, with a {@link HandshakeMessage}, and both ends switch to the options they
+ * both support. Peers that do not negotiate, e.g. older ones, use {@link #LEGACY}.
+ * <p>
+ * Immutable.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ConnectionOptions {
+
+	/**
+	 * Queued Messages may be sent together in a {@link BundleMessage}. Only once negotiated, as older peers cannot parse
+	 * them.
+	 */
+	public static final int BUNDLING = 1 << 0;
+
+	/**
+	 * Packets carry a CRC-32 of their payload. See {@link ChecksumPacketFactory}.
+	 */
+	public static final int CHECKSUM = 1 << 1;
+
+	/**
+	 * Large payloads are compressed. See {@link DeflatePacketFactory}.
+	 */
+	public static final int COMPRESSION = 1 << 2;
+
+	/**
+	 * Packets are framed with a varint length, rather than a 2B length. See {@link VarIntLengthPacketFactory}.
+	 */
+	public static final int VARINT_FRAMING = 1 << 3;
+
+	/**
+	 * A {@link StringTableMessage} is serialised with a {@link StringTable} per direction, such that repeated Strings
+	 * are sent as references.
+	 */
+	public static final int STRING_TABLE = 1 << 4;
+
+	/**
+	 * The capabilities known by this version.
+	 */
+	public static final int ALL = ConnectionOptions.BUNDLING | ConnectionOptions.CHECKSUM | ConnectionOptions.COMPRESSION | ConnectionOptions.VARINT_FRAMING | ConnectionOptions.STRING_TABLE;
+
+	/**
+	 * Smallest maximum payload size allowed.
+	 */
+	public static final int MIN_PAYLOAD_SIZE = 256;
+
+	/**
+	 * Largest Packet of any framing.
+	 */
+	public static final int MAX_PACKET_SIZE = Math.max( LengthPacket.MAX_PACKET_SIZE, VarIntLengthPacket.MAX_PACKET_SIZE );
+
+	/**
+	 * The options of peers that do not negotiate: 2B length framing and nothing else, i.e. the format older peers
+	 * understand. In particular no {@link BundleMessage}s, which they cannot parse.
+	 */
+	public static final ConnectionOptions LEGACY = new ConnectionOptions( 0, LengthPacket.MAX_PAYLOAD_SIZE );
+
+	private final int capabilities;
+
+	private final int maxPayloadSize;
+
+	/**
+	 * Create ConnectionOptions.
+	 * 
+	 * @param capabilities
+	 *            The capability flags. Unknown flags are ignored.
+	 * @param maxPayloadSize
+	 *            The maximum payload size. Is lowered to what the framing can carry.
+	 */
+	public ConnectionOptions( final int capabilities, final int maxPayloadSize ) {
+		if ( maxPayloadSize < ConnectionOptions.MIN_PAYLOAD_SIZE ) {
+			throw new IllegalArgumentException( "maxPayloadSize must be at least " + ConnectionOptions.MIN_PAYLOAD_SIZE + "B, was: " + maxPayloadSize + "B." );
+		}
+
+		this.capabilities = capabilities & ConnectionOptions.ALL;
+		this.maxPayloadSize = Math.min( maxPayloadSize, this.newPacketFactory().getMaxPayloadSize() );
+	}
+
+	/**
+	 * Gets the capability flags.
+	 * 
+	 * @return The capability flags.
+	 */
+	public int getCapabilities() {
+		return this.capabilities;
+	}
+
+	/**
+	 * Determines if a capability is set.
+	 * 
+	 * @param capability
+	 *            The capability flag.
+	 * @return {@code True} iff the capability is set.
+	 */
+	public boolean has( int capability ) {
+		return ( this.capabilities & capability ) == capability;
+	}
+
+	/**
+	 * Gets the maximum payload size; i.e. of a serialised Message.
+	 * 
+	 * @return The maximum payload size.
+	 */
+	public int getMaxPayloadSize() {
+		return this.maxPayloadSize;
+	}
+
+	/**
+	 * Selects the options supported by both this and a peer.
+	 * 
+	 * @param capabilities
+	 *            The capability flags of the peer.
+	 * @param maxPayloadSize
+	 *            The maximum payload size of the peer.
+	 * @return The common ConnectionOptions.
+	 */
+	public ConnectionOptions select( int capabilities, int maxPayloadSize ) {
+		return new ConnectionOptions( this.capabilities & capabilities, Math.max( ConnectionOptions.MIN_PAYLOAD_SIZE, Math.min( this.maxPayloadSize, maxPayloadSize ) ) );
+	}
+
+	/**
+	 * Creates a PacketFactory for these options. A PacketFactory may hold state, so one is needed per direction per
+	 * Connection.
+	 * 
+	 * @return A new PacketFactory.
+	 */
+	public PacketFactory newPacketFactory() {
+		PacketFactory packetFactory;
+		if ( this.has( ConnectionOptions.VARINT_FRAMING ) ) {
+			packetFactory = new VarIntLengthPacketFactory();
+		} else {
+			packetFactory = new LengthPacketFactory();
+		}
+
+		// The checksum covers the compressed payload.
+		if ( this.has( ConnectionOptions.CHECKSUM ) ) {
+			packetFactory = new ChecksumPacketFactory( packetFactory );
+		}
+		if ( this.has( ConnectionOptions.COMPRESSION ) ) {
+			packetFactory = new DeflatePacketFactory( packetFactory );
+		}
+
+		return packetFactory;
+	}
+
+	@Override
+	public boolean equals( Object object ) {
+		if ( !( object instanceof ConnectionOptions ) ) {
+			return false;
+		}
+		ConnectionOptions other = (ConnectionOptions) object;
+		return ( this.capabilities == other.capabilities ) && ( this.maxPayloadSize == other.maxPayloadSize );
+	}
+
+	@Override
+	public int hashCode() {
+		return ( 31 * this.capabilities ) + this.maxPayloadSize;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder( "ConnectionOptions[" );
+		stringBuilder.append( this.has( ConnectionOptions.VARINT_FRAMING ) ? "varint" : "length" ).append( " framing" );
+		if ( this.has( ConnectionOptions.BUNDLING ) ) {
+			stringBuilder.append( ", bundling" );
+		}
+		if ( this.has( ConnectionOptions.CHECKSUM ) ) {
+			stringBuilder.append( ", checksum" );
+		}
+		if ( this.has( ConnectionOptions.COMPRESSION ) ) {
+			stringBuilder.append( ", compression" );
+		}
+		if ( this.has( ConnectionOptions.STRING_TABLE ) ) {
+			stringBuilder.append( ", string table" );
+		}
+		return stringBuilder.append( ", max payload " ).append( this.maxPayloadSize ).append( "B]" ).toString();
+	}
+
+}
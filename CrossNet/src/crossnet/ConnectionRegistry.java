@@ -0,0 +1,190 @@
+package crossnet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The current {@link Connection}s of a {@link CrossNetServer}, by ID.
+ * <p>
+ * The Connections are kept in a slot array indexed by the slot of their ID (see {@link ConnectionIDGenetator}), so IDs
+ * are not boxed, and lookups are a bounds check and an ID compare. Slots of removed Connections are reused, so memory
+ * stays constant under churn.
+ * <p>
+ * Adding and removing are synchronized. Lookups and iteration are lock free: iteration runs over a snapshot array,
+ * which is rebuilt on the first read after a change. Connections may therefore be added or removed, e.g. closed, while
+ * iterating.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ConnectionRegistry implements Iterable< Connection > {
+
+	private static final Connection[] EMPTY = new Connection[0];
+
+	/**
+	 * Generates the IDs.
+	 */
+	private final ConnectionIDGenetator connectionIDGenetator = new ConnectionIDGenetator();
+
+	/**
+	 * The Connections by slot. Replaced when grown.
+	 */
+	private volatile AtomicReferenceArray< Connection > slots = new AtomicReferenceArray<>( 16 );
+
+	/**
+	 * The current Connections, or {@code null} if changed since last built.
+	 */
+	private volatile Connection[] snapshot = ConnectionRegistry.EMPTY;
+
+	private volatile int size = 0;
+
+	/**
+	 * Adds a Connection, and assigns it a new ID.
+	 * 
+	 * @param connection
+	 *            The Connection to add.
+	 * @return The ID assigned.
+	 */
+	public synchronized int add( Connection connection ) {
+		if ( connection == null ) {
+			throw new IllegalArgumentException( "connection cannot be null." );
+		}
+
+		int id = this.connectionIDGenetator.getNextId();
+		int slot = ConnectionIDGenetator.slotOf( id );
+		AtomicReferenceArray< Connection > current = this.slots;
+		if ( slot >= current.length() ) {
+			AtomicReferenceArray< Connection > grown = new AtomicReferenceArray<>( Math.max( current.length() * 2, slot + 1 ) );
+			for ( int i = 0; i < current.length(); i++ ) {
+				grown.lazySet( i, current.get( i ) );
+			}
+			current = grown;
+		}
+
+		connection.setID( id );
+		current.set( slot, connection );
+		this.slots = current;
+		this.size++;
+		this.snapshot = null;
+		return id;
+	}
+
+	/**
+	 * Removes a Connection, and releases its ID for reuse.
+	 * 
+	 * @param connection
+	 *            The Connection to remove.
+	 * @return {@code True} iff the Connection was present.
+	 */
+	public synchronized boolean remove( Connection connection ) {
+		if ( connection == null ) {
+			return false;
+		}
+
+		int id = connection.getID();
+		if ( this.get( id ) != connection ) {
+			return false;
+		}
+
+		this.slots.set( ConnectionIDGenetator.slotOf( id ), null );
+		this.connectionIDGenetator.releaseId( id );
+		this.size--;
+		this.snapshot = null;
+		return true;
+	}
+
+	/**
+	 * Gets a Connection by ID.
+	 * 
+	 * @param id
+	 *            The ID.
+	 * @return The Connection, or {@code null} if no current Connection has that ID.
+	 */
+	public Connection get( int id ) {
+		if ( id <= 0 ) {
+			return null;
+		}
+		AtomicReferenceArray< Connection > current = this.slots;
+		int slot = ConnectionIDGenetator.slotOf( id );
+		if ( slot >= current.length() ) {
+			return null;
+		}
+		Connection connection = current.get( slot );
+		if ( ( connection == null ) || ( connection.getID() != id ) ) {
+			// Empty, or reused by a newer Connection.
+			return null;
+		}
+		return connection;
+	}
+
+	/**
+	 * Gets the number of current Connections.
+	 * 
+	 * @return The number of current Connections.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the current Connections.
+	 * <p>
+	 * The array is shared by all callers until the next change, so it must not be modified.
+	 * 
+	 * @return The current Connections, in slot order.
+	 */
+	Connection[] snapshot() {
+		Connection[] current = this.snapshot;
+		if ( current != null ) {
+			return current;
+		}
+
+		synchronized ( this ) {
+			if ( this.snapshot == null ) {
+				AtomicReferenceArray< Connection > slots = this.slots;
+				Connection[] connections = new Connection[this.size];
+				int index = 0;
+				for ( int i = 0; ( i < slots.length() ) && ( index < connections.length ); i++ ) {
+					Connection connection = slots.get( i );
+					if ( connection != null ) {
+						connections[index++] = connection;
+					}
+				}
+				this.snapshot = connections;
+			}
+			return this.snapshot;
+		}
+	}
+
+	/**
+	 * Iterates over a snapshot of the current Connections. Removing through the Iterator is not supported.
+	 */
+	@Override
+	public Iterator< Connection > iterator() {
+		final Connection[] connections = this.snapshot();
+		return new Iterator< Connection >() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.index < connections.length;
+			}
+
+			@Override
+			public Connection next() {
+				if ( this.index >= connections.length ) {
+					throw new NoSuchElementException();
+				}
+				return connections[this.index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException( "Close the Connection instead." );
+			}
+		};
+	}
+
+}
@@ -12,10 +12,13 @@ import java.util.Iterator;
 import java.util.Set;
 
 import crossnet.listener.ConnectionListener;
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
 import crossnet.message.Message;
 import crossnet.message.crossnet.messages.KeepAliveMessage;
 import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.metrics.DisconnectReason;
+import crossnet.metrics.UpdateWatchdog;
 
 /**
  * Client for CrossNet.
@@ -70,7 +73,8 @@ public class CrossNetClient extends LocalEndPoint {
 		}
 
 		this.connection = new Connection();
-		TransportLayer transportLayer = new TcpTransportLayer( this.connection, this.messageParser );
+		TransportLayer transportLayer = new TcpTransportLayer( this.connection, this.messageParser, this.flyweightRegistry, this.latencyTracer );
+		transportLayer.rpcHandlerRegistry = this.rpcHandlerRegistry;
 		this.connection.initialize( transportLayer );
 	}
 
@@ -125,6 +129,12 @@ public class CrossNetClient extends LocalEndPoint {
 		synchronized ( this.updateLock ) {
 			// Block to avoid select while connecting.
 		}
+		NetworkEventListener eventListener = this.networkEventListener;
+		UpdateWatchdog watchdog = this.updateWatchdog;
+		if ( watchdog != null ) {
+			watchdog.beforeSelect();
+		}
+		long selectStart = ( eventListener != null ) ? System.nanoTime() : 0;
 		long updateTime = 0;
 		int selects = 0;
 		if ( 0 < timeout ) {
@@ -133,12 +143,16 @@ public class CrossNetClient extends LocalEndPoint {
 		} else {
 			selects = this.selector.selectNow();
 		}
+		long processStart = ( eventListener != null ) ? System.nanoTime() : 0;
+		if ( watchdog != null ) {
+			watchdog.afterSelect();
+		}
 		if ( selects == 0 ) {
 			if ( ( updateTime > 0 ) && ( System.currentTimeMillis() < ( updateTime + ( timeout / 2 ) ) ) ) {
 				Log.debug( "CrossNet", "Update got 0 selects rather quickly." );
 			}
 		} else {
-			Log.trace( "CrossNet", "Update got " + selects + " select(s)." );
+			Log.trace( "CrossNet", "Update got {} select(s).", selects );
 			Set< SelectionKey > selectedKeys = this.selector.selectedKeys();
 			synchronized ( selectedKeys ) {
 				Iterator< SelectionKey > keyIterator = selectedKeys.iterator();
@@ -158,17 +172,28 @@ public class CrossNetClient extends LocalEndPoint {
 					} catch ( CancelledKeyException e ) {
 						// Connection closed.
 						Log.trace( "CrossNet", "Connection closed." );
+					} catch ( IOException e ) {
+						// Record why, before the update thread closes.
+						this.connection.close( DisconnectReason.of( e ) );
+						throw e;
 					}
 				}
 			}
 		}
 
+		if ( watchdog != null ) {
+			watchdog.setCurrentConnection( this.connection );
+		}
 		if ( this.connection.isConnected() ) {
 			long time = System.currentTimeMillis();
 			if ( this.connection.getTransportLayer().isTimedOut( time ) ) {
 				Log.debug( "CrossNet", this.connection + " timed out." );
-				this.close();
+				if ( eventListener != null ) {
+					eventListener.timedOut( this.connection );
+				}
+				this.connection.close( DisconnectReason.TIMEOUT );
 			} else {
+				this.connection.expireRequests( time );
 				this.ping();
 				this.keepAlive();
 			}
@@ -176,6 +201,10 @@ public class CrossNetClient extends LocalEndPoint {
 				this.connection.notifyIdle();
 			}
 		}
+
+		if ( eventListener != null ) {
+			eventListener.updated( selects, processStart - selectStart, System.nanoTime() - processStart );
+		}
 	}
 
 	/**
@@ -311,17 +340,28 @@ public class CrossNetClient extends LocalEndPoint {
 	 *             If a read error occurs.
 	 */
 	private void read() throws IOException {
+		NetworkEventListener eventListener = this.networkEventListener;
+		long readStart = 0;
+		long bytesBefore = 0;
+		if ( eventListener != null ) {
+			readStart = System.nanoTime();
+			bytesBefore = this.connection.getMetrics().getBytesRead();
+		}
+		int messages = 0;
 		while ( true ) {
 			Message message = this.connection.getTransportLayer().read();
 			if ( message == null ) {
 				// No more messages could be read.
 				break;
 			}
+			messages++;
 
 			if ( !this.registered ) {
 				if ( message instanceof RegisterMessage ) {
 					RegisterMessage registerMessage = (RegisterMessage) message;
 					this.connection.setID( registerMessage.getId() );
+					this.connection.setSnapshotHistorySize( this.snapshotHistorySize );
+					this.connection.getTransportLayer().offerConnectionOptions( this.connectionOptions );
 					synchronized ( this.registrationLock ) {
 						this.registered = true;
 						this.registrationLock.notifyAll();
@@ -338,6 +378,9 @@ public class CrossNetClient extends LocalEndPoint {
 
 			this.connection.notifyReceived( message );
 		}
+		if ( eventListener != null ) {
+			eventListener.readBatch( this.connection, (int) ( this.connection.getMetrics().getBytesRead() - bytesBefore ), messages, System.nanoTime() - readStart );
+		}
 	}
 
 	/**
@@ -352,6 +395,12 @@ public class CrossNetClient extends LocalEndPoint {
 		this.connection.getTransportLayer().write();
 	}
 
+	@Override
+	public void setNetworkEventListener( NetworkEventListener networkEventListener ) {
+		super.setNetworkEventListener( networkEventListener );
+		this.connection.getTransportLayer().networkEventListener = networkEventListener;
+	}
+
 	/**
 	 * Gets the Connection to the {@link CrossNetServer}.
 	 * 
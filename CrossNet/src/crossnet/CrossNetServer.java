@@ -2,22 +2,29 @@ package crossnet;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
+import crossnet.interest.InterestGrid;
 import crossnet.listener.ConnectionListener;
 import crossnet.listener.ConnectionListenerHandler;
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
 import crossnet.message.Message;
 import crossnet.message.crossnet.messages.KeepAliveMessage;
 import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.metrics.ConnectionMetrics;
+import crossnet.metrics.DisconnectReason;
+import crossnet.metrics.ServerMetrics;
+import crossnet.metrics.UpdateWatchdog;
+import crossnet.replication.ReplicationRegistry;
 
 /**
  * Server for CrossNet.
@@ -33,14 +40,9 @@ public class CrossNetServer extends LocalEndPoint {
 	private final Selector selector;
 
 	/**
-	 * Generates the IDs used to identify {@link Connection}s.
+	 * The current {@link Connection}s. Also assigns their IDs.
 	 */
-	private final ConnectionIDGenetator connectionIDGenetator = new ConnectionIDGenetator();
-
-	/**
-	 * Map of the current {@link Connection}s.
-	 */
-	protected Map< Integer, Connection > connections = new HashMap<>();
+	protected final ConnectionRegistry connections = new ConnectionRegistry();
 
 	/**
 	 * The socket for incoming {@link Connection}s.
@@ -56,10 +58,30 @@ public class CrossNetServer extends LocalEndPoint {
 		public void disconnected( Connection connection ) {
 			// Remove the reference to the disconnected Connection.
 			CrossNetServer.this.connections.remove( connection );
+			CrossNetServer.this.metrics.connectionClosed( connection );
+			InterestGrid grid = CrossNetServer.this.interestGrid;
+			if ( grid != null ) {
+				grid.remove( connection );
+			}
 			super.disconnected( connection );
 		}
 	};
 
+	/**
+	 * The traffic counters of all Connections.
+	 */
+	private final ServerMetrics metrics = new ServerMetrics();
+
+	/**
+	 * The spatial interest manager used by {@link #sendToArea(float, float, float, Message)}, if any.
+	 */
+	private volatile InterestGrid interestGrid;
+
+	/**
+	 * The ReplicationRegistry driven by this, if any.
+	 */
+	private volatile ReplicationRegistry replicationRegistry;
+
 	public CrossNetServer() {
 		try {
 			this.selector = Selector.open();
@@ -86,11 +108,10 @@ public class CrossNetServer extends LocalEndPoint {
 			Log.info( "CrossNet", "Closing server connections..." );
 		}
 
-		Iterator< Connection > connectionIterator = this.connections.values().iterator();
-		while ( connectionIterator.hasNext() ) {
-			Connection connection = connectionIterator.next();
-			connectionIterator.remove();
+		for ( Connection connection : this.connections.snapshot() ) {
 			connection.close();
+			// Already removed if it was connected.
+			this.connections.remove( connection );
 		}
 
 		if ( this.serverSocketChannel != null ) {
@@ -117,6 +138,7 @@ public class CrossNetServer extends LocalEndPoint {
 	public void dispose() throws IOException {
 		this.close();
 		this.selector.close();
+		this.metrics.unregisterMBeans();
 	}
 
 	@Override
@@ -137,6 +159,17 @@ public class CrossNetServer extends LocalEndPoint {
 		synchronized ( this.updateLock ) {
 			// Block to avoid select while binding.
 		}
+		ReplicationRegistry registry = this.replicationRegistry;
+		if ( ( registry != null ) && ( 0 < timeout ) ) {
+			// Wake up in time for the next replication pass.
+			timeout = (int) Math.min( timeout, registry.getMillisUntilNextTick( System.currentTimeMillis() ) );
+		}
+		NetworkEventListener eventListener = this.networkEventListener;
+		UpdateWatchdog watchdog = this.updateWatchdog;
+		if ( watchdog != null ) {
+			watchdog.beforeSelect();
+		}
+		long selectStart = ( eventListener != null ) ? System.nanoTime() : 0;
 		long updateTime = 0;
 		int selects = 0;
 		if ( 0 < timeout ) {
@@ -145,12 +178,16 @@ public class CrossNetServer extends LocalEndPoint {
 		} else {
 			selects = this.selector.selectNow();
 		}
+		long processStart = ( eventListener != null ) ? System.nanoTime() : 0;
+		if ( watchdog != null ) {
+			watchdog.afterSelect();
+		}
 		if ( selects == 0 ) {
 			if ( ( updateTime > 0 ) && ( System.currentTimeMillis() < ( updateTime + ( timeout / 2 ) ) ) ) {
 				Log.trace( "CrossNet", "Update got 0 selects rather quickly." );
 			}
 		} else {
-			Log.trace( "CrossNet", "Update got " + selects + " select(s)." );
+			Log.trace( "CrossNet", "Update got {} select(s).", selects );
 			Set< SelectionKey > selectedKeys = this.selector.selectedKeys();
 			synchronized ( selectedKeys ) {
 				Iterator< SelectionKey > keyIterator = selectedKeys.iterator();
@@ -160,6 +197,10 @@ public class CrossNetServer extends LocalEndPoint {
 					SelectionKey key = keyIterator.next();
 					keyIterator.remove();
 
+					if ( watchdog != null ) {
+						watchdog.setCurrentConnection( (Connection) key.attachment() );
+					}
+
 					try {
 						if ( key.isAcceptable() ) {
 							this.accept( key );
@@ -173,7 +214,7 @@ public class CrossNetServer extends LocalEndPoint {
 					} catch ( CancelledKeyException e ) {
 						Connection connection = (Connection) key.attachment();
 						if ( connection != null ) {
-							connection.close();
+							connection.close( DisconnectReason.ERROR );
 						} else {
 							key.cancel();
 							key.channel().close();
@@ -184,10 +225,22 @@ public class CrossNetServer extends LocalEndPoint {
 		}
 
 		long time = System.currentTimeMillis();
-		for ( Connection connection : this.connections.values() ) {
+		List< Connection > timedOut = null;
+		for ( Connection connection : this.connections.snapshot() ) {
+			if ( watchdog != null ) {
+				watchdog.setCurrentConnection( connection );
+			}
 			if ( connection.getTransportLayer().isTimedOut( time ) ) {
 				Log.debug( "CrossNet", connection + " timed out." );
+				if ( eventListener != null ) {
+					eventListener.timedOut( connection );
+				}
+				if ( timedOut == null ) {
+					timedOut = new ArrayList<>();
+				}
+				timedOut.add( connection );
 			} else {
+				connection.expireRequests( time );
 				if ( connection.getTransportLayer().needsPing( time ) ) {
 					connection.getTransportLayer().requestPingRoundTripTimeUpdate();
 				} else if ( connection.getTransportLayer().needsKeepAlive( time ) ) {
@@ -199,6 +252,19 @@ public class CrossNetServer extends LocalEndPoint {
 				connection.notifyIdle();
 			}
 		}
+		if ( timedOut != null ) {
+			for ( Connection connection : timedOut ) {
+				connection.close( DisconnectReason.TIMEOUT );
+			}
+		}
+
+		if ( registry != null ) {
+			registry.replicate( time );
+		}
+
+		if ( eventListener != null ) {
+			eventListener.updated( selects, processStart - selectStart, System.nanoTime() - processStart );
+		}
 	}
 
 	/**
@@ -245,7 +311,7 @@ public class CrossNetServer extends LocalEndPoint {
 	 */
 	private void ping() {
 		long time = System.currentTimeMillis();
-		for ( Connection connection : this.connections.values() ) {
+		for ( Connection connection : this.connections.snapshot() ) {
 			if ( connection.getTransportLayer().needsPing( time ) ) {
 				connection.getTransportLayer().requestPingRoundTripTimeUpdate();
 			}
@@ -259,7 +325,7 @@ public class CrossNetServer extends LocalEndPoint {
 	 */
 	private void keepAlive() {
 		long time = System.currentTimeMillis();
-		for ( Connection connection : this.connections.values() ) {
+		for ( Connection connection : this.connections.snapshot() ) {
 			if ( connection.getTransportLayer().needsKeepAlive( time ) ) {
 				KeepAliveMessage keepAliveMessage = new KeepAliveMessage();
 				connection.send( keepAliveMessage );
@@ -291,22 +357,35 @@ public class CrossNetServer extends LocalEndPoint {
 
 			// Create and initialise Connection
 			Connection connection = this.newConnection();
-			TransportLayer transportLayer = new TcpTransportLayer( connection, this.messageParser );
+			TransportLayer transportLayer = new TcpTransportLayer( connection, this.messageParser, this.flyweightRegistry, this.latencyTracer );
+			transportLayer.networkEventListener = this.networkEventListener;
+			transportLayer.rpcHandlerRegistry = this.rpcHandlerRegistry;
+			transportLayer.supportedConnectionOptions = this.connectionOptions;
 			connection.initialize( transportLayer );
-
-			int id = this.connectionIDGenetator.getNextId();
-			connection.setID( id );
+			connection.setSnapshotHistorySize( this.snapshotHistorySize );
 
 			connection.addConnectionListener( this.connectionListenerHandler );
 
 			// Make TCP accept and attach Connection to SelectionKey
 			TcpTransportLayer tcpTransportLayer = (TcpTransportLayer) connection.getTransportLayer();
 			SelectionKey selectionKey = tcpTransportLayer.accept( this.selector, socketChannel );
+
+			// Store Connection, which assigns its ID
+			try {
+				this.connections.add( connection );
+			} catch ( IllegalStateException e ) {
+				Log.warn( "CrossNet", "Unable to accept incomming connection: " + e.getMessage() );
+				selectionKey.cancel();
+				socketChannel.close();
+				return;
+			}
 			selectionKey.attach( connection );
 			connection.setConnected( true );
-
-			// Store Connection
-			this.connections.put( id, connection );
+			this.metrics.connectionOpened( connection );
+			NetworkEventListener eventListener = this.networkEventListener;
+			if ( eventListener != null ) {
+				eventListener.accepted( connection );
+			}
 
 			// Start registration process
 			RegisterMessage registerMessage = new RegisterMessage( connection.getID() );
@@ -331,6 +410,14 @@ public class CrossNetServer extends LocalEndPoint {
 		Connection connection = (Connection) key.attachment();
 
 		if ( connection != null ) {
+			NetworkEventListener eventListener = connection.getTransportLayer().networkEventListener;
+			long readStart = 0;
+			long bytesBefore = 0;
+			if ( eventListener != null ) {
+				readStart = System.nanoTime();
+				bytesBefore = connection.getMetrics().getBytesRead();
+			}
+			int messages = 0;
 			try {
 				// Read all the Messages !
 				while ( true ) {
@@ -339,15 +426,19 @@ public class CrossNetServer extends LocalEndPoint {
 						// No more messages could be read.
 						break;
 					}
+					messages++;
 					connection.notifyReceived( message );
 				}
+				if ( eventListener != null ) {
+					eventListener.readBatch( connection, (int) ( connection.getMetrics().getBytesRead() - bytesBefore ), messages, System.nanoTime() - readStart );
+				}
 			} catch ( IOException e ) {
 				if ( Log.TRACE ) {
 					Log.trace( "CrossNet", "Unable to read from connection: " + connection, e );
 				} else if ( Log.DEBUG ) {
 					Log.debug( "CrossNet", connection + " update: " + e.getMessage() );
 				}
-				connection.close();
+				connection.close( DisconnectReason.of( e ) );
 			}
 		} else {
 			Log.error( "CrossNet", "CrossNetServer cannot write when Connection is null." );
@@ -374,7 +465,7 @@ public class CrossNetServer extends LocalEndPoint {
 				} else if ( Log.DEBUG ) {
 					Log.debug( "CrossNet", connection + " update: " + e.getMessage() );
 				}
-				connection.close();
+				connection.close( DisconnectReason.of( e ) );
 			}
 		} else {
 			Log.error( "CrossNet", "CrossNetServer cannot write when Connection is null." );
@@ -391,12 +482,90 @@ public class CrossNetServer extends LocalEndPoint {
 		return new Connection();
 	}
 
+	@Override
+	public void setNetworkEventListener( NetworkEventListener networkEventListener ) {
+		super.setNetworkEventListener( networkEventListener );
+		for ( Connection connection : this.connections.snapshot() ) {
+			connection.getTransportLayer().networkEventListener = networkEventListener;
+		}
+	}
+
+	/**
+	 * Gets the traffic counters of all Connections, past and present.
+	 * 
+	 * @return The ServerMetrics.
+	 */
+	public ServerMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Exports the {@link ServerMetrics} of this, and the {@link ConnectionMetrics} of every Connection accepted from now
+	 * on, to the platform MBeanServer.
+	 * <p>
+	 * The server is exported as {@code crossnet:type=CrossNetServer,name=<name>}, and each Connection as
+	 * {@code crossnet:type=Connection,server=<name>,id=<id>}.
+	 * 
+	 * @param name
+	 *            The name to export under.
+	 */
+	public void enableJmx( String name ) {
+		if ( name == null ) {
+			throw new IllegalArgumentException( "name cannot be null." );
+		}
+		this.metrics.registerMBeans( name );
+	}
+
+	/**
+	 * Sets the ReplicationRegistry to drive. Its replication passes are performed by {@link #update(int)}.
+	 * 
+	 * @param replicationRegistry
+	 *            The ReplicationRegistry. Set to {@code null} to disable.
+	 */
+	public void setReplicationRegistry( ReplicationRegistry replicationRegistry ) {
+		if ( this.replicationRegistry != null ) {
+			this.connectionListenerHandler.removeConnectionListener( this.replicationRegistry );
+		}
+		this.replicationRegistry = replicationRegistry;
+		if ( replicationRegistry != null ) {
+			this.connectionListenerHandler.addConnectionListener( replicationRegistry );
+			for ( Connection connection : this.connections.snapshot() ) {
+				replicationRegistry.connected( connection );
+			}
+		}
+	}
+
+	/**
+	 * Sets the spatial interest manager used by {@link #sendToArea(float, float, float, Message)}.
+	 * <p>
+	 * The positions of the Connections must be kept up to date through the InterestGrid. Disconnected Connections are
+	 * removed from it automatically, and later updates of their positions are ignored.
+	 * 
+	 * @param interestGrid
+	 *            The InterestGrid. Set to {@code null} to disable.
+	 */
+	public void setInterestGrid( InterestGrid interestGrid ) {
+		if ( interestGrid != null ) {
+			interestGrid.setConnectionRegistry( this.connections );
+		}
+		this.interestGrid = interestGrid;
+	}
+
+	/**
+	 * Gets the spatial interest manager.
+	 * 
+	 * @return The InterestGrid, or {@code null} if none is set.
+	 */
+	public InterestGrid getInterestGrid() {
+		return this.interestGrid;
+	}
+
 	/**
 	 * Gets the current Connections.
 	 * 
 	 * @return The current Connections.
 	 */
-	public Map< Integer, Connection > getConnections() {
+	public ConnectionRegistry getConnections() {
 		return this.connections;
 	}
 
@@ -407,7 +576,45 @@ public class CrossNetServer extends LocalEndPoint {
 	 *            The Message to broadcast.
 	 */
 	public void sendToAll( Message message ) {
-		for ( Connection connection : this.connections.values() ) {
+		for ( Connection connection : this.connections.snapshot() ) {
+			connection.send( message );
+		}
+	}
+
+	/**
+	 * Broadcasts a snapshot to all Connections.
+	 * 
+	 * @see Connection#sendSnapshot(Message)
+	 * @param message
+	 *            The snapshot to broadcast.
+	 */
+	public void sendSnapshotToAll( Message message ) {
+		for ( Connection connection : this.connections.snapshot() ) {
+			connection.sendSnapshot( message );
+		}
+	}
+
+	/**
+	 * Sends a Message to all Connections within range of a position, according to the {@link InterestGrid}.
+	 * 
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 * @param range
+	 *            The range.
+	 * @param message
+	 *            The Message to send.
+	 */
+	public void sendToArea( float x, float y, float range, Message message ) {
+		InterestGrid grid = this.interestGrid;
+		if ( grid == null ) {
+			throw new IllegalStateException( "No InterestGrid set." );
+		}
+
+		List< Connection > recipients = new ArrayList<>();
+		grid.getConnectionsInRange( x, y, range, recipients );
+		for ( Connection connection : recipients ) {
 			connection.send( message );
 		}
 	}
@@ -421,7 +628,7 @@ public class CrossNetServer extends LocalEndPoint {
 	 *            The Message to send.
 	 */
 	public void sendToAllExcept( int id, Message message ) {
-		for ( Connection connection : this.connections.values() ) {
+		for ( Connection connection : this.connections.snapshot() ) {
 			if ( connection.getID() == id ) {
 				// Skip
 				continue;
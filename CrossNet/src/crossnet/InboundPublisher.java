@@ -0,0 +1,253 @@
+package crossnet;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import crossnet.flow.Publisher;
+import crossnet.flow.Subscriber;
+import crossnet.flow.Subscription;
+import crossnet.log.Log;
+import crossnet.message.Message;
+
+/**
+ * Publishes the Messages received by a {@link Connection}, to one {@link Subscriber} at a time. See
+ * {@link Connection#getInboundPublisher()}.
+ * <p>
+ * While the Subscriber has no demand, the Connection stops reading from its socket. The Messages already read are
+ * held, at most a read buffer of them, and the rest wait in the socket buffers, such that TCP flow control pushes back
+ * on the sender. Pausing does not hold back the {@link ConnectionListener}s, which are notified of the Messages held
+ * as they are parsed.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+class InboundPublisher implements Publisher< Message > {
+
+	private final Connection connection;
+
+	/**
+	 * The current InboundSubscription, or {@code null} if none.
+	 */
+	private final AtomicReference< InboundSubscription > subscription = new AtomicReference<>();
+
+	/**
+	 * {@code True} iff the Connection is closed, until it connects again.
+	 */
+	private volatile boolean closed = false;
+
+	InboundPublisher( final Connection connection ) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void subscribe( Subscriber< ? super Message > subscriber ) {
+		if ( subscriber == null ) {
+			throw new NullPointerException( "Subscriber cannot be null." );
+		}
+
+		InboundSubscription inboundSubscription = new InboundSubscription( subscriber );
+		if ( !this.subscription.compareAndSet( null, inboundSubscription ) ) {
+			subscriber.onSubscribe( InboundPublisher.CANCELLED );
+			subscriber.onError( new IllegalStateException( this.connection + " already has a Subscriber." ) );
+			return;
+		}
+
+		subscriber.onSubscribe( inboundSubscription );
+		if ( this.closed ) {
+			// Closed before, or meanwhile; the Subscriber is completed right away.
+			inboundSubscription.done = true;
+		}
+		// Stops reading, until there is demand.
+		inboundSubscription.drain();
+	}
+
+	/**
+	 * Publishes a Message received. Called by the update thread.
+	 * 
+	 * @param message
+	 *            The Message received.
+	 */
+	void offer( Message message ) {
+		InboundSubscription inboundSubscription = this.subscription.get();
+		if ( inboundSubscription != null ) {
+			inboundSubscription.queue.add( message );
+			inboundSubscription.drain();
+		}
+	}
+
+	/**
+	 * Reconsiders reading, as the Connection is now connected.
+	 */
+	void connected() {
+		this.closed = false;
+		InboundSubscription inboundSubscription = this.subscription.get();
+		if ( inboundSubscription != null ) {
+			inboundSubscription.drain();
+		}
+	}
+
+	/**
+	 * Completes the Subscriber, once the Messages held are delivered, as the Connection is closed. Subscribers until it
+	 * connects again are completed right away.
+	 */
+	void complete() {
+		this.closed = true;
+		InboundSubscription inboundSubscription = this.subscription.get();
+		if ( inboundSubscription != null ) {
+			inboundSubscription.done = true;
+			inboundSubscription.drain();
+		}
+	}
+
+	/**
+	 * The Subscription given to rejected Subscribers.
+	 */
+	private static final Subscription CANCELLED = new Subscription() {
+
+		@Override
+		public void request( long n ) {
+			// Nothing to deliver
+		}
+
+		@Override
+		public void cancel() {
+			// Nothing to cancel
+		}
+	};
+
+	/**
+	 * The Subscription of the current Subscriber.
+	 * <p>
+	 * The signals are serialised by a drain loop, which whichever thread gets there first runs, on behalf of the others.
+	 * The loop also decides whether the Connection reads, such that the last decision is made on the latest demand.
+	 */
+	private class InboundSubscription implements Subscription {
+
+		private final Subscriber< ? super Message > subscriber;
+
+		/**
+		 * The Messages not yet delivered.
+		 */
+		final Queue< Message > queue = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * The outstanding demand, capped at {@link Long#MAX_VALUE}.
+		 */
+		private final AtomicLong requested = new AtomicLong();
+
+		/**
+		 * The number of drain requests missed by the running drain loop; non zero iff it is running.
+		 */
+		private final AtomicInteger wip = new AtomicInteger();
+
+		/**
+		 * {@code True} iff the Connection is closed.
+		 */
+		volatile boolean done = false;
+
+		/**
+		 * {@code True} iff cancelled, or the Subscriber is signalled to be done.
+		 */
+		private volatile boolean cancelled = false;
+
+		/**
+		 * The error to signal, if the demand was illegal.
+		 */
+		private volatile Throwable error;
+
+		InboundSubscription( final Subscriber< ? super Message > subscriber ) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request( long n ) {
+			if ( n <= 0 ) {
+				this.error = new IllegalArgumentException( "Demand must be positive, was: " + n );
+			} else {
+				long current;
+				long next;
+				do {
+					current = this.requested.get();
+					next = current + n;
+					if ( next < 0 ) {
+						next = Long.MAX_VALUE;
+					}
+				} while ( !this.requested.compareAndSet( current, next ) );
+			}
+			this.drain();
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			this.drain();
+		}
+
+		void drain() {
+			if ( this.wip.getAndIncrement() != 0 ) {
+				// The running loop will go again.
+				return;
+			}
+
+			int missed = 1;
+			do {
+				if ( !this.cancelled ) {
+					this.deliver();
+				}
+
+				if ( this.cancelled ) {
+					this.queue.clear();
+					InboundPublisher.this.subscription.compareAndSet( this, null );
+					InboundPublisher.this.connection.getTransportLayer().pauseReading( false );
+				} else {
+					boolean pause = ( this.requested.get() == 0 ) && InboundPublisher.this.connection.isConnected();
+					InboundPublisher.this.connection.getTransportLayer().pauseReading( pause );
+				}
+
+				missed = this.wip.addAndGet( -missed );
+			} while ( missed != 0 );
+		}
+
+		/**
+		 * Delivers the Messages held, as far as the demand goes, and signals the end if due.
+		 */
+		private void deliver() {
+			Throwable throwable = this.error;
+			if ( throwable != null ) {
+				this.cancelled = true;
+				this.subscriber.onError( throwable );
+				return;
+			}
+
+			long demand = this.requested.get();
+			long emitted = 0;
+			while ( ( emitted != demand ) && !this.cancelled ) {
+				Message message = this.queue.poll();
+				if ( message == null ) {
+					break;
+				}
+				try {
+					this.subscriber.onNext( message );
+				} catch ( RuntimeException e ) {
+					Log.error( "CrossNet", "Error in Subscriber of " + InboundPublisher.this.connection + ", cancelling:", e );
+					this.cancelled = true;
+					return;
+				}
+				emitted++;
+			}
+			if ( ( emitted > 0 ) && ( demand != Long.MAX_VALUE ) ) {
+				this.requested.addAndGet( -emitted );
+			}
+
+			if ( this.done && this.queue.isEmpty() && !this.cancelled ) {
+				this.cancelled = true;
+				this.subscriber.onComplete();
+			}
+		}
+
+	}
+
+}
@@ -3,10 +3,17 @@ package crossnet;
 import java.io.IOException;
 
 import crossnet.listener.ConnectionListener;
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
 import crossnet.message.Message;
 import crossnet.message.MessageParser;
 import crossnet.message.crossnet.CrossNetMessageParser;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.delta.DeltaEncoder;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.metrics.LatencyTracer;
+import crossnet.metrics.UpdateWatchdog;
+import crossnet.rpc.RpcHandlerRegistry;
 
 /**
  * The local end point that manages communication.
@@ -21,6 +28,41 @@ public abstract class LocalEndPoint implements Runnable {
 	 */
 	protected final MessageParser messageParser = new CrossNetMessageParser();
 
+	/**
+	 * Decodes the {@link FlyweightMessage}s received.
+	 */
+	protected final FlyweightRegistry flyweightRegistry = new FlyweightRegistry();
+
+	/**
+	 * Handles the remote procedure calls received.
+	 */
+	protected final RpcHandlerRegistry rpcHandlerRegistry = new RpcHandlerRegistry();
+
+	/**
+	 * Traces the latency of the {@link Message}s passing through this.
+	 */
+	protected final LatencyTracer latencyTracer = new LatencyTracer();
+
+	/**
+	 * Listener for the events of the network hot paths, if any.
+	 */
+	protected volatile NetworkEventListener networkEventListener;
+
+	/**
+	 * Watches the update thread for blocked iterations, if enabled.
+	 */
+	protected volatile UpdateWatchdog updateWatchdog;
+
+	/**
+	 * The options of the Connections this supports.
+	 */
+	protected volatile ConnectionOptions connectionOptions = ConnectionOptions.LEGACY;
+
+	/**
+	 * The number of snapshots remembered per Connection for the delta compression.
+	 */
+	protected volatile int snapshotHistorySize = DeltaEncoder.DEFAULT_HISTORY_SIZE;
+
 	/**
 	 * {@code True} iff the update thread is running.
 	 */
@@ -50,6 +92,116 @@ public abstract class LocalEndPoint implements Runnable {
 		return this.messageParser;
 	}
 
+	/**
+	 * Gets the FlyweightRegistry that decodes the {@link FlyweightMessage}s received. Register the Flyweights of the
+	 * received templates with it, before connecting.
+	 * 
+	 * @return The FlyweightRegistry.
+	 */
+	public FlyweightRegistry getFlyweightRegistry() {
+		return this.flyweightRegistry;
+	}
+
+	/**
+	 * Gets the RpcHandlerRegistry that handles the remote procedure calls received. See
+	 * {@link Connection#request(Message, int)}.
+	 * 
+	 * @return The RpcHandlerRegistry.
+	 */
+	public RpcHandlerRegistry getRpcHandlerRegistry() {
+		return this.rpcHandlerRegistry;
+	}
+
+	/**
+	 * Gets the LatencyTracer for the {@link Message}s passing through this. It is disabled by default.
+	 * 
+	 * @return The LatencyTracer.
+	 */
+	public LatencyTracer getLatencyTracer() {
+		return this.latencyTracer;
+	}
+
+	/**
+	 * Sets the listener for the events of the network hot paths, of this and its {@link Connection}s.
+	 * 
+	 * @param networkEventListener
+	 *            The NetworkEventListener. Set to {@code null} to disable.
+	 */
+	public void setNetworkEventListener( NetworkEventListener networkEventListener ) {
+		this.networkEventListener = networkEventListener;
+	}
+
+	/**
+	 * Sets the options of the Connections this supports. They are negotiated with the remote end, when Connections are
+	 * established from now on. Peers that do not negotiate get the {@link ConnectionOptions#LEGACY} options. Servers that
+	 * do not know negotiation log an error for the offer, see {@link crossnet.message.crossnet.messages.HandshakeMessage}.
+	 * <p>
+	 * Default is {@link ConnectionOptions#LEGACY}; i.e. nothing is negotiated.
+	 * 
+	 * @param connectionOptions
+	 *            The ConnectionOptions.
+	 */
+	public void setConnectionOptions( ConnectionOptions connectionOptions ) {
+		if ( connectionOptions == null ) {
+			throw new IllegalArgumentException( "connectionOptions cannot be null." );
+		}
+		this.connectionOptions = connectionOptions;
+	}
+
+	/**
+	 * Gets the options of the Connections this supports.
+	 * 
+	 * @return The ConnectionOptions.
+	 */
+	public ConnectionOptions getConnectionOptions() {
+		return this.connectionOptions;
+	}
+
+	/**
+	 * Sets the number of snapshots remembered per Connection for the delta compression; see
+	 * {@link Connection#sendSnapshot(Message)}. Applies to Connections established from now on, and must be the same
+	 * on both ends.
+	 * <p>
+	 * A snapshot is only sent as a delta while the last one acknowledged is still remembered, so this should exceed the
+	 * snapshot rate times the highest round trip time; e.g. 64 for 60 snapshots per second at up to 1 second.
+	 * Otherwise every snapshot is sent in full.
+	 * <p>
+	 * Default is {@link DeltaEncoder#DEFAULT_HISTORY_SIZE}.
+	 * 
+	 * @param snapshotHistorySize
+	 *            The number of snapshots. Rounded up to a power of two.
+	 */
+	public void setSnapshotHistorySize( int snapshotHistorySize ) {
+		this.snapshotHistorySize = DeltaEncoder.toHistorySize( snapshotHistorySize );
+	}
+
+	/**
+	 * Starts a watchdog that reports update iterations that exceed a time budget; e.g. because a listener blocks.
+	 * Replaces any existing watchdog.
+	 * 
+	 * @param budgetMillis
+	 *            The time budget of an iteration, in milliseconds.
+	 * @return The new UpdateWatchdog.
+	 */
+	public UpdateWatchdog enableWatchdog( int budgetMillis ) {
+		UpdateWatchdog watchdog = new UpdateWatchdog( budgetMillis );
+		this.disableWatchdog();
+		watchdog.start( "CrossNet watchdog" );
+		this.updateWatchdog = watchdog;
+		return watchdog;
+	}
+
+	/**
+	 * Stops the watchdog, if any.
+	 */
+	public void disableWatchdog() {
+		UpdateWatchdog watchdog = this.updateWatchdog;
+		if ( watchdog != null ) {
+			this.updateWatchdog = null;
+			watchdog.stop();
+		}
+	}
+
 	/**
 	 * Starts a new thread that drives the network {@link #run()} loop.
 	 * 
@@ -0,0 +1,97 @@
+package crossnet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import crossnet.flow.Subscriber;
+import crossnet.flow.Subscription;
+import crossnet.message.Message;
+
+/**
+ * Sends the Messages of a {@link crossnet.flow.Publisher} through a {@link Connection}. See
+ * {@link Connection#newOutboundSubscriber()}.
+ * <p>
+ * Keeps a window of {@value #WINDOW} Messages requested, and only replenishes it while the Connection is idle; i.e.
+ * while its send buffers are below the idle threshold. Otherwise it waits for the Connection to become idle, such that a
+ * slow socket pushes back on the Publisher rather than the Messages piling up in the send buffers.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+class OutboundSubscriber implements Subscriber< Message > {
+
+	/**
+	 * The number of Messages requested at most at once.
+	 */
+	static final int WINDOW = 64;
+
+	private final Connection connection;
+
+	private volatile Subscription subscription;
+
+	/**
+	 * The number of Messages sent while the Connection was not idle, and not yet requested again.
+	 */
+	private final AtomicInteger owed = new AtomicInteger();
+
+	OutboundSubscriber( final Connection connection ) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void onSubscribe( Subscription subscription ) {
+		if ( this.subscription != null ) {
+			// Only one Publisher.
+			subscription.cancel();
+			return;
+		}
+
+		this.subscription = subscription;
+		this.connection.addOutboundSubscriber( this );
+		subscription.request( OutboundSubscriber.WINDOW );
+	}
+
+	@Override
+	public void onNext( Message message ) {
+		this.connection.send( message );
+
+		if ( this.connection.getTransportLayer().isIdle() ) {
+			this.subscription.request( 1 );
+			return;
+		}
+
+		this.owed.incrementAndGet();
+		if ( this.connection.getTransportLayer().isIdle() ) {
+			// Became idle meanwhile, possibly missing the notification.
+			this.idle();
+		}
+	}
+
+	@Override
+	public void onError( Throwable throwable ) {
+		this.connection.removeOutboundSubscriber( this );
+	}
+
+	@Override
+	public void onComplete() {
+		this.connection.removeOutboundSubscriber( this );
+	}
+
+	/**
+	 * Replenishes the window, as the Connection is now idle. Called by the update thread.
+	 */
+	void idle() {
+		int n = this.owed.getAndSet( 0 );
+		if ( n > 0 ) {
+			this.subscription.request( n );
+		}
+	}
+
+	/**
+	 * Stops sending, as the Connection is closed.
+	 */
+	void closed() {
+		this.connection.removeOutboundSubscriber( this );
+		this.subscription.cancel();
+	}
+
+}
@@ -0,0 +1,29 @@
+package crossnet;
+
+import java.net.SocketException;
+
+/**
+ * Thrown when a Message cannot be sent, as the Messages queued for the other end already exceed the limit. See
+ * {@link TransportLayer#setMaxQueuedBytes(int)}.
+ * <p>
+ * The other end does not read as fast as it is sent to, so the {@link Connection} is closed rather than buffering
+ * without bounds.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class SlowConsumerException extends SocketException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Create new SlowConsumerException.
+	 * 
+	 * @param message
+	 *            The description.
+	 */
+	public SlowConsumerException( final String message ) {
+		super( message );
+	}
+
+}
@@ -1,17 +1,31 @@
 package crossnet;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
 import crossnet.message.Message;
 import crossnet.message.MessageParser;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.message.crossnet.messages.BundleMessage;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.crossnet.messages.HandshakeMessage;
+import crossnet.message.flyweight.Flyweight;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.metrics.LatencyTracer;
+import crossnet.packet.InPlacePacketFactory;
 import crossnet.packet.Packet;
-import crossnet.packet.length.LengthPacketFactory;
 import crossnet.util.ByteArrayReader;
 
 /**
@@ -32,8 +46,37 @@ public class TcpTransportLayer extends TransportLayer {
 	 */
 	private SelectionKey selectionKey;
 
-	TcpTransportLayer( final Connection connection, MessageParser messageParser ) {
-		super( connection, new LengthPacketFactory(), messageParser );
+	/**
+	 * {@code True} iff reading from the {@link #socketChannel} is paused. Changed while holding the
+	 * {@link TransportLayer#writeLock}.
+	 */
+	private volatile boolean readPaused = false;
+
+	/**
+	 * {@code True} iff waiting for the {@link #socketChannel} to become writable, guarded by the
+	 * {@link TransportLayer#writeLock}.
+	 */
+	private boolean writeInterest = false;
+
+	/**
+	 * Messages unpacked from a received {@link BundleMessage}, not yet returned by {@link #read()}.
+	 */
+	private final ArrayDeque< Message > inboundMessages = new ArrayDeque<>();
+
+	/**
+	 * A read only view of the {@link TransportLayer#readBuffer}, that the {@link Flyweight}s are wrapped over when
+	 * decoded in place.
+	 */
+	private final ByteBuffer inboundView;
+
+	/**
+	 * The type of a serialised {@link FlyweightMessage}.
+	 */
+	private static final byte FLYWEIGHT_TYPE = (byte) CrossNetMessageType.FLYWEIGHT.ordinal();
+
+	TcpTransportLayer( final Connection connection, MessageParser messageParser, FlyweightRegistry flyweightRegistry, LatencyTracer latencyTracer ) {
+		super( connection, messageParser, flyweightRegistry, latencyTracer );
+		this.inboundView = this.readBuffer.asReadOnlyBuffer();
 	}
 
 	@Override
@@ -55,6 +98,11 @@ public class TcpTransportLayer extends TransportLayer {
 			return false;
 		}
 
+		if ( this.readPaused ) {
+			// The other end may well be alive, waiting for this to read.
+			return false;
+		}
+
 		if ( ( this.timeoutMillis > 0 ) && ( ( timestamp - this.lastReadTime ) > this.timeoutMillis ) ) {
 			return true;
 		}
@@ -93,42 +141,83 @@ public class TcpTransportLayer extends TransportLayer {
 	 * <p>
 	 * NB: This will block while waiting for lock. In the case that the send buffer is empty, it will also block while
 	 * sending as much as possible.
+	 * <p>
+	 * If the send buffer is not empty, the Message is queued until the socket is writable. It is then bundled with any
+	 * other queued Messages, if {@link ConnectionOptions#BUNDLING} is negotiated. If the queue would exceed its limit,
+	 * a {@link SlowConsumerException} is thrown instead.
 	 * 
 	 * @param message
 	 *            The Message to send.
-	 * @return The number of bytes added to the send buffer.
+	 * @return The number of bytes added to the send buffer or queue.
 	 * @throws IOException
 	 *             If unable to send.
 	 */
 	@Override
 	public int send( Message message ) throws IOException {
+		return this.send( message, null );
+	}
+
+	@Override
+	int send( Message message, ConnectionOptions connectionOptions ) throws IOException {
 		if ( this.socketChannel == null ) {
 			throw new SocketException( "Connection is closed." );
 		}
 
-		Packet packet = null;
-		try {
-			packet = this.packetFactory.newPacket( message.getBytes() );
-		} catch ( IllegalArgumentException e ) {
-			throw new SocketException( "Could not form Packet: " + e.getMessage() );
+		long traceStart = this.latencyTracer.start();
+		boolean stringTable = this.usesStringTable( message );
+		byte[] payload = null;
+		if ( !stringTable ) {
+			payload = this.serialise( message, false );
 		}
 
 		synchronized ( this.writeLock ) {
-			int start = this.writeBuffer.position();
-			this.writeBuffer.put( packet.toBytes() );
-			int end = this.writeBuffer.position();
-
-			// Write to socket if nothing was queued.
-			if ( ( start == 0 ) && !this.writeToSocket() ) {
-				// The write was only partial.
-				this.selectionKey.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+			int stringTableSize = -1;
+			if ( stringTable ) {
+				// Serialised while holding the lock, such that the Strings are defined in the order they are sent.
+				stringTableSize = this.outboundStringTable.size();
+				payload = this.serialise( message, true );
+			}
+
+			int length;
+			if ( ( this.writeBuffer.position() == 0 ) && this.outboundQueue.isEmpty() ) {
+				Packet packet = null;
+				try {
+					packet = this.packetFactory.newPacket( payload );
+				} catch ( IllegalArgumentException e ) {
+					if ( stringTable ) {
+						this.outboundStringTable.truncate( stringTableSize );
+					}
+					throw new SocketException( "Could not form Packet: " + e.getMessage() );
+				}
+				byte[] packetBytes = packet.toBytes();
+				this.writeBuffer.put( packetBytes );
+				this.bytesBuffered += packetBytes.length;
+				this.traceBuffered( traceStart );
+				this.metrics.messageSent( message.getClass() );
+				this.metrics.packetWritten();
+				length = packetBytes.length;
+				if ( connectionOptions != null ) {
+					this.switchConnectionOptions( connectionOptions );
+				}
+
+				// Write to socket, as nothing was queued.
+				if ( !this.writeToSocket() ) {
+					// The write was only partial.
+					this.setInterestOps( true );
+				} else {
+					// Full write. Wake up selector such that idle event will fire.
+					this.selectionKey.selector().wakeup();
+				}
 			} else {
-				// Full write. Wake up selector such that idle event will fire.
-				this.selectionKey.selector().wakeup();
+				// Queue until the socket is writable. A conflated Message never goes on the wire, so is not counted.
+				if ( this.enqueue( message, payload, traceStart, connectionOptions, stringTableSize ) ) {
+					this.metrics.messageSent( message.getClass() );
+				}
+				length = payload.length;
 			}
 
 			if ( Log.DEBUG ) {
-				float bufferLoad = this.writeBuffer.position() / (float) this.writeBuffer.capacity();
+				float bufferLoad = ( this.writeBuffer.position() + this.outboundQueueBytes ) / (float) this.writeBuffer.capacity();
 				if ( Log.DEBUG && ( bufferLoad > 0.75f ) ) {
 					Log.debug( "CrossNet", this.connection + " write buffer is approaching capacity: " + bufferLoad );
 				} else if ( Log.TRACE && ( bufferLoad > 0.25f ) ) {
@@ -138,7 +227,12 @@ public class TcpTransportLayer extends TransportLayer {
 
 			this.lastWriteTime = System.currentTimeMillis();
 
-			return end - start;
+			NetworkEventListener eventListener = this.networkEventListener;
+			if ( eventListener != null ) {
+				eventListener.sent( this.connection, message, length );
+			}
+
+			return length;
 		}
 	}
 
@@ -148,34 +242,182 @@ public class TcpTransportLayer extends TransportLayer {
 			throw new SocketException( "Connection is closed." );
 		}
 
+		Message message;
+		if ( !this.inboundMessages.isEmpty() ) {
+			message = this.inboundMessages.poll();
+		} else {
+			message = this.readFromSocket();
+		}
+
+		if ( message != null ) {
+			this.metrics.messageReceived( message.getClass() );
+			if ( message instanceof HandshakeMessage ) {
+				// May switch the options of the next Packet.
+				this.gotHandshakeMessage( (HandshakeMessage) message );
+			}
+		}
+
+		return message;
+	}
+
+	/**
+	 * Reads from the {@link #socketChannel}, and parses the next Message if there is enough data.
+	 * 
+	 * @return A new Message or null if not enough available data.
+	 * @throws IOException
+	 *             If unable to read.
+	 */
+	private Message readFromSocket() throws IOException {
 		//TODO: Move some buffer handling from PacketFactory to here ?
-		int bytesRead = this.socketChannel.read( this.readBuffer );
-		if ( bytesRead == -1 ) {
-			throw new SocketException( "Connection is closed." );
+		if ( !this.readPaused ) {
+			int bytesRead = this.socketChannel.read( this.readBuffer );
+			if ( bytesRead == -1 ) {
+				throw new EOFException( "Connection is closed by remote." );
+			}
+			this.metrics.bytesRead( bytesRead );
+
+			this.lastReadTime = System.currentTimeMillis();
 		}
 
-		this.lastReadTime = System.currentTimeMillis();
+		if ( ( this.inboundPacketFactory instanceof InPlacePacketFactory ) && this.connection.isConnected() ) {
+			this.dispatchInPlace( (InPlacePacketFactory) this.inboundPacketFactory );
+		}
 
-		Packet packet = this.packetFactory.parseData( this.readBuffer );
+		long traceStart = this.latencyTracer.start();
+		Packet packet;
+		try {
+			packet = this.inboundPacketFactory.parseData( this.readBuffer );
+		} catch ( IllegalArgumentException e ) {
+			throw new SocketException( "Could not parse Packet: " + e.getMessage() );
+		}
 		if ( packet == null ) {
 			// Not enough data to form Packet.
 			return null;
 		}
+		this.metrics.packetRead();
+
+		NetworkEventListener eventListener = this.networkEventListener;
+		long parseStart = ( eventListener != null ) ? System.nanoTime() : 0;
+		byte[] payload = packet.getPayload();
+		Message message = this.messageParser.parseData( new ByteArrayReader( payload, this.inboundStringTable ) );
+		this.latencyTracer.end( LatencyTracer.Stage.PARSE, traceStart );
+		if ( eventListener != null ) {
+			eventListener.parsed( this.connection, payload.length, System.nanoTime() - parseStart );
+		}
+		if ( message instanceof BundleMessage ) {
+			this.inboundMessages.addAll( ( (BundleMessage) message ).getMessages() );
+			return this.inboundMessages.poll();
+		}
 
-		return this.messageParser.parseData( new ByteArrayReader( packet.getPayload() ) );
+		return message;
+	}
+
+	/**
+	 * Decodes the {@link FlyweightMessage}s of registered templates at the start of the
+	 * {@link TransportLayer#readBuffer}, where they were received, and removes them from it. Stops at the first Packet
+	 * that is incomplete or carries anything else, such that Messages are still received in order.
+	 * 
+	 * @param packetFactory
+	 *            The PacketFactory of the Packets received.
+	 * @throws IOException
+	 *             If a Packet header is malformed.
+	 */
+	private void dispatchInPlace( InPlacePacketFactory packetFactory ) throws IOException {
+		int limit = this.readBuffer.position();
+		int offset = 0;
+		while ( this.socketChannel != null ) {
+			int headerSize;
+			try {
+				headerSize = packetFactory.getHeaderSize( this.readBuffer, offset, limit );
+			} catch ( IllegalArgumentException e ) {
+				throw new SocketException( "Could not parse Packet: " + e.getMessage() );
+			}
+			if ( headerSize == 0 ) {
+				break;
+			}
+			int payloadOffset = offset + headerSize;
+			int payloadLength = packetFactory.getPayloadLength( this.readBuffer, offset );
+			if ( ( payloadLength < FlyweightMessage.HEADER_SIZE ) || ( ( limit - payloadOffset ) < payloadLength ) ) {
+				break;
+			}
+			if ( ( this.readBuffer.get( payloadOffset ) != TcpTransportLayer.FLYWEIGHT_TYPE ) || !this.flyweightRegistry.isRegistered( this.readBuffer.get( payloadOffset + 1 ) ) ) {
+				break;
+			}
+
+			this.metrics.packetRead();
+			this.metrics.messageReceived( FlyweightMessage.class );
+			long traceStart = this.latencyTracer.start();
+			this.flyweightRegistry.dispatch( this.connection, this.inboundView, payloadOffset, payloadLength );
+			this.latencyTracer.end( LatencyTracer.Stage.DISPATCH, traceStart );
+			offset = payloadOffset + payloadLength;
+		}
+
+		if ( offset > 0 ) {
+			// Remove the decoded Packets, and return buffer in writable state.
+			this.readBuffer.flip();
+			this.readBuffer.position( offset );
+			this.readBuffer.compact();
+		}
 	}
 
 	@Override
 	void write() throws IOException {
 		synchronized ( this.writeLock ) {
-			if ( this.writeToSocket() ) {
-				// Write completed. Clear OP_WRITE.
-				this.selectionKey.interestOps( SelectionKey.OP_READ );
+			while ( true ) {
+				this.flushOutboundQueue();
+				if ( !this.writeToSocket() ) {
+					// The write was only partial. Keep OP_WRITE.
+					break;
+				}
+				if ( this.outboundQueue.isEmpty() ) {
+					// Write completed. Clear OP_WRITE.
+					this.setInterestOps( false );
+					break;
+				}
 			}
 			this.lastWriteTime = System.currentTimeMillis();
 		}
 	}
 
+	@Override
+	void pauseReading( boolean paused ) {
+		if ( this.readPaused == paused ) {
+			return;
+		}
+
+		synchronized ( this.writeLock ) {
+			if ( this.readPaused == paused ) {
+				return;
+			}
+			this.readPaused = paused;
+			if ( !paused ) {
+				// Not timed out while paused.
+				this.lastReadTime = System.currentTimeMillis();
+			}
+			if ( ( this.selectionKey != null ) && this.selectionKey.isValid() ) {
+				try {
+					this.setInterestOps( this.writeInterest );
+					this.selectionKey.selector().wakeup();
+				} catch ( CancelledKeyException e ) {
+					// Closed meanwhile.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the interest of the {@link #selectionKey}: reading unless paused, and writing if asked.
+	 * <p>
+	 * Must be called while holding the {@link TransportLayer#writeLock}.
+	 * 
+	 * @param write
+	 *            {@code True} iff waiting for the socket to become writable.
+	 */
+	private void setInterestOps( boolean write ) {
+		this.writeInterest = write;
+		this.selectionKey.interestOps( ( this.readPaused ? 0 : SelectionKey.OP_READ ) | ( write ? SelectionKey.OP_WRITE : 0 ) );
+	}
+
 	@Override
 	void close() {
 		try {
@@ -203,8 +445,7 @@ public class TcpTransportLayer extends TransportLayer {
 	 *             If an error occurs while establishing the connection.
 	 */
 	SelectionKey accept( Selector selector, SocketChannel socketChannel ) throws IOException {
-		this.writeBuffer.clear();
-		this.readBuffer.clear();
+		this.clearBuffers();
 
 		try {
 			this.socketChannel = socketChannel;
@@ -236,8 +477,7 @@ public class TcpTransportLayer extends TransportLayer {
 	 */
 	void connect( Selector selector, SocketAddress remoteAddress ) throws IOException {
 		this.close();
-		this.writeBuffer.clear();
-		this.readBuffer.clear();
+		this.clearBuffers();
 
 		try {
 			this.socketChannel = SocketChannel.open();
@@ -260,6 +500,91 @@ public class TcpTransportLayer extends TransportLayer {
 
 	}
 
+	/**
+	 * Moves as many queued Messages as there is room for from the {@link TransportLayer#outboundQueue} to the
+	 * {@link TransportLayer#writeBuffer}. If {@link ConnectionOptions#BUNDLING} is negotiated, consecutive Messages are
+	 * bundled into one {@link BundleMessage} Packet, as long as it does not exceed the maximum payload size. Otherwise,
+	 * e.g. for older peers that cannot parse BundleMessages, each is sent in a Packet of its own.
+	 * <p>
+	 * Must be called while holding the {@link TransportLayer#writeLock}.
+	 * 
+	 * @throws IOException
+	 *             If unable to form a Packet.
+	 */
+	private void flushOutboundQueue() throws IOException {
+		while ( !this.outboundQueue.isEmpty() ) {
+			// May change with the options.
+			int packetOverhead = this.packetFactory.getMaxPacketSize() - this.packetFactory.getMaxPayloadSize();
+			int maxPayloadSize = this.connectionOptions.getMaxPayloadSize();
+			boolean bundling = this.connectionOptions.has( ConnectionOptions.BUNDLING );
+			int room = this.writeBuffer.remaining() - packetOverhead;
+
+			// Gather as many Messages as fits in one bundle.
+			List< byte[] > payloads = new ArrayList<>();
+			int bundleSize = 1;
+			for ( QueuedMessage queuedMessage : this.outboundQueue ) {
+				if ( !bundling || ( queuedMessage.connectionOptions != null ) ) {
+					// Sent alone.
+					break;
+				}
+				int size = bundleSize + BundleMessage.OVERHEAD_PER_MESSAGE + queuedMessage.payload.length;
+				if ( ( size > maxPayloadSize ) || ( size > room ) ) {
+					break;
+				}
+				payloads.add( queuedMessage.payload );
+				bundleSize = size;
+			}
+
+			byte[] packetPayload;
+			if ( payloads.size() > 1 ) {
+				packetPayload = new BundleMessage( payloads ).getBytes();
+			} else if ( this.outboundQueue.peek().payload.length <= room ) {
+				// A single Message is sent as is.
+				packetPayload = this.outboundQueue.peek().payload;
+				payloads.clear();
+				payloads.add( packetPayload );
+			} else {
+				// No room. Wait for the socket to drain the buffer.
+				return;
+			}
+
+			byte[] packetBytes;
+			try {
+				packetBytes = this.packetFactory.newPacket( packetPayload ).toBytes();
+			} catch ( IllegalArgumentException e ) {
+				throw new SocketException( "Could not form Packet: " + e.getMessage() );
+			}
+			this.writeBuffer.put( packetBytes );
+			this.bytesBuffered += packetBytes.length;
+			this.metrics.packetWritten();
+
+			for ( int i = 0; i < payloads.size(); i++ ) {
+				// The bundled Messages all end with the Packet.
+				QueuedMessage queuedMessage = this.dequeue();
+				this.traceBuffered( queuedMessage.traceStart );
+				if ( queuedMessage.connectionOptions != null ) {
+					this.switchConnectionOptions( queuedMessage.connectionOptions );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Clears the buffers and queues, discarding any data in them.
+	 */
+	private void clearBuffers() {
+		synchronized ( this.writeLock ) {
+			this.writeBuffer.clear();
+			this.clearOutboundQueue();
+			this.clearTraces();
+			this.readPaused = false;
+			this.writeInterest = false;
+		}
+		this.readBuffer.clear();
+		this.inboundMessages.clear();
+		this.resetConnectionOptions();
+	}
+
 	/**
 	 * Makes the actual write from the {@link TransportLayer#writeBuffer} to the {@link #socketChannel}.
 	 * 
@@ -272,20 +597,32 @@ public class TcpTransportLayer extends TransportLayer {
 			throw new SocketException( "Connection is closed" );
 		}
 
+		NetworkEventListener eventListener = this.networkEventListener;
+		long writeStart = ( eventListener != null ) ? System.nanoTime() : 0;
+		int bytesBefore = this.writeBuffer.position();
+
 		this.writeBuffer.flip();
 		while ( this.writeBuffer.hasRemaining() ) {
-			if ( this.socketChannel.write( this.writeBuffer ) == 0 ) {
+			int bytesWritten = this.socketChannel.write( this.writeBuffer );
+			if ( bytesWritten == 0 ) {
 				break;
 			}
+			this.metrics.bytesWritten( bytesWritten );
+			this.traceFlushed( bytesWritten );
 		}
 
 		this.writeBuffer.compact();
 
+		if ( eventListener != null ) {
+			eventListener.flushed( this.connection, bytesBefore - this.writeBuffer.position(), System.nanoTime() - writeStart, this.writeBuffer.position() == 0 );
+		}
+
 		if ( this.writeBuffer.position() == 0 ) {
 			// Wrote everything
 			return true;
 		}
 
+		this.metrics.partialWrite();
 		return false;
 	}
 
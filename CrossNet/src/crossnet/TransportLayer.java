@@ -1,15 +1,29 @@
 package crossnet;
 
 import java.io.IOException;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 
+import crossnet.listener.NetworkEventListener;
 import crossnet.log.Log;
+import crossnet.message.ConflatableMessage;
 import crossnet.message.Message;
 import crossnet.message.MessageParser;
+import crossnet.message.StringTableMessage;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.crossnet.messages.HandshakeMessage;
 import crossnet.message.crossnet.messages.KeepAliveMessage;
 import crossnet.message.crossnet.messages.PingMessage;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.metrics.ConnectionMetrics;
+import crossnet.metrics.LatencyTracer;
 import crossnet.packet.Packet;
 import crossnet.packet.PacketFactory;
+import crossnet.rpc.RpcHandlerRegistry;
+import crossnet.util.StringTable;
 
 /**
  * The part of a {@link Connection} that handles the actual transport of data.
@@ -25,15 +39,70 @@ public abstract class TransportLayer {
 	protected final Connection connection;
 
 	/**
-	 * The PacketFactory used to parse to and from {@link Packet}s.
+	 * The PacketFactory used to form the {@link Packet}s sent, guarded by the {@link #writeLock}.
 	 */
-	protected final PacketFactory packetFactory;
+	protected PacketFactory packetFactory;
+
+	/**
+	 * The PacketFactory used to parse the {@link Packet}s received. Only used by the update thread.
+	 */
+	protected PacketFactory inboundPacketFactory;
+
+	/**
+	 * The options of the {@link Packet}s sent. Changed while holding the {@link #writeLock}.
+	 */
+	protected volatile ConnectionOptions connectionOptions;
+
+	/**
+	 * The options this supports, i.e. offers or accepts when negotiating.
+	 */
+	protected volatile ConnectionOptions supportedConnectionOptions = ConnectionOptions.LEGACY;
+
+	/**
+	 * The options offered, while waiting for the selection. Only used by the update thread.
+	 */
+	private ConnectionOptions offeredConnectionOptions = null;
+
+	/**
+	 * The options selected, while waiting for the confirmation. Only used by the update thread.
+	 */
+	private ConnectionOptions selectedConnectionOptions = null;
+
+	/**
+	 * The StringTable of the {@link StringTableMessage}s sent, guarded by the {@link #writeLock}.
+	 */
+	protected final StringTable outboundStringTable = new StringTable();
+
+	/**
+	 * The StringTable of the {@link StringTableMessage}s received. Only used by the update thread.
+	 */
+	protected final StringTable inboundStringTable = new StringTable();
 
 	/**
 	 * The MessageParser used to parse byte arrays to {@link Message}s.
 	 */
 	protected final MessageParser messageParser;
 
+	/**
+	 * Decodes the {@link FlyweightMessage}s received.
+	 */
+	protected final FlyweightRegistry flyweightRegistry;
+
+	/**
+	 * Traces the latency of the Messages passing through this.
+	 */
+	protected final LatencyTracer latencyTracer;
+
+	/**
+	 * Listener for the events of the network hot paths, if any.
+	 */
+	protected volatile NetworkEventListener networkEventListener;
+
+	/**
+	 * Handles the remote procedure calls received, if any.
+	 */
+	protected volatile RpcHandlerRegistry rpcHandlerRegistry;
+
 	/**
 	 * The lock used to guard the {@link #writeBuffer}.
 	 */
@@ -49,6 +118,69 @@ public abstract class TransportLayer {
 	 */
 	protected final ByteBuffer writeBuffer;
 
+	/**
+	 * Serialised Messages waiting for room in the {@link #writeBuffer}, guarded by the {@link #writeLock}.
+	 * <p>
+	 * Messages are only queued here while the {@link #writeBuffer} has data pending, such that several can be bundled
+	 * into one {@link Packet} once the socket is writable, if {@link ConnectionOptions#BUNDLING} is negotiated. It holds
+	 * at most {@link #maxQueuedBytes}, such that a stalled reader fails rather than growing it without bounds.
+	 */
+	protected final ArrayDeque< QueuedMessage > outboundQueue = new ArrayDeque<>();
+
+	/**
+	 * The {@link ConflatableMessage}s in the {@link #outboundQueue} by conflation key, guarded by the
+	 * {@link #writeLock}.
+	 */
+	private final Map< Object, QueuedMessage > conflationIndex = new HashMap<>();
+
+	/**
+	 * Number of bytes in the {@link #outboundQueue}, guarded by the {@link #writeLock}. Never above
+	 * {@link #maxQueuedBytes}.
+	 */
+	protected int outboundQueueBytes = 0;
+
+	/**
+	 * The traffic counters of the {@link #connection}.
+	 */
+	protected final ConnectionMetrics metrics = new ConnectionMetrics();
+
+	/**
+	 * Number of bytes ever put in the {@link #writeBuffer}, guarded by the {@link #writeLock}.
+	 */
+	protected long bytesBuffered = 0;
+
+	/**
+	 * Number of bytes ever written from the {@link #writeBuffer}, guarded by the {@link #writeLock}.
+	 */
+	private long bytesFlushed = 0;
+
+	/**
+	 * The stream offsets at which traced Messages end, in the order they were buffered. A ring buffer guarded by the
+	 * {@link #writeLock}.
+	 */
+	private final long[] traceOffsets = new long[TransportLayer.MAX_PENDING_TRACES];
+
+	/**
+	 * The time stamps of when the traced Messages in {@link #traceOffsets} were put in the {@link #writeBuffer}.
+	 */
+	private final long[] traceStarts = new long[TransportLayer.MAX_PENDING_TRACES];
+
+	/**
+	 * Index of the oldest pending trace in {@link #traceOffsets}.
+	 */
+	private int traceHead = 0;
+
+	/**
+	 * Number of pending traces in {@link #traceOffsets}.
+	 */
+	private int traceCount = 0;
+
+	/**
+	 * Maximum number of traced Messages waiting to be written at once. Any further are not traced in the
+	 * {@link LatencyTracer.Stage#WRITE} stage.
+	 */
+	private static final int MAX_PENDING_TRACES = 64;
+
 	/**
 	 * Time stamp from the last read.
 	 */
@@ -66,6 +198,14 @@ public abstract class TransportLayer {
 	 */
 	protected float idleThreshold = 0.1f;
 
+	/**
+	 * Maximum number of bytes in the {@link #outboundQueue}. A send that would exceed it fails with a
+	 * {@link SlowConsumerException}, and the {@link Connection} is closed.
+	 * <p>
+	 * Default is 1 MiB.
+	 */
+	protected volatile int maxQueuedBytes = 1024 * 1024;
+
 	/**
 	 * Maximum time between {@link KeepAliveMessage}s should be sent.
 	 * <p>
@@ -93,10 +233,15 @@ public abstract class TransportLayer {
 	protected int pingId = 0;
 
 	/**
-	 * Time stamp from when the last {@link PingMessage} was sent.
+	 * Time stamp from when the last {@link PingMessage} was sent. Used for scheduling.
 	 */
 	protected long pingSendTime = 0;
 
+	/**
+	 * {@link System#nanoTime()} from when the last {@link PingMessage} was sent. Used for measuring.
+	 */
+	private long pingSendNanos = 0;
+
 	/**
 	 * {@code True} iff a ping request is in transit.
 	 */
@@ -107,12 +252,24 @@ public abstract class TransportLayer {
 	 */
 	protected int pingRoundTripTime = 0;
 
-	TransportLayer( final Connection connection, final PacketFactory packetFactory, final MessageParser messageParser ) {
+	/**
+	 * Smoothed round trip time in nanoseconds, as the SRTT of RFC 6298. Is 0 until the first measurement.
+	 */
+	private volatile long smoothedRoundTripTime = 0;
+
+	/**
+	 * Round trip time variation in nanoseconds, as the RTTVAR of RFC 6298; i.e. the jitter.
+	 */
+	private volatile long roundTripTimeVariation = 0;
+
+	TransportLayer( final Connection connection, final MessageParser messageParser, final FlyweightRegistry flyweightRegistry, final LatencyTracer latencyTracer ) {
 		this.connection = connection;
-		this.packetFactory = packetFactory;
 		this.messageParser = messageParser;
-		this.readBuffer = ByteBuffer.allocate( this.packetFactory.getMaxPacketSize() );
-		this.writeBuffer = ByteBuffer.allocate( this.packetFactory.getMaxPacketSize() );
+		this.flyweightRegistry = flyweightRegistry;
+		this.latencyTracer = latencyTracer;
+		this.readBuffer = ByteBuffer.allocate( ConnectionOptions.MAX_PACKET_SIZE );
+		this.writeBuffer = ByteBuffer.allocate( ConnectionOptions.MAX_PACKET_SIZE );
+		this.resetConnectionOptions();
 	}
 
 	/**
@@ -122,7 +279,7 @@ public abstract class TransportLayer {
 	 * @return {@code True} iff the Connection is idle.
 	 */
 	public boolean isIdle() {
-		return ( this.writeBuffer.position() / (float) this.writeBuffer.capacity() ) < this.idleThreshold;
+		return ( ( this.writeBuffer.position() + this.outboundQueueBytes ) / (float) this.writeBuffer.capacity() ) < this.idleThreshold;
 	}
 
 	/**
@@ -136,6 +293,20 @@ public abstract class TransportLayer {
 		this.idleThreshold = idleThreshold;
 	}
 
+	/**
+	 * Sets the maximum number of bytes queued for the other end, beyond the send buffer.
+	 * 
+	 * @see #maxQueuedBytes
+	 * @param maxQueuedBytes
+	 *            The new limit.
+	 */
+	public void setMaxQueuedBytes( int maxQueuedBytes ) {
+		if ( maxQueuedBytes <= 0 ) {
+			throw new IllegalArgumentException( "Maximum queued bytes must be positive, was: " + maxQueuedBytes );
+		}
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
 	/**
 	 * Determine if {@link Connection} needs a {@link KeepAliveMessage} sent.
 	 * 
@@ -208,6 +379,7 @@ public abstract class TransportLayer {
 	void requestPingRoundTripTimeUpdate() {
 		Message message = new PingMessage( this.pingId++ );
 		this.pingSendTime = System.currentTimeMillis();
+		this.pingSendNanos = System.nanoTime();
 		this.pingInTransit = true;
 		this.connection.send( message );
 	}
@@ -226,9 +398,11 @@ public abstract class TransportLayer {
 		if ( pingMessage.isReply() ) {
 			if ( pingMessage.getId() == ( this.pingId - 1 ) ) {
 				// Update RTT
-				this.pingRoundTripTime = (int) ( System.currentTimeMillis() - this.pingSendTime );
+				long roundTripTime = System.nanoTime() - this.pingSendNanos;
+				this.updateRoundTripTime( roundTripTime );
+				this.pingRoundTripTime = (int) ( roundTripTime / 1000000 );
 				this.pingInTransit = false;
-				Log.trace( "CrossNet", this.connection + " round trip time: " + this.pingRoundTripTime );
+				Log.trace( "CrossNet", "{} round trip time: {}", this.connection, this.pingRoundTripTime );
 				notify = true;
 			} else {
 				// Ping is old, ignore
@@ -255,6 +429,386 @@ public abstract class TransportLayer {
 		return this.pingRoundTripTime;
 	}
 
+	/**
+	 * Gets the options of the Packets sent. Once negotiated, the Packets received have the same options.
+	 * 
+	 * @return The ConnectionOptions.
+	 */
+	public ConnectionOptions getConnectionOptions() {
+		return this.connectionOptions;
+	}
+
+	/**
+	 * Sends a Message, and then switches to other options for the Packets sent after it. The Message is sent alone in
+	 * its Packet.
+	 * 
+	 * @param message
+	 *            The Message to send.
+	 * @param connectionOptions
+	 *            The options to switch to, or {@code null} to keep the current.
+	 * @return The number of bytes added to the send buffer or queue.
+	 * @throws IOException
+	 *             If unable to send.
+	 */
+	abstract int send( Message message, ConnectionOptions connectionOptions ) throws IOException;
+
+	/**
+	 * Offers the options this supports to the remote end, unless they are the {@link ConnectionOptions#LEGACY} ones.
+	 * Used by {@link CrossNetClient} on registration.
+	 * 
+	 * @param connectionOptions
+	 *            The options this supports.
+	 * @throws IOException
+	 *             If unable to send.
+	 */
+	void offerConnectionOptions( ConnectionOptions connectionOptions ) throws IOException {
+		this.supportedConnectionOptions = connectionOptions;
+		if ( connectionOptions.equals( ConnectionOptions.LEGACY ) ) {
+			return;
+		}
+
+		this.offeredConnectionOptions = connectionOptions;
+		this.send( new HandshakeMessage( true, connectionOptions ) );
+	}
+
+	/**
+	 * Takes the next step of the negotiation of the options. Must be called before parsing the next Packet.
+	 * <p>
+	 * The remote end sent the HandshakeMessage as the last Packet with the previous options, except for offers.
+	 * 
+	 * @param handshakeMessage
+	 *            The HandshakeMessage received.
+	 * @throws IOException
+	 *             If unable to answer.
+	 */
+	void gotHandshakeMessage( HandshakeMessage handshakeMessage ) throws IOException {
+		if ( handshakeMessage.isOffer() ) {
+			// Select, and switch after the selection. Received Packets switch after the confirmation.
+			ConnectionOptions selected = this.supportedConnectionOptions.select( handshakeMessage.getCapabilities(), handshakeMessage.getMaxPayloadSize() );
+			this.selectedConnectionOptions = selected;
+			this.send( new HandshakeMessage( false, selected ), selected );
+		} else if ( this.offeredConnectionOptions != null ) {
+			// Got the selection. Confirm, and switch.
+			ConnectionOptions selected = this.offeredConnectionOptions.select( handshakeMessage.getCapabilities(), handshakeMessage.getMaxPayloadSize() );
+			this.offeredConnectionOptions = null;
+			this.inboundPacketFactory = selected.newPacketFactory();
+			this.send( new HandshakeMessage( false, selected ), selected );
+			Log.debug( "CrossNet", "{} negotiated: {}", this.connection, selected );
+		} else if ( this.selectedConnectionOptions != null ) {
+			// Got the confirmation.
+			this.inboundPacketFactory = this.selectedConnectionOptions.newPacketFactory();
+			Log.debug( "CrossNet", "{} negotiated: {}", this.connection, this.selectedConnectionOptions );
+			this.selectedConnectionOptions = null;
+		} else {
+			Log.warn( "CrossNet", this.connection + " received an unexpected HandshakeMessage." );
+		}
+	}
+
+	/**
+	 * Switches the Packets sent to other options.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 * 
+	 * @param connectionOptions
+	 *            The options to switch to.
+	 */
+	protected void switchConnectionOptions( ConnectionOptions connectionOptions ) {
+		this.packetFactory = connectionOptions.newPacketFactory();
+		this.connectionOptions = connectionOptions;
+	}
+
+	/**
+	 * Returns to the {@link ConnectionOptions#LEGACY} options in both directions, and empty StringTables, for a new
+	 * connection.
+	 */
+	protected void resetConnectionOptions() {
+		synchronized ( this.writeLock ) {
+			this.switchConnectionOptions( ConnectionOptions.LEGACY );
+			this.outboundStringTable.clear();
+		}
+		this.inboundStringTable.clear();
+		this.inboundPacketFactory = ConnectionOptions.LEGACY.newPacketFactory();
+		this.offeredConnectionOptions = null;
+		this.selectedConnectionOptions = null;
+	}
+
+	/**
+	 * Gets the smoothed round trip time, as the SRTT of RFC 6298.
+	 * 
+	 * @return The smoothed round trip time in nanoseconds, or 0 if not measured yet.
+	 */
+	public long getSmoothedRoundTripTimeNanos() {
+		return this.smoothedRoundTripTime;
+	}
+
+	/**
+	 * Gets the round trip time variation, as the RTTVAR of RFC 6298; i.e. the jitter.
+	 * 
+	 * @return The round trip time variation in nanoseconds, or 0 if not measured yet.
+	 */
+	public long getRoundTripTimeVariationNanos() {
+		return this.roundTripTimeVariation;
+	}
+
+	/**
+	 * Updates the smoothed round trip time and variation with a new measurement, and records it in the
+	 * {@link #metrics}.
+	 * 
+	 * @param roundTripTime
+	 *            The measured round trip time in nanoseconds.
+	 */
+	private void updateRoundTripTime( long roundTripTime ) {
+		if ( this.smoothedRoundTripTime == 0 ) {
+			// First measurement.
+			this.smoothedRoundTripTime = roundTripTime;
+			this.roundTripTimeVariation = roundTripTime / 2;
+		} else {
+			// RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, then SRTT = 7/8 SRTT + 1/8 R
+			long deviation = Math.abs( this.smoothedRoundTripTime - roundTripTime );
+			this.roundTripTimeVariation += ( deviation - this.roundTripTimeVariation ) / 4;
+			this.smoothedRoundTripTime += ( roundTripTime - this.smoothedRoundTripTime ) / 8;
+		}
+		this.metrics.roundTripTime( roundTripTime );
+	}
+
+	/**
+	 * Gets the number of queued Messages that were replaced by a newer {@link ConflatableMessage} with the same
+	 * conflation key.
+	 * 
+	 * @return The number of conflated Messages.
+	 */
+	public long getConflatedMessageCount() {
+		return this.metrics.getConflatedMessages();
+	}
+
+	/**
+	 * Gets the traffic counters.
+	 * 
+	 * @return The traffic counters.
+	 */
+	public ConnectionMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Serialises a Message, and checks that it fits in a Packet.
+	 * <p>
+	 * With the {@link #outboundStringTable}, this must be called while holding the {@link #writeLock}, and the
+	 * serialised Message must be sent or queued before releasing it, such that Strings are defined in the order they are
+	 * sent.
+	 * 
+	 * @param message
+	 *            The Message to serialise.
+	 * @param stringTable
+	 *            {@code True} iff the Message is a {@link StringTableMessage} to serialise with the
+	 *            {@link #outboundStringTable}.
+	 * @return The serialised Message.
+	 * @throws SocketException
+	 *             If unable to serialise the Message, or it is too large.
+	 */
+	protected byte[] serialise( Message message, boolean stringTable ) throws SocketException {
+		int stringTableSize = this.outboundStringTable.size();
+		byte[] payload;
+		if ( stringTable ) {
+			payload = ( (StringTableMessage) message ).getBytes( this.outboundStringTable );
+		} else {
+			payload = message.getBytes();
+		}
+
+		String error = null;
+		int maxPayloadSize = this.connectionOptions.getMaxPayloadSize();
+		if ( payload == null ) {
+			error = "Could not serialise Message.";
+		} else if ( payload.length > maxPayloadSize ) {
+			error = "Could not form Packet: Data too large. Is " + payload.length + "B, but maximum is: " + maxPayloadSize + "B.";
+		}
+		if ( error != null ) {
+			if ( stringTable ) {
+				// Never sent, so neither are its definitions.
+				this.outboundStringTable.truncate( stringTableSize );
+			}
+			throw new SocketException( error );
+		}
+
+		return payload;
+	}
+
+	/**
+	 * Determines if a Message is to be serialised with the {@link #outboundStringTable}.
+	 * 
+	 * @param message
+	 *            The Message.
+	 * @return {@code True} iff it is a {@link StringTableMessage}, and the {@link ConnectionOptions#STRING_TABLE}
+	 *         option is negotiated.
+	 */
+	protected boolean usesStringTable( Message message ) {
+		return ( message instanceof StringTableMessage ) && this.connectionOptions.has( ConnectionOptions.STRING_TABLE );
+	}
+
+	/**
+	 * Adds a serialised Message to the {@link #outboundQueue}. If the Message is a {@link ConflatableMessage}, and a
+	 * Message with the same conflation key is still queued, that is replaced instead.
+	 * <p>
+	 * A queued Message is not replaced if it defines Strings in the {@link #outboundStringTable}, or if Strings were
+	 * defined after it, as the replacement may reference them, and would then be sent before their definition. The
+	 * Message is then queued as any other.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 * 
+	 * @param message
+	 *            The Message.
+	 * @param payload
+	 *            The serialised Message.
+	 * @param traceStart
+	 *            The start of the trace of the Message, or 0 if not traced.
+	 * @param connectionOptions
+	 *            The options to switch to after the Message, or {@code null} to keep the current.
+	 * @param stringTableSize
+	 *            The size of the {@link #outboundStringTable} before the Message was serialised with it, or -1 if it
+	 *            was serialised without it.
+	 * @return {@code True} iff the Message was added, {@code false} iff it replaced a queued one.
+	 * @throws SlowConsumerException
+	 *             If the {@link #outboundQueue} would exceed the {@link #maxQueuedBytes}.
+	 */
+	protected boolean enqueue( Message message, byte[] payload, long traceStart, ConnectionOptions connectionOptions, int stringTableSize ) throws SlowConsumerException {
+		Object conflationKey = null;
+		if ( message instanceof ConflatableMessage ) {
+			conflationKey = ( (ConflatableMessage) message ).getConflationKey();
+		}
+
+		int stringTableSizeAfter = this.outboundStringTable.size();
+		boolean definesStrings = ( stringTableSize >= 0 ) && ( stringTableSizeAfter > stringTableSize );
+
+		if ( conflationKey != null ) {
+			QueuedMessage queuedMessage = this.conflationIndex.get( conflationKey );
+			if ( ( queuedMessage != null ) && !queuedMessage.definesStrings && ( ( stringTableSize < 0 ) || ( stringTableSize == queuedMessage.stringTableSize ) ) ) {
+				// Replace the superseded Message in place.
+				this.checkQueueLimit( payload.length - queuedMessage.payload.length );
+				this.outboundQueueBytes += payload.length - queuedMessage.payload.length;
+				queuedMessage.payload = payload;
+				queuedMessage.definesStrings = definesStrings;
+				if ( queuedMessage.traceStart == 0 ) {
+					queuedMessage.traceStart = traceStart;
+				}
+				this.metrics.messageConflated();
+				this.metrics.setQueuedBytes( this.outboundQueueBytes );
+				return false;
+			}
+		}
+
+		this.checkQueueLimit( payload.length );
+		QueuedMessage queuedMessage = new QueuedMessage( payload, conflationKey, traceStart, connectionOptions );
+		queuedMessage.definesStrings = definesStrings;
+		queuedMessage.stringTableSize = stringTableSizeAfter;
+		this.outboundQueue.add( queuedMessage );
+		this.outboundQueueBytes += payload.length;
+		this.metrics.setQueuedBytes( this.outboundQueueBytes );
+		if ( conflationKey != null ) {
+			// Supersedes any queued Message that could not be replaced.
+			this.conflationIndex.put( conflationKey, queuedMessage );
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the {@link #outboundQueue} can grow by a number of bytes without exceeding the
+	 * {@link #maxQueuedBytes}.
+	 * 
+	 * @param bytes
+	 *            The number of bytes to add.
+	 * @throws SlowConsumerException
+	 *             If the limit would be exceeded.
+	 */
+	private void checkQueueLimit( int bytes ) throws SlowConsumerException {
+		int maxQueuedBytes = this.maxQueuedBytes;
+		if ( ( (long) this.outboundQueueBytes + bytes ) > maxQueuedBytes ) {
+			throw new SlowConsumerException( "Send queue full: " + this.outboundQueueBytes + "B queued, adding " + bytes + "B, but maximum is: " + maxQueuedBytes + "B." );
+		}
+	}
+
+	/**
+	 * Removes the head of the {@link #outboundQueue}.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 * 
+	 * @return The removed QueuedMessage.
+	 */
+	protected QueuedMessage dequeue() {
+		QueuedMessage queuedMessage = this.outboundQueue.poll();
+		this.outboundQueueBytes -= queuedMessage.payload.length;
+		this.metrics.setQueuedBytes( this.outboundQueueBytes );
+		if ( ( queuedMessage.conflationKey != null ) && ( this.conflationIndex.get( queuedMessage.conflationKey ) == queuedMessage ) ) {
+			this.conflationIndex.remove( queuedMessage.conflationKey );
+		}
+		return queuedMessage;
+	}
+
+	/**
+	 * Discards all Messages in the {@link #outboundQueue}.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 */
+	protected void clearOutboundQueue() {
+		this.outboundQueue.clear();
+		this.conflationIndex.clear();
+		this.outboundQueueBytes = 0;
+		this.metrics.setQueuedBytes( 0 );
+	}
+
+	/**
+	 * Ends the {@link LatencyTracer.Stage#QUEUE} stage of a Message just put in the {@link #writeBuffer}, and marks its
+	 * end, such that its {@link LatencyTracer.Stage#WRITE} stage ends once it is written.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 * 
+	 * @param traceStart
+	 *            The start of the trace of the Message, or 0 if not traced.
+	 */
+	protected void traceBuffered( long traceStart ) {
+		if ( traceStart == 0 ) {
+			return;
+		}
+
+		this.latencyTracer.end( LatencyTracer.Stage.QUEUE, traceStart );
+		if ( this.traceCount == TransportLayer.MAX_PENDING_TRACES ) {
+			return;
+		}
+
+		int index = ( this.traceHead + this.traceCount ) % TransportLayer.MAX_PENDING_TRACES;
+		this.traceOffsets[index] = this.bytesBuffered;
+		this.traceStarts[index] = System.nanoTime();
+		this.traceCount++;
+	}
+
+	/**
+	 * Ends the traces of the Messages that are now completely written.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 * 
+	 * @param bytesWritten
+	 *            The number of bytes just written from the {@link #writeBuffer}.
+	 */
+	protected void traceFlushed( int bytesWritten ) {
+		this.bytesFlushed += bytesWritten;
+		while ( ( this.traceCount > 0 ) && ( this.traceOffsets[this.traceHead] <= this.bytesFlushed ) ) {
+			this.latencyTracer.end( LatencyTracer.Stage.WRITE, this.traceStarts[this.traceHead] );
+			this.traceHead = ( this.traceHead + 1 ) % TransportLayer.MAX_PENDING_TRACES;
+			this.traceCount--;
+		}
+	}
+
+	/**
+	 * Discards all pending traces, and restarts the stream offsets.
+	 * <p>
+	 * Must be called while holding the {@link #writeLock}.
+	 */
+	protected void clearTraces() {
+		this.bytesBuffered = 0;
+		this.bytesFlushed = 0;
+		this.traceHead = 0;
+		this.traceCount = 0;
+	}
+
 	/**
 	 * Gets the address of what this is connected to.
 	 * 
@@ -290,9 +844,62 @@ public abstract class TransportLayer {
 	 */
 	abstract void write() throws IOException;
 
+	/**
+	 * Stops or resumes reading from the socket. While paused, only the data already read is parsed, and this does not
+	 * time out.
+	 * 
+	 * @param paused
+	 *            {@code True} to stop reading.
+	 */
+	abstract void pauseReading( boolean paused );
+
 	/**
 	 * Close.
 	 */
 	abstract void close();
 
+	/**
+	 * A serialised Message in the {@link TransportLayer#outboundQueue}.
+	 */
+	protected static class QueuedMessage {
+
+		/**
+		 * The serialised Message.
+		 */
+		byte[] payload;
+
+		/**
+		 * The conflation key, if any.
+		 */
+		final Object conflationKey;
+
+		/**
+		 * The start of the trace, or 0 if not traced.
+		 */
+		long traceStart;
+
+		/**
+		 * The options to switch to after this, if any. Such a Message is sent alone in its Packet.
+		 */
+		final ConnectionOptions connectionOptions;
+
+		/**
+		 * {@code True} iff this defines Strings in the {@link TransportLayer#outboundStringTable}.
+		 */
+		boolean definesStrings = false;
+
+		/**
+		 * The size of the {@link TransportLayer#outboundStringTable} after this was queued.
+		 */
+		int stringTableSize = 0;
+
+		QueuedMessage( final byte[] payload, final Object conflationKey, final long traceStart, final ConnectionOptions connectionOptions ) {
+			this.payload = payload;
+			this.conflationKey = conflationKey;
+			this.traceStart = traceStart;
+			this.connectionOptions = connectionOptions;
+		}
+
+	}
+
 }
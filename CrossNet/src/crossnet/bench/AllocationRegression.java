@@ -0,0 +1,361 @@
+package crossnet.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import crossnet.Connection;
+import crossnet.CrossNetClient;
+import crossnet.CrossNetServer;
+import crossnet.TransportLayer;
+import crossnet.listener.ConnectionListenerAdapter;
+import crossnet.listener.FlyweightListener;
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.Message;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+
+/**
+ * Measures the bytes allocated per operation by the update threads in steady state, using
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, and fails if any exceeds its budget.
+ * <p>
+ * The cycles measured are: Messages echoed between a client and a server, {@link FlyweightMessage}s decoded in place
+ * by the server, ping round trips, and keep alives. Each is warmed up first. Exits with status 1 if a budget is exceeded, such that it can gate a build.
+ * <p>
+ * The budgets are the measured baseline plus about 15% headroom. When an allocation is removed from a hot path, lower
+ * its budget accordingly.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class AllocationRegression {
+
+	private static final int PORT = 55192;
+
+	/**
+	 * Messages per echo cycle.
+	 */
+	private static final int MESSAGES = 50000;
+
+	/**
+	 * Maximum Messages in flight during the echo cycle, such that the send queue does not grow.
+	 */
+	private static final int WINDOW = 256;
+
+	/**
+	 * Duration of the ping and keep alive cycles in milliseconds.
+	 */
+	private static final int CYCLE_MILLIS = 2000;
+
+	/**
+	 * A measurement and its budget.
+	 */
+	private static class Check {
+
+		private final String name;
+
+		private final long budget;
+
+		private final double measured;
+
+		Check( final String name, final long budget, final double measured ) {
+			this.name = name;
+			this.budget = budget;
+			this.measured = measured;
+		}
+
+		boolean passed() {
+			return this.measured <= this.budget;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "%-44s %10.1f B/op  budget %6d  %s", this.name, this.measured, this.budget, this.passed() ? "ok" : "FAIL" );
+		}
+
+	}
+
+	private final com.sun.management.ThreadMXBean threadBean;
+
+	private final CrossNetServer server = new CrossNetServer();
+
+	private final CrossNetClient client = new CrossNetClient();
+
+	/**
+	 * Drives the client update loop with a short select timeout, such that pings and keep alives are sent as often as
+	 * they are due.
+	 */
+	private Thread clientThread;
+
+	private volatile boolean running = true;
+
+	private volatile long clientReceived = 0;
+
+	private volatile long serverFlyweights = 0;
+
+	private final byte[] filler = new byte[64];
+
+	private final List< Check > checks = new ArrayList<>();
+
+	AllocationRegression( final com.sun.management.ThreadMXBean threadBean ) {
+		this.threadBean = threadBean;
+	}
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if ( !( threadBean instanceof com.sun.management.ThreadMXBean ) || !( (com.sun.management.ThreadMXBean) threadBean ).isThreadAllocatedMemorySupported() ) {
+			System.err.println( "Thread allocation measurement is not supported by this JVM." );
+			System.exit( 2 );
+		}
+
+		AllocationRegression allocationRegression = new AllocationRegression( (com.sun.management.ThreadMXBean) threadBean );
+		boolean passed;
+		try {
+			allocationRegression.setUp();
+			passed = allocationRegression.run();
+		} finally {
+			allocationRegression.tearDown();
+		}
+		System.exit( passed ? 0 : 1 );
+	}
+
+	private void setUp() throws IOException {
+		this.threadBean.setThreadAllocatedMemoryEnabled( true );
+
+		this.server.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+		this.server.addConnectionListener( new ConnectionListenerAdapter() {
+
+			@Override
+			public void received( Connection connection, Message message ) {
+				if ( message instanceof BenchmarkMessage ) {
+					connection.send( message );
+				}
+			}
+		} );
+		this.server.getFlyweightRegistry().register( new BenchmarkFlyweight(), new FlyweightListener< BenchmarkFlyweight >() {
+
+			@Override
+			public void received( Connection connection, BenchmarkFlyweight flyweight ) {
+				AllocationRegression.this.serverFlyweights++;
+			}
+		} );
+		this.server.start( "Allocation server" );
+		this.server.bind( AllocationRegression.PORT );
+
+		this.client.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+		this.client.addConnectionListener( new ConnectionListenerAdapter() {
+
+			@Override
+			public void received( Connection connection, Message message ) {
+				if ( message instanceof BenchmarkMessage ) {
+					AllocationRegression.this.clientReceived++;
+				}
+			}
+		} );
+		this.clientThread = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				while ( AllocationRegression.this.running ) {
+					try {
+						AllocationRegression.this.client.update( 1 );
+					} catch ( IOException e ) {
+						Log.error( "CrossNet", "Unable to update connection.", e );
+						AllocationRegression.this.client.close();
+					}
+				}
+			}
+		}, "Allocation client" );
+		this.clientThread.setDaemon( true );
+		this.clientThread.start();
+		this.client.connect( InetAddress.getLoopbackAddress(), AllocationRegression.PORT, 5000 );
+
+		// Only the cycles under test may ping.
+		this.client.getConnection().getTransportLayer().setPing( 0 );
+		AllocationRegression.sleep( 100 );
+		for ( Connection connection : this.server.getConnections() ) {
+			connection.getTransportLayer().setPing( 0 );
+		}
+	}
+
+	private void tearDown() {
+		this.running = false;
+		this.client.close();
+		this.server.stop();
+	}
+
+	/**
+	 * Warms up and measures all cycles, and prints the results.
+	 * 
+	 * @return {@code True} iff all budgets are met.
+	 */
+	private boolean run() {
+		// Warm up
+		this.echoCycle( false );
+		this.flyweightCycle( false );
+		this.pingCycle( false );
+		this.keepAliveCycle( false );
+
+		this.idleCycle();
+		this.echoCycle( true );
+		this.flyweightCycle( true );
+		this.pingCycle( true );
+		this.keepAliveCycle( true );
+
+		boolean passed = true;
+		for ( Check check : this.checks ) {
+			System.out.println( check );
+			passed &= check.passed();
+		}
+		System.out.println( passed ? "All allocation budgets met." : "Allocation budget exceeded." );
+		return passed;
+	}
+
+	/**
+	 * Reports the background allocation of the idle update threads. Not checked.
+	 */
+	private void idleCycle() {
+		long[] before = this.allocatedBytes();
+		AllocationRegression.sleep( AllocationRegression.CYCLE_MILLIS );
+		long[] after = this.allocatedBytes();
+		double seconds = AllocationRegression.CYCLE_MILLIS / 1000.0;
+		System.out.println( String.format( "idle: client update thread %.0f B/s, server update thread %.0f B/s", ( after[1] - before[1] ) / seconds, ( after[2] - before[2] ) / seconds ) );
+	}
+
+	/**
+	 * Sends Messages that the server echoes. The calling thread allocates each Message, so its budget includes that.
+	 */
+	private void echoCycle( boolean measure ) {
+		Connection connection = this.client.getConnection();
+		long base = this.clientReceived;
+		long[] before = this.allocatedBytes();
+		for ( int i = 0; i < AllocationRegression.MESSAGES; i++ ) {
+			while ( ( this.clientReceived + AllocationRegression.WINDOW ) < ( base + i ) ) {
+				Thread.yield();
+			}
+			connection.send( new BenchmarkMessage( i, 0, this.filler ) );
+		}
+		this.awaitReceived( base + AllocationRegression.MESSAGES );
+		long[] after = this.allocatedBytes();
+
+		if ( measure ) {
+			this.check( "echo: send (calling thread)", 900, before[0], after[0], AllocationRegression.MESSAGES );
+			this.check( "echo: client update thread (write, read)", 1250, before[1], after[1], AllocationRegression.MESSAGES );
+			this.check( "echo: server update thread (read, write)", 2100, before[2], after[2], AllocationRegression.MESSAGES );
+		}
+	}
+
+	/**
+	 * Sends FlyweightMessages that the server decodes in place. The calling thread reuses one FlyweightMessage.
+	 */
+	private void flyweightCycle( boolean measure ) {
+		Connection connection = this.client.getConnection();
+		BenchmarkFlyweight flyweight = new BenchmarkFlyweight();
+		FlyweightMessage message = new FlyweightMessage( flyweight );
+		long base = this.serverFlyweights;
+		long[] before = this.allocatedBytes();
+		for ( int i = 0; i < AllocationRegression.MESSAGES; i++ ) {
+			while ( ( this.serverFlyweights + AllocationRegression.WINDOW ) < ( base + i ) ) {
+				Thread.yield();
+			}
+			flyweight.setSequence( i );
+			flyweight.setPosition( i, i, i );
+			connection.send( message );
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while ( this.serverFlyweights < ( base + AllocationRegression.MESSAGES ) ) {
+			if ( System.currentTimeMillis() > deadline ) {
+				throw new IllegalStateException( "Timed out waiting for flyweights." );
+			}
+			Thread.yield();
+		}
+		long[] after = this.allocatedBytes();
+
+		if ( measure ) {
+			this.check( "flyweight: send (calling thread)", 300, before[0], after[0], AllocationRegression.MESSAGES );
+			this.check( "flyweight: server update thread (read)", 24, before[2], after[2], AllocationRegression.MESSAGES );
+		}
+	}
+
+	/**
+	 * Lets the client ping as often as possible.
+	 */
+	private void pingCycle( boolean measure ) {
+		TransportLayer transportLayer = this.client.getConnection().getTransportLayer();
+		long pingsBefore = AllocationRegression.count( transportLayer.getMetrics().getMessagesReceivedByClass(), "PingMessage" );
+		long[] before = this.allocatedBytes();
+		transportLayer.setPing( 1 );
+		AllocationRegression.sleep( AllocationRegression.CYCLE_MILLIS );
+		transportLayer.setPing( 0 );
+		AllocationRegression.sleep( 50 );
+		long[] after = this.allocatedBytes();
+		long pings = AllocationRegression.count( transportLayer.getMetrics().getMessagesReceivedByClass(), "PingMessage" ) - pingsBefore;
+
+		if ( measure ) {
+			this.check( "ping: client update thread (request, reply)", 1550, before[1], after[1], pings );
+			this.check( "ping: server update thread (echo)", 1650, before[2], after[2], pings );
+		}
+	}
+
+	/**
+	 * Lets the client send keep alives as often as possible.
+	 */
+	private void keepAliveCycle( boolean measure ) {
+		TransportLayer transportLayer = this.client.getConnection().getTransportLayer();
+		long keepAlivesBefore = AllocationRegression.count( transportLayer.getMetrics().getMessagesSentByClass(), "KeepAliveMessage" );
+		long[] before = this.allocatedBytes();
+		transportLayer.setKeepAlive( 1 );
+		AllocationRegression.sleep( AllocationRegression.CYCLE_MILLIS );
+		transportLayer.setKeepAlive( 10000 );
+		AllocationRegression.sleep( 50 );
+		long[] after = this.allocatedBytes();
+		long keepAlives = AllocationRegression.count( transportLayer.getMetrics().getMessagesSentByClass(), "KeepAliveMessage" ) - keepAlivesBefore;
+
+		if ( measure ) {
+			this.check( "keepalive: client update thread (send)", 480, before[1], after[1], keepAlives );
+			this.check( "keepalive: server update thread (receive)", 1100, before[2], after[2], keepAlives );
+		}
+	}
+
+	private void check( String name, long budget, long before, long after, long operations ) {
+		if ( operations <= 0 ) {
+			throw new IllegalStateException( "No operations completed for: " + name );
+		}
+		this.checks.add( new Check( name, budget, ( after - before ) / (double) operations ) );
+	}
+
+	private void awaitReceived( long target ) {
+		long deadline = System.currentTimeMillis() + 10000;
+		while ( this.clientReceived < target ) {
+			if ( System.currentTimeMillis() > deadline ) {
+				throw new IllegalStateException( "Timed out waiting for echoes." );
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Gets the bytes allocated so far by the calling thread, the client update thread and the server update thread.
+	 */
+	private long[] allocatedBytes() {
+		return new long[] { this.threadBean.getThreadAllocatedBytes( Thread.currentThread().getId() ), this.threadBean.getThreadAllocatedBytes( this.clientThread.getId() ), this.threadBean.getThreadAllocatedBytes( this.server.getUpdateThread().getId() ) };
+	}
+
+	private static long count( Map< String, Long > counts, String messageClass ) {
+		Long count = counts.get( messageClass );
+		return ( count == null ) ? 0 : count.longValue();
+	}
+
+	private static void sleep( long millis ) {
+		try {
+			Thread.sleep( millis );
+		} catch ( InterruptedException e ) {
+			// Ignored
+		}
+	}
+
+}
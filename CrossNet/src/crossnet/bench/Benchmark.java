@@ -0,0 +1,80 @@
+package crossnet.bench;
+
+/**
+ * A micro benchmark, run by a {@link BenchmarkRunner}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public abstract class Benchmark {
+
+	/**
+	 * The name of this.
+	 */
+	private final String name;
+
+	/**
+	 * The number of operations a single call to {@link #operation()} performs. Used to report the time per operation.
+	 */
+	private final int operationsPerCall;
+
+	public Benchmark( final String name ) {
+		this( name, 1 );
+	}
+
+	public Benchmark( final String name, final int operationsPerCall ) {
+		if ( operationsPerCall < 1 ) {
+			throw new IllegalArgumentException( "operationsPerCall must be positive." );
+		}
+		this.name = name;
+		this.operationsPerCall = operationsPerCall;
+	}
+
+	/**
+	 * Gets the name of this.
+	 * 
+	 * @return The name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the number of operations a single call to {@link #operation()} performs.
+	 * 
+	 * @return The number of operations per call.
+	 */
+	public int getOperationsPerCall() {
+		return this.operationsPerCall;
+	}
+
+	/**
+	 * Prepares the state used by {@link #operation()}. Called once, before warm up.
+	 * 
+	 * @throws Exception
+	 *             If unable to set up.
+	 */
+	public void setUp() throws Exception {
+		// Override this if necessary.
+	}
+
+	/**
+	 * Releases the state used by {@link #operation()}. Called once, after measuring.
+	 * 
+	 * @throws Exception
+	 *             If unable to tear down.
+	 */
+	public void tearDown() throws Exception {
+		// Override this if necessary.
+	}
+
+	/**
+	 * Performs the measured operation.
+	 * 
+	 * @return A value derived from the result, such that the JIT cannot eliminate the work.
+	 * @throws Exception
+	 *             If the operation fails.
+	 */
+	public abstract long operation() throws Exception;
+
+}
@@ -0,0 +1,72 @@
+package crossnet.bench;
+
+import crossnet.message.flyweight.Flyweight;
+
+/**
+ * A Flyweight used by the benchmarks. Has the sequence number and time stamp of a {@link BenchmarkMessage}, and a
+ * position.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BenchmarkFlyweight extends Flyweight {
+
+	public static final int TEMPLATE_ID = 1;
+
+	private static final int SEQUENCE = 0;
+
+	private static final int TIMESTAMP = 4;
+
+	private static final int X = 12;
+
+	private static final int Y = 16;
+
+	private static final int Z = 20;
+
+	private static final int BLOCK_LENGTH = 24;
+
+	@Override
+	public int getTemplateId() {
+		return BenchmarkFlyweight.TEMPLATE_ID;
+	}
+
+	@Override
+	public int getBlockLength() {
+		return BenchmarkFlyweight.BLOCK_LENGTH;
+	}
+
+	public int getSequence() {
+		return this.getInt( BenchmarkFlyweight.SEQUENCE );
+	}
+
+	public void setSequence( int sequence ) {
+		this.putInt( BenchmarkFlyweight.SEQUENCE, sequence );
+	}
+
+	public long getTimestamp() {
+		return this.getLong( BenchmarkFlyweight.TIMESTAMP );
+	}
+
+	public void setTimestamp( long timestamp ) {
+		this.putLong( BenchmarkFlyweight.TIMESTAMP, timestamp );
+	}
+
+	public float getX() {
+		return this.getFloat( BenchmarkFlyweight.X );
+	}
+
+	public float getY() {
+		return this.getFloat( BenchmarkFlyweight.Y );
+	}
+
+	public float getZ() {
+		return this.getFloat( BenchmarkFlyweight.Z );
+	}
+
+	public void setPosition( float x, float y, float z ) {
+		this.putFloat( BenchmarkFlyweight.X, x );
+		this.putFloat( BenchmarkFlyweight.Y, y );
+		this.putFloat( BenchmarkFlyweight.Z, z );
+	}
+
+}
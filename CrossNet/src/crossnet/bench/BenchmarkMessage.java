@@ -0,0 +1,90 @@
+package crossnet.bench;
+
+import java.io.IOException;
+
+import crossnet.log.Log;
+import crossnet.message.AbstractMessageParser;
+import crossnet.message.Message;
+import crossnet.message.crossnet.messages.TieredCrossNetMessage;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * An application Message used by the benchmarks. Carries a sequence number, a time stamp and some filler.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BenchmarkMessage extends TieredCrossNetMessage {
+
+	/**
+	 * The application Message types of the benchmarks.
+	 */
+	public enum Type {
+		BENCHMARK
+	}
+
+	/**
+	 * Parses BenchmarkMessages. Set as the tiered MessageParser of both ends.
+	 */
+	public static class Parser extends AbstractMessageParser< Type > {
+
+		public Parser() {
+			super( Type.class );
+		}
+
+		@Override
+		protected Message parseType( Type messageType, ByteArrayReader payload ) {
+			return BenchmarkMessage.parse( payload );
+		}
+
+	}
+
+	private final int sequence;
+
+	private final long timestamp;
+
+	private final byte[] filler;
+
+	public BenchmarkMessage( final int sequence, final long timestamp, final byte[] filler ) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.filler = filler;
+	}
+
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	public byte[] getFiller() {
+		return this.filler;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeByte( Type.BENCHMARK.ordinal() );
+		to.writeInt( this.sequence );
+		to.writeLong( this.timestamp );
+		to.writeShort( this.filler.length );
+		to.writeByteArray( this.filler );
+	}
+
+	public static BenchmarkMessage parse( ByteArrayReader payload ) {
+		try {
+			int sequence = payload.readInt();
+			long timestamp = payload.readLong();
+			byte[] filler = new byte[payload.readUnsignedShort()];
+			payload.readByteArray( filler );
+			return new BenchmarkMessage( sequence, timestamp, filler );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing BenchmarkMessage:", e );
+		}
+
+		return null;
+	}
+
+}
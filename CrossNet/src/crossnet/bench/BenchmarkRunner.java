@@ -0,0 +1,200 @@
+package crossnet.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link Benchmark}s: a number of timed warm up iterations, followed by a number of timed measurement
+ * iterations. The result is the mean time per operation over the measurement iterations, and its standard deviation.
+ * <p>
+ * This is a small stand in for a full benchmark harness. Run each benchmark main in a fresh JVM, and compare numbers
+ * from the same machine only.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * The result of running a Benchmark.
+	 */
+	public static class Result {
+
+		private final String name;
+
+		private final double nanosPerOperation;
+
+		private final double standardDeviation;
+
+		private final long operations;
+
+		Result( final String name, final double nanosPerOperation, final double standardDeviation, final long operations ) {
+			this.name = name;
+			this.nanosPerOperation = nanosPerOperation;
+			this.standardDeviation = standardDeviation;
+			this.operations = operations;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public double getNanosPerOperation() {
+			return this.nanosPerOperation;
+		}
+
+		public double getStandardDeviation() {
+			return this.standardDeviation;
+		}
+
+		public double getOperationsPerSecond() {
+			return 1e9 / this.nanosPerOperation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "%-48s %12.1f ns/op  +- %8.1f  %14.0f ops/s  (%d ops)", this.name, this.nanosPerOperation, this.standardDeviation, this.getOperationsPerSecond(), this.operations );
+		}
+
+	}
+
+	/**
+	 * Number of warm up iterations.
+	 */
+	private final int warmupIterations;
+
+	/**
+	 * Number of measurement iterations.
+	 */
+	private final int measurementIterations;
+
+	/**
+	 * Duration of each iteration in milliseconds.
+	 */
+	private final int iterationMillis;
+
+	/**
+	 * Consumes the values returned by the Benchmarks.
+	 */
+	private volatile long sink;
+
+	/**
+	 * The results so far.
+	 */
+	private final List< Result > results = new ArrayList<>();
+
+	/**
+	 * Creates a BenchmarkRunner with 5 warm up and 10 measurement iterations of 500 milliseconds.
+	 */
+	public BenchmarkRunner() {
+		this( 5, 10, 500 );
+	}
+
+	public BenchmarkRunner( final int warmupIterations, final int measurementIterations, final int iterationMillis ) {
+		if ( ( warmupIterations < 0 ) || ( measurementIterations < 1 ) || ( iterationMillis < 1 ) ) {
+			throw new IllegalArgumentException( "Invalid iteration setup." );
+		}
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	/**
+	 * Creates a BenchmarkRunner from command line arguments. {@code -quick} selects a short run, for smoke testing.
+	 * 
+	 * @param args
+	 *            The command line arguments.
+	 * @return A new BenchmarkRunner.
+	 */
+	public static BenchmarkRunner fromArguments( String[] args ) {
+		for ( String arg : args ) {
+			if ( "-quick".equals( arg ) ) {
+				return new BenchmarkRunner( 1, 3, 100 );
+			}
+		}
+		return new BenchmarkRunner();
+	}
+
+	/**
+	 * Runs a Benchmark, and prints the Result.
+	 * 
+	 * @param benchmark
+	 *            The Benchmark to run.
+	 * @return The Result.
+	 * @throws Exception
+	 *             If the Benchmark fails.
+	 */
+	public Result run( Benchmark benchmark ) throws Exception {
+		benchmark.setUp();
+		try {
+			for ( int i = 0; i < this.warmupIterations; i++ ) {
+				this.iteration( benchmark );
+			}
+
+			double[] samples = new double[this.measurementIterations];
+			long operations = 0;
+			for ( int i = 0; i < this.measurementIterations; i++ ) {
+				long[] iteration = this.iteration( benchmark );
+				samples[i] = iteration[0] / (double) iteration[1];
+				operations += iteration[1];
+			}
+
+			double mean = 0;
+			for ( double sample : samples ) {
+				mean += sample;
+			}
+			mean /= samples.length;
+
+			double variance = 0;
+			for ( double sample : samples ) {
+				variance += ( sample - mean ) * ( sample - mean );
+			}
+			double standardDeviation = ( samples.length > 1 ) ? Math.sqrt( variance / ( samples.length - 1 ) ) : 0;
+
+			Result result = new Result( benchmark.getName(), mean, standardDeviation, operations );
+			this.results.add( result );
+			System.out.println( result );
+			return result;
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Gets the Results so far.
+	 * 
+	 * @return The Results.
+	 */
+	public List< Result > getResults() {
+		return this.results;
+	}
+
+	/**
+	 * Runs the Benchmark for one iteration.
+	 * 
+	 * @return The elapsed nanoseconds and the number of operations.
+	 */
+	private long[] iteration( Benchmark benchmark ) throws Exception {
+		long deadline = System.nanoTime() + ( this.iterationMillis * 1000000L );
+		long calls = 0;
+		long value = 0;
+		int batch = 1;
+		long start = System.nanoTime();
+		long now;
+		do {
+			for ( int i = 0; i < batch; i++ ) {
+				value += benchmark.operation();
+			}
+			calls += batch;
+			// Grow the batch, such that reading the clock does not dominate fast operations.
+			if ( batch < 1024 ) {
+				batch <<= 1;
+			}
+			now = System.nanoTime();
+		} while ( now < deadline );
+		this.sink += value;
+
+		return new long[] { now - start, calls * benchmark.getOperationsPerCall() };
+	}
+
+}
@@ -0,0 +1,24 @@
+package crossnet.bench;
+
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+
+/**
+ * Runs all the benchmarks. Pass {@code -quick} for a short smoke run.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class Benchmarks {
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark[] benchmarks : new Benchmark[][] { CodecBenchmark.benchmarks(), EncodingBenchmark.benchmarks(), ParserBenchmark.benchmarks(), FramingBenchmark.benchmarks(), LoopbackBenchmark.benchmarks() } ) {
+			for ( Benchmark benchmark : benchmarks ) {
+				runner.run( benchmark );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package crossnet.bench;
+
+import java.io.IOException;
+
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.crossnet.messages.PingMessage;
+import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+import crossnet.util.StringTable;
+
+/**
+ * Benchmarks Message serialisation, and the {@link ByteArrayWriter} and {@link ByteArrayReader}, with and without a
+ * {@link StringTable}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class CodecBenchmark {
+
+	/**
+	 * The repeated names of a typical chat Message.
+	 */
+	private static final String[] NAMES = { "player-Rasmus", "channel-general", "item-longsword", "player-Ljungmann" };
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark benchmark : CodecBenchmark.benchmarks() ) {
+			runner.run( benchmark );
+		}
+	}
+
+	public static Benchmark[] benchmarks() throws IOException {
+		final byte[] filler = new byte[64];
+		final byte[] record = CodecBenchmark.writeRecord( new ByteArrayWriter() );
+		final byte[] names = CodecBenchmark.writeNames( new ByteArrayWriter() );
+
+		// Warm tables, such that the names are only referenced.
+		final StringTable outboundStringTable = new StringTable();
+		final StringTable inboundStringTable = new StringTable();
+		CodecBenchmark.readNames( new ByteArrayReader( CodecBenchmark.writeNames( new ByteArrayWriter( outboundStringTable ) ), inboundStringTable ) );
+		final byte[] sharedNames = CodecBenchmark.writeNames( new ByteArrayWriter( outboundStringTable ) );
+
+		return new Benchmark[] { new Benchmark( "PingMessage.getBytes" ) {
+
+			private int id = 0;
+
+			@Override
+			public long operation() {
+				return new PingMessage( this.id++ ).getBytes().length;
+			}
+		}, new Benchmark( "RegisterMessage.getBytes" ) {
+
+			@Override
+			public long operation() {
+				return new RegisterMessage( 42 ).getBytes().length;
+			}
+		}, new Benchmark( "BenchmarkMessage.getBytes (64B filler)" ) {
+
+			private int sequence = 0;
+
+			@Override
+			public long operation() {
+				return new BenchmarkMessage( this.sequence++, 0, filler ).getBytes().length;
+			}
+		}, new Benchmark( "ByteArrayWriter record (16 ints, long, string)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				return CodecBenchmark.writeRecord( new ByteArrayWriter() ).length;
+			}
+		}, new Benchmark( "ByteArrayReader record (16 ints, long, string)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				ByteArrayReader reader = new ByteArrayReader( record );
+				long sum = 0;
+				for ( int i = 0; i < 16; i++ ) {
+					sum += reader.readInt();
+				}
+				sum += reader.readLong();
+				sum += reader.readString255().length();
+				return sum;
+			}
+		}, new Benchmark( "ByteArrayWriter names (" + names.length + "B)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				return CodecBenchmark.writeNames( new ByteArrayWriter() ).length;
+			}
+		}, new Benchmark( "ByteArrayReader names (" + names.length + "B)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				return CodecBenchmark.readNames( new ByteArrayReader( names ) );
+			}
+		}, new Benchmark( "ByteArrayWriter names with StringTable (" + sharedNames.length + "B)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				return CodecBenchmark.writeNames( new ByteArrayWriter( outboundStringTable ) ).length;
+			}
+		}, new Benchmark( "ByteArrayReader names with StringTable (" + sharedNames.length + "B)" ) {
+
+			@Override
+			public long operation() throws Exception {
+				return CodecBenchmark.readNames( new ByteArrayReader( sharedNames, inboundStringTable ) );
+			}
+		} };
+	}
+
+	/**
+	 * Writes a typical record of 16 ints, a long and a string.
+	 */
+	static byte[] writeRecord( ByteArrayWriter writer ) throws IOException {
+		for ( int i = 0; i < 16; i++ ) {
+			writer.writeInt( i * 1000 );
+		}
+		writer.writeLong( 1234567890123L );
+		writer.writeString255( "CrossNet benchmark" );
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Writes the {@link #NAMES} as shared Strings.
+	 */
+	static byte[] writeNames( ByteArrayWriter writer ) throws IOException {
+		for ( String name : CodecBenchmark.NAMES ) {
+			writer.writeSharedString( name );
+		}
+		return writer.toByteArray();
+	}
+
+	static long readNames( ByteArrayReader reader ) throws IOException {
+		long sum = 0;
+		for ( int i = 0; i < CodecBenchmark.NAMES.length; i++ ) {
+			sum += reader.readSharedString().length();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,362 @@
+package crossnet.bench;
+
+import java.io.IOException;
+import java.util.Random;
+
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.util.BitReader;
+import crossnet.util.BitWriter;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+import crossnet.util.ByteBufferReader;
+import crossnet.util.ByteBufferWriter;
+
+/**
+ * Benchmarks fixed width versus varint versus bit packed encoding of a typical message mix, with the size per record
+ * in the name.
+ * <p>
+ * A record is an entity update: an ID below 1024, a sequence number, a small counter, a small signed delta, a
+ * timestamp and a position of three floats. The varint encoding writes the timestamp as a delta from the previous one.
+ * The bit packed encoding writes the sequence number and timestamp as deltas from a base in the header, each value
+ * with the bits its range needs, and the position quantized to {@value #POSITION_BITS} bits per component.
+ * <p>
+ * Also benchmarks writing and reading arrays of {@value #ARRAY_LENGTH} elements one element at a time versus in bulk,
+ * e.g. a heightmap, and the delta encoding of a sorted int[], in time per element.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class EncodingBenchmark {
+
+	/**
+	 * Number of records written or read per operation.
+	 */
+	private final static int RECORDS = 64;
+
+	/**
+	 * Range of the positions, for quantization.
+	 */
+	private final static float POSITION_RANGE = 512;
+
+	/**
+	 * Bits per quantized position component; i.e. a precision of about 1.6 cm over the range.
+	 */
+	private final static int POSITION_BITS = 16;
+
+	/**
+	 * Number of elements in the arrays.
+	 */
+	private final static int ARRAY_LENGTH = 4096;
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark benchmark : EncodingBenchmark.benchmarks() ) {
+			runner.run( benchmark );
+		}
+	}
+
+	public static Benchmark[] benchmarks() throws IOException {
+		final Mix mix = new Mix( EncodingBenchmark.RECORDS );
+
+		final byte[] fixed = mix.writeFixed( new ByteArrayWriter() );
+		final byte[] fixedBuffer = mix.writeFixed( new ByteBufferWriter() );
+		final byte[] varint = mix.writeVarInt( new ByteBufferWriter() );
+		final byte[] bits = mix.writeBits( new BitWriter() );
+		final String fixedSize = ( fixed.length / EncodingBenchmark.RECORDS ) + "B/record";
+		final String varintSize = ( varint.length / EncodingBenchmark.RECORDS ) + "B/record";
+		final String bitsSize = ( bits.length / EncodingBenchmark.RECORDS ) + "B/record";
+
+		Random random = new Random( 42 );
+		final float[] heightmap = new float[EncodingBenchmark.ARRAY_LENGTH];
+		final int[] sorted = new int[EncodingBenchmark.ARRAY_LENGTH];
+		for ( int i = 0; i < EncodingBenchmark.ARRAY_LENGTH; i++ ) {
+			heightmap[i] = random.nextFloat() * 100;
+			sorted[i] = ( ( i == 0 ) ? 0 : sorted[i - 1] ) + 1 + random.nextInt( 16 );
+		}
+		ByteArrayWriter heightmapWriter = new ByteArrayWriter();
+		heightmapWriter.writeFloatArray( heightmap );
+		final byte[] heightmapBytes = heightmapWriter.toByteArray();
+		ByteArrayWriter sortedWriter = new ByteArrayWriter();
+		sortedWriter.writeDeltaIntArray( sorted, 0, sorted.length );
+		final byte[] sortedBytes = sortedWriter.toByteArray();
+		final String arrayName = "float[" + EncodingBenchmark.ARRAY_LENGTH + "]";
+		final String sortedName = "int[" + EncodingBenchmark.ARRAY_LENGTH + "] (" + String.format( "%.2f", sortedBytes.length / (double) EncodingBenchmark.ARRAY_LENGTH ) + "B/element)";
+
+		return new Benchmark[] { new Benchmark( "ByteArrayWriter fixed mix (" + fixedSize + ")", EncodingBenchmark.RECORDS ) {
+
+			@Override
+			public long operation() throws Exception {
+				return mix.writeFixed( new ByteArrayWriter() ).length;
+			}
+		}, new Benchmark( "ByteArrayReader fixed mix (" + fixedSize + ")", EncodingBenchmark.RECORDS ) {
+
+			@Override
+			public long operation() throws Exception {
+				return mix.readFixed( new ByteArrayReader( fixed ) );
+			}
+		}, new Benchmark( "ByteBufferWriter fixed mix (" + fixedSize + ")", EncodingBenchmark.RECORDS ) {
+
+			private final ByteBufferWriter writer = new ByteBufferWriter( fixedBuffer.length );
+
+			@Override
+			public long operation() throws Exception {
+				this.writer.clear();
+				return mix.writeFixed( this.writer ).length;
+			}
+		}, new Benchmark( "ByteBufferReader fixed mix (" + fixedSize + ")", EncodingBenchmark.RECORDS ) {
+
+			@Override
+			public long operation() throws Exception {
+				return mix.readFixed( new ByteBufferReader( fixedBuffer ) );
+			}
+		}, new Benchmark( "ByteBufferWriter varint mix (" + varintSize + ")", EncodingBenchmark.RECORDS ) {
+
+			private final ByteBufferWriter writer = new ByteBufferWriter( varint.length );
+
+			@Override
+			public long operation() throws Exception {
+				this.writer.clear();
+				return mix.writeVarInt( this.writer ).length;
+			}
+		}, new Benchmark( "ByteBufferReader varint mix (" + varintSize + ")", EncodingBenchmark.RECORDS ) {
+
+			@Override
+			public long operation() throws Exception {
+				return mix.readVarInt( new ByteBufferReader( varint ) );
+			}
+		}, new Benchmark( "BitWriter quantized mix (" + bitsSize + ")", EncodingBenchmark.RECORDS ) {
+
+			private final BitWriter writer = new BitWriter( bits.length );
+
+			@Override
+			public long operation() throws Exception {
+				this.writer.reset();
+				return mix.writeBits( this.writer ).length;
+			}
+		}, new Benchmark( "BitReader quantized mix (" + bitsSize + ")", EncodingBenchmark.RECORDS ) {
+
+			private final BitReader reader = new BitReader( bits );
+
+			@Override
+			public long operation() throws Exception {
+				this.reader.reset( bits, 0, bits.length );
+				return mix.readBits( this.reader );
+			}
+		}, new Benchmark( "ByteArrayWriter " + arrayName + " per element", EncodingBenchmark.ARRAY_LENGTH ) {
+
+			@Override
+			public long operation() throws Exception {
+				ByteArrayWriter writer = new ByteArrayWriter();
+				for ( float height : heightmap ) {
+					writer.writeInt( Float.floatToIntBits( height ) );
+				}
+				return writer.toByteArray().length;
+			}
+		}, new Benchmark( "ByteArrayWriter " + arrayName + " bulk", EncodingBenchmark.ARRAY_LENGTH ) {
+
+			@Override
+			public long operation() throws Exception {
+				ByteArrayWriter writer = new ByteArrayWriter();
+				writer.writeFloatArray( heightmap );
+				return writer.toByteArray().length;
+			}
+		}, new Benchmark( "ByteArrayReader " + arrayName + " per element", EncodingBenchmark.ARRAY_LENGTH ) {
+
+			private final float[] read = new float[EncodingBenchmark.ARRAY_LENGTH];
+
+			@Override
+			public long operation() throws Exception {
+				ByteArrayReader reader = new ByteArrayReader( heightmapBytes );
+				for ( int i = 0; i < this.read.length; i++ ) {
+					this.read[i] = Float.intBitsToFloat( reader.readInt() );
+				}
+				return Float.floatToIntBits( this.read[this.read.length - 1] );
+			}
+		}, new Benchmark( "ByteArrayReader " + arrayName + " bulk", EncodingBenchmark.ARRAY_LENGTH ) {
+
+			private final float[] read = new float[EncodingBenchmark.ARRAY_LENGTH];
+
+			@Override
+			public long operation() throws Exception {
+				new ByteArrayReader( heightmapBytes ).readFloatArray( this.read );
+				return Float.floatToIntBits( this.read[this.read.length - 1] );
+			}
+		}, new Benchmark( "ByteArrayWriter delta " + sortedName, EncodingBenchmark.ARRAY_LENGTH ) {
+
+			@Override
+			public long operation() throws Exception {
+				ByteArrayWriter writer = new ByteArrayWriter();
+				writer.writeDeltaIntArray( sorted, 0, sorted.length );
+				return writer.toByteArray().length;
+			}
+		}, new Benchmark( "ByteArrayReader delta " + sortedName, EncodingBenchmark.ARRAY_LENGTH ) {
+
+			private final int[] read = new int[EncodingBenchmark.ARRAY_LENGTH];
+
+			@Override
+			public long operation() throws Exception {
+				new ByteArrayReader( sortedBytes ).readDeltaIntArray( this.read, 0, this.read.length );
+				return this.read[this.read.length - 1];
+			}
+		} };
+	}
+
+	/**
+	 * The values of a number of records, generated from a fixed seed.
+	 */
+	private static class Mix {
+
+		private final int[] ids;
+		private final int[] sequences;
+		private final int[] counters;
+		private final int[] deltas;
+		private final long[] timestamps;
+		private final float[] positions;
+
+		Mix( int records ) {
+			Random random = new Random( 42 );
+			this.ids = new int[records];
+			this.sequences = new int[records];
+			this.counters = new int[records];
+			this.deltas = new int[records];
+			this.timestamps = new long[records];
+			this.positions = new float[records * 3];
+
+			long timestamp = 1400000000000L;
+			for ( int i = 0; i < records; i++ ) {
+				this.ids[i] = random.nextInt( 1024 );
+				this.sequences[i] = 100000 + i;
+				this.counters[i] = random.nextInt( 16 );
+				this.deltas[i] = random.nextInt( 129 ) - 64;
+				timestamp += random.nextInt( 50 );
+				this.timestamps[i] = timestamp;
+				for ( int j = 0; j < 3; j++ ) {
+					this.positions[( i * 3 ) + j] = ( random.nextFloat() - 0.5f ) * 1000;
+				}
+			}
+		}
+
+		byte[] writeFixed( ByteArrayWriter writer ) throws IOException {
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				writer.writeInt( this.ids[i] );
+				writer.writeInt( this.sequences[i] );
+				writer.writeInt( this.counters[i] );
+				writer.writeInt( this.deltas[i] );
+				writer.writeLong( this.timestamps[i] );
+				for ( int j = 0; j < 3; j++ ) {
+					writer.writeInt( Float.floatToIntBits( this.positions[( i * 3 ) + j] ) );
+				}
+			}
+			return writer.toByteArray();
+		}
+
+		byte[] writeFixed( ByteBufferWriter writer ) {
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				writer.writeInt( this.ids[i] );
+				writer.writeInt( this.sequences[i] );
+				writer.writeInt( this.counters[i] );
+				writer.writeInt( this.deltas[i] );
+				writer.writeLong( this.timestamps[i] );
+				for ( int j = 0; j < 3; j++ ) {
+					writer.writeFloat( this.positions[( i * 3 ) + j] );
+				}
+			}
+			return writer.toByteArray();
+		}
+
+		byte[] writeVarInt( ByteBufferWriter writer ) {
+			long previousTimestamp = 0;
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				writer.writeVarInt( this.ids[i] );
+				writer.writeVarInt( this.sequences[i] );
+				writer.writeVarInt( this.counters[i] );
+				writer.writeSignedVarInt( this.deltas[i] );
+				writer.writeSignedVarLong( this.timestamps[i] - previousTimestamp );
+				previousTimestamp = this.timestamps[i];
+				for ( int j = 0; j < 3; j++ ) {
+					writer.writeFloat( this.positions[( i * 3 ) + j] );
+				}
+			}
+			return writer.toByteArray();
+		}
+
+		byte[] writeBits( BitWriter writer ) {
+			writer.writeBits( this.sequences[0], 32 );
+			writer.writeLong( this.timestamps[0], 64 );
+			int previousSequence = this.sequences[0];
+			long previousTimestamp = this.timestamps[0];
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				writer.writeInt( this.ids[i], 0, 1023 );
+				writer.writeInt( this.sequences[i] - previousSequence, 0, 15 );
+				previousSequence = this.sequences[i];
+				writer.writeInt( this.counters[i], 0, 15 );
+				writer.writeInt( this.deltas[i], -64, 64 );
+				writer.writeInt( (int) ( this.timestamps[i] - previousTimestamp ), 0, 63 );
+				previousTimestamp = this.timestamps[i];
+				for ( int j = 0; j < 3; j++ ) {
+					writer.writeFloat( this.positions[( i * 3 ) + j], -EncodingBenchmark.POSITION_RANGE, EncodingBenchmark.POSITION_RANGE, EncodingBenchmark.POSITION_BITS );
+				}
+			}
+			return writer.toByteArray();
+		}
+
+		long readFixed( ByteArrayReader reader ) throws IOException {
+			long sum = 0;
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+				sum += reader.readLong();
+				for ( int j = 0; j < 3; j++ ) {
+					sum += (long) Float.intBitsToFloat( reader.readInt() );
+				}
+			}
+			return sum;
+		}
+
+		long readFixed( ByteBufferReader reader ) throws IOException {
+			long sum = 0;
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				sum += reader.readInt() + reader.readInt() + reader.readInt() + reader.readInt();
+				sum += reader.readLong();
+				for ( int j = 0; j < 3; j++ ) {
+					sum += (long) reader.readFloat();
+				}
+			}
+			return sum;
+		}
+
+		long readVarInt( ByteBufferReader reader ) throws IOException {
+			long sum = 0;
+			long timestamp = 0;
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				sum += reader.readVarInt() + reader.readVarInt() + reader.readVarInt() + reader.readSignedVarInt();
+				timestamp += reader.readSignedVarLong();
+				sum += timestamp;
+				for ( int j = 0; j < 3; j++ ) {
+					sum += (long) reader.readFloat();
+				}
+			}
+			return sum;
+		}
+
+		long readBits( BitReader reader ) throws IOException {
+			long sum = 0;
+			int sequence = reader.readBits( 32 );
+			long timestamp = reader.readLong( 64 );
+			for ( int i = 0; i < this.ids.length; i++ ) {
+				sum += reader.readInt( 0, 1023 );
+				sequence += reader.readInt( 0, 15 );
+				sum += sequence + reader.readInt( 0, 15 ) + reader.readInt( -64, 64 );
+				timestamp += reader.readInt( 0, 63 );
+				sum += timestamp;
+				for ( int j = 0; j < 3; j++ ) {
+					sum += (long) reader.readFloat( -EncodingBenchmark.POSITION_RANGE, EncodingBenchmark.POSITION_RANGE, EncodingBenchmark.POSITION_BITS );
+				}
+			}
+			return sum;
+		}
+
+	}
+
+}
@@ -0,0 +1,158 @@
+package crossnet.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import crossnet.message.Message;
+import crossnet.message.crossnet.CrossNetMessageParser;
+import crossnet.message.crossnet.messages.KeepAliveMessage;
+import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.packet.Packet;
+import crossnet.packet.PacketFactory;
+import crossnet.packet.length.LengthPacketFactory;
+import crossnet.util.ByteArrayReader;
+
+/**
+ * The clients of {@link MemoryFootprint}, run in a separate JVM such that they do not count towards the measured heap.
+ * <p>
+ * Reads commands from standard input, one per line, and answers {@code done} on standard output when completed:
+ * <ul>
+ * <li>{@code idle n}: opens n Connections, that only register.</li>
+ * <li>{@code active n m}: opens n Connections, that each send m Messages and read the echoes.</li>
+ * <li>{@code keepalive}: sends a keep alive on every Connection, such that the server does not time them out.</li>
+ * <li>{@code quit}: closes all Connections and exits.</li>
+ * </ul>
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+class FootprintClients {
+
+	private final InetSocketAddress serverAddress;
+
+	private final List< SocketChannel > channels = new ArrayList<>();
+
+	private final PacketFactory packetFactory = new LengthPacketFactory();
+
+	private final CrossNetMessageParser messageParser = new CrossNetMessageParser();
+
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect( 1 << 16 );
+
+	private final byte[] keepAliveFrame;
+
+	/**
+	 * When keep alives were last sent.
+	 */
+	private long lastKeepAliveMillis = 0;
+
+	FootprintClients( final int port ) {
+		this.serverAddress = new InetSocketAddress( InetAddress.getLoopbackAddress(), port );
+		this.messageParser.setTieredMessageParser( new BenchmarkMessage.Parser() );
+		this.keepAliveFrame = this.packetFactory.newPacket( new KeepAliveMessage().getBytes() ).toBytes();
+	}
+
+	public static void main( String[] args ) throws IOException {
+		FootprintClients footprintClients = new FootprintClients( Integer.parseInt( args[0] ) );
+		BufferedReader in = new BufferedReader( new InputStreamReader( System.in ) );
+		String line;
+		while ( ( line = in.readLine() ) != null ) {
+			String[] command = line.trim().split( " " );
+			switch ( command[0] ) {
+				case "idle":
+					footprintClients.open( Integer.parseInt( command[1] ), 0 );
+					break;
+				case "active":
+					footprintClients.open( Integer.parseInt( command[1] ), Integer.parseInt( command[2] ) );
+					break;
+				case "keepalive":
+					footprintClients.keepAlive();
+					break;
+				case "quit":
+					footprintClients.close();
+					return;
+				default:
+					throw new IllegalArgumentException( "Unknown command: " + line );
+			}
+			System.out.println( "done" );
+			System.out.flush();
+		}
+	}
+
+	/**
+	 * Opens Connections, and waits until each is registered and has its echoes back.
+	 */
+	private void open( int count, int messages ) throws IOException {
+		byte[] filler = new byte[64];
+		for ( int i = 0; i < count; i++ ) {
+			if ( ( System.currentTimeMillis() - this.lastKeepAliveMillis ) > 2000 ) {
+				// Opening many Connections can take longer than the server timeout.
+				this.keepAlive();
+			}
+
+			SocketChannel channel = SocketChannel.open( this.serverAddress );
+			channel.socket().setTcpNoDelay( true );
+			this.channels.add( channel );
+			this.readBuffer.clear();
+			this.await( channel, RegisterMessage.class, 1 );
+
+			if ( messages > 0 ) {
+				ByteBuffer frames = ByteBuffer.allocate( messages * 128 );
+				for ( int j = 0; j < messages; j++ ) {
+					frames.put( this.packetFactory.newPacket( new BenchmarkMessage( j, 0, filler ).getBytes() ).toBytes() );
+				}
+				frames.flip();
+				while ( frames.hasRemaining() ) {
+					channel.write( frames );
+				}
+				this.await( channel, BenchmarkMessage.class, messages );
+			}
+		}
+	}
+
+	/**
+	 * Reads from a Connection until a number of Messages of a class have arrived. Anything read after is discarded.
+	 */
+	private void await( SocketChannel channel, Class< ? extends Message > messageClass, int count ) throws IOException {
+		int received = 0;
+		while ( received < count ) {
+			if ( channel.read( this.readBuffer ) == -1 ) {
+				throw new IOException( "Closed by server." );
+			}
+			Packet packet;
+			while ( ( packet = this.packetFactory.parseData( this.readBuffer ) ) != null ) {
+				if ( messageClass.isInstance( this.messageParser.parseData( new ByteArrayReader( packet.getPayload() ) ) ) ) {
+					received++;
+				}
+			}
+		}
+		this.readBuffer.clear();
+	}
+
+	private void keepAlive() throws IOException {
+		this.lastKeepAliveMillis = System.currentTimeMillis();
+		for ( SocketChannel channel : this.channels ) {
+			ByteBuffer frame = ByteBuffer.wrap( this.keepAliveFrame );
+			while ( frame.hasRemaining() ) {
+				channel.write( frame );
+			}
+		}
+	}
+
+	private void close() {
+		for ( SocketChannel channel : this.channels ) {
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+				// Ignored
+			}
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package crossnet.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.packet.PacketFactory;
+import crossnet.packet.length.LengthPacketFactory;
+import crossnet.packet.lflf.LFLFPacketFactory;
+import crossnet.packet.varint.VarIntLengthPacketFactory;
+
+/**
+ * Benchmarks {@link PacketFactory#parseData(ByteBuffer)} of the {@link LengthPacketFactory}, the
+ * {@link LFLFPacketFactory} and the {@link VarIntLengthPacketFactory}, on a read buffer holding a burst of Packets,
+ * and on a large Packet arriving in many small reads.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class FramingBenchmark {
+
+	/**
+	 * Size of the Packet payloads.
+	 */
+	private static final int PAYLOAD_SIZE = 100;
+
+	/**
+	 * Bytes per read of the fragmented Packet.
+	 */
+	private static final int READ_SIZE = 16;
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark benchmark : FramingBenchmark.benchmarks() ) {
+			runner.run( benchmark );
+		}
+	}
+
+	public static Benchmark[] benchmarks() {
+		return new Benchmark[] { FramingBenchmark.parseBurst( "LengthPacketFactory.parseData", new LengthPacketFactory() ), FramingBenchmark.parseBurst( "LFLFPacketFactory.parseData", new LFLFPacketFactory() ), FramingBenchmark.parseBurst( "VarIntLengthPacketFactory.parseData", new VarIntLengthPacketFactory() ), FramingBenchmark.parseFragmented( "LengthPacketFactory.parseData", new LengthPacketFactory() ), FramingBenchmark.parseFragmented( "LFLFPacketFactory.parseData", new LFLFPacketFactory() ) };
+	}
+
+	/**
+	 * Creates a Benchmark that parses as many Packets as fit in the read buffer of the PacketFactory. The time is
+	 * reported per Packet.
+	 */
+	private static Benchmark parseBurst( String name, final PacketFactory packetFactory ) {
+		// Fill at most the read buffer, as TcpTransportLayer would.
+		byte[] payload = new byte[FramingBenchmark.PAYLOAD_SIZE];
+		Arrays.fill( payload, (byte) 'x' );
+		byte[] packetBytes = packetFactory.newPacket( payload ).toBytes();
+		final int packets = Math.min( 64, packetFactory.getMaxPacketSize() / packetBytes.length );
+		final byte[] burst = new byte[packets * packetBytes.length];
+		for ( int i = 0; i < packets; i++ ) {
+			System.arraycopy( packetBytes, 0, burst, i * packetBytes.length, packetBytes.length );
+		}
+		final ByteBuffer readBuffer = ByteBuffer.allocate( packetFactory.getMaxPacketSize() );
+
+		return new Benchmark( name + " (" + packets + " x " + FramingBenchmark.PAYLOAD_SIZE + "B)", packets ) {
+
+			@Override
+			public long operation() {
+				readBuffer.clear();
+				readBuffer.put( burst );
+				long parsed = 0;
+				while ( packetFactory.parseData( readBuffer ) != null ) {
+					parsed++;
+				}
+				if ( parsed != packets ) {
+					throw new IllegalStateException( "Parsed " + parsed + " of " + packets + " Packets." );
+				}
+				return parsed;
+			}
+		};
+	}
+
+	/**
+	 * Creates a Benchmark that parses a Packet of the maximum payload size, that arrives {@link #READ_SIZE} bytes at a
+	 * time. The time is reported per Packet.
+	 */
+	private static Benchmark parseFragmented( String name, final PacketFactory packetFactory ) {
+		byte[] payload = new byte[packetFactory.getMaxPayloadSize()];
+		Arrays.fill( payload, (byte) 'x' );
+		final byte[] packetBytes = packetFactory.newPacket( payload ).toBytes();
+		final ByteBuffer readBuffer = ByteBuffer.allocate( packetFactory.getMaxPacketSize() );
+
+		return new Benchmark( name + " (" + payload.length + "B in " + FramingBenchmark.READ_SIZE + "B reads)" ) {
+
+			@Override
+			public long operation() {
+				readBuffer.clear();
+				Object packet = null;
+				for ( int offset = 0; offset < packetBytes.length; offset += FramingBenchmark.READ_SIZE ) {
+					readBuffer.put( packetBytes, offset, Math.min( FramingBenchmark.READ_SIZE, packetBytes.length - offset ) );
+					packet = packetFactory.parseData( readBuffer );
+				}
+				if ( packet == null ) {
+					throw new IllegalStateException( "Packet not parsed." );
+				}
+				return packet.hashCode();
+			}
+		};
+	}
+
+}
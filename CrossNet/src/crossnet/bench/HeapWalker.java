@@ -0,0 +1,249 @@
+package crossnet.bench;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the heap retained by object graphs, by walking them with reflection and summing estimated shallow sizes.
+ * <p>
+ * Sizes assume a 64 bit JVM with compressed references: 12 byte object headers, 16 byte array headers, 4 byte
+ * references and 8 byte alignment. Objects are counted once across all walks, such that consecutive walks attribute
+ * shared objects to the first that reaches them.
+ * <p>
+ * From Java 9, the internals of the JDK classes cannot be read without {@code --add-opens}. Such objects are then
+ * counted by their shallow size only, except that the backing arrays of {@link ByteBuffer}s and the elements of
+ * {@link Collection}s and {@link Map}s are still followed.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+class HeapWalker {
+
+	private static final int OBJECT_HEADER = 12;
+
+	private static final int ARRAY_HEADER = 16;
+
+	private static final int REFERENCE = 4;
+
+	/**
+	 * The objects counted so far, or excluded.
+	 */
+	private final Set< Object > visited = Collections.newSetFromMap( new IdentityHashMap< Object, Boolean >() );
+
+	/**
+	 * The instance fields of the classes seen, including inherited ones.
+	 */
+	private final Map< Class< ? >, List< Field > > fieldCache = new HashMap<>();
+
+	/**
+	 * Number of objects whose fields could not be read.
+	 */
+	private long opaqueObjects = 0;
+
+	/**
+	 * Number of bytes of direct buffers reached.
+	 */
+	private long directBytes = 0;
+
+	/**
+	 * Marks an object as already counted, such that walks stop at it.
+	 * 
+	 * @param object
+	 *            The object to exclude.
+	 */
+	void exclude( Object object ) {
+		if ( object != null ) {
+			this.visited.add( object );
+		}
+	}
+
+	/**
+	 * Walks everything reachable from a root and marks it as counted, without stepping into the given objects; e.g. to
+	 * exclude everything shared between Connections, but not the Connections themselves.
+	 * 
+	 * @param root
+	 *            The root of the shared graph.
+	 * @param stops
+	 *            Objects not to step into.
+	 */
+	void excludeReachable( Object root, Collection< ? > stops ) {
+		Set< Object > stopSet = Collections.newSetFromMap( new IdentityHashMap< Object, Boolean >() );
+		stopSet.addAll( stops );
+		this.walk( root, stopSet );
+	}
+
+	/**
+	 * Walks everything reachable from a root, that is not counted yet, and counts it.
+	 * 
+	 * @param root
+	 *            The root to walk from.
+	 * @return The number of objects and their estimated size in bytes.
+	 */
+	long[] measure( Object root ) {
+		return this.walk( root, Collections.emptySet() );
+	}
+
+	/**
+	 * Gets the estimated shallow size of an object.
+	 * 
+	 * @param object
+	 *            The object.
+	 * @return The estimated size in bytes.
+	 */
+	long shallowSize( Object object ) {
+		Class< ? > type = object.getClass();
+		if ( type.isArray() ) {
+			Class< ? > component = type.getComponentType();
+			int elementSize = component.isPrimitive() ? HeapWalker.primitiveSize( component ) : HeapWalker.REFERENCE;
+			return HeapWalker.align( HeapWalker.ARRAY_HEADER + ( (long) Array.getLength( object ) * elementSize ) );
+		}
+
+		long size = HeapWalker.OBJECT_HEADER;
+		for ( Field field : this.fields( type ) ) {
+			Class< ? > fieldType = field.getType();
+			size += fieldType.isPrimitive() ? HeapWalker.primitiveSize( fieldType ) : HeapWalker.REFERENCE;
+		}
+		return HeapWalker.align( size );
+	}
+
+	long getOpaqueObjects() {
+		return this.opaqueObjects;
+	}
+
+	long getDirectBytes() {
+		return this.directBytes;
+	}
+
+	/**
+	 * Gets the instance fields of a class and its super classes, that can be read.
+	 * 
+	 * @param type
+	 *            The class.
+	 * @return The fields.
+	 */
+	List< Field > fields( Class< ? > type ) {
+		List< Field > fields = this.fieldCache.get( type );
+		if ( fields == null ) {
+			fields = new ArrayList<>();
+			for ( Class< ? > current = type; current != null; current = current.getSuperclass() ) {
+				for ( Field field : current.getDeclaredFields() ) {
+					if ( !Modifier.isStatic( field.getModifiers() ) ) {
+						fields.add( field );
+					}
+				}
+			}
+			this.fieldCache.put( type, fields );
+		}
+		return fields;
+	}
+
+	private long[] walk( Object root, Set< Object > stops ) {
+		long objects = 0;
+		long bytes = 0;
+		Deque< Object > stack = new ArrayDeque<>();
+		if ( root != null ) {
+			stack.push( root );
+		}
+
+		while ( !stack.isEmpty() ) {
+			Object object = stack.pop();
+			if ( stops.contains( object ) || !this.visited.add( object ) || HeapWalker.isGlobal( object ) ) {
+				continue;
+			}
+			objects++;
+			bytes += this.shallowSize( object );
+
+			Class< ? > type = object.getClass();
+			if ( type.isArray() ) {
+				if ( !type.getComponentType().isPrimitive() ) {
+					for ( int i = 0; i < Array.getLength( object ); i++ ) {
+						HeapWalker.push( stack, Array.get( object, i ) );
+					}
+				}
+				continue;
+			}
+
+			boolean readable = true;
+			for ( Field field : this.fields( type ) ) {
+				if ( field.getType().isPrimitive() ) {
+					continue;
+				}
+				try {
+					field.setAccessible( true );
+					HeapWalker.push( stack, field.get( object ) );
+				} catch ( IllegalAccessException | RuntimeException e ) {
+					// E.g. JDK internals from Java 9.
+					readable = false;
+					break;
+				}
+			}
+			if ( readable ) {
+				continue;
+			}
+
+			this.opaqueObjects++;
+			if ( object instanceof ByteBuffer ) {
+				ByteBuffer byteBuffer = (ByteBuffer) object;
+				if ( byteBuffer.hasArray() ) {
+					HeapWalker.push( stack, byteBuffer.array() );
+				} else if ( byteBuffer.isDirect() ) {
+					this.directBytes += byteBuffer.capacity();
+				}
+			} else if ( object instanceof Collection ) {
+				for ( Object element : (Collection< ? >) object ) {
+					HeapWalker.push( stack, element );
+				}
+			} else if ( object instanceof Map ) {
+				for ( Map.Entry< ?, ? > entry : ( (Map< ?, ? >) object ).entrySet() ) {
+					HeapWalker.push( stack, entry.getKey() );
+					HeapWalker.push( stack, entry.getValue() );
+				}
+			}
+		}
+
+		return new long[] { objects, bytes };
+	}
+
+	private static void push( Deque< Object > stack, Object object ) {
+		if ( object != null ) {
+			stack.push( object );
+		}
+	}
+
+	/**
+	 * Determines if an object belongs to the JVM rather than to any object graph, e.g. a Class.
+	 */
+	private static boolean isGlobal( Object object ) {
+		return ( object instanceof Class ) || ( object instanceof ClassLoader ) || ( object instanceof Thread ) || ( object instanceof ThreadGroup );
+	}
+
+	private static int primitiveSize( Class< ? > type ) {
+		if ( ( type == long.class ) || ( type == double.class ) ) {
+			return 8;
+		}
+		if ( ( type == int.class ) || ( type == float.class ) ) {
+			return 4;
+		}
+		if ( ( type == short.class ) || ( type == char.class ) ) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private static long align( long size ) {
+		return ( size + 7 ) & ~7L;
+	}
+
+}
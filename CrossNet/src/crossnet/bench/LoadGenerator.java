@@ -0,0 +1,296 @@
+package crossnet.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import crossnet.Connection;
+import crossnet.CrossNetServer;
+import crossnet.listener.ConnectionListenerAdapter;
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.Message;
+import crossnet.metrics.LogHistogram;
+import crossnet.metrics.ServerMetrics;
+
+/**
+ * Load test tool, that drives thousands of simulated clients against an embedded {@link CrossNetServer} on the
+ * loopback interface, to find the connection and Message rate ceiling of the server.
+ * <p>
+ * Each simulated client sends {@link BenchmarkMessage}s at a fixed rate. The server echoes them, or broadcasts them to
+ * all clients at the given ratio. Clients can be forcibly reconnected at a given churn rate. Every second the
+ * throughput, the round trip time percentiles, the CPU use of the server update thread and the heap per Connection are
+ * reported, followed by a summary at the end.
+ * <p>
+ * The simulated clients run in the same JVM, on their own threads (see {@link LoadWorker}). Their buffers are direct,
+ * so the heap per Connection is mostly that of the server side, but the CPU of the machine is shared.
+ * <p>
+ * Usage: {@code LoadGenerator [-clients n] [-size bytes] [-rate msg/s] [-broadcast ratio] [-churn conn/s]
+ * [-connectrate conn/s] [-duration s] [-workers n] [-port port]}
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class LoadGenerator {
+
+	/**
+	 * Number of simulated clients.
+	 */
+	private int clients = 1000;
+
+	/**
+	 * Filler bytes per Message.
+	 */
+	private int messageSize = 64;
+
+	/**
+	 * Messages per second per client.
+	 */
+	private double sendRate = 10;
+
+	/**
+	 * Ratio of the Messages that the server broadcasts to all clients, rather than echoes.
+	 */
+	private double broadcastRatio = 0;
+
+	/**
+	 * Forced reconnects per second, across all clients.
+	 */
+	private double churnRate = 0;
+
+	/**
+	 * Connects per second while ramping up, across all clients.
+	 */
+	private double connectRate = 2000;
+
+	/**
+	 * Duration of the test in seconds.
+	 */
+	private int durationSeconds = 30;
+
+	/**
+	 * Number of threads driving the simulated clients.
+	 */
+	private int workers = Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() / 2 ) );
+
+	private int port = 55191;
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		LoadGenerator loadGenerator = new LoadGenerator();
+		try {
+			loadGenerator.parseArguments( args );
+		} catch ( IllegalArgumentException e ) {
+			System.err.println( e.getMessage() );
+			System.err.println( "Usage: LoadGenerator [-clients n] [-size bytes] [-rate msg/s] [-broadcast ratio] [-churn conn/s] [-connectrate conn/s] [-duration s] [-workers n] [-port port]" );
+			System.exit( 2 );
+		}
+		loadGenerator.run();
+	}
+
+	/**
+	 * Sets the options given on the command line.
+	 * 
+	 * @param args
+	 *            The command line arguments.
+	 */
+	public void parseArguments( String[] args ) {
+		for ( int i = 0; i < args.length; i++ ) {
+			String option = args[i];
+			if ( ( i + 1 ) == args.length ) {
+				throw new IllegalArgumentException( "Missing value for " + option );
+			}
+			String value = args[++i];
+			try {
+				switch ( option ) {
+					case "-clients":
+						this.clients = Integer.parseInt( value );
+						break;
+					case "-size":
+						this.messageSize = Integer.parseInt( value );
+						break;
+					case "-rate":
+						this.sendRate = Double.parseDouble( value );
+						break;
+					case "-broadcast":
+						this.broadcastRatio = Double.parseDouble( value );
+						break;
+					case "-churn":
+						this.churnRate = Double.parseDouble( value );
+						break;
+					case "-connectrate":
+						this.connectRate = Double.parseDouble( value );
+						break;
+					case "-duration":
+						this.durationSeconds = Integer.parseInt( value );
+						break;
+					case "-workers":
+						this.workers = Integer.parseInt( value );
+						break;
+					case "-port":
+						this.port = Integer.parseInt( value );
+						break;
+					default:
+						throw new IllegalArgumentException( "Unknown option: " + option );
+				}
+			} catch ( NumberFormatException e ) {
+				throw new IllegalArgumentException( "Invalid value for " + option + ": " + value );
+			}
+		}
+
+		if ( ( this.clients < 1 ) || ( this.workers < 1 ) || ( this.durationSeconds < 1 ) || ( this.connectRate <= 0 ) ) {
+			throw new IllegalArgumentException( "clients, workers, duration and connectrate must be positive." );
+		}
+		if ( ( this.messageSize < 0 ) || ( this.sendRate < 0 ) || ( this.churnRate < 0 ) || ( this.broadcastRatio < 0 ) || ( this.broadcastRatio > 1 ) ) {
+			throw new IllegalArgumentException( "size, rate and churn cannot be negative, and broadcast must be within [0, 1]." );
+		}
+		this.workers = Math.min( this.workers, this.clients );
+	}
+
+	/**
+	 * Runs the load test, and prints the reports.
+	 * 
+	 * @throws IOException
+	 *             If the server could not bind, or the workers could not open their Selectors.
+	 */
+	public void run() throws IOException {
+		final CrossNetServer server = new CrossNetServer();
+		server.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+		server.addConnectionListener( new ConnectionListenerAdapter() {
+
+			@Override
+			public void received( Connection connection, Message message ) {
+				if ( message instanceof BenchmarkMessage ) {
+					if ( ( (BenchmarkMessage) message ).getSequence() < 0 ) {
+						server.sendToAll( message );
+					} else {
+						connection.send( message );
+					}
+				}
+			}
+		} );
+		server.start( "LoadGenerator server" );
+		server.bind( this.port );
+
+		MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long serverThreadId = server.getUpdateThread().getId();
+		boolean cpuTimeSupported = threadBean.isThreadCpuTimeSupported();
+
+		System.gc();
+		long baselineHeap = memoryBean.getHeapMemoryUsage().getUsed();
+
+		System.out.println( String.format( "%d clients, %dB filler, %.1f msg/s per client, %.1f%% broadcast, %.1f reconnects/s, %d workers, %ds", this.clients, this.messageSize, this.sendRate, this.broadcastRatio * 100, this.churnRate, this.workers, this.durationSeconds ) );
+
+		InetSocketAddress serverAddress = new InetSocketAddress( InetAddress.getLoopbackAddress(), this.port );
+		LoadWorker[] loadWorkers = new LoadWorker[this.workers];
+		int firstIndex = 0;
+		for ( int i = 0; i < this.workers; i++ ) {
+			int count = ( this.clients / this.workers ) + ( ( i < ( this.clients % this.workers ) ) ? 1 : 0 );
+			loadWorkers[i] = new LoadWorker( serverAddress, firstIndex, count, this.messageSize, this.sendRate, this.broadcastRatio, this.connectRate / this.workers, this.churnRate / this.workers );
+			firstIndex += count;
+		}
+		for ( int i = 0; i < this.workers; i++ ) {
+			loadWorkers[i].start( "LoadGenerator worker " + i );
+		}
+
+		LogHistogram totalRoundTripTimes = new LogHistogram();
+		long heapPerConnection = -1;
+		long lastSent = 0;
+		long lastReceived = 0;
+		long lastBroadcasts = 0;
+		long lastServerCpu = cpuTimeSupported ? threadBean.getThreadCpuTime( serverThreadId ) : 0;
+		long startNanos = System.nanoTime();
+		long lastNanos = startNanos;
+		long peakReceivedRate = 0;
+
+		for ( int second = 1; second <= this.durationSeconds; second++ ) {
+			try {
+				Thread.sleep( Math.max( 0, ( ( startNanos + ( second * 1000000000L ) ) - System.nanoTime() ) / 1000000 ) );
+			} catch ( InterruptedException e ) {
+				// Ignored
+			}
+
+			long now = System.nanoTime();
+			double elapsedSeconds = ( now - lastNanos ) / 1e9;
+			lastNanos = now;
+
+			int connected = 0;
+			long sent = 0;
+			long received = 0;
+			long broadcasts = 0;
+			LogHistogram roundTripTimes = new LogHistogram();
+			for ( LoadWorker loadWorker : loadWorkers ) {
+				connected += loadWorker.getConnected();
+				sent += loadWorker.getMessagesSent();
+				received += loadWorker.getEchoesReceived();
+				broadcasts += loadWorker.getBroadcastsReceived();
+				loadWorker.swapRoundTripTimes().add( roundTripTimes );
+			}
+			roundTripTimes.add( totalRoundTripTimes );
+
+			long receivedRate = (long) ( ( received - lastReceived ) / elapsedSeconds );
+			peakReceivedRate = Math.max( peakReceivedRate, receivedRate );
+
+			String serverCpu = "n/a";
+			if ( cpuTimeSupported ) {
+				long serverCpuTime = threadBean.getThreadCpuTime( serverThreadId );
+				serverCpu = String.format( "%3.0f%%", ( ( serverCpuTime - lastServerCpu ) / 1e9 / elapsedSeconds ) * 100 );
+				lastServerCpu = serverCpuTime;
+			}
+
+			if ( ( heapPerConnection < 0 ) && ( connected == this.clients ) ) {
+				// Measure once, when fully ramped up.
+				System.gc();
+				heapPerConnection = ( memoryBean.getHeapMemoryUsage().getUsed() - baselineHeap ) / connected;
+			}
+
+			System.out.println( String.format( "%3ds  clients %6d  sent %8d/s  echoed %8d/s  broadcast %9d/s  rtt p50 %7.0fus p99 %7.0fus p99.9 %7.0fus  server cpu %s  heap %5.1fMB", second, connected, (long) ( ( sent - lastSent ) / elapsedSeconds ), receivedRate, (long) ( ( broadcasts - lastBroadcasts ) / elapsedSeconds ), roundTripTimes.getValueAtPercentile( 50 ) / 1e3, roundTripTimes.getValueAtPercentile( 99 ) / 1e3, roundTripTimes.getValueAtPercentile( 99.9 ) / 1e3, serverCpu, memoryBean.getHeapMemoryUsage().getUsed() / 1048576.0 ) );
+
+			lastSent = sent;
+			lastReceived = received;
+			lastBroadcasts = broadcasts;
+		}
+
+		for ( LoadWorker loadWorker : loadWorkers ) {
+			loadWorker.stop();
+		}
+
+		long sent = 0;
+		long received = 0;
+		long broadcasts = 0;
+		long dropped = 0;
+		long connects = 0;
+		long disconnects = 0;
+		long failures = 0;
+		LogHistogram connectTimes = new LogHistogram();
+		for ( LoadWorker loadWorker : loadWorkers ) {
+			sent += loadWorker.getMessagesSent();
+			received += loadWorker.getEchoesReceived();
+			broadcasts += loadWorker.getBroadcastsReceived();
+			dropped += loadWorker.getDroppedSends();
+			connects += loadWorker.getConnects();
+			disconnects += loadWorker.getDisconnects();
+			failures += loadWorker.getConnectFailures();
+			loadWorker.getConnectTimes().add( connectTimes );
+		}
+		double seconds = ( System.nanoTime() - startNanos ) / 1e9;
+		ServerMetrics serverMetrics = server.getMetrics();
+
+		System.out.println();
+		System.out.println( "Summary" );
+		System.out.println( String.format( "  messages:      %d sent (%.0f/s), %d echoed, %d broadcasts received, %d dropped by full client buffers", sent, sent / seconds, received, broadcasts, dropped ) );
+		System.out.println( String.format( "  peak echoed:   %d/s", peakReceivedRate ) );
+		System.out.println( String.format( "  server:        %d Messages received, %d sent, %d bytes read, %d written", serverMetrics.getMessagesReceived(), serverMetrics.getMessagesSent(), serverMetrics.getBytesRead(), serverMetrics.getBytesWritten() ) );
+		System.out.println( String.format( "  connections:   %d registered, %d disconnected, %d failed; server disconnects %s", connects, disconnects, failures, serverMetrics.getDisconnectsByReason() ) );
+		System.out.println( "  round trip ns: " + totalRoundTripTimes );
+		System.out.println( "  connect ns:    " + connectTimes );
+		System.out.println( "  heap/conn:     " + ( ( heapPerConnection < 0 ) ? "n/a (never fully connected)" : ( heapPerConnection + " B" ) ) );
+
+		server.stop();
+	}
+
+}
@@ -0,0 +1,494 @@
+package crossnet.bench;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Random;
+
+import crossnet.log.Log;
+import crossnet.message.Message;
+import crossnet.message.crossnet.CrossNetMessageParser;
+import crossnet.message.crossnet.messages.KeepAliveMessage;
+import crossnet.message.crossnet.messages.PingMessage;
+import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.metrics.LogHistogram;
+import crossnet.packet.Packet;
+import crossnet.packet.PacketFactory;
+import crossnet.packet.length.LengthPacketFactory;
+import crossnet.util.ByteArrayReader;
+
+/**
+ * Drives a slice of the simulated clients of a {@link LoadGenerator} from a single thread and Selector.
+ * <p>
+ * A simulated client is a bare non-blocking SocketChannel speaking the CrossNet wire format, rather than a full
+ * CrossNetClient with its own update thread, such that thousands fit in one JVM. It registers, answers pings, sends
+ * {@link BenchmarkMessage}s at a fixed rate and measures the round trip time of its own Messages.
+ * <p>
+ * The counters are only written by the worker thread, so other threads may see slightly stale values.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+class LoadWorker implements Runnable {
+
+	/**
+	 * Set in the sequence of a {@link BenchmarkMessage} that the server should broadcast, rather than echo.
+	 */
+	static final int BROADCAST_FLAG = 0x80000000;
+
+	/**
+	 * Clients send a {@link KeepAliveMessage} when they have not written for this long.
+	 */
+	private static final long KEEP_ALIVE_NANOS = 5000000000L;
+
+	/**
+	 * A simulated client.
+	 */
+	private static class SimulatedClient {
+
+		/**
+		 * Index of this in the {@link LoadGenerator}; carried in the sequence of its Messages.
+		 */
+		final int index;
+
+		/**
+		 * Direct, such that the buffers of the simulated clients do not count towards the measured heap.
+		 */
+		final ByteBuffer readBuffer;
+
+		/**
+		 * Direct, such that the buffers of the simulated clients do not count towards the measured heap.
+		 */
+		final ByteBuffer writeBuffer;
+
+		SocketChannel channel;
+
+		SelectionKey key;
+
+		boolean connecting;
+
+		boolean registered;
+
+		long connectStartNanos;
+
+		long nextSendNanos;
+
+		long lastWriteNanos;
+
+		SimulatedClient( final int index, final int readBufferSize, final int writeBufferSize ) {
+			this.index = index;
+			this.readBuffer = ByteBuffer.allocateDirect( readBufferSize );
+			this.writeBuffer = ByteBuffer.allocateDirect( writeBufferSize );
+		}
+
+	}
+
+	private final SocketAddress serverAddress;
+
+	private final SimulatedClient[] clients;
+
+	/**
+	 * The clients waiting to connect.
+	 */
+	private final Queue< SimulatedClient > disconnected = new ArrayDeque<>();
+
+	private final Selector selector;
+
+	private final PacketFactory packetFactory = new LengthPacketFactory();
+
+	private final CrossNetMessageParser messageParser = new CrossNetMessageParser();
+
+	private final Random random = new Random();
+
+	private final byte[] filler;
+
+	/**
+	 * Time between sends of a client, or 0 to not send.
+	 */
+	private final long sendIntervalNanos;
+
+	private final double broadcastRatio;
+
+	/**
+	 * Connects per second of this worker.
+	 */
+	private final double connectRate;
+
+	/**
+	 * Forced reconnects per second of this worker.
+	 */
+	private final double churnRate;
+
+	/**
+	 * Maximum number of connects in progress.
+	 */
+	private final int maxPendingConnects;
+
+	private int pendingConnects = 0;
+
+	/**
+	 * The round trip times of the current interval, in nanoseconds.
+	 * 
+	 * @see #swapRoundTripTimes()
+	 */
+	private volatile LogHistogram roundTripTimes = new LogHistogram();
+
+	/**
+	 * The times from connect until registered, in nanoseconds.
+	 */
+	private final LogHistogram connectTimes = new LogHistogram();
+
+	private volatile int connected = 0;
+
+	private volatile long connects = 0;
+
+	private volatile long disconnects = 0;
+
+	private volatile long connectFailures = 0;
+
+	private volatile long messagesSent = 0;
+
+	private volatile long echoesReceived = 0;
+
+	private volatile long broadcastsReceived = 0;
+
+	private volatile long droppedSends = 0;
+
+	private volatile boolean shutdownThread = false;
+
+	private Thread thread;
+
+	LoadWorker( final SocketAddress serverAddress, final int firstIndex, final int clientCount, final int messageSize, final double sendRate, final double broadcastRatio, final double connectRate, final double churnRate ) throws IOException {
+		this.serverAddress = serverAddress;
+		this.selector = Selector.open();
+		this.filler = new byte[messageSize];
+		this.random.nextBytes( this.filler );
+		this.sendIntervalNanos = ( sendRate > 0 ) ? (long) ( 1e9 / sendRate ) : 0;
+		this.broadcastRatio = broadcastRatio;
+		this.connectRate = connectRate;
+		this.churnRate = churnRate;
+		this.maxPendingConnects = Math.max( 1, (int) Math.min( 256, connectRate / 10 ) );
+		this.messageParser.setTieredMessageParser( new BenchmarkMessage.Parser() );
+
+		// Room for the largest Message, plus a burst of broadcasts.
+		int frameSize = this.packetFactory.getMaxPacketSize() - this.packetFactory.getMaxPayloadSize() + new BenchmarkMessage( 0, 0, this.filler ).getBytes().length;
+		int readBufferSize = Math.max( 4096, 2 * frameSize );
+		int writeBufferSize = Math.max( 4096, 16 * frameSize );
+
+		this.clients = new SimulatedClient[clientCount];
+		for ( int i = 0; i < clientCount; i++ ) {
+			this.clients[i] = new SimulatedClient( firstIndex + i, readBufferSize, writeBufferSize );
+			this.disconnected.add( this.clients[i] );
+		}
+	}
+
+	void start( String threadName ) {
+		this.thread = new Thread( this, threadName );
+		this.thread.setDaemon( true );
+		this.thread.start();
+	}
+
+	void stop() {
+		this.shutdownThread = true;
+		this.selector.wakeup();
+		try {
+			this.thread.join( 5000 );
+		} catch ( InterruptedException e ) {
+			// Ignored
+		}
+	}
+
+	@Override
+	public void run() {
+		long lastTick = System.nanoTime();
+		double connectBudget = 0;
+		double churnBudget = 0;
+		try {
+			while ( !this.shutdownThread ) {
+				this.selector.select( 1 );
+				this.processSelectedKeys();
+
+				long now = System.nanoTime();
+				double elapsedSeconds = ( now - lastTick ) / 1e9;
+				lastTick = now;
+
+				connectBudget = Math.min( connectBudget + ( this.connectRate * elapsedSeconds ), this.maxPendingConnects );
+				while ( ( connectBudget >= 1 ) && ( this.pendingConnects < this.maxPendingConnects ) && !this.disconnected.isEmpty() ) {
+					connectBudget--;
+					this.connect( this.disconnected.poll(), now );
+				}
+
+				if ( this.churnRate > 0 ) {
+					churnBudget += this.churnRate * elapsedSeconds;
+					while ( churnBudget >= 1 ) {
+						churnBudget--;
+						SimulatedClient client = this.clients[this.random.nextInt( this.clients.length )];
+						if ( client.registered ) {
+							this.disconnect( client );
+						}
+					}
+				}
+
+				this.sendDue( now );
+			}
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Load worker failed.", e );
+		} finally {
+			for ( SimulatedClient client : this.clients ) {
+				if ( client.channel != null ) {
+					this.disconnect( client );
+				}
+			}
+			try {
+				this.selector.close();
+			} catch ( IOException e ) {
+				// Ignored
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator< SelectionKey > keyIterator = this.selector.selectedKeys().iterator();
+		while ( keyIterator.hasNext() ) {
+			SelectionKey key = keyIterator.next();
+			keyIterator.remove();
+			SimulatedClient client = (SimulatedClient) key.attachment();
+			try {
+				if ( key.isConnectable() ) {
+					client.connecting = false;
+					this.pendingConnects--;
+					client.channel.finishConnect();
+					key.interestOps( SelectionKey.OP_READ );
+					continue;
+				}
+				if ( key.isReadable() ) {
+					this.read( client );
+				}
+				if ( key.isValid() && key.isWritable() ) {
+					this.flush( client );
+				}
+			} catch ( CancelledKeyException e ) {
+				// Disconnected meanwhile.
+			} catch ( IOException e ) {
+				if ( !client.registered ) {
+					this.connectFailures++;
+				}
+				this.disconnect( client );
+			}
+		}
+	}
+
+	private void connect( SimulatedClient client, long now ) {
+		try {
+			client.channel = SocketChannel.open();
+			client.channel.configureBlocking( false );
+			client.channel.socket().setTcpNoDelay( true );
+			client.connectStartNanos = now;
+			client.lastWriteNanos = now;
+			if ( client.channel.connect( this.serverAddress ) ) {
+				client.key = client.channel.register( this.selector, SelectionKey.OP_READ, client );
+			} else {
+				client.connecting = true;
+				this.pendingConnects++;
+				client.key = client.channel.register( this.selector, SelectionKey.OP_CONNECT, client );
+			}
+		} catch ( IOException e ) {
+			this.connectFailures++;
+			this.disconnect( client );
+		}
+	}
+
+	private void disconnect( SimulatedClient client ) {
+		if ( client.connecting ) {
+			client.connecting = false;
+			this.pendingConnects--;
+		}
+		if ( client.key != null ) {
+			client.key.cancel();
+			client.key = null;
+		}
+		if ( client.channel != null ) {
+			try {
+				client.channel.close();
+			} catch ( IOException e ) {
+				// Ignored
+			}
+			client.channel = null;
+		}
+		if ( client.registered ) {
+			client.registered = false;
+			this.connected--;
+			this.disconnects++;
+		}
+		client.readBuffer.clear();
+		client.writeBuffer.clear();
+		if ( !this.shutdownThread ) {
+			this.disconnected.add( client );
+		}
+	}
+
+	private void read( SimulatedClient client ) throws IOException {
+		int bytes = client.channel.read( client.readBuffer );
+		if ( bytes == -1 ) {
+			throw new IOException( "Closed by server." );
+		}
+
+		while ( client.channel != null ) {
+			Packet packet = this.packetFactory.parseData( client.readBuffer );
+			if ( packet == null ) {
+				break;
+			}
+			Message message = this.messageParser.parseData( new ByteArrayReader( packet.getPayload() ) );
+			if ( message != null ) {
+				this.received( client, message );
+			}
+		}
+	}
+
+	private void received( SimulatedClient client, Message message ) throws IOException {
+		if ( message instanceof BenchmarkMessage ) {
+			BenchmarkMessage benchmarkMessage = (BenchmarkMessage) message;
+			if ( ( benchmarkMessage.getSequence() & ~LoadWorker.BROADCAST_FLAG ) == client.index ) {
+				this.roundTripTimes.record( System.nanoTime() - benchmarkMessage.getTimestamp() );
+				this.echoesReceived++;
+			} else {
+				this.broadcastsReceived++;
+			}
+		} else if ( message instanceof PingMessage ) {
+			PingMessage pingMessage = (PingMessage) message;
+			if ( !pingMessage.isReply() ) {
+				pingMessage.setReply();
+				this.send( client, pingMessage );
+			}
+		} else if ( ( message instanceof RegisterMessage ) && !client.registered ) {
+			long now = System.nanoTime();
+			client.registered = true;
+			this.connected++;
+			this.connects++;
+			this.connectTimes.record( now - client.connectStartNanos );
+			if ( this.sendIntervalNanos > 0 ) {
+				// Spread the clients evenly over the send interval.
+				client.nextSendNanos = now + (long) ( this.random.nextDouble() * this.sendIntervalNanos );
+			}
+		}
+	}
+
+	private void sendDue( long now ) throws IOException {
+		for ( SimulatedClient client : this.clients ) {
+			if ( !client.registered ) {
+				continue;
+			}
+
+			if ( this.sendIntervalNanos > 0 ) {
+				if ( ( now - client.nextSendNanos ) > 1000000000L ) {
+					// Over a second behind; skip ahead rather than burst.
+					client.nextSendNanos = now;
+				}
+				while ( client.registered && ( client.nextSendNanos <= now ) ) {
+					client.nextSendNanos += this.sendIntervalNanos;
+					int sequence = client.index;
+					if ( ( this.broadcastRatio > 0 ) && ( this.random.nextDouble() < this.broadcastRatio ) ) {
+						sequence |= LoadWorker.BROADCAST_FLAG;
+					}
+					if ( this.send( client, new BenchmarkMessage( sequence, System.nanoTime(), this.filler ) ) ) {
+						this.messagesSent++;
+					} else {
+						this.droppedSends++;
+					}
+				}
+			}
+
+			if ( client.registered && ( ( now - client.lastWriteNanos ) > LoadWorker.KEEP_ALIVE_NANOS ) ) {
+				this.send( client, new KeepAliveMessage() );
+			}
+		}
+	}
+
+	/**
+	 * Frames and writes a Message, buffering what the socket does not take.
+	 * 
+	 * @return {@code True} iff the Message was written or buffered; otherwise the buffer was full.
+	 */
+	private boolean send( SimulatedClient client, Message message ) throws IOException {
+		byte[] frame = this.packetFactory.newPacket( message.getBytes() ).toBytes();
+		if ( client.writeBuffer.remaining() < frame.length ) {
+			return false;
+		}
+		client.writeBuffer.put( frame );
+		client.lastWriteNanos = System.nanoTime();
+		try {
+			this.flush( client );
+		} catch ( IOException e ) {
+			this.disconnect( client );
+		}
+		return true;
+	}
+
+	private void flush( SimulatedClient client ) throws IOException {
+		client.writeBuffer.flip();
+		client.channel.write( client.writeBuffer );
+		client.writeBuffer.compact();
+		if ( client.writeBuffer.position() > 0 ) {
+			client.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+		} else {
+			client.key.interestOps( SelectionKey.OP_READ );
+		}
+	}
+
+	/**
+	 * Gets the round trip times recorded since the last call, and starts a new interval.
+	 * 
+	 * @return The round trip times, in nanoseconds.
+	 */
+	LogHistogram swapRoundTripTimes() {
+		LogHistogram interval = this.roundTripTimes;
+		this.roundTripTimes = new LogHistogram();
+		return interval;
+	}
+
+	LogHistogram getConnectTimes() {
+		LogHistogram copy = new LogHistogram();
+		this.connectTimes.add( copy );
+		return copy;
+	}
+
+	int getConnected() {
+		return this.connected;
+	}
+
+	long getConnects() {
+		return this.connects;
+	}
+
+	long getDisconnects() {
+		return this.disconnects;
+	}
+
+	long getConnectFailures() {
+		return this.connectFailures;
+	}
+
+	long getMessagesSent() {
+		return this.messagesSent;
+	}
+
+	long getEchoesReceived() {
+		return this.echoesReceived;
+	}
+
+	long getBroadcastsReceived() {
+		return this.broadcastsReceived;
+	}
+
+	long getDroppedSends() {
+		return this.droppedSends;
+	}
+
+}
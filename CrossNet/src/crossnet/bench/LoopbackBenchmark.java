@@ -0,0 +1,197 @@
+package crossnet.bench;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import crossnet.Connection;
+import crossnet.CrossNetClient;
+import crossnet.CrossNetServer;
+import crossnet.listener.ConnectionListenerAdapter;
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.Message;
+import crossnet.metrics.LogHistogram;
+import crossnet.rpc.RpcFuture;
+import crossnet.rpc.RpcHandler;
+
+/**
+ * Benchmarks sending {@link BenchmarkMessage}s end to end, through a {@link CrossNetClient} and a
+ * {@link CrossNetServer} on the loopback interface: the one way throughput, the round trip latency of an echo, and the
+ * throughput of pipelined remote procedure calls.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class LoopbackBenchmark {
+
+	/**
+	 * The port the server binds to.
+	 */
+	private static final int PORT = 55190;
+
+	/**
+	 * Number of Messages per throughput operation.
+	 */
+	private static final int BATCH = 1000;
+
+	/**
+	 * Maximum time to wait for Messages to arrive, in milliseconds.
+	 */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark benchmark : LoopbackBenchmark.benchmarks() ) {
+			runner.run( benchmark );
+		}
+	}
+
+	public static Benchmark[] benchmarks() {
+		return new Benchmark[] { new Loopback( "Loopback throughput (64B filler)", LoopbackBenchmark.BATCH ) {
+
+			@Override
+			public long operation() throws Exception {
+				long target = this.serverReceived + LoopbackBenchmark.BATCH;
+				for ( int i = 0; i < LoopbackBenchmark.BATCH; i++ ) {
+					this.client.getConnection().send( new BenchmarkMessage( i, 0, this.filler ) );
+				}
+				long deadline = System.currentTimeMillis() + LoopbackBenchmark.TIMEOUT_MILLIS;
+				while ( this.serverReceived < target ) {
+					LoopbackBenchmark.checkDeadline( deadline );
+					Thread.yield();
+				}
+				return target;
+			}
+		}, new Loopback( "Loopback echo round trip (64B filler)", 1 ) {
+
+			@Override
+			public void setUp() throws Exception {
+				this.echo = true;
+				super.setUp();
+			}
+
+			@Override
+			public long operation() throws Exception {
+				long target = this.clientReceived + 1;
+				long start = System.nanoTime();
+				this.client.getConnection().send( new BenchmarkMessage( (int) target, start, this.filler ) );
+				long deadline = System.currentTimeMillis() + LoopbackBenchmark.TIMEOUT_MILLIS;
+				while ( this.clientReceived < target ) {
+					LoopbackBenchmark.checkDeadline( deadline );
+				}
+				this.roundTripTimes.record( System.nanoTime() - start );
+				return target;
+			}
+
+			@Override
+			public void tearDown() throws Exception {
+				super.tearDown();
+				System.out.println( "  round trip ns: " + this.roundTripTimes );
+			}
+		}, new Loopback( "Loopback pipelined RPC (64B filler)", LoopbackBenchmark.BATCH ) {
+
+			private final RpcFuture[] calls = new RpcFuture[LoopbackBenchmark.BATCH];
+
+			@Override
+			public long operation() throws Exception {
+				for ( int i = 0; i < LoopbackBenchmark.BATCH; i++ ) {
+					this.calls[i] = this.client.getConnection().request( new BenchmarkMessage( i, 0, this.filler ) );
+				}
+				long sum = 0;
+				for ( int i = 0; i < LoopbackBenchmark.BATCH; i++ ) {
+					sum += ( (BenchmarkMessage) this.calls[i].get( LoopbackBenchmark.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS ) ).getSequence();
+				}
+				return sum;
+			}
+		} };
+	}
+
+	private static void checkDeadline( long deadline ) {
+		if ( System.currentTimeMillis() > deadline ) {
+			throw new IllegalStateException( "Timed out waiting for Messages." );
+		}
+	}
+
+	/**
+	 * A Benchmark with a connected CrossNetServer and CrossNetClient.
+	 */
+	private static abstract class Loopback extends Benchmark {
+
+		protected final byte[] filler = new byte[64];
+
+		protected final LogHistogram roundTripTimes = new LogHistogram();
+
+		protected CrossNetServer server;
+
+		protected CrossNetClient client;
+
+		/**
+		 * {@code True} iff the server echoes the Messages it receives.
+		 */
+		protected boolean echo = false;
+
+		/**
+		 * Messages received by the server. Only written by the server update thread.
+		 */
+		protected volatile long serverReceived = 0;
+
+		/**
+		 * Messages received by the client. Only written by the client update thread.
+		 */
+		protected volatile long clientReceived = 0;
+
+		Loopback( final String name, final int operationsPerCall ) {
+			super( name, operationsPerCall );
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			this.server = new CrossNetServer();
+			this.server.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+			this.server.getRpcHandlerRegistry().register( BenchmarkMessage.class, new RpcHandler< BenchmarkMessage >() {
+
+				@Override
+				public Message handle( Connection connection, BenchmarkMessage request ) {
+					return request;
+				}
+			} );
+			this.server.addConnectionListener( new ConnectionListenerAdapter() {
+
+				@Override
+				public void received( Connection connection, Message message ) {
+					if ( message instanceof BenchmarkMessage ) {
+						Loopback.this.serverReceived++;
+						if ( Loopback.this.echo ) {
+							connection.send( message );
+						}
+					}
+				}
+			} );
+			this.server.start( "Benchmark server" );
+			this.server.bind( LoopbackBenchmark.PORT );
+
+			this.client = new CrossNetClient();
+			this.client.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+			this.client.addConnectionListener( new ConnectionListenerAdapter() {
+
+				@Override
+				public void received( Connection connection, Message message ) {
+					if ( message instanceof BenchmarkMessage ) {
+						Loopback.this.clientReceived++;
+					}
+				}
+			} );
+			this.client.start( "Benchmark client" );
+			this.client.connect( InetAddress.getLoopbackAddress(), LoopbackBenchmark.PORT, 5000 );
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			this.client.stop();
+			this.server.stop();
+		}
+
+	}
+
+}
@@ -0,0 +1,276 @@
+package crossnet.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import crossnet.Connection;
+import crossnet.CrossNetServer;
+import crossnet.TransportLayer;
+import crossnet.listener.ConnectionListenerAdapter;
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.Message;
+
+/**
+ * Measures the memory footprint of idle and active server side {@link Connection}s: the retained heap and direct
+ * memory per Connection, and a breakdown of the objects of one Connection per field of the Connection and its
+ * {@link TransportLayer}.
+ * <p>
+ * The clients run in a separate JVM (see {@link FootprintClients}), such that the heap measured is that of the server
+ * alone. Idle Connections only register. Active Connections also exchange a burst of Messages, such that lazily
+ * allocated state is included. The breakdown is estimated by a {@link HeapWalker}; on Java 9 and later, open
+ * {@code java.lang}, {@code java.util}, {@code java.util.concurrent}, {@code java.util.concurrent.atomic},
+ * {@code java.nio} and {@code sun.nio.ch} of {@code java.base} with {@code --add-opens} for complete figures.
+ * <p>
+ * Usage: {@code MemoryFootprint [-connections n] [-messages m] [-port port]}
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class MemoryFootprint {
+
+	/**
+	 * Number of idle, and of active, Connections.
+	 */
+	private int connections = 1000;
+
+	/**
+	 * Messages echoed per active Connection.
+	 */
+	private int messages = 20;
+
+	private int port = 55193;
+
+	private final CrossNetServer server = new CrossNetServer();
+
+	private Process clientProcess;
+
+	private PrintStream clientCommands;
+
+	private BufferedReader clientReplies;
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		MemoryFootprint memoryFootprint = new MemoryFootprint();
+		for ( int i = 0; ( i + 1 ) < args.length; i += 2 ) {
+			switch ( args[i] ) {
+				case "-connections":
+					memoryFootprint.connections = Integer.parseInt( args[i + 1] );
+					break;
+				case "-messages":
+					memoryFootprint.messages = Integer.parseInt( args[i + 1] );
+					break;
+				case "-port":
+					memoryFootprint.port = Integer.parseInt( args[i + 1] );
+					break;
+				default:
+					System.err.println( "Usage: MemoryFootprint [-connections n] [-messages m] [-port port]" );
+					System.exit( 2 );
+			}
+		}
+		memoryFootprint.run();
+	}
+
+	/**
+	 * Runs the measurements, and prints the reports.
+	 * 
+	 * @throws IOException
+	 *             If the server could not bind, or the clients could not be started.
+	 */
+	public void run() throws IOException {
+		this.server.getMessageParser().setTieredMessageParser( new BenchmarkMessage.Parser() );
+		this.server.addConnectionListener( new ConnectionListenerAdapter() {
+
+			@Override
+			public void received( Connection connection, Message message ) {
+				if ( message instanceof BenchmarkMessage ) {
+					connection.send( message );
+				}
+			}
+		} );
+		this.server.start( "Footprint server" );
+		this.server.bind( this.port );
+
+		String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+		this.clientProcess = new ProcessBuilder( java, "-cp", System.getProperty( "java.class.path" ), FootprintClients.class.getName(), Integer.toString( this.port ) ).redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+		this.clientCommands = new PrintStream( this.clientProcess.getOutputStream(), true );
+		this.clientReplies = new BufferedReader( new InputStreamReader( this.clientProcess.getInputStream() ) );
+
+		try {
+			long[] before = MemoryFootprint.usedMemory();
+			this.command( "idle " + this.connections );
+			this.report( "Idle Connections", before, this.connections );
+
+			before = MemoryFootprint.usedMemory();
+			this.command( "active " + this.connections + " " + this.messages );
+			this.report( "Active Connections (" + this.messages + " Messages echoed each)", before, this.connections );
+
+			this.command( "quit" );
+		} finally {
+			this.clientProcess.destroy();
+			this.server.stop();
+		}
+	}
+
+	/**
+	 * Sends a command to the clients, and waits until it is done.
+	 */
+	private void command( String command ) throws IOException {
+		this.clientCommands.println( command );
+		if ( command.equals( "quit" ) ) {
+			return;
+		}
+		String reply = this.clientReplies.readLine();
+		if ( !"done".equals( reply ) ) {
+			throw new IOException( "Clients failed on: " + command );
+		}
+	}
+
+	/**
+	 * Reports the memory used by the Connections opened since {@code before}, and the breakdown of the newest.
+	 */
+	private void report( String title, long[] before, int count ) throws IOException {
+		// Waits for the server to process the last Messages, and keeps the Connections from timing out meanwhile.
+		this.command( "keepalive" );
+		long[] after = MemoryFootprint.usedMemory();
+		this.command( "keepalive" );
+
+		long heapPerConnection = ( after[0] - before[0] ) / count;
+		System.out.println( title + ": " + count );
+		System.out.println( String.format( "  retained heap:   %8d B per Connection  (%d Connections per GB)", heapPerConnection, ( heapPerConnection > 0 ) ? ( 1L << 30 ) / heapPerConnection : 0 ) );
+		System.out.println( String.format( "  direct memory:   %8d B per Connection", ( after[1] - before[1] ) / count ) );
+
+		Connection newest = null;
+		List< Connection > all = new ArrayList<>( this.server.getConnections().size() );
+		for ( Connection connection : this.server.getConnections() ) {
+			all.add( connection );
+			if ( ( newest == null ) || ( connection.getID() > newest.getID() ) ) {
+				newest = connection;
+			}
+		}
+		if ( newest != null ) {
+			this.breakdown( newest, all );
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Prints the estimated objects and bytes of a Connection, per field of it and its TransportLayer.
+	 */
+	private void breakdown( Connection connection, List< Connection > all ) {
+		HeapWalker heapWalker = new HeapWalker();
+
+		// Everything reachable from the server, except the Connections and their state, is shared. The server also
+		// reaches the state of the Connections other ways, e.g. the socket channels through the Selector. State held by
+		// more than one Connection, e.g. the MessageParser, is shared too.
+		Map< Object, Boolean > stops = new IdentityHashMap<>();
+		for ( Connection other : all ) {
+			for ( Object owner : new Object[] { other, other.getTransportLayer() } ) {
+				stops.put( owner, Boolean.TRUE );
+				for ( Field field : heapWalker.fields( owner.getClass() ) ) {
+					if ( field.getType().isPrimitive() ) {
+						continue;
+					}
+					try {
+						field.setAccessible( true );
+						Object value = field.get( owner );
+						if ( value != null ) {
+							stops.put( value, Boolean.valueOf( !stops.containsKey( value ) ) );
+						}
+					} catch ( IllegalAccessException | RuntimeException e ) {
+						// Not ours.
+					}
+				}
+			}
+		}
+		List< Object > ownState = new ArrayList<>();
+		for ( Map.Entry< Object, Boolean > entry : stops.entrySet() ) {
+			if ( entry.getValue().booleanValue() ) {
+				ownState.add( entry.getKey() );
+			}
+		}
+		heapWalker.excludeReachable( this.server, ownState );
+
+		TransportLayer transportLayer = connection.getTransportLayer();
+		heapWalker.exclude( connection );
+		heapWalker.exclude( transportLayer );
+
+		List< String > rows = new ArrayList<>();
+		long totalObjects = 2;
+		long totalBytes = heapWalker.shallowSize( connection ) + heapWalker.shallowSize( transportLayer );
+		rows.add( MemoryFootprint.row( "Connection, TransportLayer (shallow)", 2, totalBytes ) );
+		for ( Object owner : new Object[] { connection, transportLayer } ) {
+			for ( Field field : heapWalker.fields( owner.getClass() ) ) {
+				if ( field.getType().isPrimitive() ) {
+					continue;
+				}
+				long[] measured;
+				try {
+					field.setAccessible( true );
+					measured = heapWalker.measure( field.get( owner ) );
+				} catch ( IllegalAccessException | RuntimeException e ) {
+					continue;
+				}
+				if ( measured[0] > 0 ) {
+					rows.add( MemoryFootprint.row( field.getDeclaringClass().getSimpleName() + "." + field.getName(), measured[0], measured[1] ) );
+					totalObjects += measured[0];
+					totalBytes += measured[1];
+				}
+			}
+		}
+
+		// The slots of the server's collections are not reachable from the Connection; estimate them. The registry holds
+		// a slot, a snapshot slot, a generation and a free list slot per Connection.
+		rows.add( MemoryFootprint.row( "ConnectionRegistry slots (estimate)", 0, 4 + 4 + 4 + 1 + 4 ) );
+		rows.add( MemoryFootprint.row( "ServerMetrics list slot (estimate)", 0, 4 ) );
+		totalBytes += 4 + 4 + 4 + 1 + 4 + 4;
+
+		System.out.println( "  breakdown of one Connection (estimated):" );
+		for ( String row : rows ) {
+			System.out.println( row );
+		}
+		System.out.println( MemoryFootprint.row( "total", totalObjects, totalBytes ) );
+		if ( heapWalker.getOpaqueObjects() > 0 ) {
+			System.out.println( "    (" + heapWalker.getOpaqueObjects() + " objects had unreadable internals; see the class documentation)" );
+		}
+	}
+
+	private static String row( String name, long objects, long bytes ) {
+		return String.format( "    %-48s %6d objects %9d B", name, objects, bytes );
+	}
+
+	/**
+	 * Gets the used heap after garbage collection, and the used direct memory.
+	 */
+	private static long[] usedMemory() {
+		long heap = Long.MAX_VALUE;
+		for ( int i = 0; i < 5; i++ ) {
+			System.gc();
+			try {
+				Thread.sleep( 100 );
+			} catch ( InterruptedException e ) {
+				// Ignored
+			}
+			heap = Math.min( heap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() );
+		}
+
+		long direct = 0;
+		for ( BufferPoolMXBean bufferPool : ManagementFactory.getPlatformMXBeans( BufferPoolMXBean.class ) ) {
+			if ( "direct".equals( bufferPool.getName() ) ) {
+				direct = bufferPool.getMemoryUsed();
+			}
+		}
+		return new long[] { heap, direct };
+	}
+
+}
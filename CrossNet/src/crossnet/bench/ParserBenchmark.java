@@ -0,0 +1,88 @@
+package crossnet.bench;
+
+import java.nio.ByteBuffer;
+
+import crossnet.Connection;
+import crossnet.listener.FlyweightListener;
+import crossnet.log.Log;
+import crossnet.log.LogLevel;
+import crossnet.message.Message;
+import crossnet.message.MessageParser;
+import crossnet.message.crossnet.CrossNetMessageParser;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.crossnet.messages.KeepAliveMessage;
+import crossnet.message.crossnet.messages.PingMessage;
+import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.message.flyweight.Flyweight;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.util.ByteArrayReader;
+
+/**
+ * Benchmarks the dispatch of the {@link CrossNetMessageParser}, over a mix of CrossNet and tiered Messages. Also
+ * compares parsing a tiered Message to decoding the same fields in place with a {@link Flyweight}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ParserBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		Log.set( LogLevel.WARN );
+		BenchmarkRunner runner = BenchmarkRunner.fromArguments( args );
+		for ( Benchmark benchmark : ParserBenchmark.benchmarks() ) {
+			runner.run( benchmark );
+		}
+	}
+
+	public static Benchmark[] benchmarks() {
+		final MessageParser messageParser = new CrossNetMessageParser();
+		messageParser.setTieredMessageParser( new BenchmarkMessage.Parser() );
+
+		final byte[] tiered = new BenchmarkMessage( 1, 2, new byte[12] ).getBytes();
+
+		BenchmarkFlyweight benchmarkFlyweight = new BenchmarkFlyweight();
+		FlyweightMessage flyweightMessage = new FlyweightMessage( benchmarkFlyweight );
+		benchmarkFlyweight.setSequence( 1 );
+		benchmarkFlyweight.setTimestamp( 2 );
+		final ByteBuffer flyweightBuffer = ByteBuffer.wrap( flyweightMessage.getBytes() ).asReadOnlyBuffer();
+		final long[] sum = new long[1];
+		final FlyweightRegistry flyweightRegistry = new FlyweightRegistry();
+		flyweightRegistry.register( new BenchmarkFlyweight(), new FlyweightListener< BenchmarkFlyweight >() {
+
+			@Override
+			public void received( Connection connection, BenchmarkFlyweight flyweight ) {
+				sum[0] += flyweight.getSequence() + flyweight.getTimestamp();
+			}
+		} );
+
+		final byte[][] payloads = new byte[][] { new PingMessage( 7 ).getBytes(), new KeepAliveMessage().getBytes(), new RegisterMessage( 3 ).getBytes(), new BenchmarkMessage( 1, 2, new byte[16] ).getBytes(), new BenchmarkMessage( 3, 4, new byte[256] ).getBytes() };
+
+		return new Benchmark[] { new Benchmark( "CrossNetMessageParser.parseData (mix of " + payloads.length + ")", payloads.length ) {
+
+			@Override
+			public long operation() {
+				long sum = 0;
+				for ( byte[] payload : payloads ) {
+					Message message = messageParser.parseData( new ByteArrayReader( payload ) );
+					sum += message.hashCode();
+				}
+				return sum;
+			}
+		}, new Benchmark( "BenchmarkMessage parse", 1 ) {
+
+			@Override
+			public long operation() {
+				BenchmarkMessage message = (BenchmarkMessage) messageParser.parseData( new ByteArrayReader( tiered ) );
+				return message.getSequence() + message.getTimestamp();
+			}
+		}, new Benchmark( "BenchmarkFlyweight dispatch in place", 1 ) {
+
+			@Override
+			public long operation() {
+				flyweightRegistry.dispatch( null, flyweightBuffer, 0, flyweightBuffer.capacity() );
+				return sum[0];
+			}
+		} };
+	}
+
+}
@@ -0,0 +1,23 @@
+package crossnet.flow;
+
+/**
+ * A source of items, delivered to its {@link Subscriber}s as they signal demand. Mirrors
+ * {@code java.util.concurrent.Flow.Publisher} of Java 9, such that it can be adapted to it.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ * @param <T>
+ *            The type of the items.
+ */
+public interface Publisher< T > {
+
+	/**
+	 * Adds a Subscriber. It is signalled {@link Subscriber#onSubscribe(Subscription)} first, and then
+	 * {@link Subscriber#onError(Throwable)} if it is rejected.
+	 * 
+	 * @param subscriber
+	 *            The Subscriber to add.
+	 */
+	public void subscribe( Subscriber< ? super T > subscriber );
+
+}
@@ -0,0 +1,44 @@
+package crossnet.flow;
+
+/**
+ * A receiver of items from a {@link Publisher}. Mirrors {@code java.util.concurrent.Flow.Subscriber} of Java 9.
+ * <p>
+ * The signals are serial, but not necessarily on the same thread. They must not block, and must not throw.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ * @param <T>
+ *            The type of the items.
+ */
+public interface Subscriber< T > {
+
+	/**
+	 * Signalled first. No items are delivered until some are requested through the Subscription.
+	 * 
+	 * @param subscription
+	 *            The Subscription.
+	 */
+	public void onSubscribe( Subscription subscription );
+
+	/**
+	 * Signalled for each item, at most as many as requested.
+	 * 
+	 * @param item
+	 *            The item.
+	 */
+	public void onNext( T item );
+
+	/**
+	 * Signalled last, if the Publisher failed.
+	 * 
+	 * @param throwable
+	 *            The failure.
+	 */
+	public void onError( Throwable throwable );
+
+	/**
+	 * Signalled last, if the Publisher has no more items.
+	 */
+	public void onComplete();
+
+}
@@ -0,0 +1,24 @@
+package crossnet.flow;
+
+/**
+ * Links a {@link Subscriber} to a {@link Publisher}. Mirrors {@code java.util.concurrent.Flow.Subscription} of Java 9.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface Subscription {
+
+	/**
+	 * Adds demand for more items. May be called from any thread, also from within {@link Subscriber#onNext(Object)}.
+	 * 
+	 * @param n
+	 *            The number of items to add, or {@link Long#MAX_VALUE} for no limit. Must be positive.
+	 */
+	public void request( long n );
+
+	/**
+	 * Stops the delivery of items, eventually.
+	 */
+	public void cancel();
+
+}
@@ -0,0 +1,312 @@
+package crossnet.interest;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import crossnet.Connection;
+import crossnet.ConnectionRegistry;
+import crossnet.CrossNetServer;
+
+/**
+ * Spatial interest manager that maps {@link Connection}s to positions in a uniform grid.
+ * <p>
+ * Used by {@link CrossNetServer#sendToArea(float, float, float, crossnet.message.Message)} to only deliver to the
+ * Connections within range. Moving a Connection only touches the grid when it crosses into another cell, and a range
+ * query only visits the cells that overlap the range.
+ * <p>
+ * When attached to a {@link CrossNetServer}, positions of Connections that are no longer registered with it are
+ * ignored, such that a late update, e.g. from a game thread, cannot add a closed Connection back.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class InterestGrid {
+
+	/**
+	 * The side length of a cell.
+	 */
+	private final float cellSize;
+
+	/**
+	 * The non-empty cells, by cell key.
+	 */
+	private final Map< Long, Cell > cells = new HashMap<>();
+
+	/**
+	 * The position of each Connection.
+	 */
+	private final Map< Connection, Entry > entries = new HashMap<>();
+
+	/**
+	 * The current Connections, if known. Positions of any other Connections are ignored.
+	 */
+	private volatile ConnectionRegistry connectionRegistry;
+
+	/**
+	 * Notified when a Connection enters the grid or another cell, if set.
+	 */
+	private volatile InterestListener interestListener;
+
+	/**
+	 * Create a new InterestGrid.
+	 * 
+	 * @param cellSize
+	 *            The side length of a cell. Should be about the typical query range.
+	 */
+	public InterestGrid( final float cellSize ) {
+		if ( !( cellSize > 0 ) ) {
+			throw new IllegalArgumentException( "Cell size must be positive: " + cellSize );
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Sets the current Connections, such that the positions of any other Connections are ignored. Set by
+	 * {@link CrossNetServer#setInterestGrid(InterestGrid)}.
+	 * 
+	 * @param connectionRegistry
+	 *            The current Connections, or {@code null} to accept any.
+	 */
+	public void setConnectionRegistry( final ConnectionRegistry connectionRegistry ) {
+		this.connectionRegistry = connectionRegistry;
+	}
+
+	/**
+	 * Sets the listener notified when a Connection enters the grid or crosses into another cell; e.g. a
+	 * {@link crossnet.replication.ReplicationRegistry} with a ReplicationInterest based on this.
+	 * 
+	 * @param interestListener
+	 *            The InterestListener. Set to {@code null} to disable.
+	 */
+	public void setInterestListener( final InterestListener interestListener ) {
+		this.interestListener = interestListener;
+	}
+
+	/**
+	 * Sets the position of a Connection, adding it to the grid if needed. Ignored if the Connection is no longer
+	 * registered; see {@link #setConnectionRegistry(ConnectionRegistry)}.
+	 * 
+	 * @param connection
+	 *            The Connection.
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 */
+	public void setPosition( final Connection connection, final float x, final float y ) {
+		boolean cellChanged = this.move( connection, x, y );
+
+		// Outside the lock, as the listener may well query this.
+		InterestListener listener = this.interestListener;
+		if ( cellChanged && ( listener != null ) ) {
+			listener.interestChanged( connection );
+		}
+	}
+
+	/**
+	 * Moves a Connection, adding it to the grid if needed.
+	 * 
+	 * @return {@code True} iff it entered the grid or another cell.
+	 */
+	private synchronized boolean move( final Connection connection, final float x, final float y ) {
+		// Checked under the lock; it is unregistered before it is removed from this, so it cannot slip back in.
+		ConnectionRegistry registry = this.connectionRegistry;
+		if ( ( registry != null ) && ( registry.get( connection.getID() ) != connection ) ) {
+			return false;
+		}
+
+		int cellX = this.toCell( x );
+		int cellY = this.toCell( y );
+
+		Entry entry = this.entries.get( connection );
+		if ( entry == null ) {
+			entry = new Entry( connection );
+			this.entries.put( connection, entry );
+		} else if ( ( entry.cell.x != cellX ) || ( entry.cell.y != cellY ) ) {
+			this.removeFromCell( entry );
+			entry.cell = null;
+		}
+
+		entry.x = x;
+		entry.y = y;
+
+		if ( entry.cell == null ) {
+			Long key = InterestGrid.key( cellX, cellY );
+			Cell cell = this.cells.get( key );
+			if ( cell == null ) {
+				cell = new Cell( cellX, cellY );
+				this.cells.put( key, cell );
+			}
+			cell.add( entry );
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a Connection from the grid.
+	 * 
+	 * @param connection
+	 *            The Connection to remove.
+	 */
+	public synchronized void remove( final Connection connection ) {
+		Entry entry = this.entries.remove( connection );
+		if ( entry != null ) {
+			this.removeFromCell( entry );
+		}
+	}
+
+	/**
+	 * Gets the number of Connections in the grid.
+	 * 
+	 * @return The number of Connections in the grid.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Finds the Connections within range of a position.
+	 * 
+	 * @param x
+	 *            The x coordinate.
+	 * @param y
+	 *            The y coordinate.
+	 * @param range
+	 *            The range.
+	 * @param result
+	 *            The Connections within range are added to this.
+	 */
+	public synchronized void getConnectionsInRange( final float x, final float y, final float range, final Collection< Connection > result ) {
+		float rangeSquared = range * range;
+		int minX = this.toCell( x - range );
+		int maxX = this.toCell( x + range );
+		int minY = this.toCell( y - range );
+		int maxY = this.toCell( y + range );
+
+		if ( ( ( (long) maxX - minX + 1 ) * ( (long) maxY - minY + 1 ) ) > this.cells.size() ) {
+			// Range covers more cells than are in use, visit those instead.
+			for ( Cell cell : this.cells.values() ) {
+				if ( ( minX <= cell.x ) && ( cell.x <= maxX ) && ( minY <= cell.y ) && ( cell.y <= maxY ) ) {
+					cell.getConnectionsInRange( x, y, rangeSquared, result );
+				}
+			}
+			return;
+		}
+
+		for ( int cellX = minX; cellX <= maxX; cellX++ ) {
+			for ( int cellY = minY; cellY <= maxY; cellY++ ) {
+				Cell cell = this.cells.get( InterestGrid.key( cellX, cellY ) );
+				if ( cell != null ) {
+					cell.getConnectionsInRange( x, y, rangeSquared, result );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes an Entry from its cell, and the cell from the grid if it became empty.
+	 */
+	private void removeFromCell( final Entry entry ) {
+		Cell cell = entry.cell;
+		cell.remove( entry );
+		if ( cell.size == 0 ) {
+			this.cells.remove( InterestGrid.key( cell.x, cell.y ) );
+		}
+	}
+
+	/**
+	 * Converts a coordinate to a cell coordinate.
+	 */
+	private int toCell( final float coordinate ) {
+		return (int) Math.floor( coordinate / this.cellSize );
+	}
+
+	/**
+	 * Combines cell coordinates to a key.
+	 */
+	private static Long key( final int cellX, final int cellY ) {
+		return Long.valueOf( ( ( (long) cellX ) << 32 ) | ( cellY & 0xFFFFFFFFL ) );
+	}
+
+	/**
+	 * The position of a Connection.
+	 */
+	private static class Entry {
+
+		final Connection connection;
+
+		float x;
+
+		float y;
+
+		/**
+		 * The cell this is in.
+		 */
+		Cell cell;
+
+		/**
+		 * The index of this in the {@link #cell}.
+		 */
+		int index;
+
+		Entry( final Connection connection ) {
+			this.connection = connection;
+		}
+
+	}
+
+	/**
+	 * A cell of the grid.
+	 */
+	private static class Cell {
+
+		final int x;
+
+		final int y;
+
+		/**
+		 * The entries in this. Removal swaps the last entry into the hole.
+		 */
+		Entry[] entries = new Entry[4];
+
+		int size = 0;
+
+		Cell( final int x, final int y ) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void add( final Entry entry ) {
+			if ( this.size == this.entries.length ) {
+				Entry[] grown = new Entry[this.entries.length * 2];
+				System.arraycopy( this.entries, 0, grown, 0, this.size );
+				this.entries = grown;
+			}
+			entry.cell = this;
+			entry.index = this.size;
+			this.entries[this.size++] = entry;
+		}
+
+		void remove( final Entry entry ) {
+			Entry last = this.entries[--this.size];
+			this.entries[entry.index] = last;
+			last.index = entry.index;
+			this.entries[this.size] = null;
+		}
+
+		void getConnectionsInRange( final float x, final float y, final float rangeSquared, final Collection< Connection > result ) {
+			for ( int i = 0; i < this.size; i++ ) {
+				Entry entry = this.entries[i];
+				float dx = entry.x - x;
+				float dy = entry.y - y;
+				if ( ( ( dx * dx ) + ( dy * dy ) ) <= rangeSquared ) {
+					result.add( entry.connection );
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package crossnet.interest;
+
+import crossnet.Connection;
+
+/**
+ * Listener for changes to what a {@link Connection} is interested in. See
+ * {@link InterestGrid#setInterestListener(InterestListener)}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface InterestListener {
+
+	/**
+	 * The interest of a Connection may have changed; e.g. it moved into another cell.
+	 * 
+	 * @param connection
+	 *            The Connection.
+	 */
+	public void interestChanged( Connection connection );
+
+}
@@ -0,0 +1,29 @@
+package crossnet.listener;
+
+import crossnet.Connection;
+import crossnet.message.flyweight.Flyweight;
+import crossnet.message.flyweight.FlyweightRegistry;
+
+/**
+ * Listener for the blocks of one {@link Flyweight} layout received by {@link Connection}s. See
+ * {@link FlyweightRegistry}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface FlyweightListener< F extends Flyweight > {
+
+	/**
+	 * Connection received a block.
+	 * <p>
+	 * The Flyweight is positioned over the received data, and is only valid until this returns. Copy any fields that
+	 * are needed later, and do not keep the Flyweight or its buffer.
+	 * 
+	 * @param connection
+	 *            The connection that received.
+	 * @param flyweight
+	 *            The Flyweight positioned over the block.
+	 */
+	public void received( Connection connection, F flyweight );
+
+}
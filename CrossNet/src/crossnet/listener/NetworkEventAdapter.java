@@ -0,0 +1,60 @@
+package crossnet.listener;
+
+import crossnet.Connection;
+import crossnet.message.Message;
+import crossnet.metrics.DisconnectReason;
+
+/**
+ * Adapter class with empty implementations of the methods.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class NetworkEventAdapter implements NetworkEventListener {
+
+	@Override
+	public void updated( int selectedKeys, long selectNanos, long processNanos ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void accepted( Connection connection ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void readBatch( Connection connection, int bytes, int messages, long nanos ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void parsed( Connection connection, int packetBytes, long nanos ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void dispatched( Connection connection, Message message, long nanos ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void sent( Connection connection, Message message, int bytes ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void flushed( Connection connection, int bytes, long nanos, boolean complete ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void timedOut( Connection connection ) {
+		// Override this if necessary.
+	}
+
+	@Override
+	public void disconnected( Connection connection, DisconnectReason reason ) {
+		// Override this if necessary.
+	}
+
+}
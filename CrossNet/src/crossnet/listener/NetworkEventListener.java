@@ -0,0 +1,122 @@
+package crossnet.listener;
+
+import crossnet.Connection;
+import crossnet.LocalEndPoint;
+import crossnet.message.Message;
+import crossnet.metrics.DisconnectReason;
+
+/**
+ * Listener for low level events from the network hot paths of a {@link LocalEndPoint}; e.g. for forwarding them to a
+ * profiler or event recorder.
+ * <p>
+ * All events are fired on the thread doing the work, mostly the update thread, so implementations must be quick and
+ * thread safe. When no NetworkEventListener is set, the events cost a single volatile read each.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface NetworkEventListener {
+
+	/**
+	 * An update iteration completed.
+	 * 
+	 * @param selectedKeys
+	 *            The number of keys selected.
+	 * @param selectNanos
+	 *            Time spent waiting in select.
+	 * @param processNanos
+	 *            Time spent processing after select.
+	 */
+	public void updated( int selectedKeys, long selectNanos, long processNanos );
+
+	/**
+	 * A new Connection was accepted.
+	 * 
+	 * @param connection
+	 *            The new Connection.
+	 */
+	public void accepted( Connection connection );
+
+	/**
+	 * A batch of reads completed, i.e. everything that was readable from the socket at once.
+	 * 
+	 * @param connection
+	 *            The Connection read from.
+	 * @param bytes
+	 *            The number of bytes read.
+	 * @param messages
+	 *            The number of Messages read.
+	 * @param nanos
+	 *            Time spent reading, parsing and dispatching.
+	 */
+	public void readBatch( Connection connection, int bytes, int messages, long nanos );
+
+	/**
+	 * A received Packet was parsed.
+	 * 
+	 * @param connection
+	 *            The Connection that received.
+	 * @param packetBytes
+	 *            The size of the Packet payload.
+	 * @param nanos
+	 *            Time spent parsing.
+	 */
+	public void parsed( Connection connection, int packetBytes, long nanos );
+
+	/**
+	 * A received Message was dispatched to the {@link ConnectionListener}s.
+	 * 
+	 * @param connection
+	 *            The Connection that received.
+	 * @param message
+	 *            The Message dispatched.
+	 * @param nanos
+	 *            Time until the ConnectionListeners returned.
+	 */
+	public void dispatched( Connection connection, Message message, long nanos );
+
+	/**
+	 * A Message was sent; i.e. put in the send buffer or queue.
+	 * 
+	 * @param connection
+	 *            The Connection sent through.
+	 * @param message
+	 *            The Message sent.
+	 * @param bytes
+	 *            The number of bytes added to the send buffer or queue.
+	 */
+	public void sent( Connection connection, Message message, int bytes );
+
+	/**
+	 * The send buffer was written to the socket.
+	 * 
+	 * @param connection
+	 *            The Connection written to.
+	 * @param bytes
+	 *            The number of bytes written.
+	 * @param nanos
+	 *            Time spent writing.
+	 * @param complete
+	 *            {@code True} iff the send buffer was emptied; otherwise the write was partial.
+	 */
+	public void flushed( Connection connection, int bytes, long nanos, boolean complete );
+
+	/**
+	 * A Connection timed out.
+	 * 
+	 * @param connection
+	 *            The Connection that timed out.
+	 */
+	public void timedOut( Connection connection );
+
+	/**
+	 * A Connection was disconnected.
+	 * 
+	 * @param connection
+	 *            The Connection that disconnected.
+	 * @param reason
+	 *            The reason.
+	 */
+	public void disconnected( Connection connection, DisconnectReason reason );
+
+}
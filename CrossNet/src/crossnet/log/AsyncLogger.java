@@ -0,0 +1,269 @@
+package crossnet.log;
+
+import java.io.PrintStream;
+
+/**
+ * Logger that hands log calls to a background writer thread through a preallocated ring buffer, such that logging
+ * does not block the update thread on output.
+ * <p>
+ * Parameterised messages are formatted on the writer thread. If the ring buffer is full, the log call is dropped and
+ * counted, rather than blocking. The source location of log calls is off by default, as finding it walks the stack.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class AsyncLogger extends Log.Logger implements Runnable {
+
+	/**
+	 * A log call waiting in the ring buffer.
+	 */
+	private static class Entry {
+
+		long timeMillis;
+
+		LogLevel level;
+
+		String group;
+
+		String message;
+
+		Object argument1;
+
+		Object argument2;
+
+		boolean parameterised;
+
+		String location;
+
+		Throwable throwable;
+
+		void clear() {
+			this.group = null;
+			this.message = null;
+			this.argument1 = null;
+			this.argument2 = null;
+			this.location = null;
+			this.throwable = null;
+		}
+
+	}
+
+	/**
+	 * The ring buffer, guarded by itself.
+	 */
+	private final Entry[] ring;
+
+	/**
+	 * Mask for wrapping indices into the {@link #ring}.
+	 */
+	private final int mask;
+
+	/**
+	 * Index of the next Entry to write; increases forever.
+	 */
+	private long head = 0;
+
+	/**
+	 * Index of the next Entry to output; increases forever.
+	 */
+	private long tail = 0;
+
+	/**
+	 * Where log lines are written.
+	 */
+	private final PrintStream out;
+
+	/**
+	 * Number of log calls dropped because the ring buffer was full.
+	 */
+	private volatile long droppedMessages = 0;
+
+	/**
+	 * {@code True} iff the writer thread should shut down.
+	 */
+	private volatile boolean shutdownThread = false;
+
+	/**
+	 * Creates a new AsyncLogger writing to standard output, with room for 8192 pending log calls.
+	 */
+	public AsyncLogger() {
+		this( 8192, System.out );
+	}
+
+	/**
+	 * Creates a new AsyncLogger.
+	 * 
+	 * @param capacity
+	 *            The number of pending log calls there is room for. Rounded up to a power of two.
+	 * @param out
+	 *            Where log lines are written.
+	 */
+	public AsyncLogger( int capacity, PrintStream out ) {
+		if ( capacity < 1 ) {
+			throw new IllegalArgumentException( "capacity must be positive." );
+		}
+		if ( out == null ) {
+			throw new IllegalArgumentException( "out cannot be null." );
+		}
+
+		int size = Integer.highestOneBit( capacity );
+		if ( size < capacity ) {
+			size <<= 1;
+		}
+		this.ring = new Entry[size];
+		for ( int i = 0; i < size; i++ ) {
+			this.ring[i] = new Entry();
+		}
+		this.mask = size - 1;
+		this.out = out;
+		this.sourceLocation = false;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 * 
+	 * @param threadName
+	 *            The name of the thread.
+	 */
+	public void start( String threadName ) {
+		this.shutdownThread = false;
+		Thread thread = new Thread( this, threadName );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer thread, once the pending log calls are written.
+	 */
+	public void stop() {
+		this.shutdownThread = true;
+		synchronized ( this.ring ) {
+			this.ring.notifyAll();
+		}
+	}
+
+	/**
+	 * Gets the number of log calls dropped because the ring buffer was full.
+	 * 
+	 * @return The number of dropped log calls.
+	 */
+	public long getDroppedMessages() {
+		return this.droppedMessages;
+	}
+
+	@Override
+	public void log( LogLevel level, String group, String message, Throwable throwable ) {
+		if ( level.ordinal() < Log.currentLogLevel.ordinal() ) {
+			// Return if supplied log level is below the set one.
+			return;
+		}
+
+		this.enqueue( level, group, message, null, null, false, throwable );
+	}
+
+	@Override
+	public void log( LogLevel level, String group, String pattern, Object argument1, Object argument2, Throwable throwable ) {
+		if ( level.ordinal() < Log.currentLogLevel.ordinal() ) {
+			// Return if supplied log level is below the set one.
+			return;
+		}
+
+		this.enqueue( level, group, pattern, argument1, argument2, true, throwable );
+	}
+
+	@Override
+	public void run() {
+		Entry entry = new Entry();
+		StringBuilder builder = new StringBuilder( 256 );
+		while ( true ) {
+			boolean shutdown = false;
+			boolean empty;
+			synchronized ( this.ring ) {
+				empty = ( this.head == this.tail );
+				if ( empty ) {
+					shutdown = this.shutdownThread;
+				} else {
+					// Take the Entry, such that the slot is free while formatting.
+					Entry slot = this.ring[(int) ( this.tail & this.mask )];
+					entry.timeMillis = slot.timeMillis;
+					entry.level = slot.level;
+					entry.group = slot.group;
+					entry.message = slot.message;
+					entry.argument1 = slot.argument1;
+					entry.argument2 = slot.argument2;
+					entry.parameterised = slot.parameterised;
+					entry.location = slot.location;
+					entry.throwable = slot.throwable;
+					slot.clear();
+					this.tail++;
+				}
+			}
+
+			if ( empty ) {
+				// Flush without holding the ring buffer, such that slow output does not block the log calls.
+				this.out.flush();
+				if ( shutdown ) {
+					return;
+				}
+				synchronized ( this.ring ) {
+					while ( ( this.head == this.tail ) && !this.shutdownThread ) {
+						try {
+							this.ring.wait();
+						} catch ( InterruptedException e ) {
+							// Ignored
+						}
+					}
+				}
+				continue;
+			}
+
+			String message = entry.message;
+			if ( entry.parameterised ) {
+				message = Log.format( entry.message, entry.argument1, entry.argument2 );
+			}
+
+			builder.setLength( 0 );
+			try {
+				this.format( builder, entry.timeMillis, entry.level, entry.group, message, entry.location, entry.throwable );
+				this.out.println( builder );
+			} catch ( RuntimeException e ) {
+				// E.g. a failing toString of an argument. Keep the writer thread alive.
+				this.out.println( "Unable to log: " + e );
+			}
+			entry.clear();
+		}
+	}
+
+	/**
+	 * Puts a log call in the ring buffer, or drops it if full.
+	 */
+	private void enqueue( LogLevel level, String group, String message, Object argument1, Object argument2, boolean parameterised, Throwable throwable ) {
+		long timeMillis = System.currentTimeMillis();
+		String location = this.findSourceLocation();
+
+		synchronized ( this.ring ) {
+			if ( ( this.head - this.tail ) == this.ring.length ) {
+				this.droppedMessages++;
+				return;
+			}
+
+			Entry slot = this.ring[(int) ( this.head & this.mask )];
+			slot.timeMillis = timeMillis;
+			slot.level = level;
+			slot.group = group;
+			slot.message = message;
+			slot.argument1 = argument1;
+			slot.argument2 = argument2;
+			slot.parameterised = parameterised;
+			slot.location = location;
+			slot.throwable = throwable;
+
+			if ( this.head == this.tail ) {
+				// The writer thread may be waiting.
+				this.ring.notify();
+			}
+			this.head++;
+		}
+	}
+
+}
@@ -2,10 +2,8 @@ package crossnet.log;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Formatter;
 
 /**
  * Simple logging framework
@@ -63,6 +61,35 @@ public class Log {
 		Log.logger = logger;
 	}
 
+	/**
+	 * Replaces the first two <code>{}</code> in a pattern with the arguments.
+	 * 
+	 * @param pattern
+	 *            The message pattern.
+	 * @param argument1
+	 *            The first argument.
+	 * @param argument2
+	 *            The second argument.
+	 * @return The formatted message.
+	 */
+	public static String format( String pattern, Object argument1, Object argument2 ) {
+		StringBuilder builder = new StringBuilder( pattern.length() + 32 );
+		int start = 0;
+		int argument = 0;
+		while ( argument < 2 ) {
+			int index = pattern.indexOf( "{}", start );
+			if ( index == -1 ) {
+				break;
+			}
+			builder.append( pattern, start, index );
+			builder.append( ( argument == 0 ) ? argument1 : argument2 );
+			start = index + 2;
+			argument++;
+		}
+		builder.append( pattern, start, pattern.length() );
+		return builder.toString();
+	}
+
 	public static void trace( String message ) {
 		Log.logger.log( LogLevel.TRACE, null, message, null );
 	}
@@ -79,6 +106,18 @@ public class Log {
 		Log.logger.log( LogLevel.TRACE, group, message, throwable );
 	}
 
+	public static void trace( String group, String pattern, Object argument ) {
+		if ( Log.TRACE ) {
+			Log.logger.log( LogLevel.TRACE, group, pattern, argument, null, null );
+		}
+	}
+
+	public static void trace( String group, String pattern, Object argument1, Object argument2 ) {
+		if ( Log.TRACE ) {
+			Log.logger.log( LogLevel.TRACE, group, pattern, argument1, argument2, null );
+		}
+	}
+
 	public static void debug( String message ) {
 		Log.logger.log( LogLevel.DEBUG, null, message, null );
 	}
@@ -95,6 +134,18 @@ public class Log {
 		Log.logger.log( LogLevel.DEBUG, group, message, throwable );
 	}
 
+	public static void debug( String group, String pattern, Object argument ) {
+		if ( Log.DEBUG ) {
+			Log.logger.log( LogLevel.DEBUG, group, pattern, argument, null, null );
+		}
+	}
+
+	public static void debug( String group, String pattern, Object argument1, Object argument2 ) {
+		if ( Log.DEBUG ) {
+			Log.logger.log( LogLevel.DEBUG, group, pattern, argument1, argument2, null );
+		}
+	}
+
 	public static void info( String message ) {
 		Log.logger.log( LogLevel.INFO, null, message, null );
 	}
@@ -111,6 +162,18 @@ public class Log {
 		Log.logger.log( LogLevel.INFO, group, message, throwable );
 	}
 
+	public static void info( String group, String pattern, Object argument ) {
+		if ( Log.INFO ) {
+			Log.logger.log( LogLevel.INFO, group, pattern, argument, null, null );
+		}
+	}
+
+	public static void info( String group, String pattern, Object argument1, Object argument2 ) {
+		if ( Log.INFO ) {
+			Log.logger.log( LogLevel.INFO, group, pattern, argument1, argument2, null );
+		}
+	}
+
 	public static void warn( String message ) {
 		Log.logger.log( LogLevel.WARN, null, message, null );
 	}
@@ -127,6 +190,18 @@ public class Log {
 		Log.logger.log( LogLevel.WARN, group, message, throwable );
 	}
 
+	public static void warn( String group, String pattern, Object argument ) {
+		if ( Log.WARN ) {
+			Log.logger.log( LogLevel.WARN, group, pattern, argument, null, null );
+		}
+	}
+
+	public static void warn( String group, String pattern, Object argument1, Object argument2 ) {
+		if ( Log.WARN ) {
+			Log.logger.log( LogLevel.WARN, group, pattern, argument1, argument2, null );
+		}
+	}
+
 	public static void error( String message ) {
 		Log.logger.log( LogLevel.ERROR, null, message, null );
 	}
@@ -143,6 +218,18 @@ public class Log {
 		Log.logger.log( LogLevel.ERROR, group, message, throwable );
 	}
 
+	public static void error( String group, String pattern, Object argument ) {
+		if ( Log.ERROR ) {
+			Log.logger.log( LogLevel.ERROR, group, pattern, argument, null, null );
+		}
+	}
+
+	public static void error( String group, String pattern, Object argument1, Object argument2 ) {
+		if ( Log.ERROR ) {
+			Log.logger.log( LogLevel.ERROR, group, pattern, argument1, argument2, null );
+		}
+	}
+
 	/**
 	 * Default logger.
 	 * 
@@ -153,9 +240,38 @@ public class Log {
 	 */
 	public static class Logger {
 
-		private long firstTimeStamp = new Date().getTime();
+		private long firstTimeStamp = System.currentTimeMillis();
+
+		/**
+		 * {@code True} iff the source location of the log call is added when DEBUG is on. Finding it walks the stack.
+		 */
+		protected volatile boolean sourceLocation = true;
+
+		/**
+		 * Formats the date part of the time stamps.
+		 */
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+
+		/**
+		 * The second of the {@link #cachedDate}.
+		 */
+		private long cachedSecond = -1;
+
+		/**
+		 * The formatted date part of the time stamp, reused within the same second.
+		 */
+		private String cachedDate;
+
+		/**
+		 * Sets whether the source location of the log call is added when DEBUG is on.
+		 * 
+		 * @param sourceLocation
+		 *            {@code True} to add the source location.
+		 */
+		public void setSourceLocation( boolean sourceLocation ) {
+			this.sourceLocation = sourceLocation;
+		}
 
-		@SuppressWarnings( "incomplete-switch" )
 		public void log( LogLevel level, String group, String message, Throwable throwable ) {
 			if ( level.ordinal() < Log.currentLogLevel.ordinal() ) {
 				// Return if supplied log level is below the set one.
@@ -163,14 +279,83 @@ public class Log {
 			}
 
 			StringBuilder builder = new StringBuilder( 128 );
+			this.format( builder, System.currentTimeMillis(), level, group, message, this.findSourceLocation(), throwable );
+			System.out.println( builder.toString() );
+		}
 
+		/**
+		 * Logs a parameterised message. Each <code>{}</code> in the pattern is replaced by the next argument, but only if
+		 * the message is logged.
+		 * 
+		 * @param level
+		 *            The LogLevel.
+		 * @param group
+		 *            The group, or {@code null}.
+		 * @param pattern
+		 *            The message pattern.
+		 * @param argument1
+		 *            The first argument.
+		 * @param argument2
+		 *            The second argument.
+		 * @param throwable
+		 *            The Throwable, or {@code null}.
+		 */
+		public void log( LogLevel level, String group, String pattern, Object argument1, Object argument2, Throwable throwable ) {
+			if ( level.ordinal() < Log.currentLogLevel.ordinal() ) {
+				// Return if supplied log level is below the set one.
+				return;
+			}
+
+			this.log( level, group, Log.format( pattern, argument1, argument2 ), throwable );
+		}
+
+		/**
+		 * Finds the source location of the log call, if enabled.
+		 * 
+		 * @return The source location, or {@code null} if disabled.
+		 */
+		protected String findSourceLocation() {
+			if ( !Log.DEBUG || !this.sourceLocation ) {
+				return null;
+			}
+
+			// Skip the frames of the logging framework.
+			for ( StackTraceElement element : Thread.currentThread().getStackTrace() ) {
+				String className = element.getClassName();
+				if ( !className.startsWith( "crossnet.log." ) && !className.equals( Thread.class.getName() ) ) {
+					return element.getFileName() + ':' + element.getLineNumber();
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Formats a log line.
+		 * 
+		 * @param builder
+		 *            The StringBuilder to format to.
+		 * @param timeMillis
+		 *            The time of the log call.
+		 * @param level
+		 *            The LogLevel.
+		 * @param group
+		 *            The group, or {@code null}.
+		 * @param message
+		 *            The message.
+		 * @param location
+		 *            The source location, or {@code null}.
+		 * @param throwable
+		 *            The Throwable, or {@code null}.
+		 */
+		@SuppressWarnings( "incomplete-switch" )
+		protected void format( StringBuilder builder, long timeMillis, LogLevel level, String group, String message, String location, Throwable throwable ) {
 			// Add time stamp
-			Format format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
-			String timeStamp = '[' + format.format( new Date() ) + "] ";
-			builder.append( timeStamp );
+			builder.append( '[' );
+			builder.append( this.formatDate( timeMillis ) );
+			builder.append( "] " );
 
 			// Add time stamp
-			long time = new Date().getTime() - this.firstTimeStamp;
+			long time = timeMillis - this.firstTimeStamp;
 			long minutes = time / ( 1000 * 60 );
 			long seconds = ( time / ( 1000 ) ) % 60;
 			long millis = time - ( minutes * 1000 * 60 ) - ( seconds * 1000 );
@@ -219,16 +404,14 @@ public class Log {
 			}
 
 			// Add message
-			builder.append( message.trim() + ' ' );
+			builder.append( message.trim() );
+			builder.append( ' ' );
 
 			// Add source location
-			if ( Log.DEBUG ) {
-				StackTraceElement el = Thread.currentThread().getStackTrace()[3];
-				String location = "";
-				try ( Formatter formatter = new Formatter() ) {
-					location = formatter.format( "%s:%d", el.getFileName(), el.getLineNumber() ).toString();
-				}
-				builder.append( '(' + location + ')' );
+			if ( location != null ) {
+				builder.append( '(' );
+				builder.append( location );
+				builder.append( ')' );
 			}
 
 			// Add throwable
@@ -238,8 +421,22 @@ public class Log {
 				builder.append( '\n' );
 				builder.append( writer.toString().trim() );
 			}
+		}
 
-			System.out.println( builder.toString() );
+		/**
+		 * Formats the date part of a time stamp. The result is cached for the rest of the second.
+		 * 
+		 * @param timeMillis
+		 *            The time stamp.
+		 * @return The formatted date.
+		 */
+		private synchronized String formatDate( long timeMillis ) {
+			long second = timeMillis / 1000;
+			if ( second != this.cachedSecond ) {
+				this.cachedDate = this.dateFormat.format( new Date( timeMillis ) );
+				this.cachedSecond = second;
+			}
+			return this.cachedDate;
 		}
 
 	}
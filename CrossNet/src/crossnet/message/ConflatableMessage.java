@@ -0,0 +1,25 @@
+package crossnet.message;
+
+import crossnet.Connection;
+
+/**
+ * A Message that may be superseded by a newer Message with the same conflation key, e.g. a position update.
+ * <p>
+ * If a ConflatableMessage is still queued for sending when another with the same key is sent through the same
+ * {@link Connection}, the queued one is replaced in place instead of a new one being appended. So a slow consumer
+ * only holds the latest of each key. Other Messages still add up, until the limit of the queue is reached; see
+ * {@link crossnet.TransportLayer#setMaxQueuedBytes(int)}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface ConflatableMessage extends Message {
+
+	/**
+	 * Gets the conflation key. Keys are compared using {@link Object#equals(Object)}.
+	 * 
+	 * @return The conflation key, or {@code null} if this should never be conflated.
+	 */
+	public Object getConflationKey();
+
+}
@@ -0,0 +1,32 @@
+package crossnet.message;
+
+import crossnet.Connection;
+import crossnet.ConnectionOptions;
+import crossnet.util.ByteArrayWriter;
+import crossnet.util.StringTable;
+
+/**
+ * A Message that repeats the same Strings often, e.g. names of players or channels.
+ * <p>
+ * When the {@link ConnectionOptions#STRING_TABLE} option is negotiated, it is serialised with the outbound
+ * {@link StringTable} of the {@link Connection} it is sent through, such that Strings written with
+ * {@link ByteArrayWriter#writeSharedString(String)} are only sent in full the first time. The receiving MessageParser
+ * gets the matching inbound StringTable with the payload.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface StringTableMessage extends Message {
+
+	/**
+	 * Serialises this with a StringTable; i.e. writes to a {@code new ByteArrayWriter( stringTable )}.
+	 * <p>
+	 * Must write the same as {@link #getBytes()}, except for the shared Strings.
+	 * 
+	 * @param stringTable
+	 *            The StringTable of the Connection.
+	 * @return The bytes that constitutes this Message.
+	 */
+	public byte[] getBytes( StringTable stringTable );
+
+}
@@ -4,7 +4,9 @@ import java.io.IOException;
 
 import crossnet.log.Log;
 import crossnet.message.Message;
+import crossnet.message.StringTableMessage;
 import crossnet.util.ByteArrayWriter;
+import crossnet.util.StringTable;
 
 /**
  * Abstract Message that is used internally to maintain state.
@@ -30,8 +32,20 @@ public abstract class CrossNetMessage implements Message {
 
 	@Override
 	public byte[] getBytes() {
+		return this.getBytes( null );
+	}
+
+	/**
+	 * Serialises this with a StringTable for the shared Strings. Subclasses that implement {@link StringTableMessage}
+	 * get it from here.
+	 * 
+	 * @param stringTable
+	 *            The StringTable, or {@code null} to write shared Strings in full.
+	 * @return The bytes that constitutes this Message.
+	 */
+	public byte[] getBytes( StringTable stringTable ) {
 		try {
-			ByteArrayWriter out = new ByteArrayWriter();
+			ByteArrayWriter out = new ByteArrayWriter( stringTable );
 
 			// Write header
 			out.writeByte( this.crossNetMessageType.ordinal() );
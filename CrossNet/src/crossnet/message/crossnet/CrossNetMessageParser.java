@@ -3,9 +3,15 @@ package crossnet.message.crossnet;
 import crossnet.log.Log;
 import crossnet.message.AbstractMessageParser;
 import crossnet.message.Message;
+import crossnet.message.crossnet.messages.BundleMessage;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+import crossnet.message.crossnet.messages.HandshakeMessage;
 import crossnet.message.crossnet.messages.KeepAliveMessage;
 import crossnet.message.crossnet.messages.PingMessage;
 import crossnet.message.crossnet.messages.RegisterMessage;
+import crossnet.message.crossnet.messages.RpcMessage;
+import crossnet.message.crossnet.messages.SnapshotAckMessage;
+import crossnet.message.crossnet.messages.SnapshotMessage;
 import crossnet.util.ByteArrayReader;
 
 /**
@@ -41,6 +47,24 @@ public class CrossNetMessageParser extends AbstractMessageParser< CrossNetMessag
 					Log.warn( "CrossNet", "No tiered parser: Cannot parse content of TieredCrossNetMessage." );
 				}
 				break;
+			case SNAPSHOT:
+				message = SnapshotMessage.parse( payload );
+				break;
+			case SNAPSHOT_ACK:
+				message = SnapshotAckMessage.parse( payload );
+				break;
+			case BUNDLE:
+				message = BundleMessage.parse( payload, this );
+				break;
+			case HANDSHAKE:
+				message = HandshakeMessage.parse( payload );
+				break;
+			case FLYWEIGHT:
+				message = FlyweightMessage.parse( payload );
+				break;
+			case RPC:
+				message = RpcMessage.parse( payload, this );
+				break;
 			default:
 				Log.error( "CrossNet", "Unknown CrossNetMessageType, cannot parse: " + messageType );
 				break;
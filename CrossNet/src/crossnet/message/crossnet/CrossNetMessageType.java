@@ -30,5 +30,35 @@ public enum CrossNetMessageType {
 	/**
 	 * For sending tiered Messages.
 	 */
-	TIERED
+	TIERED,
+
+	/**
+	 * For sending a snapshot, either in full or as a delta against an acknowledged snapshot.
+	 */
+	SNAPSHOT,
+
+	/**
+	 * For acknowledging a received snapshot.
+	 */
+	SNAPSHOT_ACK,
+
+	/**
+	 * For sending several Messages in one Packet.
+	 */
+	BUNDLE,
+
+	/**
+	 * For negotiating the transport options of a {@link Connection}.
+	 */
+	HANDSHAKE,
+
+	/**
+	 * For sending a fixed layout block of fields, that is decoded without creating objects.
+	 */
+	FLYWEIGHT,
+
+	/**
+	 * For remote procedure calls; i.e. requests and their responses.
+	 */
+	RPC
 }
@@ -0,0 +1,114 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import crossnet.ConnectionOptions;
+import crossnet.TcpTransportLayer;
+import crossnet.log.Log;
+import crossnet.message.Message;
+import crossnet.message.MessageParser;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Carries several Messages in one Packet, saving the Packet header and parse pass of each.
+ * <p>
+ * Created by the {@link TcpTransportLayer} when several Messages are queued. Each Message is prefixed by its 2B length.
+ * <p>
+ * Older peers cannot parse this, so it is only sent once {@link ConnectionOptions#BUNDLING} is negotiated.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BundleMessage extends CrossNetMessage {
+
+	/**
+	 * Number of bytes the bundling adds per Message.
+	 */
+	public static final int OVERHEAD_PER_MESSAGE = 2;
+
+	/**
+	 * The serialised Messages.
+	 */
+	private final List< byte[] > payloads;
+
+	/**
+	 * The parsed Messages.
+	 */
+	private final List< Message > messages;
+
+	/**
+	 * Create new BundleMessage with the serialised Messages.
+	 * 
+	 * @param payloads
+	 *            The serialised Messages.
+	 */
+	public BundleMessage( final List< byte[] > payloads ) {
+		super( CrossNetMessageType.BUNDLE );
+		this.payloads = payloads;
+		this.messages = Collections.emptyList();
+	}
+
+	/**
+	 * Internal constructor used when parsing byte[].
+	 * 
+	 * @param messages
+	 *            The parsed Messages.
+	 */
+	private BundleMessage( final ArrayList< Message > messages ) {
+		super( CrossNetMessageType.BUNDLE );
+		this.payloads = Collections.emptyList();
+		this.messages = messages;
+	}
+
+	/**
+	 * Gets the parsed Messages.
+	 * 
+	 * @return The parsed Messages.
+	 */
+	public List< Message > getMessages() {
+		return this.messages;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		for ( byte[] payload : this.payloads ) {
+			to.writeShort( payload.length );
+			to.writeByteArray( payload );
+		}
+	}
+
+	/**
+	 * Construct a BundleMessage from the provided payload, parsing the Messages it carries in a single pass.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @param messageParser
+	 *            The MessageParser used for the carried Messages.
+	 * @return A freshly parsed BundleMessage.
+	 */
+	public static BundleMessage parse( ByteArrayReader payload, MessageParser messageParser ) {
+		try {
+			ArrayList< Message > messages = new ArrayList<>();
+			while ( payload.bytesAvailable() > 0 ) {
+				byte[] data = new byte[payload.readUnsignedShort()];
+				payload.readByteArray( data );
+				Message message = messageParser.parseData( new ByteArrayReader( data, payload.getStringTable() ) );
+				if ( message != null ) {
+					messages.add( message );
+				}
+			}
+			return new BundleMessage( messages );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing BundleMessage:", e );
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,151 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import crossnet.log.Log;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.message.flyweight.Flyweight;
+import crossnet.message.flyweight.FlyweightRegistry;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+import crossnet.util.StringTable;
+
+/**
+ * For sending a fixed layout block of fields, that is read and written with a {@link Flyweight}.
+ * <p>
+ * To send, create one FlyweightMessage for a Flyweight, which wraps the Flyweight over the block of this. Set the
+ * fields with the Flyweight, and send this. The block is copied when sent, so this can be reused for the next send:
+ * 
+ * <pre>
+ * PositionFlyweight position = new PositionFlyweight();
+ * FlyweightMessage message = new FlyweightMessage( position );
+ * position.setEntityId( 7 );
+ * position.setX( 1.5f );
+ * connection.send( message );
+ * </pre>
+ * 
+ * The receiver decodes it with a {@link FlyweightRegistry}. A FlyweightMessage of an unregistered template is received
+ * as is, and can be read by {@link #wrap(Flyweight) wrapping} a Flyweight over it.
+ * <p>
+ * The serialised form is the {@link CrossNetMessageType#FLYWEIGHT} type, the 1B template id and the block. Not thread
+ * safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class FlyweightMessage extends CrossNetMessage {
+
+	/**
+	 * The number of bytes before the block; i.e. the type and the template id.
+	 */
+	public static final int HEADER_SIZE = 2;
+
+	/**
+	 * The serialised form of this, header included.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Create new FlyweightMessage for sending, with an empty block, and wraps a Flyweight over it.
+	 * 
+	 * @param flyweight
+	 *            The Flyweight used to set the fields of the block.
+	 */
+	public FlyweightMessage( final Flyweight flyweight ) {
+		super( CrossNetMessageType.FLYWEIGHT );
+		int templateId = flyweight.getTemplateId();
+		if ( ( templateId < 0 ) || ( templateId > 255 ) ) {
+			throw new IllegalArgumentException( "Template id must be 0 to 255, was: " + templateId );
+		}
+		this.buffer = ByteBuffer.allocate( FlyweightMessage.HEADER_SIZE + flyweight.getBlockLength() );
+		this.buffer.put( 0, (byte) this.crossNetMessageType.ordinal() );
+		this.buffer.put( 1, (byte) templateId );
+		flyweight.wrap( this.buffer, FlyweightMessage.HEADER_SIZE );
+	}
+
+	/**
+	 * Create new FlyweightMessage from its serialised form.
+	 * 
+	 * @param bytes
+	 *            The serialised form, header included.
+	 */
+	private FlyweightMessage( final byte[] bytes ) {
+		super( CrossNetMessageType.FLYWEIGHT );
+		this.buffer = ByteBuffer.wrap( bytes );
+	}
+
+	/**
+	 * @return The template id of the block.
+	 */
+	public int getTemplateId() {
+		return this.buffer.get( 1 ) & 0xFF;
+	}
+
+	/**
+	 * @return The number of bytes in the block.
+	 */
+	public int getBlockLength() {
+		return this.buffer.capacity() - FlyweightMessage.HEADER_SIZE;
+	}
+
+	/**
+	 * Gets the serialised form of this. Used by the {@link FlyweightRegistry}.
+	 * 
+	 * @return The buffer, header included. Must not be modified.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Positions a Flyweight over the block of this.
+	 * 
+	 * @param flyweight
+	 *            The Flyweight to position.
+	 */
+	public void wrap( Flyweight flyweight ) {
+		if ( flyweight.getTemplateId() != this.getTemplateId() ) {
+			throw new IllegalArgumentException( "Flyweight is of template " + flyweight.getTemplateId() + ", but block is of: " + this.getTemplateId() );
+		}
+		flyweight.wrap( this.buffer, FlyweightMessage.HEADER_SIZE );
+	}
+
+	@Override
+	public byte[] getBytes( StringTable stringTable ) {
+		// Already serialised.
+		return this.buffer.array().clone();
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeByteArray( Arrays.copyOfRange( this.buffer.array(), 1, this.buffer.capacity() ) );
+	}
+
+	/**
+	 * Construct a FlyweightMessage from the provided payload.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @return A freshly parsed FlyweightMessage.
+	 */
+	public static FlyweightMessage parse( ByteArrayReader payload ) {
+		try {
+			int length = payload.bytesAvailable();
+			if ( length < 1 ) {
+				throw new IOException( "Missing template id." );
+			}
+			byte[] bytes = new byte[1 + length];
+			bytes[0] = (byte) CrossNetMessageType.FLYWEIGHT.ordinal();
+			payload.readByteArray( bytes, 1, length );
+			return new FlyweightMessage( bytes );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing FlyweightMessage:", e );
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,119 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+
+import crossnet.ConnectionOptions;
+import crossnet.CrossNetClient;
+import crossnet.CrossNetServer;
+import crossnet.log.Log;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * For negotiating the {@link ConnectionOptions}.
+ * <p>
+ * {@link CrossNetClient} sends an offer of the options it supports when registered. {@link CrossNetServer} answers
+ * with the options selected, and switches to them for anything it sends after. {@link CrossNetClient} then confirms,
+ * and switches likewise.
+ * <p>
+ * Servers that do not know this cannot parse the offer, so the Connection keeps the {@link ConnectionOptions#LEGACY}
+ * options. This has a cost, as the client cannot tell such servers apart beforehand: they log an error for the
+ * unrecognised type once per Connection, and their read loop stops at it, such that anything received right behind
+ * the offer waits until the socket becomes readable again. Only enable the options on clients of servers that know
+ * this, where that matters.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class HandshakeMessage extends CrossNetMessage {
+
+	/**
+	 * Signals if this is an offer, or a selection or confirmation.
+	 */
+	private final boolean isOffer;
+
+	/**
+	 * The capability flags.
+	 */
+	private final int capabilities;
+
+	/**
+	 * The maximum payload size.
+	 */
+	private final int maxPayloadSize;
+
+	/**
+	 * Create new HandshakeMessage.
+	 * 
+	 * @param isOffer
+	 *            {@code True} iff this is an offer.
+	 * @param connectionOptions
+	 *            The options offered or selected.
+	 */
+	public HandshakeMessage( final boolean isOffer, final ConnectionOptions connectionOptions ) {
+		this( isOffer, connectionOptions.getCapabilities(), connectionOptions.getMaxPayloadSize() );
+	}
+
+	/**
+	 * Internal constructor used when parsing byte[].
+	 */
+	private HandshakeMessage( final boolean isOffer, final int capabilities, final int maxPayloadSize ) {
+		super( CrossNetMessageType.HANDSHAKE );
+		this.isOffer = isOffer;
+		this.capabilities = capabilities;
+		this.maxPayloadSize = maxPayloadSize;
+	}
+
+	/**
+	 * Determine if this is an offer.
+	 * 
+	 * @return {@code True} iff this is an offer.
+	 */
+	public boolean isOffer() {
+		return this.isOffer;
+	}
+
+	/**
+	 * @return The capability flags.
+	 */
+	public int getCapabilities() {
+		return this.capabilities;
+	}
+
+	/**
+	 * @return The maximum payload size.
+	 */
+	public int getMaxPayloadSize() {
+		return this.maxPayloadSize;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeBoolean( this.isOffer );
+		to.writeInt( this.capabilities );
+		to.writeInt( this.maxPayloadSize );
+	}
+
+	/**
+	 * Construct a HandshakeMessage from the provided payload.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @return A freshly parsed HandshakeMessage.
+	 */
+	public static HandshakeMessage parse( ByteArrayReader payload ) {
+		try {
+			boolean isOffer = payload.readBoolean();
+			int capabilities = payload.readInt();
+			int maxPayloadSize = payload.readInt();
+			return new HandshakeMessage( isOffer, capabilities, maxPayloadSize );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing HandshakeMessage:", e );
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,193 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+
+import crossnet.Connection;
+import crossnet.log.Log;
+import crossnet.message.Message;
+import crossnet.message.MessageParser;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Carries a request, a response or an error of a remote procedure call. See {@link Connection#request(Message, int)}.
+ * <p>
+ * The header is a single varint of the correlation id and the kind, {@code ( correlationId << 2 ) | kind}, so it takes
+ * 1B for the first 32 ids in flight and 2B up to 8192. A request or response is followed by the carried Message, and an
+ * error by its description.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class RpcMessage extends CrossNetMessage {
+
+	/**
+	 * The largest correlation id that fits the header.
+	 */
+	public static final int MAX_CORRELATION_ID = ( 1 << 30 ) - 1;
+
+	/**
+	 * The kinds of RpcMessage.
+	 */
+	public enum Kind {
+		REQUEST,
+		RESPONSE,
+		ERROR
+	}
+
+	/**
+	 * Maximum number of characters of an error description, such that it fits 255 bytes as UTF-8.
+	 */
+	private static final int MAX_ERROR_LENGTH = 85;
+
+	private final Kind kind;
+
+	private final int correlationId;
+
+	/**
+	 * The carried Message, if a request or response. May be {@code null} for a response.
+	 */
+	private final Message message;
+
+	/**
+	 * The description, if an error.
+	 */
+	private final String error;
+
+	private RpcMessage( final Kind kind, final int correlationId, final Message message, final String error ) {
+		super( CrossNetMessageType.RPC );
+		if ( ( correlationId < 0 ) || ( correlationId > RpcMessage.MAX_CORRELATION_ID ) ) {
+			throw new IllegalArgumentException( "Correlation id must be 0 to " + RpcMessage.MAX_CORRELATION_ID + ", was: " + correlationId );
+		}
+		this.kind = kind;
+		this.correlationId = correlationId;
+		this.message = message;
+		this.error = error;
+	}
+
+	/**
+	 * Create new request.
+	 * 
+	 * @param correlationId
+	 *            The id the response will carry.
+	 * @param message
+	 *            The request.
+	 * @return The new RpcMessage.
+	 */
+	public static RpcMessage request( int correlationId, Message message ) {
+		if ( message == null ) {
+			throw new IllegalArgumentException( "Cannot request null." );
+		}
+		return new RpcMessage( Kind.REQUEST, correlationId, message, null );
+	}
+
+	/**
+	 * Create new response.
+	 * 
+	 * @param correlationId
+	 *            The id of the request.
+	 * @param message
+	 *            The response, or {@code null} for none.
+	 * @return The new RpcMessage.
+	 */
+	public static RpcMessage response( int correlationId, Message message ) {
+		return new RpcMessage( Kind.RESPONSE, correlationId, message, null );
+	}
+
+	/**
+	 * Create new error, for a request that could not be handled.
+	 * 
+	 * @param correlationId
+	 *            The id of the request.
+	 * @param error
+	 *            The description. Is cut to {@value #MAX_ERROR_LENGTH} characters.
+	 * @return The new RpcMessage.
+	 */
+	public static RpcMessage error( int correlationId, String error ) {
+		if ( error == null ) {
+			error = "";
+		} else if ( error.length() > RpcMessage.MAX_ERROR_LENGTH ) {
+			error = error.substring( 0, RpcMessage.MAX_ERROR_LENGTH );
+		}
+		return new RpcMessage( Kind.ERROR, correlationId, null, error );
+	}
+
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	public int getCorrelationId() {
+		return this.correlationId;
+	}
+
+	/**
+	 * @return The carried Message, or {@code null} if an error, an empty response or it could not be parsed.
+	 */
+	public Message getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * @return The description, if an error.
+	 */
+	public String getError() {
+		return this.error;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeVarInt( ( this.correlationId << 2 ) | this.kind.ordinal() );
+		if ( this.kind == Kind.ERROR ) {
+			to.writeString255( this.error );
+		} else if ( this.message != null ) {
+			byte[] bytes = this.message.getBytes();
+			if ( bytes == null ) {
+				throw new IOException( "Could not serialise: " + this.message.getMessageClass() );
+			}
+			to.writeByteArray( bytes );
+		}
+	}
+
+	/**
+	 * Construct a RpcMessage from the provided payload.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @param messageParser
+	 *            The MessageParser used for the carried Message.
+	 * @return A freshly parsed RpcMessage.
+	 */
+	public static RpcMessage parse( ByteArrayReader payload, MessageParser messageParser ) {
+		try {
+			int tag = payload.readVarInt();
+			int kindIndex = tag & 3;
+			if ( kindIndex >= Kind.values().length ) {
+				throw new IOException( "Unknown kind: " + kindIndex );
+			}
+			Kind kind = Kind.values()[kindIndex];
+			int correlationId = tag >>> 2;
+
+			if ( kind == Kind.ERROR ) {
+				return new RpcMessage( kind, correlationId, null, payload.readString255() );
+			}
+
+			Message message = null;
+			int length = payload.bytesAvailable();
+			if ( length > 0 ) {
+				byte[] data = new byte[length];
+				payload.readByteArray( data );
+				message = messageParser.parseData( new ByteArrayReader( data, payload.getStringTable() ) );
+			} else if ( kind == Kind.REQUEST ) {
+				throw new IOException( "Request carries no Message." );
+			}
+			return new RpcMessage( kind, correlationId, message, null );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing RpcMessage:", e );
+		}
+
+		return null;
+	}
+
+}
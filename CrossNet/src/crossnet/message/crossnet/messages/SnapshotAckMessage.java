@@ -0,0 +1,70 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+
+import crossnet.log.Log;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Acknowledges a received {@link SnapshotMessage}, such that it can be used as baseline for following deltas.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class SnapshotAckMessage extends CrossNetMessage {
+
+	/**
+	 * Sequence value used to request a full snapshot, e.g. when a baseline was lost.
+	 */
+	public static final int REQUEST_FULL = -1;
+
+	/**
+	 * The sequence number of the acknowledged snapshot.
+	 */
+	private final int sequence;
+
+	/**
+	 * Create new SnapshotAckMessage.
+	 * 
+	 * @param sequence
+	 *            The sequence number of the acknowledged snapshot, or {@link #REQUEST_FULL}.
+	 */
+	public SnapshotAckMessage( final int sequence ) {
+		super( CrossNetMessageType.SNAPSHOT_ACK );
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return The sequence number of the acknowledged snapshot, or {@link #REQUEST_FULL}.
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeInt( this.sequence );
+	}
+
+	/**
+	 * Construct a SnapshotAckMessage from the provided payload.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @return A freshly parsed SnapshotAckMessage.
+	 */
+	public static SnapshotAckMessage parse( ByteArrayReader payload ) {
+		try {
+			int sequence = payload.readInt();
+			return new SnapshotAckMessage( sequence );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing SnapshotAckMessage:", e );
+		}
+
+		return null;
+	}
+
+}
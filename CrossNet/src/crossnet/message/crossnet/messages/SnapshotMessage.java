@@ -0,0 +1,118 @@
+package crossnet.message.crossnet.messages;
+
+import java.io.IOException;
+
+import crossnet.log.Log;
+import crossnet.message.crossnet.CrossNetMessage;
+import crossnet.message.crossnet.CrossNetMessageType;
+import crossnet.message.delta.DeltaCodec;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Carries a snapshot. The snapshot is either sent in full, or as a delta against a baseline snapshot that the receiver
+ * has acknowledged.
+ * 
+ * @see DeltaCodec
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class SnapshotMessage extends CrossNetMessage {
+
+	/**
+	 * Baseline value used when the snapshot is sent in full.
+	 */
+	public static final int NO_BASELINE = -1;
+
+	/**
+	 * The sequence number of this snapshot.
+	 */
+	private final int sequence;
+
+	/**
+	 * The sequence number of the baseline snapshot, or {@link #NO_BASELINE} if this is a full snapshot.
+	 */
+	private final int baseline;
+
+	/**
+	 * The full snapshot, or the delta against the baseline.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Create new SnapshotMessage.
+	 * 
+	 * @param sequence
+	 *            The sequence number of this snapshot.
+	 * @param baseline
+	 *            The sequence number of the baseline snapshot, or {@link #NO_BASELINE} if this is a full snapshot.
+	 * @param data
+	 *            The full snapshot, or the delta against the baseline.
+	 */
+	public SnapshotMessage( final int sequence, final int baseline, final byte[] data ) {
+		super( CrossNetMessageType.SNAPSHOT );
+		this.sequence = sequence;
+		this.baseline = baseline;
+		this.data = data;
+	}
+
+	/**
+	 * @return The sequence number of this snapshot.
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * @return The sequence number of the baseline snapshot, or {@link #NO_BASELINE} if this is a full snapshot.
+	 */
+	public int getBaseline() {
+		return this.baseline;
+	}
+
+	/**
+	 * Determine if this is a full snapshot.
+	 * 
+	 * @return {@code True} iff this is a full snapshot.
+	 */
+	public boolean isFull() {
+		return this.baseline == SnapshotMessage.NO_BASELINE;
+	}
+
+	/**
+	 * @return The full snapshot, or the delta against the baseline.
+	 */
+	public byte[] getData() {
+		return this.data;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeInt( this.sequence );
+		to.writeInt( this.baseline );
+		to.writeShort( this.data.length );
+		to.writeByteArray( this.data );
+	}
+
+	/**
+	 * Construct a SnapshotMessage from the provided payload.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @return A freshly parsed SnapshotMessage.
+	 */
+	public static SnapshotMessage parse( ByteArrayReader payload ) {
+		try {
+			int sequence = payload.readInt();
+			int baseline = payload.readInt();
+			byte[] data = new byte[payload.readUnsignedShort()];
+			payload.readByteArray( data );
+			return new SnapshotMessage( sequence, baseline, data );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing SnapshotMessage:", e );
+		}
+
+		return null;
+	}
+
+}
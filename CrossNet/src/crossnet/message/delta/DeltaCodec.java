@@ -0,0 +1,133 @@
+package crossnet.message.delta;
+
+import java.io.IOException;
+
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Encodes a byte[] as a delta against a baseline byte[], and decodes it again.
+ * <p>
+ * The target is XOR'ed with the baseline, and the result is run length encoded. Bytes that are identical to the
+ * baseline become zeros and are collapsed into runs, such that only the changed bytes are carried.
+ * <p>
+ * Format: 2B target length, followed by runs of 2B zero count, 2B literal count and the literal (XOR'ed) bytes.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class DeltaCodec {
+
+	/**
+	 * Maximum length of a run.
+	 */
+	private static final int MAX_RUN = 65535;
+
+	/**
+	 * A literal run is only ended by a run of zeros at least this long. Shorter zero runs costs more in headers than
+	 * they save.
+	 */
+	private static final int MIN_ZERO_RUN = 4;
+
+	/**
+	 * Encodes the target as a delta against the baseline.
+	 * 
+	 * @param baseline
+	 *            The baseline the receiver already has.
+	 * @param target
+	 *            The data to encode.
+	 * @return The delta.
+	 * @throws IOException
+	 *             If a serialisation error occurs.
+	 */
+	public static byte[] encode( final byte[] baseline, final byte[] target ) throws IOException {
+		ByteArrayWriter out = new ByteArrayWriter();
+		out.writeShort( target.length );
+
+		int i = 0;
+		while ( i < target.length ) {
+			// Count zeros
+			int zeroStart = i;
+			while ( ( i < target.length ) && ( ( i - zeroStart ) < DeltaCodec.MAX_RUN ) && ( DeltaCodec.xor( baseline, target, i ) == 0 ) ) {
+				i++;
+			}
+			int zeros = i - zeroStart;
+			if ( i == target.length ) {
+				// Trailing zeros are implied by the target length
+				break;
+			}
+
+			// Count literals, until a sufficiently long run of zeros or the end is found
+			int literalStart = i;
+			int zeroRun = 0;
+			while ( ( i < target.length ) && ( ( i - literalStart ) < DeltaCodec.MAX_RUN ) ) {
+				if ( DeltaCodec.xor( baseline, target, i ) == 0 ) {
+					zeroRun++;
+					if ( zeroRun == DeltaCodec.MIN_ZERO_RUN ) {
+						i -= DeltaCodec.MIN_ZERO_RUN - 1;
+						zeroRun = 0;
+						break;
+					}
+				} else {
+					zeroRun = 0;
+				}
+				i++;
+			}
+			// Leave any zeros at the end of the literals for the next run
+			i -= zeroRun;
+			int literals = i - literalStart;
+
+			out.writeShort( zeros );
+			out.writeShort( literals );
+			for ( int j = literalStart; j < ( literalStart + literals ); j++ ) {
+				out.writeByte( DeltaCodec.xor( baseline, target, j ) & 0xFF );
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a delta against the baseline.
+	 * 
+	 * @param baseline
+	 *            The baseline the delta was encoded against.
+	 * @param delta
+	 *            The delta.
+	 * @return The decoded data.
+	 * @throws IOException
+	 *             If the delta is malformed.
+	 */
+	public static byte[] decode( final byte[] baseline, final byte[] delta ) throws IOException {
+		ByteArrayReader in = new ByteArrayReader( delta );
+		byte[] target = new byte[in.readUnsignedShort()];
+
+		// Start out as the baseline, i.e. all zero runs
+		System.arraycopy( baseline, 0, target, 0, Math.min( baseline.length, target.length ) );
+
+		int i = 0;
+		while ( in.bytesAvailable() > 0 ) {
+			i += in.readUnsignedShort();
+			int literals = in.readUnsignedShort();
+			if ( ( i + literals ) > target.length ) {
+				throw new IOException( "Delta run exceeds target length: " + target.length );
+			}
+			for ( int j = 0; j < literals; j++, i++ ) {
+				target[i] ^= in.readByte();
+			}
+		}
+
+		return target;
+	}
+
+	/**
+	 * XOR of target and baseline at an index. The baseline is considered zero padded.
+	 */
+	private static int xor( final byte[] baseline, final byte[] target, final int index ) {
+		if ( index < baseline.length ) {
+			return target[index] ^ baseline[index];
+		}
+		return target[index];
+	}
+
+}
@@ -0,0 +1,87 @@
+package crossnet.message.delta;
+
+import java.io.IOException;
+
+import crossnet.Connection;
+import crossnet.log.Log;
+import crossnet.message.crossnet.messages.SnapshotMessage;
+
+/**
+ * Receiving side of the snapshot delta compression. Used per {@link Connection}.
+ * <p>
+ * Remembers the most recently received snapshots, such that deltas against any of them can be decoded. It must
+ * remember at least as many as the {@link DeltaEncoder} of the other end, else deltas against the older ones fail,
+ * and are sent in full after a request.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class DeltaDecoder {
+
+	/**
+	 * Sequence numbers of the remembered snapshots. The length is a power of two.
+	 */
+	private int[] receivedSequences = new int[DeltaEncoder.DEFAULT_HISTORY_SIZE];
+
+	/**
+	 * The remembered snapshots.
+	 */
+	private byte[][] receivedSnapshots = new byte[DeltaEncoder.DEFAULT_HISTORY_SIZE][];
+
+	/**
+	 * Decodes a SnapshotMessage to the full snapshot.
+	 * 
+	 * @param snapshotMessage
+	 *            The SnapshotMessage received.
+	 * @return The full snapshot, or {@code null} if the baseline is unknown. In that case a full snapshot should be
+	 *         requested.
+	 */
+	public synchronized byte[] decode( final SnapshotMessage snapshotMessage ) {
+		byte[] snapshot;
+		if ( snapshotMessage.isFull() ) {
+			snapshot = snapshotMessage.getData();
+		} else {
+			int baselineSlot = snapshotMessage.getBaseline() & ( this.receivedSnapshots.length - 1 );
+			byte[] baseline = this.receivedSnapshots[baselineSlot];
+			if ( ( baseline == null ) || ( this.receivedSequences[baselineSlot] != snapshotMessage.getBaseline() ) ) {
+				Log.debug( "CrossNet", "Snapshot baseline " + snapshotMessage.getBaseline() + " unknown." );
+				return null;
+			}
+
+			try {
+				snapshot = DeltaCodec.decode( baseline, snapshotMessage.getData() );
+			} catch ( IOException e ) {
+				Log.error( "CrossNet", "Error decoding snapshot delta:", e );
+				return null;
+			}
+		}
+
+		int slot = snapshotMessage.getSequence() & ( this.receivedSnapshots.length - 1 );
+		this.receivedSequences[slot] = snapshotMessage.getSequence();
+		this.receivedSnapshots[slot] = snapshot;
+
+		return snapshot;
+	}
+
+	/**
+	 * Forgets all received snapshots.
+	 */
+	public synchronized void reset() {
+		for ( int i = 0; i < this.receivedSnapshots.length; i++ ) {
+			this.receivedSnapshots[i] = null;
+		}
+	}
+
+	/**
+	 * Sets the number of received snapshots remembered, and forgets all received snapshots.
+	 * 
+	 * @param historySize
+	 *            The number of snapshots. Rounded up to a power of two.
+	 */
+	public synchronized void setHistorySize( final int historySize ) {
+		int size = DeltaEncoder.toHistorySize( historySize );
+		this.receivedSequences = new int[size];
+		this.receivedSnapshots = new byte[size][];
+	}
+
+}
@@ -0,0 +1,163 @@
+package crossnet.message.delta;
+
+import java.io.IOException;
+
+import crossnet.Connection;
+import crossnet.log.Log;
+import crossnet.message.crossnet.messages.SnapshotAckMessage;
+import crossnet.message.crossnet.messages.SnapshotMessage;
+
+/**
+ * Sending side of the snapshot delta compression. Used per {@link Connection}.
+ * <p>
+ * Remembers the most recently sent snapshots, and encodes new snapshots as deltas against the last one the receiver
+ * acknowledged. Falls back to sending the snapshot in full if no usable baseline exists.
+ * <p>
+ * The acknowledged snapshot is only usable while it is among the history remembered. So the history size should
+ * exceed the number of snapshots sent per round trip; e.g. 60 per second at up to 1 second round trip time needs 64.
+ * Otherwise every snapshot is sent in full. The {@link DeltaDecoder} must remember at least as many.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class DeltaEncoder {
+
+	/**
+	 * Default number of snapshots remembered.
+	 */
+	public static final int DEFAULT_HISTORY_SIZE = 32;
+
+	/**
+	 * Sequence numbers of the remembered snapshots. The length is a power of two.
+	 */
+	private int[] sentSequences = new int[DeltaEncoder.DEFAULT_HISTORY_SIZE];
+
+	/**
+	 * The remembered snapshots.
+	 */
+	private byte[][] sentSnapshots = new byte[DeltaEncoder.DEFAULT_HISTORY_SIZE][];
+
+	/**
+	 * Sequence number of the next snapshot.
+	 */
+	private int nextSequence = 0;
+
+	/**
+	 * Sequence number of the last acknowledged snapshot.
+	 */
+	private int acknowledgedSequence = SnapshotMessage.NO_BASELINE;
+
+	/**
+	 * Encodes a snapshot, as a delta if possible.
+	 * 
+	 * @param snapshot
+	 *            The full snapshot.
+	 * @return The SnapshotMessage to send.
+	 */
+	public synchronized SnapshotMessage encode( final byte[] snapshot ) {
+		int sequence = this.nextSequence++;
+		if ( this.nextSequence < 0 ) {
+			// Wrapped, start over with full snapshots.
+			this.nextSequence = 0;
+			this.acknowledgedSequence = SnapshotMessage.NO_BASELINE;
+		}
+
+		int slot = sequence & ( this.sentSnapshots.length - 1 );
+		byte[] baseline = this.getSnapshot( this.acknowledgedSequence );
+		this.sentSequences[slot] = sequence;
+		this.sentSnapshots[slot] = snapshot;
+
+		if ( baseline != null ) {
+			try {
+				byte[] delta = DeltaCodec.encode( baseline, snapshot );
+				if ( delta.length < snapshot.length ) {
+					return new SnapshotMessage( sequence, this.acknowledgedSequence, delta );
+				}
+			} catch ( IOException e ) {
+				Log.error( "CrossNet", "Error encoding delta, sending full snapshot:", e );
+			}
+		}
+
+		return new SnapshotMessage( sequence, SnapshotMessage.NO_BASELINE, snapshot );
+	}
+
+	/**
+	 * Handles an acknowledgement from the receiver.
+	 * 
+	 * @param snapshotAckMessage
+	 *            The acknowledgement.
+	 */
+	public synchronized void acknowledge( final SnapshotAckMessage snapshotAckMessage ) {
+		int sequence = snapshotAckMessage.getSequence();
+		if ( sequence == SnapshotAckMessage.REQUEST_FULL ) {
+			// Receiver lost its baseline.
+			this.acknowledgedSequence = SnapshotMessage.NO_BASELINE;
+		} else if ( ( sequence > this.acknowledgedSequence ) && ( sequence < this.nextSequence ) ) {
+			this.acknowledgedSequence = sequence;
+		}
+	}
+
+	/**
+	 * Forgets all sent snapshots, such that the next snapshot will be sent in full.
+	 */
+	public synchronized void reset() {
+		this.nextSequence = 0;
+		this.acknowledgedSequence = SnapshotMessage.NO_BASELINE;
+		for ( int i = 0; i < this.sentSnapshots.length; i++ ) {
+			this.sentSnapshots[i] = null;
+		}
+	}
+
+	/**
+	 * Sets the number of sent snapshots remembered, and forgets all sent snapshots.
+	 * 
+	 * @param historySize
+	 *            The number of snapshots. Rounded up to a power of two.
+	 */
+	public synchronized void setHistorySize( final int historySize ) {
+		int size = DeltaEncoder.toHistorySize( historySize );
+		this.sentSequences = new int[size];
+		this.sentSnapshots = new byte[size][];
+		this.reset();
+	}
+
+	/**
+	 * Validates a history size, and rounds it up to a power of two.
+	 * 
+	 * @param historySize
+	 *            The number of snapshots.
+	 * @return The history size to use.
+	 */
+	public static int toHistorySize( final int historySize ) {
+		if ( ( historySize < 1 ) || ( historySize > ( 1 << 30 ) ) ) {
+			throw new IllegalArgumentException( "History size must be in the range 1 to 2^30: " + historySize );
+		}
+
+		int size = Integer.highestOneBit( historySize );
+		if ( size < historySize ) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets a remembered snapshot.
+	 * 
+	 * @param sequence
+	 *            The sequence number of the snapshot.
+	 * @return The snapshot or {@code null} if it is no longer remembered.
+	 */
+	private byte[] getSnapshot( final int sequence ) {
+		if ( sequence == SnapshotMessage.NO_BASELINE ) {
+			return null;
+		}
+
+		int slot = sequence & ( this.sentSnapshots.length - 1 );
+		if ( this.sentSequences[slot] != sequence ) {
+			return null;
+		}
+
+		return this.sentSnapshots[slot];
+	}
+
+}
@@ -0,0 +1,157 @@
+package crossnet.message.flyweight;
+
+import java.nio.ByteBuffer;
+
+import crossnet.message.crossnet.messages.FlyweightMessage;
+
+/**
+ * An accessor for a fixed layout block of fields, that reads and writes the fields directly in a ByteBuffer instead of
+ * copying them to an object; e.g. the state of an entity sent many times a second.
+ * <p>
+ * A subclass gives the template id and block length of its layout, and exposes its fields with the protected accessors
+ * at fixed offsets from the start of the block. One instance is {@link #wrap(ByteBuffer, int) wrapped} over each block
+ * in turn, such that reading or writing a block creates no objects:
+ * 
+ * <pre>
+ * public class PositionFlyweight extends Flyweight {
+ * 	public int getTemplateId() { return 1; }
+ * 	public int getBlockLength() { return 16; }
+ * 	public int getEntityId() { return this.getInt( 0 ); }
+ * 	public float getX() { return this.getFloat( 4 ); }
+ * 	...
+ * }
+ * </pre>
+ * 
+ * Encode with a {@link FlyweightMessage}, and decode with a {@link FlyweightRegistry}. The byte order is big-endian,
+ * like the rest of CrossNet.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public abstract class Flyweight {
+
+	/**
+	 * The buffer this is wrapped over, if any.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The index of the first byte of the block in the {@link #buffer}.
+	 */
+	private int offset;
+
+	/**
+	 * Gets the id of the layout of this, which tells the receiver which Flyweight to wrap over a block.
+	 * 
+	 * @return The template id, 0 to 255.
+	 */
+	public abstract int getTemplateId();
+
+	/**
+	 * Gets the number of bytes in a block of this layout.
+	 * 
+	 * @return The block length.
+	 */
+	public abstract int getBlockLength();
+
+	/**
+	 * Positions this over a block.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the block. Its position and limit are not used or changed.
+	 * @param offset
+	 *            The index of the first byte of the block.
+	 */
+	public void wrap( ByteBuffer buffer, int offset ) {
+		if ( ( offset < 0 ) || ( offset > ( buffer.capacity() - this.getBlockLength() ) ) ) {
+			throw new IllegalArgumentException( "Block of " + this.getBlockLength() + "B at " + offset + " is outside buffer of " + buffer.capacity() + "B." );
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	/**
+	 * Gets the buffer this is wrapped over.
+	 * 
+	 * @return The buffer, or {@code null} if not wrapped.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Gets the index of the first byte of the block in the {@link #getBuffer() buffer}.
+	 * 
+	 * @return The offset.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	protected final byte getByte( int field ) {
+		return this.buffer.get( this.offset + field );
+	}
+
+	protected final int getUnsignedByte( int field ) {
+		return this.buffer.get( this.offset + field ) & 0xFF;
+	}
+
+	protected final short getShort( int field ) {
+		return this.buffer.getShort( this.offset + field );
+	}
+
+	protected final int getUnsignedShort( int field ) {
+		return this.buffer.getShort( this.offset + field ) & 0xFFFF;
+	}
+
+	protected final int getInt( int field ) {
+		return this.buffer.getInt( this.offset + field );
+	}
+
+	protected final long getLong( int field ) {
+		return this.buffer.getLong( this.offset + field );
+	}
+
+	protected final float getFloat( int field ) {
+		return this.buffer.getFloat( this.offset + field );
+	}
+
+	protected final double getDouble( int field ) {
+		return this.buffer.getDouble( this.offset + field );
+	}
+
+	protected final boolean getBoolean( int field ) {
+		return this.buffer.get( this.offset + field ) != 0;
+	}
+
+	protected final void putByte( int field, int value ) {
+		this.buffer.put( this.offset + field, (byte) value );
+	}
+
+	protected final void putShort( int field, int value ) {
+		this.buffer.putShort( this.offset + field, (short) value );
+	}
+
+	protected final void putInt( int field, int value ) {
+		this.buffer.putInt( this.offset + field, value );
+	}
+
+	protected final void putLong( int field, long value ) {
+		this.buffer.putLong( this.offset + field, value );
+	}
+
+	protected final void putFloat( int field, float value ) {
+		this.buffer.putFloat( this.offset + field, value );
+	}
+
+	protected final void putDouble( int field, double value ) {
+		this.buffer.putDouble( this.offset + field, value );
+	}
+
+	protected final void putBoolean( int field, boolean value ) {
+		this.buffer.put( this.offset + field, (byte) ( value ? 1 : 0 ) );
+	}
+
+}
@@ -0,0 +1,140 @@
+package crossnet.message.flyweight;
+
+import java.nio.ByteBuffer;
+
+import crossnet.Connection;
+import crossnet.listener.FlyweightListener;
+import crossnet.log.Log;
+import crossnet.message.crossnet.messages.FlyweightMessage;
+
+/**
+ * Decodes received {@link FlyweightMessage}s without creating objects, by wrapping a registered {@link Flyweight} over
+ * the received block and passing it to its {@link FlyweightListener}.
+ * <p>
+ * Where the framing allows it, the blocks are decoded directly in the read buffer of the Connection, and no
+ * FlyweightMessage is created at all. Otherwise, e.g. for bundled or compressed Packets, the FlyweightMessage is parsed
+ * as usual, and then decoded here. FlyweightMessages of unregistered templates are passed to the ConnectionListeners
+ * as any other Message.
+ * <p>
+ * One Flyweight is used for every block of its template, so the listeners are called on the update thread of the
+ * {@link crossnet.LocalEndPoint}. Registration is thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class FlyweightRegistry {
+
+	/**
+	 * The registrations by template id. Replaced on change, such that dispatching needs no lock.
+	 */
+	private volatile Registration< ? >[] registrations = new Registration< ? >[256];
+
+	/**
+	 * Registers a Flyweight and its listener for a template id. Replaces any existing registration for it.
+	 * 
+	 * @param flyweight
+	 *            The Flyweight to wrap over the received blocks of its {@link Flyweight#getTemplateId()}.
+	 * @param flyweightListener
+	 *            The listener to pass the blocks to.
+	 */
+	public synchronized < F extends Flyweight > void register( F flyweight, FlyweightListener< ? super F > flyweightListener ) {
+		if ( flyweight == null ) {
+			throw new IllegalArgumentException( "flyweight cannot be null." );
+		}
+		if ( flyweightListener == null ) {
+			throw new IllegalArgumentException( "flyweightListener cannot be null." );
+		}
+		int templateId = FlyweightRegistry.checkTemplateId( flyweight.getTemplateId() );
+		if ( flyweight.getBlockLength() < 0 ) {
+			throw new IllegalArgumentException( "Block length cannot be negative." );
+		}
+
+		Registration< ? >[] registrations = this.registrations.clone();
+		registrations[templateId] = new Registration<>( flyweight, flyweightListener );
+		this.registrations = registrations;
+	}
+
+	/**
+	 * Removes the registration for a template id, if any.
+	 * 
+	 * @param templateId
+	 *            The template id.
+	 */
+	public synchronized void unregister( int templateId ) {
+		Registration< ? >[] registrations = this.registrations.clone();
+		registrations[FlyweightRegistry.checkTemplateId( templateId )] = null;
+		this.registrations = registrations;
+	}
+
+	/**
+	 * Determine if a template id is registered.
+	 * 
+	 * @param templateId
+	 *            The template id, 0 to 255.
+	 * @return {@code True} iff registered.
+	 */
+	public boolean isRegistered( int templateId ) {
+		return this.registrations[templateId & 0xFF] != null;
+	}
+
+	/**
+	 * Decodes a serialised {@link FlyweightMessage}, if its template is registered. Used by the
+	 * {@link crossnet.TransportLayer} and {@link Connection}.
+	 * <p>
+	 * A block shorter than the registered block length is logged and dropped. A longer one is accepted, such that
+	 * fields can be appended to a layout.
+	 * 
+	 * @param connection
+	 *            The Connection that received.
+	 * @param buffer
+	 *            The buffer containing the FlyweightMessage. Its position and limit are not used or changed.
+	 * @param offset
+	 *            The index of the first byte of the FlyweightMessage; i.e. its type.
+	 * @param length
+	 *            The number of bytes in the FlyweightMessage, including its {@link FlyweightMessage#HEADER_SIZE}.
+	 * @return {@code True} iff the template is registered; i.e. the FlyweightMessage was handled.
+	 */
+	public boolean dispatch( Connection connection, ByteBuffer buffer, int offset, int length ) {
+		Registration< ? > registration = this.registrations[buffer.get( offset + 1 ) & 0xFF];
+		if ( registration == null ) {
+			return false;
+		}
+
+		if ( ( length - FlyweightMessage.HEADER_SIZE ) < registration.flyweight.getBlockLength() ) {
+			Log.error( "CrossNet", connection + " received a block of template " + registration.flyweight.getTemplateId() + " with " + ( length - FlyweightMessage.HEADER_SIZE ) + "B, but needs: " + registration.flyweight.getBlockLength() + "B." );
+			return true;
+		}
+
+		registration.dispatch( connection, buffer, offset + FlyweightMessage.HEADER_SIZE );
+		return true;
+	}
+
+	private static int checkTemplateId( int templateId ) {
+		if ( ( templateId < 0 ) || ( templateId > 255 ) ) {
+			throw new IllegalArgumentException( "Template id must be 0 to 255, was: " + templateId );
+		}
+		return templateId;
+	}
+
+	/**
+	 * A Flyweight and its listener.
+	 */
+	private static class Registration< F extends Flyweight > {
+
+		private final F flyweight;
+
+		private final FlyweightListener< ? super F > flyweightListener;
+
+		Registration( final F flyweight, final FlyweightListener< ? super F > flyweightListener ) {
+			this.flyweight = flyweight;
+			this.flyweightListener = flyweightListener;
+		}
+
+		void dispatch( Connection connection, ByteBuffer buffer, int offset ) {
+			this.flyweight.wrap( buffer, offset );
+			this.flyweightListener.received( connection, this.flyweight );
+		}
+
+	}
+
+}
@@ -0,0 +1,259 @@
+package crossnet.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import crossnet.Connection;
+import crossnet.TransportLayer;
+
+/**
+ * Counters for the traffic of a {@link Connection}.
+ * <p>
+ * The counters are plain fields. The read side is only updated by the update thread, and the write side only while
+ * holding the write lock of the {@link TransportLayer}, so updates never contend. Readers on other threads may see
+ * slightly stale values.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ConnectionMetrics implements ConnectionMetricsMXBean {
+
+	private long bytesRead;
+
+	private long bytesWritten;
+
+	private long packetsRead;
+
+	private long packetsWritten;
+
+	private long messagesReceived;
+
+	private long messagesSent;
+
+	private long partialWrites;
+
+	private long conflatedMessages;
+
+	private int queuedBytes;
+
+	private DisconnectReason disconnectReason;
+
+	/**
+	 * The ping round trip times measured, in nanoseconds.
+	 */
+	private final LogHistogram roundTripTimes = new LogHistogram();
+
+	/**
+	 * Messages received per Message class. The array holds a single counter, such that it can be incremented in place.
+	 */
+	private final Map< String, long[] > messagesReceivedByClass = new ConcurrentHashMap<>();
+
+	/**
+	 * Messages sent per Message class. The array holds a single counter, such that it can be incremented in place.
+	 */
+	private final Map< String, long[] > messagesSentByClass = new ConcurrentHashMap<>();
+
+	/**
+	 * The counters of {@link #messagesReceivedByClass} by Message class, such that the class name is only looked up once
+	 * per class. Class does not override equals, so this is keyed by identity.
+	 */
+	private final Map< Class< ? >, long[] > messagesReceivedCounters = new ConcurrentHashMap<>();
+
+	/**
+	 * The counters of {@link #messagesSentByClass} by Message class.
+	 */
+	private final Map< Class< ? >, long[] > messagesSentCounters = new ConcurrentHashMap<>();
+
+	public void bytesRead( int bytes ) {
+		this.bytesRead += bytes;
+	}
+
+	public void bytesWritten( int bytes ) {
+		this.bytesWritten += bytes;
+	}
+
+	public void packetRead() {
+		this.packetsRead++;
+	}
+
+	public void packetWritten() {
+		this.packetsWritten++;
+	}
+
+	public void messageReceived( Class< ? > messageClass ) {
+		this.messagesReceived++;
+		ConnectionMetrics.counter( this.messagesReceivedCounters, this.messagesReceivedByClass, messageClass )[0]++;
+	}
+
+	public void messageSent( Class< ? > messageClass ) {
+		this.messagesSent++;
+		ConnectionMetrics.counter( this.messagesSentCounters, this.messagesSentByClass, messageClass )[0]++;
+	}
+
+	public void partialWrite() {
+		this.partialWrites++;
+	}
+
+	public void messageConflated() {
+		this.conflatedMessages++;
+	}
+
+	public void roundTripTime( long nanos ) {
+		this.roundTripTimes.record( nanos );
+	}
+
+	public void setQueuedBytes( int queuedBytes ) {
+		this.queuedBytes = queuedBytes;
+	}
+
+	public void setDisconnectReason( DisconnectReason disconnectReason ) {
+		this.disconnectReason = disconnectReason;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.bytesWritten;
+	}
+
+	@Override
+	public long getPacketsRead() {
+		return this.packetsRead;
+	}
+
+	@Override
+	public long getPacketsWritten() {
+		return this.packetsWritten;
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return this.messagesReceived;
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return this.messagesSent;
+	}
+
+	@Override
+	public long getPartialWrites() {
+		return this.partialWrites;
+	}
+
+	@Override
+	public long getConflatedMessages() {
+		return this.conflatedMessages;
+	}
+
+	@Override
+	public int getQueuedBytes() {
+		return this.queuedBytes;
+	}
+
+	/**
+	 * Gets the reason of the last disconnect.
+	 * 
+	 * @return The reason of the last disconnect, or {@code null} if never disconnected.
+	 */
+	public DisconnectReason getLastDisconnectReason() {
+		return this.disconnectReason;
+	}
+
+	@Override
+	public String getDisconnectReason() {
+		DisconnectReason reason = this.disconnectReason;
+		return ( reason == null ) ? null : reason.name();
+	}
+
+	/**
+	 * Gets the histogram of the ping round trip times measured, in nanoseconds.
+	 * 
+	 * @return The round trip time histogram.
+	 */
+	public LogHistogram getRoundTripTimes() {
+		return this.roundTripTimes;
+	}
+
+	@Override
+	public long getRoundTripTimeP50Micros() {
+		return this.roundTripTimes.getValueAtPercentile( 50 ) / 1000;
+	}
+
+	@Override
+	public long getRoundTripTimeP99Micros() {
+		return this.roundTripTimes.getValueAtPercentile( 99 ) / 1000;
+	}
+
+	@Override
+	public long getRoundTripTimeP999Micros() {
+		return this.roundTripTimes.getValueAtPercentile( 99.9 ) / 1000;
+	}
+
+	@Override
+	public Map< String, Long > getMessagesReceivedByClass() {
+		return ConnectionMetrics.snapshot( this.messagesReceivedByClass );
+	}
+
+	@Override
+	public Map< String, Long > getMessagesSentByClass() {
+		return ConnectionMetrics.snapshot( this.messagesSentByClass );
+	}
+
+	/**
+	 * Adds the per class counters of this to a total.
+	 * 
+	 * @param receivedTotal
+	 *            Total of Messages received per class.
+	 * @param sentTotal
+	 *            Total of Messages sent per class.
+	 */
+	void addMessagesByClassTo( Map< String, Long > receivedTotal, Map< String, Long > sentTotal ) {
+		ConnectionMetrics.addTo( this.messagesReceivedByClass, receivedTotal );
+		ConnectionMetrics.addTo( this.messagesSentByClass, sentTotal );
+	}
+
+	/**
+	 * Gets the counter of a Message class. Only the first Message of a class pays for the class name.
+	 * 
+	 * @param counters
+	 *            The counters by class.
+	 * @param countersByName
+	 *            The same counters by class name.
+	 * @param messageClass
+	 *            The Message class.
+	 * @return The counter.
+	 */
+	private static long[] counter( Map< Class< ? >, long[] > counters, Map< String, long[] > countersByName, Class< ? > messageClass ) {
+		long[] counter = counters.get( messageClass );
+		if ( counter == null ) {
+			String name = messageClass.getSimpleName();
+			counter = countersByName.get( name );
+			if ( counter == null ) {
+				counter = new long[1];
+				countersByName.put( name, counter );
+			}
+			counters.put( messageClass, counter );
+		}
+		return counter;
+	}
+
+	private static Map< String, Long > snapshot( Map< String, long[] > counters ) {
+		Map< String, Long > snapshot = new TreeMap<>();
+		ConnectionMetrics.addTo( counters, snapshot );
+		return snapshot;
+	}
+
+	private static void addTo( Map< String, long[] > counters, Map< String, Long > total ) {
+		for ( Map.Entry< String, long[] > entry : counters.entrySet() ) {
+			Long sum = total.get( entry.getKey() );
+			total.put( entry.getKey(), ( ( sum == null ) ? 0 : sum ) + entry.getValue()[0] );
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package crossnet.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ConnectionMetrics} of a Connection.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface ConnectionMetricsMXBean {
+
+	public long getBytesRead();
+
+	public long getBytesWritten();
+
+	public long getPacketsRead();
+
+	public long getPacketsWritten();
+
+	public long getMessagesReceived();
+
+	public long getMessagesSent();
+
+	public long getPartialWrites();
+
+	public long getConflatedMessages();
+
+	public int getQueuedBytes();
+
+	public String getDisconnectReason();
+
+	public long getRoundTripTimeP50Micros();
+
+	public long getRoundTripTimeP99Micros();
+
+	public long getRoundTripTimeP999Micros();
+
+	public Map< String, Long > getMessagesReceivedByClass();
+
+	public Map< String, Long > getMessagesSentByClass();
+
+}
@@ -0,0 +1,60 @@
+package crossnet.metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import crossnet.Connection;
+import crossnet.SlowConsumerException;
+
+/**
+ * The reasons a {@link Connection} can be disconnected.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public enum DisconnectReason {
+
+	/**
+	 * Closed by this end.
+	 */
+	LOCAL,
+
+	/**
+	 * Closed by the other end.
+	 */
+	REMOTE,
+
+	/**
+	 * Nothing was received within the time out limit.
+	 */
+	TIMEOUT,
+
+	/**
+	 * The other end did not read fast enough, such that the Messages queued for it exceeded the limit.
+	 */
+	SLOW_CONSUMER,
+
+	/**
+	 * A read or write error occurred.
+	 */
+	ERROR;
+
+	/**
+	 * Determines the reason for a disconnect caused by an IOException.
+	 * 
+	 * @param exception
+	 *            The IOException that caused the disconnect.
+	 * @return {@link #REMOTE} if the other end closed the stream, {@link #SLOW_CONSUMER} if it did not read fast
+	 *         enough, otherwise {@link #ERROR}.
+	 */
+	public static DisconnectReason of( IOException exception ) {
+		if ( exception instanceof EOFException ) {
+			return DisconnectReason.REMOTE;
+		}
+		if ( exception instanceof SlowConsumerException ) {
+			return DisconnectReason.SLOW_CONSUMER;
+		}
+		return DisconnectReason.ERROR;
+	}
+
+}
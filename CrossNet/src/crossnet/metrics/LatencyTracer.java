@@ -0,0 +1,205 @@
+package crossnet.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import crossnet.LocalEndPoint;
+import crossnet.message.Message;
+
+/**
+ * Traces where the time goes for the {@link Message}s passing through a {@link LocalEndPoint}, in per {@link Stage}
+ * histograms.
+ * <p>
+ * Tracing is {@link Mode#DISABLED} by default, in which case a trace costs a single volatile read. In
+ * {@link Mode#SAMPLED} every n'th Message is traced, and in {@link Mode#ALWAYS} every Message is.
+ * <p>
+ * The stages are local to this end. The time spent on the wire is covered by the ping round trip time.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class LatencyTracer {
+
+	/**
+	 * Tracing modes.
+	 */
+	public enum Mode {
+		/**
+		 * Nothing is traced.
+		 */
+		DISABLED,
+
+		/**
+		 * Every n'th Message is traced.
+		 * 
+		 * @see LatencyTracer#setSampleInterval(int)
+		 */
+		SAMPLED,
+
+		/**
+		 * Every Message is traced.
+		 */
+		ALWAYS
+	}
+
+	/**
+	 * The traced stages of a Message.
+	 */
+	public enum Stage {
+		/**
+		 * From the Message is sent, until it is put in the send buffer. Includes serialising, and waiting in the queue
+		 * for room in the send buffer.
+		 */
+		QUEUE,
+
+		/**
+		 * From the Message is put in the send buffer, until the last of its bytes are written to the socket.
+		 */
+		WRITE,
+
+		/**
+		 * From a Packet is parsed from the read buffer, until its Message is parsed. Excludes the socket read.
+		 */
+		PARSE,
+
+		/**
+		 * From the Message is handed to the listeners, until they return.
+		 */
+		DISPATCH
+	}
+
+	/**
+	 * The tracing mode.
+	 */
+	private volatile Mode mode = Mode.DISABLED;
+
+	/**
+	 * In {@link Mode#SAMPLED}, every n'th Message is traced.
+	 */
+	private volatile int sampleInterval = 100;
+
+	/**
+	 * Counts the trace requests in {@link Mode#SAMPLED}. Races are harmless, they only skew the sampling slightly.
+	 */
+	private int sampleCounter = 0;
+
+	/**
+	 * The histograms of the stages, in nanoseconds. Each is guarded by itself, as the send stages are recorded by any
+	 * thread that sends.
+	 */
+	private final Map< Stage, LogHistogram > histograms = new EnumMap<>( Stage.class );
+
+	public LatencyTracer() {
+		for ( Stage stage : Stage.values() ) {
+			this.histograms.put( stage, new LogHistogram() );
+		}
+	}
+
+	/**
+	 * Sets the tracing mode.
+	 * 
+	 * @param mode
+	 *            The new tracing mode.
+	 */
+	public void setMode( Mode mode ) {
+		if ( mode == null ) {
+			throw new IllegalArgumentException( "mode cannot be null." );
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets the tracing mode.
+	 * 
+	 * @return The tracing mode.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * Sets how often Messages are traced in {@link Mode#SAMPLED}.
+	 * 
+	 * @param sampleInterval
+	 *            Every n'th Message is traced.
+	 */
+	public void setSampleInterval( int sampleInterval ) {
+		if ( sampleInterval < 1 ) {
+			throw new IllegalArgumentException( "sampleInterval must be positive." );
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Starts a trace, if this Message should be traced.
+	 * 
+	 * @return The start time stamp from {@link System#nanoTime()}, or 0 if not traced.
+	 */
+	public long start() {
+		Mode current = this.mode;
+		if ( current == Mode.DISABLED ) {
+			return 0;
+		}
+		if ( ( current == Mode.SAMPLED ) && ( ( ++this.sampleCounter % this.sampleInterval ) != 0 ) ) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+		// 0 means not traced.
+		return ( now == 0 ) ? 1 : now;
+	}
+
+	/**
+	 * Ends a trace, recording the time since it was started.
+	 * 
+	 * @param stage
+	 *            The stage traced.
+	 * @param startNanos
+	 *            The time stamp returned by {@link #start()}. Nothing is recorded if 0.
+	 */
+	public void end( Stage stage, long startNanos ) {
+		if ( startNanos == 0 ) {
+			return;
+		}
+
+		long elapsed = System.nanoTime() - startNanos;
+		LogHistogram histogram = this.histograms.get( stage );
+		synchronized ( histogram ) {
+			histogram.record( elapsed );
+		}
+	}
+
+	/**
+	 * Gets a copy of the histogram of a stage.
+	 * 
+	 * @param stage
+	 *            The stage.
+	 * @return A new histogram of the stage, in nanoseconds.
+	 */
+	public LogHistogram getHistogram( Stage stage ) {
+		LogHistogram copy = new LogHistogram();
+		this.histograms.get( stage ).add( copy );
+		return copy;
+	}
+
+	/**
+	 * Discards all recorded traces.
+	 */
+	public void reset() {
+		for ( LogHistogram histogram : this.histograms.values() ) {
+			synchronized ( histogram ) {
+				histogram.reset();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder( "LatencyTracer (" + this.mode + ")" );
+		for ( Stage stage : Stage.values() ) {
+			stringBuilder.append( "\n  " ).append( stage ).append( ": " ).append( this.getHistogram( stage ) );
+		}
+		return stringBuilder.toString();
+	}
+
+}
@@ -0,0 +1,230 @@
+package crossnet.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory histogram of non-negative long values, e.g. latencies in nanoseconds.
+ * <p>
+ * Values below 16 have a bucket each. Above that, every power of two is split into 8 linear sub buckets, so a value is
+ * reported with a relative error of at most 12.5%. The whole long range fits in {@value #BUCKET_COUNT} buckets.
+ * <p>
+ * Recording is meant for a single thread, e.g. the update thread. Any thread may read, or {@link #add(LogHistogram)}
+ * this to another histogram, without locking; it will just see a slightly stale state.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class LogHistogram {
+
+	/**
+	 * Number of linear sub buckets per power of two, as a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/**
+	 * Number of linear sub buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << LogHistogram.SUB_BUCKET_BITS;
+
+	/**
+	 * Values below this have a bucket each.
+	 */
+	private static final int LINEAR_LIMIT = 2 * LogHistogram.SUB_BUCKET_COUNT;
+
+	/**
+	 * Exponent of the {@link #LINEAR_LIMIT}.
+	 */
+	private static final int LINEAR_LIMIT_BITS = LogHistogram.SUB_BUCKET_BITS + 1;
+
+	/**
+	 * The total number of buckets.
+	 */
+	public static final int BUCKET_COUNT = LogHistogram.LINEAR_LIMIT + ( 63 - LogHistogram.LINEAR_LIMIT_BITS ) * LogHistogram.SUB_BUCKET_COUNT;
+
+	/**
+	 * The number of values recorded per bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray( LogHistogram.BUCKET_COUNT );
+
+	/**
+	 * The number of values recorded.
+	 */
+	private volatile long totalCount = 0;
+
+	/**
+	 * The sum of the values recorded.
+	 */
+	private volatile long totalSum = 0;
+
+	/**
+	 * The largest value recorded.
+	 */
+	private volatile long maxValue = 0;
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param value
+	 *            The value to record. Negative values are recorded as 0.
+	 */
+	public void record( long value ) {
+		if ( value < 0 ) {
+			value = 0;
+		}
+
+		int index = LogHistogram.bucketIndex( value );
+		this.counts.lazySet( index, this.counts.get( index ) + 1 );
+		this.totalSum += value;
+		if ( value > this.maxValue ) {
+			this.maxValue = value;
+		}
+		this.totalCount++;
+	}
+
+	/**
+	 * Adds all values recorded in this to another histogram.
+	 * <p>
+	 * The target must not be recorded to concurrently.
+	 * 
+	 * @param target
+	 *            The histogram to add to.
+	 */
+	public void add( LogHistogram target ) {
+		long count = 0;
+		for ( int i = 0; i < LogHistogram.BUCKET_COUNT; i++ ) {
+			long bucketCount = this.counts.get( i );
+			if ( bucketCount != 0 ) {
+				target.counts.lazySet( i, target.counts.get( i ) + bucketCount );
+				count += bucketCount;
+			}
+		}
+		target.totalSum += this.totalSum;
+		if ( this.maxValue > target.maxValue ) {
+			target.maxValue = this.maxValue;
+		}
+		// Use the bucket counts, such that the total matches what was actually added.
+		target.totalCount += count;
+	}
+
+	/**
+	 * Discards all recorded values.
+	 * <p>
+	 * Must not be called concurrently with {@link #record(long)}.
+	 */
+	public void reset() {
+		for ( int i = 0; i < LogHistogram.BUCKET_COUNT; i++ ) {
+			this.counts.lazySet( i, 0 );
+		}
+		this.totalSum = 0;
+		this.maxValue = 0;
+		this.totalCount = 0;
+	}
+
+	/**
+	 * Gets the number of values recorded.
+	 * 
+	 * @return The number of values recorded.
+	 */
+	public long getCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 * 
+	 * @return The largest value recorded, or 0 if none.
+	 */
+	public long getMax() {
+		return this.maxValue;
+	}
+
+	/**
+	 * Gets the mean of the values recorded.
+	 * 
+	 * @return The mean, or 0 if none.
+	 */
+	public double getMean() {
+		long count = this.totalCount;
+		if ( count == 0 ) {
+			return 0;
+		}
+		return this.totalSum / (double) count;
+	}
+
+	/**
+	 * Gets the value at a percentile.
+	 * 
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The largest value that falls in the same bucket as the value at the percentile, but no larger than the
+	 *         largest value recorded. Returns 0 if nothing is recorded.
+	 */
+	public long getValueAtPercentile( double percentile ) {
+		if ( ( percentile < 0 ) || ( percentile > 100 ) ) {
+			throw new IllegalArgumentException( "percentile must be between 0 and 100." );
+		}
+
+		long[] snapshot = new long[LogHistogram.BUCKET_COUNT];
+		long count = 0;
+		for ( int i = 0; i < LogHistogram.BUCKET_COUNT; i++ ) {
+			snapshot[i] = this.counts.get( i );
+			count += snapshot[i];
+		}
+		if ( count == 0 ) {
+			return 0;
+		}
+
+		long rank = Math.max( 1, (long) Math.ceil( ( percentile / 100 ) * count ) );
+		long seen = 0;
+		for ( int i = 0; i < LogHistogram.BUCKET_COUNT; i++ ) {
+			seen += snapshot[i];
+			if ( seen >= rank ) {
+				return Math.min( LogHistogram.highestValueInBucket( i ), this.maxValue );
+			}
+		}
+
+		return this.maxValue;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + this.getCount() + " mean=" + (long) this.getMean() + " p50=" + this.getValueAtPercentile( 50 ) + " p99=" + this.getValueAtPercentile( 99 ) + " p99.9=" + this.getValueAtPercentile( 99.9 ) + " max=" + this.getMax();
+	}
+
+	/**
+	 * Gets the bucket of a value.
+	 * 
+	 * @param value
+	 *            The non-negative value.
+	 * @return The bucket index.
+	 */
+	static int bucketIndex( long value ) {
+		if ( value < LogHistogram.LINEAR_LIMIT ) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros( value );
+		int subBucket = (int) ( value >>> ( exponent - LogHistogram.SUB_BUCKET_BITS ) ) & ( LogHistogram.SUB_BUCKET_COUNT - 1 );
+		return LogHistogram.LINEAR_LIMIT + ( exponent - LogHistogram.LINEAR_LIMIT_BITS ) * LogHistogram.SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * Gets the largest value that falls in a bucket.
+	 * 
+	 * @param index
+	 *            The bucket index.
+	 * @return The largest value of the bucket.
+	 */
+	static long highestValueInBucket( int index ) {
+		if ( index < LogHistogram.LINEAR_LIMIT ) {
+			return index;
+		}
+
+		int exponent = ( ( index - LogHistogram.LINEAR_LIMIT ) / LogHistogram.SUB_BUCKET_COUNT ) + LogHistogram.LINEAR_LIMIT_BITS;
+		int subBucket = ( index - LogHistogram.LINEAR_LIMIT ) % LogHistogram.SUB_BUCKET_COUNT;
+		int shift = exponent - LogHistogram.SUB_BUCKET_BITS;
+		long lowest = (long) ( LogHistogram.SUB_BUCKET_COUNT + subBucket ) << shift;
+		return lowest + ( 1L << shift ) - 1;
+	}
+
+}
@@ -0,0 +1,322 @@
+package crossnet.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import crossnet.Connection;
+import crossnet.CrossNetServer;
+import crossnet.log.Log;
+
+/**
+ * Rolls up the {@link ConnectionMetrics} of all {@link Connection}s of a {@link CrossNetServer}, and exports them
+ * through JMX.
+ * <p>
+ * The counters of disconnected Connections are folded into totals by the update thread, such that the roll up covers
+ * the lifetime of the server.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+	/**
+	 * The ConnectionMetrics of the current Connections.
+	 */
+	private final List< ConnectionMetrics > connectionMetrics = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The JMX name of this, if exported.
+	 */
+	private volatile String jmxName;
+
+	private long connectionsAccepted;
+
+	private long closedBytesRead;
+
+	private long closedBytesWritten;
+
+	private long closedPacketsRead;
+
+	private long closedPacketsWritten;
+
+	private long closedMessagesReceived;
+
+	private long closedMessagesSent;
+
+	private long closedPartialWrites;
+
+	private long closedConflatedMessages;
+
+	private final Map< String, Long > closedMessagesReceivedByClass = new TreeMap<>();
+
+	private final Map< String, Long > closedMessagesSentByClass = new TreeMap<>();
+
+	private final Map< DisconnectReason, Long > disconnects = new EnumMap<>( DisconnectReason.class );
+
+	private final LogHistogram closedRoundTripTimes = new LogHistogram();
+
+	/**
+	 * Starts tracking a Connection.
+	 * <p>
+	 * Called by the update thread.
+	 * 
+	 * @param connection
+	 *            The new Connection.
+	 */
+	public void connectionOpened( Connection connection ) {
+		this.connectionsAccepted++;
+		this.connectionMetrics.add( connection.getMetrics() );
+
+		String name = this.jmxName;
+		if ( name != null ) {
+			ServerMetrics.register( connection.getMetrics(), ServerMetrics.connectionObjectName( name, connection ) );
+		}
+	}
+
+	/**
+	 * Stops tracking a Connection, folding its counters into the totals.
+	 * <p>
+	 * Called by the update thread.
+	 * 
+	 * @param connection
+	 *            The disconnected Connection.
+	 */
+	public void connectionClosed( Connection connection ) {
+		ConnectionMetrics metrics = connection.getMetrics();
+		if ( !this.connectionMetrics.remove( metrics ) ) {
+			return;
+		}
+
+		synchronized ( this ) {
+			this.closedBytesRead += metrics.getBytesRead();
+			this.closedBytesWritten += metrics.getBytesWritten();
+			this.closedPacketsRead += metrics.getPacketsRead();
+			this.closedPacketsWritten += metrics.getPacketsWritten();
+			this.closedMessagesReceived += metrics.getMessagesReceived();
+			this.closedMessagesSent += metrics.getMessagesSent();
+			this.closedPartialWrites += metrics.getPartialWrites();
+			this.closedConflatedMessages += metrics.getConflatedMessages();
+			metrics.addMessagesByClassTo( this.closedMessagesReceivedByClass, this.closedMessagesSentByClass );
+			metrics.getRoundTripTimes().add( this.closedRoundTripTimes );
+
+			DisconnectReason reason = metrics.getLastDisconnectReason();
+			if ( reason != null ) {
+				Long count = this.disconnects.get( reason );
+				this.disconnects.put( reason, ( ( count == null ) ? 0 : count ) + 1 );
+			}
+		}
+
+		String name = this.jmxName;
+		if ( name != null ) {
+			ServerMetrics.unregister( ServerMetrics.connectionObjectName( name, connection ) );
+		}
+	}
+
+	/**
+	 * Exports this through JMX, along with the ConnectionMetrics of the Connections opened from now on.
+	 * 
+	 * @param name
+	 *            The name to export under, e.g. the name of the update thread.
+	 */
+	public void registerMBeans( String name ) {
+		this.jmxName = name;
+		ServerMetrics.register( this, "crossnet:type=CrossNetServer,name=" + ObjectName.quote( name ) );
+	}
+
+	/**
+	 * Removes this from JMX.
+	 */
+	public void unregisterMBeans() {
+		String name = this.jmxName;
+		if ( name != null ) {
+			this.jmxName = null;
+			ServerMetrics.unregister( "crossnet:type=CrossNetServer,name=" + ObjectName.quote( name ) );
+		}
+	}
+
+	@Override
+	public int getConnectionCount() {
+		return this.connectionMetrics.size();
+	}
+
+	@Override
+	public long getConnectionsAccepted() {
+		return this.connectionsAccepted;
+	}
+
+	@Override
+	public synchronized long getBytesRead() {
+		long sum = this.closedBytesRead;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getBytesRead();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getBytesWritten() {
+		long sum = this.closedBytesWritten;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getBytesWritten();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getPacketsRead() {
+		long sum = this.closedPacketsRead;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getPacketsRead();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getPacketsWritten() {
+		long sum = this.closedPacketsWritten;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getPacketsWritten();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getMessagesReceived() {
+		long sum = this.closedMessagesReceived;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getMessagesReceived();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getMessagesSent() {
+		long sum = this.closedMessagesSent;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getMessagesSent();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getPartialWrites() {
+		long sum = this.closedPartialWrites;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getPartialWrites();
+		}
+		return sum;
+	}
+
+	@Override
+	public synchronized long getConflatedMessages() {
+		long sum = this.closedConflatedMessages;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getConflatedMessages();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		long sum = 0;
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			sum += metrics.getQueuedBytes();
+		}
+		return sum;
+	}
+
+	/**
+	 * Gets the ping round trip times of all Connections, past and present, merged into one histogram.
+	 * 
+	 * @return A new histogram of the round trip times, in nanoseconds.
+	 */
+	public synchronized LogHistogram getRoundTripTimes() {
+		LogHistogram roundTripTimes = new LogHistogram();
+		this.closedRoundTripTimes.add( roundTripTimes );
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			metrics.getRoundTripTimes().add( roundTripTimes );
+		}
+		return roundTripTimes;
+	}
+
+	@Override
+	public long getRoundTripTimeP50Micros() {
+		return this.getRoundTripTimes().getValueAtPercentile( 50 ) / 1000;
+	}
+
+	@Override
+	public long getRoundTripTimeP99Micros() {
+		return this.getRoundTripTimes().getValueAtPercentile( 99 ) / 1000;
+	}
+
+	@Override
+	public long getRoundTripTimeP999Micros() {
+		return this.getRoundTripTimes().getValueAtPercentile( 99.9 ) / 1000;
+	}
+
+	@Override
+	public synchronized Map< String, Long > getDisconnectsByReason() {
+		Map< String, Long > snapshot = new TreeMap<>();
+		for ( Map.Entry< DisconnectReason, Long > entry : this.disconnects.entrySet() ) {
+			snapshot.put( entry.getKey().name(), entry.getValue() );
+		}
+		return snapshot;
+	}
+
+	@Override
+	public synchronized Map< String, Long > getMessagesReceivedByClass() {
+		Map< String, Long > received = new TreeMap<>( this.closedMessagesReceivedByClass );
+		Map< String, Long > sent = new TreeMap<>();
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			metrics.addMessagesByClassTo( received, sent );
+		}
+		return received;
+	}
+
+	@Override
+	public synchronized Map< String, Long > getMessagesSentByClass() {
+		Map< String, Long > received = new TreeMap<>();
+		Map< String, Long > sent = new TreeMap<>( this.closedMessagesSentByClass );
+		for ( ConnectionMetrics metrics : this.connectionMetrics ) {
+			metrics.addMessagesByClassTo( received, sent );
+		}
+		return sent;
+	}
+
+	private static String connectionObjectName( String serverName, Connection connection ) {
+		return "crossnet:type=Connection,server=" + ObjectName.quote( serverName ) + ",id=" + connection.getID();
+	}
+
+	private static void register( Object mbean, String name ) {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName( name );
+			if ( !mBeanServer.isRegistered( objectName ) ) {
+				mBeanServer.registerMBean( mbean, objectName );
+			}
+		} catch ( JMException e ) {
+			Log.warn( "CrossNet", "Unable to register MBean: " + name, e );
+		}
+	}
+
+	private static void unregister( String name ) {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName( name );
+			if ( mBeanServer.isRegistered( objectName ) ) {
+				mBeanServer.unregisterMBean( objectName );
+			}
+		} catch ( JMException e ) {
+			Log.warn( "CrossNet", "Unable to unregister MBean: " + name, e );
+		}
+	}
+
+}
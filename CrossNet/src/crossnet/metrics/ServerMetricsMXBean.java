@@ -0,0 +1,47 @@
+package crossnet.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ServerMetrics} of a CrossNetServer.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface ServerMetricsMXBean {
+
+	public int getConnectionCount();
+
+	public long getConnectionsAccepted();
+
+	public long getBytesRead();
+
+	public long getBytesWritten();
+
+	public long getPacketsRead();
+
+	public long getPacketsWritten();
+
+	public long getMessagesReceived();
+
+	public long getMessagesSent();
+
+	public long getPartialWrites();
+
+	public long getConflatedMessages();
+
+	public long getQueuedBytes();
+
+	public Map< String, Long > getDisconnectsByReason();
+
+	public long getRoundTripTimeP50Micros();
+
+	public long getRoundTripTimeP99Micros();
+
+	public long getRoundTripTimeP999Micros();
+
+	public Map< String, Long > getMessagesReceivedByClass();
+
+	public Map< String, Long > getMessagesSentByClass();
+
+}
@@ -0,0 +1,241 @@
+package crossnet.metrics;
+
+import crossnet.Connection;
+import crossnet.LocalEndPoint;
+import crossnet.listener.ConnectionListener;
+import crossnet.listener.ConnectionListenerHandler;
+import crossnet.log.Log;
+
+/**
+ * Watches the update thread of a {@link LocalEndPoint}, and reports iterations that exceed a time budget; e.g. because
+ * a {@link ConnectionListener} blocks.
+ * <p>
+ * An iteration runs from select returns, until the next select. When one exceeds the budget, the stack of the update
+ * thread is captured and logged as a warning, along with the {@link Connection} and ConnectionListener that were
+ * running. The iteration times are recorded in a histogram.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class UpdateWatchdog implements Runnable {
+
+	/**
+	 * The time budget of an iteration, in nanoseconds.
+	 */
+	private final long budgetNanos;
+
+	/**
+	 * How often the update thread is checked, in milliseconds.
+	 */
+	private final long checkMillis;
+
+	/**
+	 * The update thread.
+	 */
+	private volatile Thread updateThread;
+
+	/**
+	 * Start of the current iteration, or 0 while selecting.
+	 */
+	private volatile long iterationStart = 0;
+
+	/**
+	 * The Connection being processed, if any.
+	 */
+	private volatile Connection currentConnection;
+
+	/**
+	 * Start of the last iteration that was reported. Used to report each iteration once.
+	 */
+	private long reportedIterationStart = 0;
+
+	/**
+	 * The iteration times, in nanoseconds. Only recorded by the update thread.
+	 */
+	private final LogHistogram iterationTimes = new LogHistogram();
+
+	/**
+	 * Number of iterations that exceeded the budget.
+	 */
+	private volatile long stallCount = 0;
+
+	/**
+	 * The report of the last iteration that exceeded the budget.
+	 */
+	private volatile String lastStallReport;
+
+	/**
+	 * {@code True} iff the watchdog thread should shut down.
+	 */
+	private volatile boolean shutdownThread = false;
+
+	/**
+	 * Creates a new UpdateWatchdog.
+	 * 
+	 * @param budgetMillis
+	 *            The time budget of an iteration, in milliseconds.
+	 */
+	public UpdateWatchdog( int budgetMillis ) {
+		if ( budgetMillis < 1 ) {
+			throw new IllegalArgumentException( "budgetMillis must be positive." );
+		}
+		this.budgetNanos = budgetMillis * 1000000L;
+		this.checkMillis = Math.max( 1, budgetMillis / 4 );
+	}
+
+	/**
+	 * Starts the watchdog thread.
+	 * 
+	 * @param threadName
+	 *            The name of the thread.
+	 */
+	public void start( String threadName ) {
+		this.shutdownThread = false;
+		Thread thread = new Thread( this, threadName );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Stops the watchdog thread.
+	 */
+	public void stop() {
+		this.shutdownThread = true;
+	}
+
+	@Override
+	public void run() {
+		Log.trace( "CrossNet", "Watchdog thread started." );
+		while ( !this.shutdownThread ) {
+			try {
+				Thread.sleep( this.checkMillis );
+			} catch ( InterruptedException e ) {
+				// Ignored
+			}
+			this.check();
+		}
+		Log.trace( "CrossNet", "Watchdog thread stopped." );
+	}
+
+	/**
+	 * Marks the start of an iteration. Called by the update thread when select returns.
+	 */
+	public void afterSelect() {
+		this.updateThread = Thread.currentThread();
+		long now = System.nanoTime();
+		// 0 means selecting.
+		this.iterationStart = ( now == 0 ) ? 1 : now;
+	}
+
+	/**
+	 * Marks the end of an iteration. Called by the update thread before select.
+	 */
+	public void beforeSelect() {
+		long start = this.iterationStart;
+		if ( start != 0 ) {
+			this.iterationStart = 0;
+			this.currentConnection = null;
+			this.iterationTimes.record( System.nanoTime() - start );
+		}
+	}
+
+	/**
+	 * Sets the Connection being processed by the update thread.
+	 * 
+	 * @param connection
+	 *            The Connection, or {@code null} if none.
+	 */
+	public void setCurrentConnection( Connection connection ) {
+		this.currentConnection = connection;
+	}
+
+	/**
+	 * Gets a copy of the histogram of the iteration times.
+	 * 
+	 * @return A new histogram of the iteration times, in nanoseconds.
+	 */
+	public LogHistogram getIterationTimes() {
+		LogHistogram copy = new LogHistogram();
+		this.iterationTimes.add( copy );
+		return copy;
+	}
+
+	/**
+	 * Gets the number of iterations that exceeded the budget.
+	 * 
+	 * @return The number of stalls.
+	 */
+	public long getStallCount() {
+		return this.stallCount;
+	}
+
+	/**
+	 * Gets the report of the last iteration that exceeded the budget.
+	 * 
+	 * @return The report, or {@code null} if none.
+	 */
+	public String getLastStallReport() {
+		return this.lastStallReport;
+	}
+
+	/**
+	 * Checks if the current iteration has exceeded the budget, and reports it if so.
+	 */
+	private void check() {
+		long start = this.iterationStart;
+		Thread thread = this.updateThread;
+		if ( ( start == 0 ) || ( thread == null ) || ( start == this.reportedIterationStart ) ) {
+			return;
+		}
+
+		long elapsed = System.nanoTime() - start;
+		if ( elapsed < this.budgetNanos ) {
+			return;
+		}
+
+		Connection connection = this.currentConnection;
+		StackTraceElement[] stackTrace = thread.getStackTrace();
+		if ( start != this.iterationStart ) {
+			// The iteration completed meanwhile.
+			return;
+		}
+		this.reportedIterationStart = start;
+
+		StringBuilder report = new StringBuilder();
+		report.append( "Update thread '" ).append( thread.getName() ).append( "' blocked for " ).append( elapsed / 1000000 ).append( " ms" );
+		if ( connection != null ) {
+			report.append( " in " ).append( connection );
+		}
+		String listener = UpdateWatchdog.findListener( stackTrace );
+		if ( listener != null ) {
+			report.append( " by listener " ).append( listener );
+		}
+		report.append( ':' );
+		for ( StackTraceElement element : stackTrace ) {
+			report.append( "\n\tat " ).append( element );
+		}
+
+		this.lastStallReport = report.toString();
+		this.stallCount++;
+		Log.warn( "CrossNet", this.lastStallReport );
+	}
+
+	/**
+	 * Finds the innermost ConnectionListener running in a stack trace; i.e. the innermost frame called by a
+	 * {@link ConnectionListenerHandler}, that is not one itself.
+	 * 
+	 * @param stackTrace
+	 *            The stack trace, innermost frame first.
+	 * @return The class name of the ConnectionListener, or {@code null} if none is running.
+	 */
+	private static String findListener( StackTraceElement[] stackTrace ) {
+		String handler = ConnectionListenerHandler.class.getName();
+		for ( int i = 0; i < ( stackTrace.length - 1 ); i++ ) {
+			if ( stackTrace[i + 1].getClassName().equals( handler ) && !stackTrace[i].getClassName().equals( handler ) ) {
+				return stackTrace[i].getClassName() + "." + stackTrace[i].getMethodName();
+			}
+		}
+		return null;
+	}
+
+}
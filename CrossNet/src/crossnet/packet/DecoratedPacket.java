@@ -0,0 +1,42 @@
+package crossnet.packet;
+
+/**
+ * A Packet of a PacketFactory that decorates another; e.g. one that adds a checksum. It carries the payload as given,
+ * and is represented by the Packet of the decorated PacketFactory, that carries the encoded payload.
+ * <p>
+ * Immutable.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class DecoratedPacket extends Packet {
+
+	/**
+	 * The Packet carrying the encoded payload.
+	 */
+	private final Packet encodedPacket;
+
+	/**
+	 * Create a Packet with payload.
+	 * 
+	 * @param payload
+	 *            The payload.
+	 * @param encodedPacket
+	 *            The Packet of the decorated PacketFactory, carrying the encoded payload.
+	 */
+	public DecoratedPacket( final byte[] payload, final Packet encodedPacket ) {
+		super( payload );
+
+		if ( encodedPacket == null ) {
+			throw new IllegalArgumentException( "Encoded Packet cannot be null" );
+		}
+
+		this.encodedPacket = encodedPacket;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		return this.encodedPacket.toBytes();
+	}
+
+}
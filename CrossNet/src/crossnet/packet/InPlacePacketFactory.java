@@ -0,0 +1,43 @@
+package crossnet.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PacketFactory whose {@link Packet}s carry their payload unchanged after a header, such that the payload can be read
+ * where it was received, without parsing a Packet.
+ * <p>
+ * Factories that transform the payload, like the {@link DecoratedPacket} ones, cannot implement this.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface InPlacePacketFactory extends PacketFactory {
+
+	/**
+	 * Gets the size of the header of the Packet starting at an index, if complete. Does not change the position or limit
+	 * of the buffer.
+	 * 
+	 * @param byteBuffer
+	 *            The buffer to read from.
+	 * @param offset
+	 *            The index of the first byte of the Packet.
+	 * @param limit
+	 *            The index after the last byte received.
+	 * @return The number of bytes in the header, or 0 if the header is incomplete.
+	 * @throws IllegalArgumentException
+	 *             If the header is malformed.
+	 */
+	public int getHeaderSize( ByteBuffer byteBuffer, int offset, int limit );
+
+	/**
+	 * Gets the payload length of the Packet starting at an index. Does not change the position or limit of the buffer.
+	 * 
+	 * @param byteBuffer
+	 *            The buffer to read from.
+	 * @param offset
+	 *            The index of the first byte of the Packet. Its header must be complete.
+	 * @return The number of bytes in the payload.
+	 */
+	public int getPayloadLength( ByteBuffer byteBuffer, int offset );
+
+}
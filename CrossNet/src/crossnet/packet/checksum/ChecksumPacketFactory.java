@@ -0,0 +1,108 @@
+package crossnet.packet.checksum;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import crossnet.packet.DecoratedPacket;
+import crossnet.packet.Packet;
+import crossnet.packet.PacketFactory;
+
+/**
+ * Decorates a PacketFactory, such that a CRC-32 of the payload is appended to the payload of each Packet, and verified
+ * when parsed.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ChecksumPacketFactory implements PacketFactory {
+
+	/**
+	 * Size of the checksum.
+	 */
+	public final static int CHECKSUM_SIZE = 4;
+
+	/**
+	 * The decorated PacketFactory.
+	 */
+	private final PacketFactory packetFactory;
+
+	private final CRC32 crc32 = new CRC32();
+
+	/**
+	 * Decorates a PacketFactory.
+	 * 
+	 * @param packetFactory
+	 *            The PacketFactory to decorate.
+	 */
+	public ChecksumPacketFactory( final PacketFactory packetFactory ) {
+		if ( packetFactory == null ) {
+			throw new IllegalArgumentException( "packetFactory cannot be null." );
+		}
+		this.packetFactory = packetFactory;
+	}
+
+	@Override
+	public int getMaxPayloadSize() {
+		return this.packetFactory.getMaxPayloadSize() - ChecksumPacketFactory.CHECKSUM_SIZE;
+	}
+
+	@Override
+	public int getMaxPacketSize() {
+		return this.packetFactory.getMaxPacketSize();
+	}
+
+	@Override
+	public Packet newPacket( final byte[] payload ) {
+		if ( payload == null ) {
+			throw new IllegalArgumentException( "Data cannot be null" );
+		}
+
+		byte[] data = Arrays.copyOf( payload, payload.length + ChecksumPacketFactory.CHECKSUM_SIZE );
+		int checksum = this.checksum( payload, payload.length );
+		for ( int i = 0; i < ChecksumPacketFactory.CHECKSUM_SIZE; i++ ) {
+			data[payload.length + i] = (byte) ( checksum >>> ( 24 - ( 8 * i ) ) );
+		}
+
+		return new DecoratedPacket( payload, this.packetFactory.newPacket( data ) );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the checksum does not match.
+	 */
+	@Override
+	public Packet parseData( ByteBuffer byteBuffer ) {
+		Packet packet = this.packetFactory.parseData( byteBuffer );
+		if ( packet == null ) {
+			return null;
+		}
+
+		byte[] data = packet.getPayload();
+		int length = data.length - ChecksumPacketFactory.CHECKSUM_SIZE;
+		if ( length < 0 ) {
+			throw new IllegalArgumentException( "Packet too small for checksum: " + data.length + "B." );
+		}
+
+		int checksum = 0;
+		for ( int i = 0; i < ChecksumPacketFactory.CHECKSUM_SIZE; i++ ) {
+			checksum = ( checksum << 8 ) | ( data[length + i] & 0xFF );
+		}
+		if ( checksum != this.checksum( data, length ) ) {
+			throw new IllegalArgumentException( "Packet checksum mismatch." );
+		}
+
+		return new DecoratedPacket( Arrays.copyOf( data, length ), packet );
+	}
+
+	private int checksum( byte[] data, int length ) {
+		this.crc32.reset();
+		this.crc32.update( data, 0, length );
+		return (int) this.crc32.getValue();
+	}
+
+}
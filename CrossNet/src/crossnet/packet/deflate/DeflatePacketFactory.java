@@ -0,0 +1,172 @@
+package crossnet.packet.deflate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import crossnet.packet.DecoratedPacket;
+import crossnet.packet.Packet;
+import crossnet.packet.PacketFactory;
+
+/**
+ * Decorates a PacketFactory, such that payloads of at least {@link #MIN_DEFLATE_SIZE} bytes are compressed with
+ * DEFLATE, when that makes them smaller.
+ * <p>
+ * The payload of each Packet is prefixed by a 1B marker: raw, or deflated followed by the 2B original length.
+ * <p>
+ * The Deflater and Inflater are created on first use, and hold native memory until garbage collected. Not thread
+ * safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class DeflatePacketFactory implements PacketFactory {
+
+	/**
+	 * Smallest payload that is compressed.
+	 */
+	public final static int MIN_DEFLATE_SIZE = 128;
+
+	/**
+	 * Maximum size of the prefix.
+	 */
+	public final static int MAX_HEADER_SIZE = 3;
+
+	private final static byte RAW = 0;
+
+	private final static byte DEFLATED = 1;
+
+	/**
+	 * The decorated PacketFactory.
+	 */
+	private final PacketFactory packetFactory;
+
+	private Deflater deflater = null;
+
+	private Inflater inflater = null;
+
+	/**
+	 * Decorates a PacketFactory.
+	 * 
+	 * @param packetFactory
+	 *            The PacketFactory to decorate.
+	 */
+	public DeflatePacketFactory( final PacketFactory packetFactory ) {
+		if ( packetFactory == null ) {
+			throw new IllegalArgumentException( "packetFactory cannot be null." );
+		}
+		this.packetFactory = packetFactory;
+	}
+
+	@Override
+	public int getMaxPayloadSize() {
+		return Math.min( this.packetFactory.getMaxPayloadSize() - DeflatePacketFactory.MAX_HEADER_SIZE, 65535 );
+	}
+
+	@Override
+	public int getMaxPacketSize() {
+		return this.packetFactory.getMaxPacketSize();
+	}
+
+	@Override
+	public Packet newPacket( final byte[] payload ) {
+		if ( payload == null ) {
+			throw new IllegalArgumentException( "Data cannot be null" );
+		}
+
+		byte[] data = null;
+		if ( ( payload.length >= DeflatePacketFactory.MIN_DEFLATE_SIZE ) && ( payload.length <= this.getMaxPayloadSize() ) ) {
+			data = this.deflate( payload );
+		}
+		if ( data == null ) {
+			data = new byte[1 + payload.length];
+			data[0] = DeflatePacketFactory.RAW;
+			System.arraycopy( payload, 0, data, 1, payload.length );
+		}
+
+		return new DecoratedPacket( payload, this.packetFactory.newPacket( data ) );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the payload is malformed.
+	 */
+	@Override
+	public Packet parseData( ByteBuffer byteBuffer ) {
+		Packet packet = this.packetFactory.parseData( byteBuffer );
+		if ( packet == null ) {
+			return null;
+		}
+
+		byte[] data = packet.getPayload();
+		if ( data.length == 0 ) {
+			throw new IllegalArgumentException( "Packet too small for marker." );
+		}
+
+		switch ( data[0] ) {
+			case RAW:
+				return new DecoratedPacket( Arrays.copyOfRange( data, 1, data.length ), packet );
+			case DEFLATED:
+				return new DecoratedPacket( this.inflate( data ), packet );
+			default:
+				throw new IllegalArgumentException( "Unknown marker: " + data[0] );
+		}
+	}
+
+	/**
+	 * Compresses a payload.
+	 * 
+	 * @return The marked compressed payload, or {@code null} if not smaller than the raw payload.
+	 */
+	private byte[] deflate( byte[] payload ) {
+		if ( this.deflater == null ) {
+			this.deflater = new Deflater( Deflater.BEST_SPEED, true );
+		}
+		this.deflater.reset();
+		this.deflater.setInput( payload );
+		this.deflater.finish();
+
+		// Only worth it if smaller than the raw payload with its marker.
+		byte[] data = new byte[payload.length - 2];
+		data[0] = DeflatePacketFactory.DEFLATED;
+		data[1] = (byte) ( payload.length >>> 8 );
+		data[2] = (byte) payload.length;
+		int length = DeflatePacketFactory.MAX_HEADER_SIZE + this.deflater.deflate( data, DeflatePacketFactory.MAX_HEADER_SIZE, data.length - DeflatePacketFactory.MAX_HEADER_SIZE );
+		if ( !this.deflater.finished() ) {
+			return null;
+		}
+
+		return Arrays.copyOf( data, length );
+	}
+
+	/**
+	 * Decompresses a marked compressed payload.
+	 */
+	private byte[] inflate( byte[] data ) {
+		if ( data.length < DeflatePacketFactory.MAX_HEADER_SIZE ) {
+			throw new IllegalArgumentException( "Packet too small for header." );
+		}
+		if ( this.inflater == null ) {
+			this.inflater = new Inflater( true );
+		}
+		this.inflater.reset();
+		this.inflater.setInput( data, DeflatePacketFactory.MAX_HEADER_SIZE, data.length - DeflatePacketFactory.MAX_HEADER_SIZE );
+
+		byte[] payload = new byte[( ( data[1] & 0xFF ) << 8 ) | ( data[2] & 0xFF )];
+		try {
+			int length = this.inflater.inflate( payload );
+			if ( ( length != payload.length ) || ( !this.inflater.finished() && ( this.inflater.getRemaining() > 0 ) ) ) {
+				throw new IllegalArgumentException( "Deflated payload does not match its length." );
+			}
+		} catch ( DataFormatException e ) {
+			throw new IllegalArgumentException( "Malformed deflated payload: " + e.getMessage() );
+		}
+
+		return payload;
+	}
+
+}
@@ -4,8 +4,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import crossnet.log.Log;
+import crossnet.packet.InPlacePacketFactory;
 import crossnet.packet.Packet;
-import crossnet.packet.PacketFactory;
 import crossnet.util.ByteArrayReader;
 
 /**
@@ -14,7 +14,7 @@ import crossnet.util.ByteArrayReader;
  * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
  * 
  */
-public class LengthPacketFactory implements PacketFactory {
+public class LengthPacketFactory implements InPlacePacketFactory {
 
 	@Override
 	public int getMaxPayloadSize() {
@@ -67,4 +67,14 @@ public class LengthPacketFactory implements PacketFactory {
 		return null;
 	}
 
+	@Override
+	public int getHeaderSize( ByteBuffer byteBuffer, int offset, int limit ) {
+		return ( ( limit - offset ) >= 2 ) ? 2 : 0;
+	}
+
+	@Override
+	public int getPayloadLength( ByteBuffer byteBuffer, int offset ) {
+		return byteBuffer.getShort( offset ) & 0xFFFF;
+	}
+
 }
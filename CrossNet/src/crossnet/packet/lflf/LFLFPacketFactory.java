@@ -1,18 +1,45 @@
 package crossnet.packet.lflf;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import crossnet.packet.Packet;
 import crossnet.packet.PacketFactory;
 
 /**
  * Creates {@link LFLFPacket}s.
+ * <p>
+ * When a buffer does not yet hold a complete Packet, the bytes scanned are remembered, such that the next call only
+ * scans what was appended since. Only the state of the last buffer is kept, so sharing a factory between buffers is
+ * correct, but loses this. Between calls, data may only be appended to the buffer, or the buffer cleared.
+ * <p>
+ * Not thread safe.
  * 
  * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
  * 
  */
 public class LFLFPacketFactory implements PacketFactory {
 
+	/**
+	 * A LF in every byte.
+	 */
+	private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+
+	/**
+	 * The low 7 bits of every byte.
+	 */
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	/**
+	 * The buffer last scanned without finding a terminator, if any.
+	 */
+	private ByteBuffer scanBuffer = null;
+
+	/**
+	 * Number of bytes of {@link #scanBuffer} scanned. No terminator starts before the last of these.
+	 */
+	private int scanned = 0;
+
 	@Override
 	public int getMaxPayloadSize() {
 		return LFLFPacket.MAX_PAYLOAD_SIZE;
@@ -33,43 +60,74 @@ public class LFLFPacketFactory implements PacketFactory {
 		// Prepare buffer for reading.
 		byteBuffer.flip();
 
-		boolean prevIsLF = false;
-		ByteBuffer parseBuffer = ByteBuffer.allocate( byteBuffer.capacity() );
-		while ( byteBuffer.hasRemaining() ) {
-			byte b = byteBuffer.get();
-			parseBuffer.put( b );
-			if ( b == '\n' ) {
-				if ( prevIsLF ) {
-					// Found Packet terminator.
-
-					// Prepare buffer for read.
-					parseBuffer.flip();
-					parseBuffer.limit( parseBuffer.limit() - 2 );
-
-					// Read Packet and empty parseBuffer.
-					byte[] packetData = new byte[parseBuffer.remaining()];
-					parseBuffer.get( packetData );
-					parseBuffer.clear();
-
-					// Compact the buffer and return Packet.
-					byteBuffer.compact();
-
-					return new LFLFPacket( packetData );
-				}
-
-				// Current char was LF.
-				prevIsLF = true;
-			} else {
-				// Current char was not LF.
-				prevIsLF = false;
+		int limit = byteBuffer.limit();
+		int from = 0;
+		if ( ( byteBuffer == this.scanBuffer ) && ( this.scanned <= limit ) ) {
+			// The last byte scanned may be the first LF of the terminator.
+			from = Math.max( 0, this.scanned - 1 );
+		}
+
+		int terminator = LFLFPacketFactory.indexOfTerminator( byteBuffer, from, limit );
+		if ( terminator == -1 ) {
+			this.scanBuffer = byteBuffer;
+			this.scanned = limit;
+
+			// Return buffer in writable state (as received).
+			byteBuffer.position( limit );
+			byteBuffer.limit( byteBuffer.capacity() );
+
+			return null;
+		}
+		this.scanBuffer = null;
+
+		// Read Packet, skip the terminator, and compact the buffer.
+		byte[] packetData = new byte[terminator];
+		byteBuffer.get( packetData );
+		byteBuffer.position( terminator + 2 );
+		byteBuffer.compact();
+
+		return new LFLFPacket( packetData );
+	}
+
+	/**
+	 * Finds the first LF LF in a buffer.
+	 * <p>
+	 * Scans 8 bytes at a time: the bytes that are LF are flagged in their top bit, and a pair is a flagged byte followed
+	 * by a flagged byte. Words overlap by a byte, such that pairs spanning two words are found too.
+	 * 
+	 * @param byteBuffer
+	 *            The buffer to scan. Its position and limit are not used.
+	 * @param from
+	 *            The index to start from.
+	 * @param limit
+	 *            The index to end before.
+	 * @return The index of the first LF of the first terminator, or -1 if none.
+	 */
+	static int indexOfTerminator( ByteBuffer byteBuffer, int from, int limit ) {
+		boolean littleEndian = ( byteBuffer.order() == ByteOrder.LITTLE_ENDIAN );
+		int i = from;
+		while ( ( i + 8 ) <= limit ) {
+			long word = byteBuffer.getLong( i );
+			if ( littleEndian ) {
+				// First byte highest.
+				word = Long.reverseBytes( word );
+			}
+			long x = word ^ LFLFPacketFactory.LF_BYTES;
+			long lfs = ~( ( ( x & LFLFPacketFactory.LOW_BITS ) + LFLFPacketFactory.LOW_BITS ) | x | LFLFPacketFactory.LOW_BITS );
+			long pairs = lfs & ( lfs << 8 );
+			if ( pairs != 0 ) {
+				return i + ( Long.numberOfLeadingZeros( pairs ) >>> 3 );
 			}
+			i += 7;
 		}
 
-		// Return buffer in writable state (as received).
-		byteBuffer.position( byteBuffer.limit() );
-		byteBuffer.limit( byteBuffer.capacity() );
+		for ( ; ( i + 1 ) < limit; i++ ) {
+			if ( ( byteBuffer.get( i ) == '\n' ) && ( byteBuffer.get( i + 1 ) == '\n' ) ) {
+				return i;
+			}
+		}
 
-		return null;
+		return -1;
 	}
 
 }
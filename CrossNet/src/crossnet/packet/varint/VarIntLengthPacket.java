@@ -0,0 +1,84 @@
+package crossnet.packet.varint;
+
+import crossnet.packet.Packet;
+
+/**
+ * The VarIntLengthPacket is a Packet that has a 1B to 3B header, which denotes the number of bytes following the
+ * header, that is this Packet's payload. The length is a varint: 7 bits per byte, least significant first, and the top
+ * bit set on all but the last byte. So payloads below 128B only have a 1B header.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class VarIntLengthPacket extends Packet {
+
+	/**
+	 * Maximum payload size.
+	 */
+	public final static int MAX_PAYLOAD_SIZE = 65535;
+
+	/**
+	 * Maximum header size.
+	 */
+	public final static int MAX_HEADER_SIZE = 3;
+
+	/**
+	 * Maximum packet size.
+	 */
+	public final static int MAX_PACKET_SIZE = VarIntLengthPacket.MAX_HEADER_SIZE + VarIntLengthPacket.MAX_PAYLOAD_SIZE;
+
+	/**
+	 * Create a Packet with payload.
+	 * 
+	 * @param payload
+	 *            The payload.
+	 */
+	protected VarIntLengthPacket( final byte[] payload ) {
+		super( payload );
+
+		if ( payload == null ) {
+			throw new IllegalArgumentException( "Data cannot be null" );
+		}
+
+		if ( payload.length > VarIntLengthPacket.MAX_PAYLOAD_SIZE ) {
+			throw new IllegalArgumentException( "Data too large. Is " + payload.length + "B, but maximum is: " + VarIntLengthPacket.MAX_PAYLOAD_SIZE + "B." );
+		}
+	}
+
+	@Override
+	public byte[] toBytes() {
+		int length = this.payload.length;
+		int headerSize = VarIntLengthPacket.headerSize( length );
+		byte[] ret = new byte[headerSize + length];
+
+		// Header that describes the length of the payload
+		for ( int i = 0; i < ( headerSize - 1 ); i++ ) {
+			ret[i] = (byte) ( ( length & 0x7F ) | 0x80 );
+			length >>>= 7;
+		}
+		ret[headerSize - 1] = (byte) length;
+
+		// Payload
+		System.arraycopy( this.payload, 0, ret, headerSize, this.payload.length );
+
+		return ret;
+	}
+
+	/**
+	 * Gets the size of the header for a payload length.
+	 * 
+	 * @param length
+	 *            The payload length.
+	 * @return The header size in bytes.
+	 */
+	static int headerSize( int length ) {
+		if ( length < ( 1 << 7 ) ) {
+			return 1;
+		}
+		if ( length < ( 1 << 14 ) ) {
+			return 2;
+		}
+		return 3;
+	}
+
+}
@@ -0,0 +1,108 @@
+package crossnet.packet.varint;
+
+import java.nio.ByteBuffer;
+
+import crossnet.packet.InPlacePacketFactory;
+import crossnet.packet.Packet;
+
+/**
+ * Creates {@link VarIntLengthPacket}s.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class VarIntLengthPacketFactory implements InPlacePacketFactory {
+
+	@Override
+	public int getMaxPayloadSize() {
+		return VarIntLengthPacket.MAX_PAYLOAD_SIZE;
+	}
+
+	@Override
+	public int getMaxPacketSize() {
+		return VarIntLengthPacket.MAX_PACKET_SIZE;
+	}
+
+	@Override
+	public Packet newPacket( final byte[] data ) {
+		return new VarIntLengthPacket( data );
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the header is malformed.
+	 */
+	@Override
+	public Packet parseData( ByteBuffer byteBuffer ) {
+		// Prepare buffer for reading.
+		byteBuffer.flip();
+
+		// Read the header, if complete.
+		int headerSize = this.getHeaderSize( byteBuffer, 0, byteBuffer.limit() );
+		if ( headerSize > 0 ) {
+			int payloadLength = this.getPayloadLength( byteBuffer, 0 );
+			if ( ( byteBuffer.limit() - headerSize ) >= payloadLength ) {
+				// Has the payload.
+				byte[] payload = new byte[payloadLength];
+				byteBuffer.position( headerSize );
+				byteBuffer.get( payload );
+
+				// Compact buffer and return Packet.
+				byteBuffer.compact();
+
+				return new VarIntLengthPacket( payload );
+			}
+		}
+
+		// Return buffer in writable state (as received).
+		byteBuffer.position( byteBuffer.limit() );
+		byteBuffer.limit( byteBuffer.capacity() );
+
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the header is malformed.
+	 */
+	@Override
+	public int getHeaderSize( ByteBuffer byteBuffer, int offset, int limit ) {
+		int payloadLength = 0;
+		int headerSize = 0;
+		while ( ( offset + headerSize ) < limit ) {
+			if ( headerSize == VarIntLengthPacket.MAX_HEADER_SIZE ) {
+				throw new IllegalArgumentException( "Malformed header: More than " + VarIntLengthPacket.MAX_HEADER_SIZE + "B." );
+			}
+			int b = byteBuffer.get( offset + headerSize );
+			payloadLength |= ( b & 0x7F ) << ( 7 * headerSize );
+			headerSize++;
+			if ( ( b & 0x80 ) == 0 ) {
+				if ( payloadLength > VarIntLengthPacket.MAX_PAYLOAD_SIZE ) {
+					throw new IllegalArgumentException( "Malformed header: Payload of " + payloadLength + "B, but maximum is: " + VarIntLengthPacket.MAX_PAYLOAD_SIZE + "B." );
+				}
+				return headerSize;
+			}
+		}
+
+		// Incomplete.
+		return 0;
+	}
+
+	@Override
+	public int getPayloadLength( ByteBuffer byteBuffer, int offset ) {
+		int payloadLength = 0;
+		for ( int i = 0; i < VarIntLengthPacket.MAX_HEADER_SIZE; i++ ) {
+			int b = byteBuffer.get( offset + i );
+			payloadLength |= ( b & 0x7F ) << ( 7 * i );
+			if ( ( b & 0x80 ) == 0 ) {
+				break;
+			}
+		}
+		return payloadLength;
+	}
+
+}
@@ -0,0 +1,131 @@
+package crossnet.replication;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import crossnet.log.Log;
+import crossnet.util.ByteArrayReader;
+
+/**
+ * Client side store of the {@link ReplicatedObject}s replicated from a {@link ReplicationRegistry}.
+ * <p>
+ * Received {@link ReplicationMessage}s must be passed to {@link #apply(ReplicationMessage)}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ReplicaStore {
+
+	/**
+	 * Constructs the ReplicatedObjects.
+	 */
+	private final ReplicatedObjectFactory replicatedObjectFactory;
+
+	/**
+	 * The replicated objects.
+	 */
+	private final Map< Integer, ReplicatedObject > objects = new HashMap<>();
+
+	/**
+	 * Create a new ReplicaStore.
+	 * 
+	 * @param replicatedObjectFactory
+	 *            Constructs the ReplicatedObjects.
+	 */
+	public ReplicaStore( final ReplicatedObjectFactory replicatedObjectFactory ) {
+		if ( replicatedObjectFactory == null ) {
+			throw new IllegalArgumentException( "ReplicatedObjectFactory cannot be null." );
+		}
+		this.replicatedObjectFactory = replicatedObjectFactory;
+	}
+
+	/**
+	 * Gets a replicated object.
+	 * 
+	 * @param id
+	 *            The ID of the object.
+	 * @return The object, or {@code null} if it is not known.
+	 */
+	public ReplicatedObject getObject( final int id ) {
+		return this.objects.get( id );
+	}
+
+	/**
+	 * Gets the replicated objects.
+	 * 
+	 * @return The replicated objects.
+	 */
+	public Collection< ReplicatedObject > getObjects() {
+		return Collections.unmodifiableCollection( this.objects.values() );
+	}
+
+	/**
+	 * Forgets all replicated objects, e.g. when reconnecting.
+	 */
+	public void clear() {
+		this.objects.clear();
+	}
+
+	/**
+	 * Applies the records of a ReplicationMessage.
+	 * 
+	 * @param replicationMessage
+	 *            The ReplicationMessage received.
+	 */
+	public void apply( final ReplicationMessage replicationMessage ) {
+		ByteArrayReader from = new ByteArrayReader( replicationMessage.getRecords() );
+		try {
+			while ( from.bytesAvailable() > 0 ) {
+				int operation = from.readUnsignedByte();
+				int id = from.readInt();
+
+				ReplicatedObject replicatedObject;
+				switch ( operation ) {
+					case ReplicationMessage.CREATE:
+						int typeId = from.readUnsignedByte();
+						replicatedObject = this.replicatedObjectFactory.newInstance( typeId );
+						if ( replicatedObject == null ) {
+							Log.error( "CrossNet", "Unknown ReplicatedObject type: " + typeId + ". Cannot apply the remaining records." );
+							return;
+						}
+						replicatedObject.setId( id );
+						this.objects.put( id, replicatedObject );
+						ReplicaStore.readFields( replicatedObject, from );
+						break;
+					case ReplicationMessage.UPDATE:
+						replicatedObject = this.objects.get( id );
+						if ( replicatedObject == null ) {
+							Log.error( "CrossNet", "Update of unknown ReplicatedObject: " + id + ". Cannot apply the remaining records." );
+							return;
+						}
+						ReplicaStore.readFields( replicatedObject, from );
+						break;
+					case ReplicationMessage.DESTROY:
+						this.objects.remove( id );
+						break;
+					default:
+						Log.error( "CrossNet", "Unknown replication operation: " + operation + ". Cannot apply the remaining records." );
+						return;
+				}
+			}
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error applying ReplicationMessage:", e );
+		}
+	}
+
+	/**
+	 * Reads the field mask and the fields it denotes.
+	 */
+	private static void readFields( final ReplicatedObject replicatedObject, final ByteArrayReader from ) throws IOException {
+		long mask = ReplicationMessage.readMask( replicatedObject.getFieldCount(), from );
+		for ( int field = 0; field < replicatedObject.getFieldCount(); field++ ) {
+			if ( ( mask & ( 1L << field ) ) != 0 ) {
+				replicatedObject.readField( field, from );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package crossnet.replication;
+
+import java.io.IOException;
+
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * An object whose fields are replicated from the {@link ReplicationRegistry} on the server to the {@link ReplicaStore}
+ * on the clients.
+ * <p>
+ * Subclasses number their fields from 0 and call {@link #markDirty(int)} whenever a field is written. Only the dirty
+ * fields are sent on the next replication pass.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public abstract class ReplicatedObject {
+
+	/**
+	 * Maximum number of fields.
+	 */
+	public static final int MAX_FIELDS = 64;
+
+	/**
+	 * The ID. Unique per ReplicationRegistry.
+	 */
+	private int id = -1;
+
+	/**
+	 * The ReplicationRegistry this is registered with, if any.
+	 */
+	ReplicationRegistry registry;
+
+	/**
+	 * One bit per field changed since the last replication pass.
+	 * <p>
+	 * Guarded by the lock of the {@link #registry}.
+	 */
+	long dirtyMask;
+
+	/**
+	 * Gets the ID.
+	 * 
+	 * @return The ID.
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Sets the ID.
+	 * 
+	 * @param id
+	 *            The new ID.
+	 */
+	void setId( final int id ) {
+		this.id = id;
+	}
+
+	/**
+	 * Marks a field as changed, such that it is sent on the next replication pass.
+	 * 
+	 * @param field
+	 *            The field number.
+	 */
+	protected final void markDirty( final int field ) {
+		ReplicationRegistry replicationRegistry = this.registry;
+		if ( replicationRegistry != null ) {
+			replicationRegistry.markDirty( this, field );
+		}
+	}
+
+	/**
+	 * Gets the type, used by the {@link ReplicatedObjectFactory} on the client to construct the object.
+	 * 
+	 * @return The type. Must be in the range 0 to 255.
+	 */
+	public abstract int getTypeId();
+
+	/**
+	 * Gets the number of fields.
+	 * 
+	 * @return The number of fields. Must not exceed {@link #MAX_FIELDS}.
+	 */
+	public abstract int getFieldCount();
+
+	/**
+	 * Serialises a field.
+	 * 
+	 * @param field
+	 *            The field number.
+	 * @param to
+	 *            The destination of the serialisation.
+	 * @throws IOException
+	 *             If a serialisation error occurs.
+	 */
+	protected abstract void writeField( int field, ByteArrayWriter to ) throws IOException;
+
+	/**
+	 * Deserialises a field.
+	 * 
+	 * @param field
+	 *            The field number.
+	 * @param from
+	 *            The source of the deserialisation.
+	 * @throws IOException
+	 *             If a deserialisation error occurs.
+	 */
+	protected abstract void readField( int field, ByteArrayReader from ) throws IOException;
+
+}
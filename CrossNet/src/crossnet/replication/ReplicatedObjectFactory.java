@@ -0,0 +1,20 @@
+package crossnet.replication;
+
+/**
+ * Constructs {@link ReplicatedObject}s on the client, when the server starts replicating them.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface ReplicatedObjectFactory {
+
+	/**
+	 * Constructs a new ReplicatedObject of a type.
+	 * 
+	 * @param typeId
+	 *            The type, as returned by {@link ReplicatedObject#getTypeId()} on the server.
+	 * @return A new ReplicatedObject, or {@code null} if the type is unknown.
+	 */
+	public ReplicatedObject newInstance( int typeId );
+
+}
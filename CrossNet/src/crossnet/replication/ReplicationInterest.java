@@ -0,0 +1,28 @@
+package crossnet.replication;
+
+import crossnet.Connection;
+
+/**
+ * Decides which {@link ReplicatedObject}s a {@link Connection} is interested in.
+ * <p>
+ * Interest is evaluated for an object when it has changed since the last replication pass. For a Connection that is
+ * new, or whose interest was reported changed through {@link ReplicationRegistry#interestChanged(Connection)}, it is
+ * evaluated for all objects once.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface ReplicationInterest {
+
+	/**
+	 * Determine if a Connection is interested in a ReplicatedObject.
+	 * 
+	 * @param connection
+	 *            The Connection.
+	 * @param replicatedObject
+	 *            The ReplicatedObject.
+	 * @return {@code True} iff the ReplicatedObject should be replicated to the Connection.
+	 */
+	public boolean isInterested( Connection connection, ReplicatedObject replicatedObject );
+
+}
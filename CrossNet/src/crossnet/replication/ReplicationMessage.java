@@ -0,0 +1,148 @@
+package crossnet.replication;
+
+import java.io.IOException;
+
+import crossnet.log.Log;
+import crossnet.message.MessageParser;
+import crossnet.message.crossnet.messages.TieredCrossNetMessage;
+import crossnet.util.ByteArrayReader;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * A batch of replication records for one client, sent once per replication pass.
+ * <p>
+ * As this is a TieredCrossNetMessage, it carries the type chosen by the application for it. The tiered
+ * {@link MessageParser} of the client must call {@link #parse(ByteArrayReader)} for that type.
+ * <p>
+ * Record format: 1B operation and 4B object ID. {@link #CREATE} is followed by 1B object type, the field mask and all
+ * fields. {@link #UPDATE} is followed by the field mask and the changed fields. {@link #DESTROY} has nothing more.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ReplicationMessage extends TieredCrossNetMessage {
+
+	/**
+	 * Operation: The client should create the object.
+	 */
+	static final int CREATE = 0;
+
+	/**
+	 * Operation: The client should update the object.
+	 */
+	static final int UPDATE = 1;
+
+	/**
+	 * Operation: The client should destroy the object.
+	 */
+	static final int DESTROY = 2;
+
+	/**
+	 * The size of the header in front of the records: the CrossNet type and the tiered type.
+	 */
+	static final int HEADER_SIZE = 2;
+
+	/**
+	 * The tiered type.
+	 */
+	private final int tieredMessageType;
+
+	/**
+	 * The encoded records.
+	 */
+	private final byte[] records;
+
+	/**
+	 * Create a new ReplicationMessage.
+	 * 
+	 * @param tieredMessageType
+	 *            The tiered type.
+	 * @param records
+	 *            The encoded records.
+	 */
+	ReplicationMessage( final int tieredMessageType, final byte[] records ) {
+		this.tieredMessageType = tieredMessageType;
+		this.records = records;
+	}
+
+	/**
+	 * Gets the encoded records.
+	 * 
+	 * @return The encoded records.
+	 */
+	byte[] getRecords() {
+		return this.records;
+	}
+
+	@Override
+	protected void serializeCrossNetPayload( ByteArrayWriter to ) throws IOException {
+		to.writeByte( this.tieredMessageType );
+		to.writeByteArray( this.records );
+	}
+
+	/**
+	 * Construct a ReplicationMessage from the provided payload. The tiered type must already have been read.
+	 * 
+	 * @param payload
+	 *            The payload from which to determine the content of this.
+	 * @return A freshly parsed ReplicationMessage.
+	 */
+	public static ReplicationMessage parse( ByteArrayReader payload ) {
+		try {
+			byte[] records = new byte[payload.bytesAvailable()];
+			payload.readByteArray( records );
+			return new ReplicationMessage( -1, records );
+		} catch ( IOException e ) {
+			Log.error( "CrossNet", "Error deserializing ReplicationMessage:", e );
+		}
+
+		return null;
+	}
+
+	/**
+	 * Writes a field mask using as few bytes as the field count allows.
+	 * 
+	 * @param fieldCount
+	 *            The number of fields.
+	 * @param mask
+	 *            The field mask.
+	 * @param to
+	 *            The destination of the serialisation.
+	 * @throws IOException
+	 *             If a serialisation error occurs.
+	 */
+	static void writeMask( final int fieldCount, final long mask, final ByteArrayWriter to ) throws IOException {
+		if ( fieldCount <= 8 ) {
+			to.writeByte( (int) mask );
+		} else if ( fieldCount <= 16 ) {
+			to.writeShort( (int) mask );
+		} else if ( fieldCount <= 32 ) {
+			to.writeInt( (int) mask );
+		} else {
+			to.writeLong( mask );
+		}
+	}
+
+	/**
+	 * Reads a field mask written by {@link #writeMask(int, long, ByteArrayWriter)}.
+	 * 
+	 * @param fieldCount
+	 *            The number of fields.
+	 * @param from
+	 *            The source of the deserialisation.
+	 * @return The field mask.
+	 * @throws IOException
+	 *             If a deserialisation error occurs.
+	 */
+	static long readMask( final int fieldCount, final ByteArrayReader from ) throws IOException {
+		if ( fieldCount <= 8 ) {
+			return from.readUnsignedByte();
+		} else if ( fieldCount <= 16 ) {
+			return from.readUnsignedShort();
+		} else if ( fieldCount <= 32 ) {
+			return from.readInt() & 0xFFFFFFFFL;
+		}
+		return from.readLong();
+	}
+
+}
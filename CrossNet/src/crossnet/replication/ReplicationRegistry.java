@@ -0,0 +1,504 @@
+package crossnet.replication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import crossnet.Connection;
+import crossnet.CrossNetServer;
+import crossnet.interest.InterestListener;
+import crossnet.listener.ConnectionListenerAdapter;
+import crossnet.log.Log;
+import crossnet.util.ByteArrayWriter;
+
+/**
+ * Server side registry of {@link ReplicatedObject}s.
+ * <p>
+ * Writes to ReplicatedObjects mark their fields dirty. At a configurable tick rate, a replication pass sends the dirty
+ * fields to the interested {@link Connection}s. The records for a Connection are batched in as few
+ * {@link ReplicationMessage}s per pass as its maximum payload size allows. A Connection that is new, or that becomes
+ * interested in an object, is sent the object in full.
+ * <p>
+ * Interest is only evaluated for the objects that changed, so a pass scales with the rate of change rather than with
+ * the number of objects. A Connection whose interest changed otherwise, e.g. as it moved, must be reported through
+ * {@link #interestChanged(Connection)}, such that all objects are evaluated for it once.
+ * <p>
+ * Attach to a {@link CrossNetServer} with {@link CrossNetServer#setReplicationRegistry(ReplicationRegistry)}, which
+ * also drives the replication passes.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ReplicationRegistry extends ConnectionListenerAdapter implements InterestListener {
+
+	/**
+	 * Guards the state of this and the dirty state of the registered objects.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * The tiered type used for the {@link ReplicationMessage}s.
+	 */
+	private final int tieredMessageType;
+
+	/**
+	 * Decides what each Connection is interested in. {@code null} means everything.
+	 */
+	private ReplicationInterest replicationInterest;
+
+	/**
+	 * The registered objects.
+	 */
+	private final Map< Integer, ReplicatedObject > objects = new LinkedHashMap<>();
+
+	/**
+	 * The objects that have changed since the last replication pass.
+	 */
+	private final List< ReplicatedObject > dirtyObjects = new ArrayList<>();
+
+	/**
+	 * The IDs of the objects unregistered since the last replication pass.
+	 */
+	private final List< Integer > removedObjects = new ArrayList<>();
+
+	/**
+	 * The IDs of the objects each Connection knows of.
+	 */
+	private final Map< Connection, Set< Integer > > knownObjects = new HashMap<>();
+
+	/**
+	 * The IDs of the objects whose records have been reported as too large, such that they are only reported once.
+	 */
+	private final Set< Integer > oversizedObjects = new HashSet<>();
+
+	/**
+	 * The Connections that have not yet been sent the initial state.
+	 */
+	private final List< Connection > newConnections = new ArrayList<>();
+
+	/**
+	 * The Connections whose interest may have changed for any object since the last replication pass.
+	 */
+	private final Set< Connection > interestChangedConnections = new HashSet<>();
+
+	/**
+	 * The next ID to assign.
+	 */
+	private int nextId = 0;
+
+	/**
+	 * Time between replication passes in milliseconds.
+	 * <p>
+	 * Default is 50 milliseconds, i.e. 20 ticks per second.
+	 */
+	private int tickMillis = 50;
+
+	/**
+	 * Time stamp of the last replication pass.
+	 */
+	private long lastTickTime = 0;
+
+	/**
+	 * Create a new ReplicationRegistry.
+	 * 
+	 * @param tieredMessageType
+	 *            The tiered type used for the {@link ReplicationMessage}s. Must be in the range 0 to 255.
+	 */
+	public ReplicationRegistry( final int tieredMessageType ) {
+		if ( ( tieredMessageType < 0 ) || ( 255 < tieredMessageType ) ) {
+			throw new IllegalArgumentException( "Tiered type must be in the range 0 to 255: " + tieredMessageType );
+		}
+		this.tieredMessageType = tieredMessageType;
+	}
+
+	/**
+	 * Sets the tick rate.
+	 * 
+	 * @param ticksPerSecond
+	 *            The number of replication passes per second.
+	 */
+	public void setTickRate( final int ticksPerSecond ) {
+		if ( ticksPerSecond <= 0 ) {
+			throw new IllegalArgumentException( "Tick rate must be positive: " + ticksPerSecond );
+		}
+		this.tickMillis = Math.max( 1, 1000 / ticksPerSecond );
+	}
+
+	/**
+	 * Sets what decides which objects each Connection is interested in.
+	 * <p>
+	 * It is asked for the objects that changed, for every Connection, on each replication pass. If the interest of a
+	 * Connection changes without the objects changing, e.g. as it moved, report it through
+	 * {@link #interestChanged(Connection)}; e.g. by setting this as the {@link InterestListener} of an
+	 * {@link crossnet.interest.InterestGrid}.
+	 * 
+	 * @param replicationInterest
+	 *            The ReplicationInterest. Set to {@code null} to replicate everything to everyone.
+	 */
+	public void setReplicationInterest( final ReplicationInterest replicationInterest ) {
+		synchronized ( this.lock ) {
+			this.replicationInterest = replicationInterest;
+			// May change the interest of everyone.
+			this.interestChangedConnections.addAll( this.knownObjects.keySet() );
+		}
+	}
+
+	/**
+	 * Reports that the interest of a Connection may have changed for any object, such that all objects are evaluated
+	 * for it on the next replication pass.
+	 * 
+	 * @param connection
+	 *            The Connection.
+	 */
+	@Override
+	public void interestChanged( final Connection connection ) {
+		synchronized ( this.lock ) {
+			if ( this.knownObjects.containsKey( connection ) ) {
+				this.interestChangedConnections.add( connection );
+			}
+		}
+	}
+
+	/**
+	 * Registers a ReplicatedObject, such that it is replicated from the next replication pass.
+	 * 
+	 * @param replicatedObject
+	 *            The ReplicatedObject to register.
+	 */
+	public void register( final ReplicatedObject replicatedObject ) {
+		if ( replicatedObject.getFieldCount() > ReplicatedObject.MAX_FIELDS ) {
+			throw new IllegalArgumentException( "ReplicatedObject has more than " + ReplicatedObject.MAX_FIELDS + " fields: " + replicatedObject.getFieldCount() );
+		}
+
+		synchronized ( this.lock ) {
+			if ( replicatedObject.registry != null ) {
+				throw new IllegalArgumentException( "ReplicatedObject is already registered." );
+			}
+
+			replicatedObject.setId( this.nextId++ );
+			replicatedObject.registry = this;
+			this.objects.put( replicatedObject.getId(), replicatedObject );
+
+			// Mark all fields dirty, such that it is created on the interested clients.
+			this.dirtyObjects.add( replicatedObject );
+			replicatedObject.dirtyMask = ReplicationRegistry.fullMask( replicatedObject );
+		}
+	}
+
+	/**
+	 * Unregisters a ReplicatedObject, such that it is destroyed on the clients on the next replication pass.
+	 * 
+	 * @param replicatedObject
+	 *            The ReplicatedObject to unregister.
+	 */
+	public void unregister( final ReplicatedObject replicatedObject ) {
+		synchronized ( this.lock ) {
+			if ( replicatedObject.registry != this ) {
+				return;
+			}
+
+			this.objects.remove( replicatedObject.getId() );
+			if ( replicatedObject.dirtyMask != 0 ) {
+				this.dirtyObjects.remove( replicatedObject );
+				replicatedObject.dirtyMask = 0;
+			}
+			this.removedObjects.add( replicatedObject.getId() );
+			this.oversizedObjects.remove( replicatedObject.getId() );
+			replicatedObject.registry = null;
+		}
+	}
+
+	/**
+	 * Marks a field of a ReplicatedObject as changed.
+	 * 
+	 * @param replicatedObject
+	 *            The ReplicatedObject.
+	 * @param field
+	 *            The field number.
+	 */
+	void markDirty( final ReplicatedObject replicatedObject, final int field ) {
+		synchronized ( this.lock ) {
+			if ( replicatedObject.registry != this ) {
+				return;
+			}
+
+			if ( replicatedObject.dirtyMask == 0 ) {
+				this.dirtyObjects.add( replicatedObject );
+			}
+			replicatedObject.dirtyMask |= 1L << field;
+		}
+	}
+
+	@Override
+	public void connected( Connection connection ) {
+		synchronized ( this.lock ) {
+			this.knownObjects.put( connection, new HashSet< Integer >() );
+			this.newConnections.add( connection );
+		}
+	}
+
+	@Override
+	public void disconnected( Connection connection ) {
+		synchronized ( this.lock ) {
+			this.knownObjects.remove( connection );
+			this.newConnections.remove( connection );
+			this.interestChangedConnections.remove( connection );
+		}
+	}
+
+	/**
+	 * Gets the time until the next replication pass is due.
+	 * 
+	 * @param timestamp
+	 *            The time stamp to compare to. Should be now.
+	 * @return The time in milliseconds until the next replication pass, 0 if it is due.
+	 */
+	public long getMillisUntilNextTick( final long timestamp ) {
+		return Math.max( 0, ( this.lastTickTime + this.tickMillis ) - timestamp );
+	}
+
+	/**
+	 * Performs a replication pass, if one is due.
+	 * <p>
+	 * Called by {@link CrossNetServer#update(int)}.
+	 * 
+	 * @param timestamp
+	 *            The time stamp to compare to. Should be now.
+	 */
+	public void replicate( final long timestamp ) {
+		if ( this.getMillisUntilNextTick( timestamp ) > 0 ) {
+			return;
+		}
+		this.lastTickTime = timestamp;
+
+		// Sent once the pass is done, as a failed send closes the Connection, which calls back into this.
+		List< Connection > recipients = new ArrayList<>();
+		List< ReplicationMessage > messages = new ArrayList<>();
+
+		synchronized ( this.lock ) {
+			if ( this.dirtyObjects.isEmpty() && this.removedObjects.isEmpty() && this.newConnections.isEmpty() && this.interestChangedConnections.isEmpty() ) {
+				return;
+			}
+
+			// Each record is encoded once, and shared by all the Connections it is sent to.
+			Map< ReplicatedObject, byte[] > updates = new HashMap<>();
+			Map< ReplicatedObject, byte[] > creates = new HashMap<>();
+
+			try {
+				for ( Map.Entry< Connection, Set< Integer > > entry : this.knownObjects.entrySet() ) {
+					Connection connection = entry.getKey();
+					Set< Integer > known = entry.getValue();
+					Batch batch = new Batch( connection, recipients, messages );
+
+					if ( this.newConnections.contains( connection ) ) {
+						// Initial state
+						for ( ReplicatedObject replicatedObject : this.objects.values() ) {
+							if ( this.isInterested( connection, replicatedObject ) ) {
+								if ( batch.append( replicatedObject.getId(), this.getRecord( creates, replicatedObject, true ) ) ) {
+									known.add( replicatedObject.getId() );
+								}
+							}
+						}
+					} else if ( this.interestChangedConnections.contains( connection ) ) {
+						// The interest may have changed for any object.
+						for ( ReplicatedObject replicatedObject : this.objects.values() ) {
+							this.evaluate( connection, known, replicatedObject, batch, updates, creates );
+						}
+					} else {
+						// Only the dirty objects have news.
+						for ( ReplicatedObject replicatedObject : this.dirtyObjects ) {
+							this.evaluate( connection, known, replicatedObject, batch, updates, creates );
+						}
+					}
+
+					if ( !this.newConnections.contains( connection ) ) {
+						for ( Integer id : this.removedObjects ) {
+							if ( known.remove( id ) ) {
+								batch.append( id, ReplicationRegistry.destroyRecord( id ) );
+							}
+						}
+					}
+
+					batch.end();
+				}
+			} catch ( IOException e ) {
+				Log.error( "CrossNet", "Error encoding replication records:", e );
+			}
+
+			for ( ReplicatedObject replicatedObject : this.dirtyObjects ) {
+				replicatedObject.dirtyMask = 0;
+			}
+			this.dirtyObjects.clear();
+			this.removedObjects.clear();
+			this.newConnections.clear();
+			this.interestChangedConnections.clear();
+		}
+
+		for ( int i = 0; i < recipients.size(); i++ ) {
+			recipients.get( i ).send( messages.get( i ) );
+		}
+	}
+
+	/**
+	 * Appends the record of a ReplicatedObject for a Connection, if any: an update if it is known and dirty, a create if
+	 * it became interesting, or a destroy if it is no longer interesting.
+	 */
+	private void evaluate( final Connection connection, final Set< Integer > known, final ReplicatedObject replicatedObject, final Batch batch, final Map< ReplicatedObject, byte[] > updates, final Map< ReplicatedObject, byte[] > creates ) throws IOException {
+		boolean interested = this.isInterested( connection, replicatedObject );
+		boolean isKnown = known.contains( replicatedObject.getId() );
+		if ( interested && isKnown ) {
+			if ( replicatedObject.dirtyMask != 0 ) {
+				batch.append( replicatedObject.getId(), this.getRecord( updates, replicatedObject, false ) );
+			}
+		} else if ( interested ) {
+			if ( batch.append( replicatedObject.getId(), this.getRecord( creates, replicatedObject, true ) ) ) {
+				known.add( replicatedObject.getId() );
+			}
+		} else if ( isKnown ) {
+			batch.append( replicatedObject.getId(), ReplicationRegistry.destroyRecord( replicatedObject.getId() ) );
+			known.remove( replicatedObject.getId() );
+		}
+	}
+
+	/**
+	 * Determine if a Connection is interested in a ReplicatedObject.
+	 */
+	private boolean isInterested( final Connection connection, final ReplicatedObject replicatedObject ) {
+		return ( this.replicationInterest == null ) || this.replicationInterest.isInterested( connection, replicatedObject );
+	}
+
+	/**
+	 * Gets the create or update record of a ReplicatedObject, encoding it if not already done in this pass.
+	 */
+	private byte[] getRecord( final Map< ReplicatedObject, byte[] > cache, final ReplicatedObject replicatedObject, final boolean create ) throws IOException {
+		byte[] record = cache.get( replicatedObject );
+		if ( record == null ) {
+			ByteArrayWriter to = new ByteArrayWriter();
+			long mask;
+			if ( create ) {
+				to.writeByte( ReplicationMessage.CREATE );
+				to.writeInt( replicatedObject.getId() );
+				to.writeByte( replicatedObject.getTypeId() );
+				mask = ReplicationRegistry.fullMask( replicatedObject );
+			} else {
+				to.writeByte( ReplicationMessage.UPDATE );
+				to.writeInt( replicatedObject.getId() );
+				mask = replicatedObject.dirtyMask;
+			}
+
+			ReplicationMessage.writeMask( replicatedObject.getFieldCount(), mask, to );
+			for ( int field = 0; field < replicatedObject.getFieldCount(); field++ ) {
+				if ( ( mask & ( 1L << field ) ) != 0 ) {
+					replicatedObject.writeField( field, to );
+				}
+			}
+
+			record = to.toByteArray();
+			cache.put( replicatedObject, record );
+		}
+		return record;
+	}
+
+	/**
+	 * Encodes a destroy record.
+	 */
+	private static byte[] destroyRecord( final int id ) throws IOException {
+		ByteArrayWriter to = new ByteArrayWriter();
+		to.writeByte( ReplicationMessage.DESTROY );
+		to.writeInt( id );
+		return to.toByteArray();
+	}
+
+	/**
+	 * Gets the mask with all fields of a ReplicatedObject set.
+	 */
+	private static long fullMask( final ReplicatedObject replicatedObject ) {
+		if ( replicatedObject.getFieldCount() == ReplicatedObject.MAX_FIELDS ) {
+			return -1L;
+		}
+		return ( 1L << replicatedObject.getFieldCount() ) - 1;
+	}
+
+	/**
+	 * The records for one Connection in a replication pass, split into ReplicationMessages that fit its maximum payload
+	 * size.
+	 */
+	private final class Batch {
+
+		private final Connection connection;
+
+		/**
+		 * The Connection of each ReplicationMessage formed.
+		 */
+		private final List< Connection > recipients;
+
+		/**
+		 * The ReplicationMessages formed.
+		 */
+		private final List< ReplicationMessage > messages;
+
+		/**
+		 * The maximum size of the records of one ReplicationMessage.
+		 */
+		private final int maxSize;
+
+		private ByteArrayWriter records = new ByteArrayWriter();
+
+		Batch( final Connection connection, final List< Connection > recipients, final List< ReplicationMessage > messages ) {
+			this.connection = connection;
+			this.recipients = recipients;
+			this.messages = messages;
+			this.maxSize = connection.getTransportLayer().getConnectionOptions().getMaxPayloadSize() - ReplicationMessage.HEADER_SIZE;
+		}
+
+		/**
+		 * Appends a record. If the current ReplicationMessage would grow too large, it is ended first.
+		 * 
+		 * @param id
+		 *            The ID of the object of the record.
+		 * @param record
+		 *            The record.
+		 * @return {@code True} iff appended; {@code false} if the record alone is too large for the Connection.
+		 * @throws IOException
+		 *             If unable to write.
+		 */
+		boolean append( final int id, final byte[] record ) throws IOException {
+			if ( record.length > this.maxSize ) {
+				String message = "Replication record of object " + id + " is " + record.length + "B, exceeding the " + this.maxSize + "B available for " + this.connection + ". Skipped.";
+				if ( ReplicationRegistry.this.oversizedObjects.add( id ) ) {
+					Log.error( "CrossNet", message );
+				} else {
+					Log.debug( "CrossNet", message );
+				}
+				return false;
+			}
+
+			if ( ( this.records.size() + record.length ) > this.maxSize ) {
+				this.end();
+			}
+			this.records.writeByteArray( record );
+			return true;
+		}
+
+		/**
+		 * Ends the current ReplicationMessage, unless it is empty.
+		 * 
+		 * @throws IOException
+		 *             If unable to write.
+		 */
+		void end() throws IOException {
+			if ( this.records.size() > 0 ) {
+				this.recipients.add( this.connection );
+				this.messages.add( new ReplicationMessage( ReplicationRegistry.this.tieredMessageType, this.records.toByteArray() ) );
+				this.records = new ByteArrayWriter();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package crossnet.rpc;
+
+import java.io.IOException;
+
+/**
+ * The failure of a remote procedure call.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class RpcException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The reasons a call can fail.
+	 */
+	public enum Reason {
+
+		/**
+		 * No response arrived before the deadline.
+		 */
+		TIMEOUT,
+
+		/**
+		 * The other end could not handle the request; e.g. it has no handler for it, or the handler threw.
+		 */
+		REMOTE,
+
+		/**
+		 * The Connection was closed before the response arrived.
+		 */
+		DISCONNECTED
+	}
+
+	private final Reason reason;
+
+	/**
+	 * Create new RpcException.
+	 * 
+	 * @param reason
+	 *            The reason the call failed.
+	 * @param message
+	 *            The description.
+	 */
+	public RpcException( final Reason reason, final String message ) {
+		super( message );
+		this.reason = reason;
+	}
+
+	/**
+	 * @return The reason the call failed.
+	 */
+	public Reason getReason() {
+		return this.reason;
+	}
+
+}
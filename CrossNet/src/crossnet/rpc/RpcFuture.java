@@ -0,0 +1,250 @@
+package crossnet.rpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import crossnet.log.Log;
+import crossnet.message.Message;
+
+/**
+ * The pending response of a remote procedure call. See {@link crossnet.Connection#request(Message, int)}.
+ * <p>
+ * Completed on the update thread. Either block in {@link #get()} from another thread, or add a {@link RpcListener}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class RpcFuture implements Future< Message > {
+
+	/**
+	 * The RpcSession this is outstanding in, or {@code null} if it never was.
+	 */
+	private final RpcSession rpcSession;
+
+	private final int correlationId;
+
+	/**
+	 * The time stamp after which this times out.
+	 */
+	private final long deadline;
+
+	/**
+	 * {@code True} iff completed, failed or cancelled. Guarded by this.
+	 */
+	private boolean done = false;
+
+	/**
+	 * The response, guarded by this.
+	 */
+	private Message response;
+
+	/**
+	 * The failure, if any; an {@link RpcException} or a {@link CancellationException}. Guarded by this.
+	 */
+	private Exception failure;
+
+	/**
+	 * The listeners to notify when done, guarded by this.
+	 */
+	private List< RpcListener > listeners;
+
+	RpcFuture( final RpcSession rpcSession, final int correlationId, final long deadline ) {
+		this.rpcSession = rpcSession;
+		this.correlationId = correlationId;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Create a RpcFuture that has already failed; e.g. because the Connection was not connected.
+	 * 
+	 * @param exception
+	 *            The failure.
+	 * @return The failed RpcFuture.
+	 */
+	public static RpcFuture failed( RpcException exception ) {
+		RpcFuture rpcFuture = new RpcFuture( null, -1, 0 );
+		rpcFuture.fail( exception );
+		return rpcFuture;
+	}
+
+	public int getCorrelationId() {
+		return this.correlationId;
+	}
+
+	long getDeadline() {
+		return this.deadline;
+	}
+
+	/**
+	 * Adds a RpcListener, that is notified once when this is done. If this is already done, it is notified at once, on
+	 * the calling thread.
+	 * 
+	 * @param rpcListener
+	 *            The RpcListener to add.
+	 */
+	public void addListener( RpcListener rpcListener ) {
+		if ( rpcListener == null ) {
+			throw new IllegalArgumentException( "RpcListener cannot be null." );
+		}
+
+		synchronized ( this ) {
+			if ( !this.done ) {
+				if ( this.listeners == null ) {
+					this.listeners = new ArrayList<>( 1 );
+				}
+				this.listeners.add( rpcListener );
+				return;
+			}
+		}
+
+		this.notifyListener( rpcListener );
+	}
+
+	/**
+	 * Completes this with the response.
+	 * 
+	 * @param message
+	 *            The response, or {@code null} for none.
+	 */
+	void complete( Message message ) {
+		List< RpcListener > toNotify;
+		synchronized ( this ) {
+			if ( this.done ) {
+				return;
+			}
+			this.response = message;
+			this.done = true;
+			toNotify = this.listeners;
+			this.listeners = null;
+			this.notifyAll();
+		}
+		this.notifyListeners( toNotify );
+	}
+
+	/**
+	 * Fails this.
+	 * 
+	 * @param exception
+	 *            The failure.
+	 * @return {@code True} iff this was not already done.
+	 */
+	boolean fail( Exception exception ) {
+		List< RpcListener > toNotify;
+		synchronized ( this ) {
+			if ( this.done ) {
+				return false;
+			}
+			this.failure = exception;
+			this.done = true;
+			toNotify = this.listeners;
+			this.listeners = null;
+			this.notifyAll();
+		}
+		this.notifyListeners( toNotify );
+		return true;
+	}
+
+	private void notifyListeners( List< RpcListener > toNotify ) {
+		if ( toNotify != null ) {
+			for ( RpcListener rpcListener : toNotify ) {
+				this.notifyListener( rpcListener );
+			}
+		}
+	}
+
+	private void notifyListener( RpcListener rpcListener ) {
+		Message message;
+		Exception exception;
+		synchronized ( this ) {
+			message = this.response;
+			exception = this.failure;
+		}
+		try {
+			if ( exception == null ) {
+				rpcListener.completed( message );
+			} else {
+				rpcListener.failed( exception );
+			}
+		} catch ( RuntimeException e ) {
+			Log.error( "CrossNet", "Error in RpcListener of call " + this.correlationId + ":", e );
+		}
+	}
+
+	/**
+	 * Cancels this. A response arriving later is dropped.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            Ignored, as there is nothing local to interrupt.
+	 */
+	@Override
+	public boolean cancel( boolean mayInterruptIfRunning ) {
+		if ( !this.fail( new CancellationException( "Call " + this.correlationId + " was cancelled." ) ) ) {
+			return false;
+		}
+		if ( this.rpcSession != null ) {
+			this.rpcSession.remove( this );
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return this.failure instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return this.done;
+	}
+
+	/**
+	 * Waits for the response. Must not be called on the update thread, as that is what completes this.
+	 * 
+	 * @return The response, or {@code null} for none.
+	 * @throws ExecutionException
+	 *             Wrapping the {@link RpcException}, if the call failed.
+	 */
+	@Override
+	public synchronized Message get() throws InterruptedException, ExecutionException {
+		while ( !this.done ) {
+			this.wait();
+		}
+		return this.result();
+	}
+
+	/**
+	 * Waits for the response, at most the given time. Must not be called on the update thread, as that is what
+	 * completes this.
+	 * 
+	 * @return The response, or {@code null} for none.
+	 * @throws ExecutionException
+	 *             Wrapping the {@link RpcException}, if the call failed.
+	 */
+	@Override
+	public synchronized Message get( long timeout, TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos( timeout );
+		while ( !this.done ) {
+			long remaining = end - System.nanoTime();
+			if ( remaining <= 0 ) {
+				throw new TimeoutException( "Call " + this.correlationId + " is still pending." );
+			}
+			TimeUnit.NANOSECONDS.timedWait( this, remaining );
+		}
+		return this.result();
+	}
+
+	private Message result() throws ExecutionException {
+		if ( this.failure instanceof CancellationException ) {
+			throw (CancellationException) this.failure;
+		} else if ( this.failure != null ) {
+			throw new ExecutionException( this.failure );
+		}
+		return this.response;
+	}
+
+}
@@ -0,0 +1,27 @@
+package crossnet.rpc;
+
+import crossnet.Connection;
+import crossnet.message.Message;
+
+/**
+ * Handles the requests of one Message class. See {@link RpcHandlerRegistry}.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface RpcHandler< M extends Message > {
+
+	/**
+	 * Handles a request, on the update thread.
+	 * 
+	 * @param connection
+	 *            The Connection that received the request.
+	 * @param request
+	 *            The request.
+	 * @return The response, or {@code null} for none.
+	 * @throws Exception
+	 *             If the request cannot be handled. The caller gets an {@link RpcException} with the description.
+	 */
+	public Message handle( Connection connection, M request ) throws Exception;
+
+}
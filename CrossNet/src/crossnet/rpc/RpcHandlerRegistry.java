@@ -0,0 +1,79 @@
+package crossnet.rpc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import crossnet.Connection;
+import crossnet.log.Log;
+import crossnet.message.Message;
+import crossnet.message.crossnet.messages.RpcMessage;
+
+/**
+ * Maps the requests received to their {@link RpcHandler}s, by the exact class of the request.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class RpcHandlerRegistry {
+
+	private final Map< Class< ? >, RpcHandler< ? > > handlers = new ConcurrentHashMap<>();
+
+	/**
+	 * Registers the RpcHandler for a class of requests, replacing any previous.
+	 * 
+	 * @param requestClass
+	 *            The class of the requests.
+	 * @param rpcHandler
+	 *            The RpcHandler.
+	 */
+	public < M extends Message > void register( Class< M > requestClass, RpcHandler< ? super M > rpcHandler ) {
+		if ( requestClass == null ) {
+			throw new IllegalArgumentException( "Request class cannot be null." );
+		}
+		if ( rpcHandler == null ) {
+			throw new IllegalArgumentException( "RpcHandler cannot be null." );
+		}
+		this.handlers.put( requestClass, rpcHandler );
+	}
+
+	/**
+	 * Unregisters the RpcHandler for a class of requests.
+	 * 
+	 * @param requestClass
+	 *            The class of the requests.
+	 */
+	public void unregister( Class< ? extends Message > requestClass ) {
+		this.handlers.remove( requestClass );
+	}
+
+	/**
+	 * Handles a request.
+	 * 
+	 * @param connection
+	 *            The Connection that received the request.
+	 * @param request
+	 *            The request received.
+	 * @return The response, or an error if the request could not be handled.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public RpcMessage handle( Connection connection, RpcMessage request ) {
+		int correlationId = request.getCorrelationId();
+		Message message = request.getMessage();
+		if ( message == null ) {
+			return RpcMessage.error( correlationId, "Could not parse the request." );
+		}
+
+		RpcHandler< Message > rpcHandler = (RpcHandler< Message >) this.handlers.get( message.getClass() );
+		if ( rpcHandler == null ) {
+			return RpcMessage.error( correlationId, "No handler for: " + message.getMessageClass() );
+		}
+
+		try {
+			return RpcMessage.response( correlationId, rpcHandler.handle( connection, message ) );
+		} catch ( Exception e ) {
+			Log.debug( "CrossNet", "Error handling call " + correlationId + " of " + connection + ":", e );
+			return RpcMessage.error( correlationId, e.toString() );
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package crossnet.rpc;
+
+import crossnet.message.Message;
+
+/**
+ * Listener for the completion of a remote procedure call. See {@link RpcFuture#addListener(RpcListener)}.
+ * <p>
+ * Called on the update thread, so it must not block; e.g. by calling {@link RpcFuture#get()} of another call.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public interface RpcListener {
+
+	/**
+	 * The response arrived.
+	 * 
+	 * @param response
+	 *            The response, or {@code null} if the handler returned none.
+	 */
+	public void completed( Message response );
+
+	/**
+	 * The call failed or was cancelled.
+	 * 
+	 * @param exception
+	 *            An {@link RpcException}, or a {@link java.util.concurrent.CancellationException}.
+	 */
+	public void failed( Exception exception );
+
+}
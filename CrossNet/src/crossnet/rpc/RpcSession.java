@@ -0,0 +1,169 @@
+package crossnet.rpc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import crossnet.log.Log;
+import crossnet.message.crossnet.messages.RpcMessage;
+
+/**
+ * The outstanding remote procedure calls of a Connection. Used by {@link crossnet.Connection}.
+ * <p>
+ * Any number of calls can be outstanding at once, i.e. pipelined, and the responses may arrive in any order. The
+ * deadlines are checked by the update thread through {@link #expire(long)}, such that no timer threads are needed.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class RpcSession {
+
+	/**
+	 * The default time in milliseconds to wait for a response.
+	 */
+	public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * The outstanding calls by correlation id, guarded by this.
+	 */
+	private final Map< Integer, RpcFuture > outstanding = new HashMap<>();
+
+	/**
+	 * The correlation id of the next call, guarded by this.
+	 */
+	private int nextCorrelationId = 0;
+
+	/**
+	 * The earliest deadline of the outstanding calls, or {@link Long#MAX_VALUE} if none.
+	 */
+	private volatile long nextDeadline = Long.MAX_VALUE;
+
+	/**
+	 * Creates and registers a new outstanding call.
+	 * 
+	 * @param timeoutMillis
+	 *            The time in milliseconds to wait for the response.
+	 * @return The RpcFuture of the call.
+	 */
+	public RpcFuture newRequest( int timeoutMillis ) {
+		if ( timeoutMillis <= 0 ) {
+			throw new IllegalArgumentException( "Timeout must be positive, was: " + timeoutMillis );
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized ( this ) {
+			// Skip ids still outstanding after wrapping around
+			int correlationId;
+			do {
+				correlationId = this.nextCorrelationId;
+				this.nextCorrelationId = ( this.nextCorrelationId + 1 ) & RpcMessage.MAX_CORRELATION_ID;
+			} while ( this.outstanding.containsKey( correlationId ) );
+
+			RpcFuture rpcFuture = new RpcFuture( this, correlationId, deadline );
+			this.outstanding.put( correlationId, rpcFuture );
+			if ( deadline < this.nextDeadline ) {
+				this.nextDeadline = deadline;
+			}
+			return rpcFuture;
+		}
+	}
+
+	/**
+	 * Completes the call of a response or error.
+	 * 
+	 * @param rpcMessage
+	 *            The response or error received.
+	 */
+	public void received( RpcMessage rpcMessage ) {
+		RpcFuture rpcFuture;
+		synchronized ( this ) {
+			rpcFuture = this.outstanding.remove( rpcMessage.getCorrelationId() );
+		}
+		if ( rpcFuture == null ) {
+			// Timed out or cancelled
+			Log.debug( "CrossNet", "Dropped response to call " + rpcMessage.getCorrelationId() + ", as it is no longer outstanding." );
+			return;
+		}
+
+		if ( rpcMessage.getKind() == RpcMessage.Kind.ERROR ) {
+			rpcFuture.fail( new RpcException( RpcException.Reason.REMOTE, rpcMessage.getError() ) );
+		} else {
+			rpcFuture.complete( rpcMessage.getMessage() );
+		}
+	}
+
+	/**
+	 * Fails the calls that are past their deadline. Cheap when none are.
+	 * 
+	 * @param time
+	 *            The current time stamp.
+	 */
+	public void expire( long time ) {
+		if ( time < this.nextDeadline ) {
+			return;
+		}
+
+		List< RpcFuture > expired = new ArrayList<>();
+		synchronized ( this ) {
+			long earliest = Long.MAX_VALUE;
+			for ( Iterator< RpcFuture > iterator = this.outstanding.values().iterator(); iterator.hasNext(); ) {
+				RpcFuture rpcFuture = iterator.next();
+				if ( rpcFuture.getDeadline() <= time ) {
+					iterator.remove();
+					expired.add( rpcFuture );
+				} else if ( rpcFuture.getDeadline() < earliest ) {
+					earliest = rpcFuture.getDeadline();
+				}
+			}
+			this.nextDeadline = earliest;
+		}
+
+		for ( RpcFuture rpcFuture : expired ) {
+			rpcFuture.fail( new RpcException( RpcException.Reason.TIMEOUT, "Call " + rpcFuture.getCorrelationId() + " timed out." ) );
+		}
+	}
+
+	/**
+	 * Fails all outstanding calls; e.g. when the Connection is closed.
+	 * 
+	 * @param exception
+	 *            The failure.
+	 */
+	public void failAll( RpcException exception ) {
+		List< RpcFuture > failed;
+		synchronized ( this ) {
+			if ( this.outstanding.isEmpty() ) {
+				return;
+			}
+			failed = new ArrayList<>( this.outstanding.values() );
+			this.outstanding.clear();
+			this.nextDeadline = Long.MAX_VALUE;
+		}
+
+		for ( RpcFuture rpcFuture : failed ) {
+			rpcFuture.fail( exception );
+		}
+	}
+
+	/**
+	 * Removes a call, such that its response is dropped.
+	 * 
+	 * @param rpcFuture
+	 *            The call to remove.
+	 */
+	synchronized void remove( RpcFuture rpcFuture ) {
+		if ( this.outstanding.get( rpcFuture.getCorrelationId() ) == rpcFuture ) {
+			this.outstanding.remove( rpcFuture.getCorrelationId() );
+		}
+	}
+
+	/**
+	 * @return The number of outstanding calls.
+	 */
+	public synchronized int getOutstanding() {
+		return this.outstanding.size();
+	}
+
+}
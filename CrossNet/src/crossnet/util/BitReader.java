@@ -0,0 +1,240 @@
+package crossnet.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reader class for bit packed data, that reads what a {@link BitWriter} writes. The reads must use the same number of
+ * bits, ranges and precision as the writes.
+ * <p>
+ * Can be pointed at new data with {@link #reset(byte[], int, int)}, such that one BitReader can be reused for every
+ * Message. Throws an {@link EOFException} if there is too little left, like {@link ByteArrayReader}.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BitReader {
+
+	private byte[] data;
+
+	/**
+	 * Index of the next byte to read from the {@link #data}.
+	 */
+	private int position;
+
+	/**
+	 * Index after the last byte to read from the {@link #data}.
+	 */
+	private int limit;
+
+	/**
+	 * The bits read from the {@link #data}, but not yet returned, in the lowest {@link #cacheBits} bits.
+	 */
+	private long cache;
+
+	/**
+	 * Number of bits in the {@link #cache}.
+	 */
+	private int cacheBits;
+
+	public BitReader( byte[] data ) {
+		this( data, 0, data.length );
+	}
+
+	/**
+	 * Create a BitReader for a part of a byte[].
+	 * 
+	 * @param data
+	 *            The byte[] to read.
+	 * @param offset
+	 *            The index of the first byte to read.
+	 * @param length
+	 *            The number of bytes to read.
+	 */
+	public BitReader( byte[] data, int offset, int length ) {
+		this.reset( data, offset, length );
+	}
+
+	/**
+	 * Starts reading a part of another byte[].
+	 * 
+	 * @param data
+	 *            The byte[] to read.
+	 * @param offset
+	 *            The index of the first byte to read.
+	 * @param length
+	 *            The number of bytes to read.
+	 */
+	public void reset( byte[] data, int offset, int length ) {
+		if ( ( offset < 0 ) || ( length < 0 ) || ( offset > ( data.length - length ) ) ) {
+			throw new IllegalArgumentException( "Range " + offset + " + " + length + " is outside data of " + data.length + "B." );
+		}
+		this.data = data;
+		this.position = offset;
+		this.limit = offset + length;
+		this.cache = 0;
+		this.cacheBits = 0;
+	}
+
+	/**
+	 * Reads an unsigned number.
+	 * 
+	 * @param bits
+	 *            The number of bits, 0 to 32.
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 */
+	public int readBits( int bits ) throws IOException {
+		if ( ( bits < 0 ) || ( bits > 32 ) ) {
+			throw new IllegalArgumentException( "bits must be 0 to 32, was: " + bits );
+		}
+
+		while ( this.cacheBits < bits ) {
+			if ( this.position == this.limit ) {
+				throw new EOFException( "Needs " + bits + " bits, but only " + this.cacheBits + " bits left." );
+			}
+			this.cache = ( this.cache << 8 ) | ( this.data[this.position++] & 0xFF );
+			this.cacheBits += 8;
+		}
+
+		this.cacheBits -= bits;
+		return (int) ( ( this.cache >>> this.cacheBits ) & ( ( 1L << bits ) - 1 ) );
+	}
+
+	/**
+	 * Reads an unsigned number.
+	 * 
+	 * @param bits
+	 *            The number of bits, 0 to 64.
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 */
+	public long readLong( int bits ) throws IOException {
+		if ( ( bits < 0 ) || ( bits > 64 ) ) {
+			throw new IllegalArgumentException( "bits must be 0 to 64, was: " + bits );
+		}
+
+		if ( bits > 32 ) {
+			long high = this.readBits( bits - 32 ) & 0xFFFFFFFFL;
+			return ( high << 32 ) | ( this.readBits( 32 ) & 0xFFFFFFFFL );
+		}
+		return this.readBits( bits ) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Reads a signed number in two's complement.
+	 * 
+	 * @param bits
+	 *            The number of bits, 1 to 32.
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 */
+	public int readSignedBits( int bits ) throws IOException {
+		if ( ( bits < 1 ) || ( bits > 32 ) ) {
+			throw new IllegalArgumentException( "bits must be 1 to 32, was: " + bits );
+		}
+
+		int shift = 32 - bits;
+		return ( this.readBits( bits ) << shift ) >> shift;
+	}
+
+	/**
+	 * Reads an int in a range.
+	 * 
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there are too few bits left, or the number is outside the range.
+	 */
+	public int readInt( int min, int max ) throws IOException {
+		if ( min > max ) {
+			throw new IllegalArgumentException( "min cannot be larger than max." );
+		}
+
+		long value = min + this.readLong( BitWriter.bitsRequired( (long) max - min ) );
+		if ( value > max ) {
+			throw new IOException( "Value is outside " + min + " to " + max + ": " + value );
+		}
+		return (int) value;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return this.readBits( 1 ) != 0;
+	}
+
+	/**
+	 * Reads a float written in full.
+	 * 
+	 * @return The read float.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 */
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat( this.readBits( 32 ) );
+	}
+
+	/**
+	 * Reads a float quantized to a range.
+	 * 
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 * @param bits
+	 *            The number of bits, 1 to 32.
+	 * @return The read float.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 * @see BitWriter#writeFloat(float, float, float, int)
+	 */
+	public float readFloat( float min, float max, int bits ) throws IOException {
+		BitWriter.checkQuantization( min, max, bits );
+
+		long steps = ( 1L << bits ) - 1;
+		long quantized = this.readLong( bits );
+		if ( quantized == steps ) {
+			// Exact, such that max survives a round trip.
+			return max;
+		}
+		return (float) ( min + ( ( ( (double) max - min ) * quantized ) / steps ) );
+	}
+
+	/**
+	 * Reads a vector with each component quantized to the same range.
+	 * 
+	 * @param vector
+	 *            The array to fill with the components.
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 * @param bits
+	 *            The number of bits per component, 1 to 32.
+	 * @throws IOException
+	 *             If there are too few bits left.
+	 * @see BitWriter#writeVector(float[], float, float, int)
+	 */
+	public void readVector( float[] vector, float min, float max, int bits ) throws IOException {
+		for ( int i = 0; i < vector.length; i++ ) {
+			vector[i] = this.readFloat( min, max, bits );
+		}
+	}
+
+	/**
+	 * Gets the number of bits left to read, including the padding of the last byte.
+	 * 
+	 * @return The number of bits left to read.
+	 */
+	public long bitsAvailable() {
+		return ( ( this.limit - this.position ) * 8L ) + this.cacheBits;
+	}
+
+}
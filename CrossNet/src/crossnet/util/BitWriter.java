@@ -0,0 +1,280 @@
+package crossnet.util;
+
+import java.util.Arrays;
+
+/**
+ * Writer class for bit packed data, e.g. the state of a game. Integers take only the bits their range needs, booleans
+ * take 1 bit, and floats can be quantized to a range and precision. Read it with a {@link BitReader}.
+ * <p>
+ * Bits are written most significant first, and the last byte is padded with zeros. The buffer grows as needed, and is
+ * kept by {@link #reset()}, such that one BitWriter can be reused for every Message.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class BitWriter {
+
+	/**
+	 * The whole bytes written.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Number of whole bytes in the {@link #buffer}.
+	 */
+	private int position = 0;
+
+	/**
+	 * The bits not yet forming a whole byte, in the lowest {@link #scratchBits} bits.
+	 */
+	private long scratch = 0;
+
+	/**
+	 * Number of bits in the {@link #scratch}. Always below 8 between calls.
+	 */
+	private int scratchBits = 0;
+
+	public BitWriter() {
+		this( 64 );
+	}
+
+	/**
+	 * Create a BitWriter.
+	 * 
+	 * @param initialCapacity
+	 *            The initial capacity in bytes.
+	 */
+	public BitWriter( int initialCapacity ) {
+		if ( initialCapacity < 1 ) {
+			throw new IllegalArgumentException( "initialCapacity must be positive." );
+		}
+		this.buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Writes the lowest bits of an int, as an unsigned number.
+	 * 
+	 * @param value
+	 *            The value to write. Must fit in the bits.
+	 * @param bits
+	 *            The number of bits, 0 to 32.
+	 */
+	public void writeBits( int value, int bits ) {
+		if ( ( bits < 0 ) || ( bits > 32 ) ) {
+			throw new IllegalArgumentException( "bits must be 0 to 32, was: " + bits );
+		}
+		if ( ( bits < 32 ) && ( ( value >>> bits ) != 0 ) ) {
+			throw new IllegalArgumentException( "Value requires more than " + bits + " bits: " + value );
+		}
+
+		this.scratch = ( this.scratch << bits ) | ( value & 0xFFFFFFFFL );
+		this.scratchBits += bits;
+		while ( this.scratchBits >= 8 ) {
+			this.scratchBits -= 8;
+			this.put( (byte) ( this.scratch >>> this.scratchBits ) );
+		}
+	}
+
+	/**
+	 * Writes the lowest bits of a long, as an unsigned number.
+	 * 
+	 * @param value
+	 *            The value to write. Must fit in the bits.
+	 * @param bits
+	 *            The number of bits, 0 to 64.
+	 */
+	public void writeLong( long value, int bits ) {
+		if ( ( bits < 0 ) || ( bits > 64 ) ) {
+			throw new IllegalArgumentException( "bits must be 0 to 64, was: " + bits );
+		}
+		if ( ( bits < 64 ) && ( ( value >>> bits ) != 0 ) ) {
+			throw new IllegalArgumentException( "Value requires more than " + bits + " bits: " + value );
+		}
+
+		if ( bits > 32 ) {
+			this.writeBits( (int) ( value >>> 32 ), bits - 32 );
+			this.writeBits( (int) value, 32 );
+		} else {
+			this.writeBits( (int) value, bits );
+		}
+	}
+
+	/**
+	 * Writes a signed int in two's complement.
+	 * 
+	 * @param value
+	 *            The value to write. Must fit in the bits.
+	 * @param bits
+	 *            The number of bits, 1 to 32.
+	 */
+	public void writeSignedBits( int value, int bits ) {
+		if ( ( bits < 1 ) || ( bits > 32 ) ) {
+			throw new IllegalArgumentException( "bits must be 1 to 32, was: " + bits );
+		}
+		if ( ( bits < 32 ) && ( ( ( value >> ( bits - 1 ) ) != 0 ) && ( ( value >> ( bits - 1 ) ) != -1 ) ) ) {
+			throw new IllegalArgumentException( "Value requires more than " + bits + " bits: " + value );
+		}
+
+		this.writeBits( ( bits < 32 ) ? ( value & ( ( 1 << bits ) - 1 ) ) : value, bits );
+	}
+
+	/**
+	 * Writes an int in a range, with as few bits as the range needs.
+	 * 
+	 * @param value
+	 *            The value to write.
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 */
+	public void writeInt( int value, int min, int max ) {
+		if ( min > max ) {
+			throw new IllegalArgumentException( "min cannot be larger than max." );
+		}
+		if ( ( value < min ) || ( value > max ) ) {
+			throw new IllegalArgumentException( "Value is outside " + min + " to " + max + ": " + value );
+		}
+
+		this.writeLong( (long) value - min, BitWriter.bitsRequired( (long) max - min ) );
+	}
+
+	public void writeBoolean( boolean b ) {
+		this.writeBits( b ? 1 : 0, 1 );
+	}
+
+	/**
+	 * Writes a float in full, as 32 bits.
+	 * 
+	 * @param value
+	 *            The value to write.
+	 */
+	public void writeFloat( float value ) {
+		this.writeBits( Float.floatToIntBits( value ), 32 );
+	}
+
+	/**
+	 * Writes a float quantized to a range. The precision is {@code ( max - min ) / ( 2^bits - 1 )}. Values outside the
+	 * range, and NaN, are clamped to it.
+	 * 
+	 * @param value
+	 *            The value to write.
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 * @param bits
+	 *            The number of bits, 1 to 32.
+	 */
+	public void writeFloat( float value, float min, float max, int bits ) {
+		BitWriter.checkQuantization( min, max, bits );
+
+		long steps = ( 1L << bits ) - 1;
+		double normalised = ( value - (double) min ) / ( (double) max - min );
+		long quantized;
+		if ( !( normalised > 0 ) ) {
+			// Also NaN.
+			quantized = 0;
+		} else if ( normalised >= 1 ) {
+			quantized = steps;
+		} else {
+			quantized = Math.round( normalised * steps );
+		}
+		this.writeLong( quantized, bits );
+	}
+
+	/**
+	 * Writes a vector, e.g. a position, with each component quantized to the same range.
+	 * 
+	 * @param vector
+	 *            The components to write.
+	 * @param min
+	 *            The smallest value of the range.
+	 * @param max
+	 *            The largest value of the range.
+	 * @param bits
+	 *            The number of bits per component, 1 to 32.
+	 * @see #writeFloat(float, float, float, int)
+	 */
+	public void writeVector( float[] vector, float min, float max, int bits ) {
+		for ( float component : vector ) {
+			this.writeFloat( component, min, max, bits );
+		}
+	}
+
+	/**
+	 * Gets the number of bits written so far.
+	 * 
+	 * @return The number of bits written so far.
+	 */
+	public long bitSize() {
+		return ( this.position * 8L ) + this.scratchBits;
+	}
+
+	/**
+	 * Gets the number of bytes written so far, including a partial last byte.
+	 * 
+	 * @return The number of bytes written so far.
+	 */
+	public int size() {
+		return this.position + ( ( this.scratchBits > 0 ) ? 1 : 0 );
+	}
+
+	/**
+	 * Discards everything written, keeping the buffer.
+	 */
+	public void reset() {
+		this.position = 0;
+		this.scratch = 0;
+		this.scratchBits = 0;
+	}
+
+	/**
+	 * Gets a copy of the bytes written, with the last byte padded with zeros.
+	 * 
+	 * @return The bytes written.
+	 */
+	public byte[] toByteArray() {
+		byte[] ret = Arrays.copyOf( this.buffer, this.size() );
+		if ( this.scratchBits > 0 ) {
+			ret[this.position] = (byte) ( this.scratch << ( 8 - this.scratchBits ) );
+		}
+		return ret;
+	}
+
+	private void put( byte b ) {
+		if ( this.position == this.buffer.length ) {
+			this.buffer = Arrays.copyOf( this.buffer, this.buffer.length * 2 );
+		}
+		this.buffer[this.position++] = b;
+	}
+
+	/**
+	 * Gets the number of bits needed for the unsigned values up to a maximum.
+	 * 
+	 * @param max
+	 *            The maximum value. Must not be negative.
+	 * @return The number of bits.
+	 */
+	public static int bitsRequired( long max ) {
+		if ( max < 0 ) {
+			throw new IllegalArgumentException( "max cannot be negative." );
+		}
+		return 64 - Long.numberOfLeadingZeros( max );
+	}
+
+	/**
+	 * Checks the parameters of a quantized float.
+	 */
+	static void checkQuantization( float min, float max, int bits ) {
+		if ( !( min < max ) || Float.isInfinite( min ) || Float.isInfinite( max ) ) {
+			throw new IllegalArgumentException( "Range must be finite, and min less than max. Was: " + min + " to " + max );
+		}
+		if ( ( bits < 1 ) || ( bits > 32 ) ) {
+			throw new IllegalArgumentException( "bits must be 1 to 32, was: " + bits );
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package crossnet.util;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -13,12 +14,45 @@ import java.nio.charset.Charset;
  */
 public class ByteArrayReader {
 
+	/**
+	 * The byte[] read from.
+	 */
+	private final byte[] bytes;
+
 	private final ByteArrayInputStream byteArrayInputStream;
 	private final DataInputStream dataInputStream;
 
+	/**
+	 * The StringTable used by {@link #readSharedString()}, if any.
+	 */
+	private final StringTable stringTable;
+
 	public ByteArrayReader( byte[] data ) {
+		this( data, null );
+	}
+
+	/**
+	 * Creates a reader that reads shared Strings with a StringTable.
+	 * 
+	 * @param data
+	 *            The byte[] to read.
+	 * @param stringTable
+	 *            The StringTable, or {@code null} if none was used when writing.
+	 */
+	public ByteArrayReader( byte[] data, StringTable stringTable ) {
+		this.bytes = data;
 		this.byteArrayInputStream = new ByteArrayInputStream( data );
 		this.dataInputStream = new DataInputStream( this.byteArrayInputStream );
+		this.stringTable = stringTable;
+	}
+
+	/**
+	 * Gets the StringTable used by {@link #readSharedString()}.
+	 * 
+	 * @return The StringTable, or {@code null} if none.
+	 */
+	public StringTable getStringTable() {
+		return this.stringTable;
 	}
 
 	public boolean readBoolean() throws IOException {
@@ -49,6 +83,25 @@ public class ByteArrayReader {
 		return this.dataInputStream.readLong();
 	}
 
+	/**
+	 * Reads an unsigned varint as an int, as {@link ByteBufferReader#readVarInt()}.
+	 * 
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there is too little left, or the varint is longer than {@link ByteBufferWriter#MAX_VARINT_SIZE}.
+	 */
+	public int readVarInt() throws IOException {
+		int number = 0;
+		for ( int shift = 0; shift < ( 7 * ByteBufferWriter.MAX_VARINT_SIZE ); shift += 7 ) {
+			byte b = this.dataInputStream.readByte();
+			number |= ( b & 0x7F ) << shift;
+			if ( b >= 0 ) {
+				return number;
+			}
+		}
+		throw new IOException( "Malformed varint: More than " + ByteBufferWriter.MAX_VARINT_SIZE + "B." );
+	}
+
 	public int bytesAvailable() throws IOException {
 		return this.dataInputStream.available();
 	}
@@ -68,6 +121,25 @@ public class ByteArrayReader {
 		return new String( stringBytes, Charset.forName( "UTF-8" ) );
 	}
 
+	/**
+	 * Reads a String written by {@link ByteArrayWriter#writeSharedString(String)}.
+	 * 
+	 * @return The read String.
+	 * @throws IOException
+	 *             If a deserialisation error occurs, or it references a String without a {@link StringTable}.
+	 */
+	public String readSharedString() throws IOException {
+		if ( this.stringTable != null ) {
+			return this.stringTable.read( this );
+		}
+
+		int tag = this.readVarInt();
+		if ( tag != 0 ) {
+			throw new IOException( "Shared String with tag " + tag + " read without a StringTable." );
+		}
+		return this.readString255();
+	}
+
 	/**
 	 * Reads for the length of data.
 	 * 
@@ -79,4 +151,137 @@ public class ByteArrayReader {
 		this.dataInputStream.readFully( data );
 	}
 
+	/**
+	 * Reads for the length given, into a part of data.
+	 * 
+	 * @param data
+	 *            The byte array to fill with data.
+	 * @param offset
+	 *            The index in data of the first byte read.
+	 * @param length
+	 *            The number of bytes to read.
+	 * @throws IOException
+	 */
+	public void readByteArray( byte[] data, int offset, int length ) throws IOException {
+		this.dataInputStream.readFully( data, offset, length );
+	}
+
+	public void readIntArray( int[] data ) throws IOException {
+		this.readIntArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of an int[] in one bulk copy, as written by {@link ByteArrayWriter#writeIntArray(int[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 */
+	public void readIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferReader view = this.view();
+		view.readIntArray( data, offset, length );
+		this.skip( view );
+	}
+
+	public void readLongArray( long[] data ) throws IOException {
+		this.readLongArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of a long[] in one bulk copy, as written by {@link ByteArrayWriter#writeLongArray(long[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 */
+	public void readLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferReader view = this.view();
+		view.readLongArray( data, offset, length );
+		this.skip( view );
+	}
+
+	public void readFloatArray( float[] data ) throws IOException {
+		this.readFloatArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of a float[] in one bulk copy, as written by {@link ByteArrayWriter#writeFloatArray(float[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 */
+	public void readFloatArray( float[] data, int offset, int length ) throws IOException {
+		ByteBufferReader view = this.view();
+		view.readFloatArray( data, offset, length );
+		this.skip( view );
+	}
+
+	/**
+	 * Reads into a part of an int[], as written by {@link ByteArrayWriter#writeDeltaIntArray(int[], int, int)}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 */
+	public void readDeltaIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferReader view = this.view();
+		view.readDeltaIntArray( data, offset, length );
+		this.skip( view );
+	}
+
+	/**
+	 * Reads into a part of a long[], as written by {@link ByteArrayWriter#writeDeltaLongArray(long[], int, int)}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 */
+	public void readDeltaLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferReader view = this.view();
+		view.readDeltaLongArray( data, offset, length );
+		this.skip( view );
+	}
+
+	/**
+	 * Creates a reader for what is left of the {@link #bytes}, such that arrays are decoded directly from them rather
+	 * than through the streams. Call {@link #skip(ByteBufferReader)} after reading.
+	 * 
+	 * @return The ByteBufferReader.
+	 */
+	private ByteBufferReader view() {
+		int position = this.bytes.length - this.byteArrayInputStream.available();
+		return new ByteBufferReader( ByteBuffer.wrap( this.bytes, position, this.bytes.length - position ) );
+	}
+
+	/**
+	 * Skips what was read with a view.
+	 * 
+	 * @param view
+	 *            The reader from {@link #view()}.
+	 */
+	private void skip( ByteBufferReader view ) {
+		this.byteArrayInputStream.skip( this.byteArrayInputStream.available() - view.bytesAvailable() );
+	}
+
 }
@@ -3,6 +3,7 @@ package crossnet.util;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -13,12 +14,43 @@ import java.nio.charset.Charset;
  */
 public class ByteArrayWriter {
 
+	/**
+	 * Size of the {@link #scratchBuffer}.
+	 */
+	private static final int SCRATCH_SIZE = 8192;
+
 	private final ByteArrayOutputStream byteArrayOutputStream;
 	private final DataOutputStream dataOutputStream;
 
+	/**
+	 * The buffer that arrays are encoded in, a chunk at a time, before they are written. Created on first use.
+	 */
+	private ByteBuffer scratchBuffer = null;
+
+	/**
+	 * Writer for the {@link #scratchBuffer}.
+	 */
+	private ByteBufferWriter scratch = null;
+
+	/**
+	 * The StringTable used by {@link #writeSharedString(String)}, if any.
+	 */
+	private final StringTable stringTable;
+
 	public ByteArrayWriter() {
+		this( null );
+	}
+
+	/**
+	 * Creates a writer that writes shared Strings with a StringTable.
+	 * 
+	 * @param stringTable
+	 *            The StringTable, or {@code null} to write them in full.
+	 */
+	public ByteArrayWriter( StringTable stringTable ) {
 		this.byteArrayOutputStream = new ByteArrayOutputStream();
 		this.dataOutputStream = new DataOutputStream( this.byteArrayOutputStream );
+		this.stringTable = stringTable;
 	}
 
 	public void writeBoolean( boolean b ) throws IOException {
@@ -49,6 +81,21 @@ public class ByteArrayWriter {
 		this.dataOutputStream.writeLong( number );
 	}
 
+	/**
+	 * Writes an int as an unsigned varint, as {@link ByteBufferWriter#writeVarInt(int)}.
+	 * 
+	 * @param number
+	 *            The number to write.
+	 * @throws IOException
+	 */
+	public void writeVarInt( int number ) throws IOException {
+		while ( ( number & ~0x7F ) != 0 ) {
+			this.dataOutputStream.writeByte( ( number & 0x7F ) | 0x80 );
+			number >>>= 7;
+		}
+		this.dataOutputStream.writeByte( number );
+	}
+
 	/**
 	 * Converts a String to a UTF-8 byte array and writes it to the byte[].
 	 * <p>
@@ -67,14 +114,195 @@ public class ByteArrayWriter {
 		this.writeByteArray( stringBytes );
 	}
 
+	/**
+	 * Writes a String that is likely to be repeated, e.g. a name. With a {@link StringTable}, only the first occurrence
+	 * is written in full. Read it with {@link ByteArrayReader#readSharedString()}.
+	 * <p>
+	 * NB: After conversion, the length must not exceed 255 bytes.
+	 * 
+	 * @param string
+	 *            The String to write.
+	 * @throws IOException
+	 */
+	public void writeSharedString( String string ) throws IOException {
+		if ( this.stringTable != null ) {
+			this.stringTable.write( this, string );
+		} else {
+			StringTable.writeLiteral( this, string );
+		}
+	}
+
 	public void writeByteArray( byte[] data ) throws IOException {
 		this.dataOutputStream.write( data );
 	}
 
+	public void writeIntArray( int[] data ) throws IOException {
+		this.writeIntArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of an int[] in bulk copies, rather than one call per element, as
+	 * {@link ByteBufferWriter#writeIntArray(int[], int, int)}. The length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @throws IOException
+	 */
+	public void writeIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		ByteBufferWriter scratch = this.getScratch();
+		while ( length > 0 ) {
+			int count = Math.min( length, ByteArrayWriter.SCRATCH_SIZE / 4 );
+			scratch.writeIntArray( data, offset, count );
+			this.flushScratch();
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public void writeLongArray( long[] data ) throws IOException {
+		this.writeLongArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of a long[] in bulk copies, as {@link ByteBufferWriter#writeLongArray(long[], int, int)}. The
+	 * length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @throws IOException
+	 */
+	public void writeLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		ByteBufferWriter scratch = this.getScratch();
+		while ( length > 0 ) {
+			int count = Math.min( length, ByteArrayWriter.SCRATCH_SIZE / 8 );
+			scratch.writeLongArray( data, offset, count );
+			this.flushScratch();
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public void writeFloatArray( float[] data ) throws IOException {
+		this.writeFloatArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of a float[] in bulk copies, as {@link ByteBufferWriter#writeFloatArray(float[], int, int)}. The
+	 * length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @throws IOException
+	 */
+	public void writeFloatArray( float[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		ByteBufferWriter scratch = this.getScratch();
+		while ( length > 0 ) {
+			int count = Math.min( length, ByteArrayWriter.SCRATCH_SIZE / 4 );
+			scratch.writeFloatArray( data, offset, count );
+			this.flushScratch();
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Writes a part of an int[] as varint deltas, as {@link ByteBufferWriter#writeDeltaIntArray(int[], int, int)}. The
+	 * length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @throws IOException
+	 */
+	public void writeDeltaIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		ByteBufferWriter scratch = this.getScratch();
+		int previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			if ( scratch.size() > ( ByteArrayWriter.SCRATCH_SIZE - ByteBufferWriter.MAX_VARINT_SIZE ) ) {
+				this.flushScratch();
+			}
+			scratch.writeSignedVarInt( data[i] - previous );
+			previous = data[i];
+		}
+		this.flushScratch();
+	}
+
+	/**
+	 * Writes a part of a long[] as varint deltas, as {@link ByteBufferWriter#writeDeltaLongArray(long[], int, int)}.
+	 * The length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @throws IOException
+	 */
+	public void writeDeltaLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		ByteBufferWriter scratch = this.getScratch();
+		long previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			if ( scratch.size() > ( ByteArrayWriter.SCRATCH_SIZE - ByteBufferWriter.MAX_VARLONG_SIZE ) ) {
+				this.flushScratch();
+			}
+			scratch.writeSignedVarLong( data[i] - previous );
+			previous = data[i];
+		}
+		this.flushScratch();
+	}
+
+	/**
+	 * Gets the number of bytes written so far.
+	 * 
+	 * @return The number of bytes written so far.
+	 */
+	public int size() {
+		return this.dataOutputStream.size();
+	}
+
 	public byte[] toByteArray() throws IOException {
 		this.dataOutputStream.flush();
 
 		return this.byteArrayOutputStream.toByteArray();
 	}
 
+	private ByteBufferWriter getScratch() {
+		if ( this.scratch == null ) {
+			this.scratchBuffer = ByteBuffer.allocate( ByteArrayWriter.SCRATCH_SIZE );
+			this.scratch = new ByteBufferWriter( this.scratchBuffer );
+		}
+		return this.scratch;
+	}
+
+	/**
+	 * Writes what is in the {@link #scratchBuffer}, and clears it.
+	 * 
+	 * @throws IOException
+	 */
+	private void flushScratch() throws IOException {
+		this.dataOutputStream.write( this.scratchBuffer.array(), 0, this.scratch.size() );
+		this.scratch.clear();
+	}
+
 }
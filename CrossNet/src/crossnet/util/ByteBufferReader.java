@@ -0,0 +1,309 @@
+package crossnet.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reader class for a ByteBuffer, that reads what a {@link ByteBufferWriter} writes.
+ * <p>
+ * Reads from the position to the limit of the ByteBuffer, advancing its position. Throws an {@link EOFException} if
+ * there is too little left, like {@link ByteArrayReader}.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ByteBufferReader {
+
+	private final static Charset UTF8 = Charset.forName( "UTF-8" );
+
+	/**
+	 * The ByteBuffer read from.
+	 */
+	private final ByteBuffer byteBuffer;
+
+	public ByteBufferReader( byte[] data ) {
+		this( ByteBuffer.wrap( data ) );
+	}
+
+	/**
+	 * Creates a reader that reads from a ByteBuffer, from its position to its limit. Fixed width types are read in the
+	 * byte order of the ByteBuffer.
+	 * 
+	 * @param byteBuffer
+	 *            The ByteBuffer to read from.
+	 */
+	public ByteBufferReader( ByteBuffer byteBuffer ) {
+		if ( byteBuffer == null ) {
+			throw new IllegalArgumentException( "byteBuffer cannot be null." );
+		}
+		this.byteBuffer = byteBuffer;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return this.readByte() != 0;
+	}
+
+	public byte readByte() throws IOException {
+		this.require( 1 );
+		return this.byteBuffer.get();
+	}
+
+	public int readUnsignedByte() throws IOException {
+		return this.readByte() & 0xFF;
+	}
+
+	public short readShort() throws IOException {
+		this.require( 2 );
+		return this.byteBuffer.getShort();
+	}
+
+	public int readUnsignedShort() throws IOException {
+		return this.readShort() & 0xFFFF;
+	}
+
+	public int readInt() throws IOException {
+		this.require( 4 );
+		return this.byteBuffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		this.require( 8 );
+		return this.byteBuffer.getLong();
+	}
+
+	public float readFloat() throws IOException {
+		this.require( 4 );
+		return this.byteBuffer.getFloat();
+	}
+
+	public double readDouble() throws IOException {
+		this.require( 8 );
+		return this.byteBuffer.getDouble();
+	}
+
+	/**
+	 * Reads an unsigned varint as an int.
+	 * 
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there is too little left, or the varint is longer than {@link ByteBufferWriter#MAX_VARINT_SIZE}.
+	 */
+	public int readVarInt() throws IOException {
+		int number = 0;
+		for ( int shift = 0; shift < ( 7 * ByteBufferWriter.MAX_VARINT_SIZE ); shift += 7 ) {
+			byte b = this.readByte();
+			number |= ( b & 0x7F ) << shift;
+			if ( b >= 0 ) {
+				return number;
+			}
+		}
+		throw new IOException( "Malformed varint: More than " + ByteBufferWriter.MAX_VARINT_SIZE + "B." );
+	}
+
+	/**
+	 * Reads an unsigned varint as a long.
+	 * 
+	 * @return The read number.
+	 * @throws IOException
+	 *             If there is too little left, or the varint is longer than {@link ByteBufferWriter#MAX_VARLONG_SIZE}.
+	 */
+	public long readVarLong() throws IOException {
+		long number = 0;
+		for ( int shift = 0; shift < ( 7 * ByteBufferWriter.MAX_VARLONG_SIZE ); shift += 7 ) {
+			byte b = this.readByte();
+			number |= (long) ( b & 0x7F ) << shift;
+			if ( b >= 0 ) {
+				return number;
+			}
+		}
+		throw new IOException( "Malformed varint: More than " + ByteBufferWriter.MAX_VARLONG_SIZE + "B." );
+	}
+
+	/**
+	 * Reads a zig-zag encoded varint as an int.
+	 * 
+	 * @return The read number.
+	 * @throws IOException
+	 * @see #readVarInt()
+	 */
+	public int readSignedVarInt() throws IOException {
+		int number = this.readVarInt();
+		return ( number >>> 1 ) ^ -( number & 1 );
+	}
+
+	/**
+	 * Reads a zig-zag encoded varint as a long.
+	 * 
+	 * @return The read number.
+	 * @throws IOException
+	 * @see #readVarLong()
+	 */
+	public long readSignedVarLong() throws IOException {
+		long number = this.readVarLong();
+		return ( number >>> 1 ) ^ -( number & 1 );
+	}
+
+	/**
+	 * Gets the number of bytes left to read.
+	 * 
+	 * @return The number of bytes left to read.
+	 */
+	public int bytesAvailable() {
+		return this.byteBuffer.remaining();
+	}
+
+	/**
+	 * Reads a UTF-8 String, prefixed by its length in 1B.
+	 * 
+	 * @return The read String.
+	 * @throws IOException
+	 */
+	public String readString255() throws IOException {
+		int stringLength = this.readUnsignedByte();
+		byte[] stringBytes = new byte[stringLength];
+		this.readByteArray( stringBytes );
+		return new String( stringBytes, ByteBufferReader.UTF8 );
+	}
+
+	/**
+	 * Reads for the length of data.
+	 * 
+	 * @param data
+	 *            The byte array to fill with data.
+	 * @throws IOException
+	 */
+	public void readByteArray( byte[] data ) throws IOException {
+		this.require( data.length );
+		this.byteBuffer.get( data );
+	}
+
+	public void readIntArray( int[] data ) throws IOException {
+		this.readIntArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of an int[] in one bulk copy, as written by {@link ByteBufferWriter#writeIntArray(int[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 *             If there is too little left.
+	 */
+	public void readIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.require( length * 4L );
+		this.byteBuffer.asIntBuffer().get( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 4 ) );
+	}
+
+	public void readLongArray( long[] data ) throws IOException {
+		this.readLongArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of a long[] in one bulk copy, as written by {@link ByteBufferWriter#writeLongArray(long[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 *             If there is too little left.
+	 */
+	public void readLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.require( length * 8L );
+		this.byteBuffer.asLongBuffer().get( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 8 ) );
+	}
+
+	public void readFloatArray( float[] data ) throws IOException {
+		this.readFloatArray( data, 0, data.length );
+	}
+
+	/**
+	 * Reads into a part of a float[] in one bulk copy, as written by {@link ByteBufferWriter#writeFloatArray(float[])}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 *             If there is too little left.
+	 */
+	public void readFloatArray( float[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.require( length * 4L );
+		this.byteBuffer.asFloatBuffer().get( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 4 ) );
+	}
+
+	/**
+	 * Reads into a part of an int[], as written by {@link ByteBufferWriter#writeDeltaIntArray(int[], int, int)}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 *             If there is too little left, or a varint is malformed.
+	 */
+	public void readDeltaIntArray( int[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		int previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			previous += this.readSignedVarInt();
+			data[i] = previous;
+		}
+	}
+
+	/**
+	 * Reads into a part of a long[], as written by {@link ByteBufferWriter#writeDeltaLongArray(long[], int, int)}.
+	 * 
+	 * @param data
+	 *            The array to fill.
+	 * @param offset
+	 *            The index of the first element to fill.
+	 * @param length
+	 *            The number of elements to read.
+	 * @throws IOException
+	 *             If there is too little left, or a varint is malformed.
+	 */
+	public void readDeltaLongArray( long[] data, int offset, int length ) throws IOException {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		long previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			previous += this.readSignedVarLong();
+			data[i] = previous;
+		}
+	}
+
+	/**
+	 * Makes sure there is a number of bytes left to read.
+	 * 
+	 * @param length
+	 *            The number of bytes.
+	 * @throws EOFException
+	 *             If there is too little left.
+	 */
+	private void require( long length ) throws EOFException {
+		if ( this.byteBuffer.remaining() < length ) {
+			throw new EOFException( "Needs " + length + "B, but only " + this.byteBuffer.remaining() + "B left." );
+		}
+	}
+
+}
@@ -0,0 +1,439 @@
+package crossnet.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writer class for a ByteBuffer. Besides the fixed width big-endian types of {@link ByteArrayWriter}, it writes floats,
+ * doubles and compact variable length integers:
+ * <ul>
+ * <li>A varint is 7 bits per byte, least significant first, and the top bit set on all but the last byte. So values
+ * below 128 take 1B, and a negative int always takes 5B.</li>
+ * <li>A signed varint is zig-zag encoded first, which maps small negative values to small positive ones: 0, -1, 1, -2,
+ * ... becomes 0, 1, 2, 3, ...</li>
+ * </ul>
+ * When created without a ByteBuffer, it grows as needed. When writing to a given ByteBuffer, it writes from its position
+ * and throws a {@link BufferOverflowException} when full.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class ByteBufferWriter {
+
+	/**
+	 * Maximum size of a varint encoded int.
+	 */
+	public final static int MAX_VARINT_SIZE = 5;
+
+	/**
+	 * Maximum size of a varint encoded long.
+	 */
+	public final static int MAX_VARLONG_SIZE = 10;
+
+	private final static Charset UTF8 = Charset.forName( "UTF-8" );
+
+	/**
+	 * True iff the ByteBuffer is owned by this, and can be replaced by a larger one.
+	 */
+	private final boolean growable;
+
+	/**
+	 * The ByteBuffer written to.
+	 */
+	private ByteBuffer byteBuffer;
+
+	/**
+	 * The position of the ByteBuffer when given.
+	 */
+	private final int start;
+
+	public ByteBufferWriter() {
+		this( 64 );
+	}
+
+	/**
+	 * Creates a growable writer.
+	 * 
+	 * @param initialCapacity
+	 *            The initial capacity in bytes.
+	 */
+	public ByteBufferWriter( int initialCapacity ) {
+		if ( initialCapacity < 1 ) {
+			throw new IllegalArgumentException( "initialCapacity must be positive." );
+		}
+		this.growable = true;
+		this.byteBuffer = ByteBuffer.allocate( initialCapacity );
+		this.start = 0;
+	}
+
+	/**
+	 * Creates a writer that writes to a ByteBuffer, from its position to its limit. Fixed width types are written in
+	 * the byte order of the ByteBuffer.
+	 * 
+	 * @param byteBuffer
+	 *            The ByteBuffer to write to.
+	 */
+	public ByteBufferWriter( ByteBuffer byteBuffer ) {
+		if ( byteBuffer == null ) {
+			throw new IllegalArgumentException( "byteBuffer cannot be null." );
+		}
+		this.growable = false;
+		this.byteBuffer = byteBuffer;
+		this.start = byteBuffer.position();
+	}
+
+	public void writeBoolean( boolean b ) {
+		this.ensureRemaining( 1 );
+		this.byteBuffer.put( (byte) ( b ? 1 : 0 ) );
+	}
+
+	public void writeByte( int number ) {
+		if ( ( number < Byte.MIN_VALUE ) || ( 255 < number ) ) {
+			throw new IllegalArgumentException( "Number requires more than one byte: " + number );
+		}
+
+		this.ensureRemaining( 1 );
+		this.byteBuffer.put( (byte) number );
+	}
+
+	public void writeShort( int number ) {
+		if ( ( number < Short.MIN_VALUE ) || ( 65535 < number ) ) {
+			throw new IllegalArgumentException( "Number requires more than two bytes: " + number );
+		}
+
+		this.ensureRemaining( 2 );
+		this.byteBuffer.putShort( (short) number );
+	}
+
+	public void writeInt( int number ) {
+		this.ensureRemaining( 4 );
+		this.byteBuffer.putInt( number );
+	}
+
+	public void writeLong( long number ) {
+		this.ensureRemaining( 8 );
+		this.byteBuffer.putLong( number );
+	}
+
+	public void writeFloat( float number ) {
+		this.ensureRemaining( 4 );
+		this.byteBuffer.putFloat( number );
+	}
+
+	public void writeDouble( double number ) {
+		this.ensureRemaining( 8 );
+		this.byteBuffer.putDouble( number );
+	}
+
+	/**
+	 * Writes an int as an unsigned varint. Intended for values that are usually small and never negative, like IDs,
+	 * counts and lengths.
+	 * 
+	 * @param number
+	 *            The number to write.
+	 */
+	public void writeVarInt( int number ) {
+		this.ensureRemaining( ByteBufferWriter.MAX_VARINT_SIZE );
+		while ( ( number & ~0x7F ) != 0 ) {
+			this.byteBuffer.put( (byte) ( ( number & 0x7F ) | 0x80 ) );
+			number >>>= 7;
+		}
+		this.byteBuffer.put( (byte) number );
+	}
+
+	/**
+	 * Writes a long as an unsigned varint.
+	 * 
+	 * @param number
+	 *            The number to write.
+	 * @see #writeVarInt(int)
+	 */
+	public void writeVarLong( long number ) {
+		this.ensureRemaining( ByteBufferWriter.MAX_VARLONG_SIZE );
+		while ( ( number & ~0x7FL ) != 0 ) {
+			this.byteBuffer.put( (byte) ( ( number & 0x7F ) | 0x80 ) );
+			number >>>= 7;
+		}
+		this.byteBuffer.put( (byte) number );
+	}
+
+	/**
+	 * Writes an int as a zig-zag encoded varint. Intended for values that are usually close to zero, but may be
+	 * negative, like deltas.
+	 * 
+	 * @param number
+	 *            The number to write.
+	 */
+	public void writeSignedVarInt( int number ) {
+		this.writeVarInt( ByteBufferWriter.zigZag( number ) );
+	}
+
+	/**
+	 * Writes a long as a zig-zag encoded varint.
+	 * 
+	 * @param number
+	 *            The number to write.
+	 * @see #writeSignedVarInt(int)
+	 */
+	public void writeSignedVarLong( long number ) {
+		this.writeVarLong( ByteBufferWriter.zigZag( number ) );
+	}
+
+	/**
+	 * Converts a String to a UTF-8 byte array and writes it, prefixed by its length in 1B.
+	 * <p>
+	 * NB: After conversion, the length must not exceed 255 bytes.
+	 * 
+	 * @param string
+	 *            The String to write.
+	 */
+	public void writeString255( String string ) {
+		byte[] stringBytes = string.getBytes( ByteBufferWriter.UTF8 );
+		if ( stringBytes.length > 255 ) {
+			throw new IllegalArgumentException( "Length of serialised string exceeded 255 bytes. Length was: " + stringBytes.length + " and the string was: " + string );
+		}
+		this.writeByte( stringBytes.length );
+		this.writeByteArray( stringBytes );
+	}
+
+	public void writeByteArray( byte[] data ) {
+		this.writeByteArray( data, 0, data.length );
+	}
+
+	public void writeByteArray( byte[] data, int offset, int length ) {
+		this.ensureRemaining( length );
+		this.byteBuffer.put( data, offset, length );
+	}
+
+	public void writeIntArray( int[] data ) {
+		this.writeIntArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of an int[] in one bulk copy, 4B per element. The length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 */
+	public void writeIntArray( int[] data, int offset, int length ) {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.ensureRemaining( length * 4 );
+		this.byteBuffer.asIntBuffer().put( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 4 ) );
+	}
+
+	public void writeLongArray( long[] data ) {
+		this.writeLongArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of a long[] in one bulk copy, 8B per element. The length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 */
+	public void writeLongArray( long[] data, int offset, int length ) {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.ensureRemaining( length * 8 );
+		this.byteBuffer.asLongBuffer().put( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 8 ) );
+	}
+
+	public void writeFloatArray( float[] data ) {
+		this.writeFloatArray( data, 0, data.length );
+	}
+
+	/**
+	 * Writes a part of a float[] in one bulk copy, 4B per element. The length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 */
+	public void writeFloatArray( float[] data, int offset, int length ) {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		this.ensureRemaining( length * 4 );
+		this.byteBuffer.asFloatBuffer().put( data, offset, length );
+		this.byteBuffer.position( this.byteBuffer.position() + ( length * 4 ) );
+	}
+
+	/**
+	 * Writes a part of an int[] as the zig-zag encoded varint deltas between consecutive elements, starting from 0.
+	 * Intended for sorted or slowly changing arrays, like path nodes or sorted IDs, where most deltas take 1B. The
+	 * length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 */
+	public void writeDeltaIntArray( int[] data, int offset, int length ) {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		int previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			this.writeSignedVarInt( data[i] - previous );
+			previous = data[i];
+		}
+	}
+
+	/**
+	 * Writes a part of a long[] as the zig-zag encoded varint deltas between consecutive elements, starting from 0. The
+	 * length is not written.
+	 * 
+	 * @param data
+	 *            The array to write from.
+	 * @param offset
+	 *            The index of the first element to write.
+	 * @param length
+	 *            The number of elements to write.
+	 * @see #writeDeltaIntArray(int[], int, int)
+	 */
+	public void writeDeltaLongArray( long[] data, int offset, int length ) {
+		ByteBufferWriter.checkRange( data.length, offset, length );
+		long previous = 0;
+		for ( int i = offset; i < ( offset + length ); i++ ) {
+			this.writeSignedVarLong( data[i] - previous );
+			previous = data[i];
+		}
+	}
+
+	/**
+	 * Gets the number of bytes written so far.
+	 * 
+	 * @return The number of bytes written so far.
+	 */
+	public int size() {
+		return this.byteBuffer.position() - this.start;
+	}
+
+	/**
+	 * Discards everything written, such that this can be reused.
+	 */
+	public void clear() {
+		this.byteBuffer.position( this.start );
+	}
+
+	public byte[] toByteArray() {
+		int size = this.size();
+		if ( this.byteBuffer.hasArray() ) {
+			int offset = this.byteBuffer.arrayOffset() + this.start;
+			return Arrays.copyOfRange( this.byteBuffer.array(), offset, offset + size );
+		}
+
+		byte[] ret = new byte[size];
+		ByteBuffer view = this.byteBuffer.duplicate();
+		view.position( this.start );
+		view.get( ret );
+		return ret;
+	}
+
+	/**
+	 * Makes sure there is room for a number of bytes, growing the ByteBuffer if possible.
+	 * 
+	 * @param length
+	 *            The number of bytes.
+	 */
+	private void ensureRemaining( int length ) {
+		if ( this.byteBuffer.remaining() >= length ) {
+			return;
+		}
+		if ( !this.growable ) {
+			// Varints reserve their maximum size, so let the ByteBuffer fail when short of what is actually written.
+			return;
+		}
+
+		int capacity = Math.max( this.byteBuffer.capacity() * 2, this.byteBuffer.position() + length );
+		ByteBuffer larger = ByteBuffer.allocate( capacity );
+		this.byteBuffer.flip();
+		larger.put( this.byteBuffer );
+		this.byteBuffer = larger;
+	}
+
+	/**
+	 * Checks that a part of an array is inside it.
+	 * 
+	 * @param arrayLength
+	 *            The length of the array.
+	 * @param offset
+	 *            The index of the first element of the part.
+	 * @param length
+	 *            The number of elements in the part.
+	 */
+	static void checkRange( int arrayLength, int offset, int length ) {
+		if ( ( offset < 0 ) || ( length < 0 ) || ( offset > ( arrayLength - length ) ) ) {
+			throw new IndexOutOfBoundsException( "Range " + offset + " + " + length + " is outside array of " + arrayLength + "." );
+		}
+	}
+
+	/**
+	 * Zig-zag encodes an int.
+	 * 
+	 * @param number
+	 *            The number to encode.
+	 * @return The encoded number.
+	 */
+	public static int zigZag( int number ) {
+		return ( number << 1 ) ^ ( number >> 31 );
+	}
+
+	/**
+	 * Zig-zag encodes a long.
+	 * 
+	 * @param number
+	 *            The number to encode.
+	 * @return The encoded number.
+	 */
+	public static long zigZag( long number ) {
+		return ( number << 1 ) ^ ( number >> 63 );
+	}
+
+	/**
+	 * Gets the size of an int written as an unsigned varint.
+	 * 
+	 * @param number
+	 *            The number.
+	 * @return The size in bytes.
+	 */
+	public static int varIntSize( int number ) {
+		int size = 1;
+		while ( ( number & ~0x7F ) != 0 ) {
+			number >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the size of a long written as an unsigned varint.
+	 * 
+	 * @param number
+	 *            The number.
+	 * @return The size in bytes.
+	 */
+	public static int varLongSize( long number ) {
+		int size = 1;
+		while ( ( number & ~0x7FL ) != 0 ) {
+			number >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,184 @@
+package crossnet.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session scoped table of Strings, for one direction of a Connection. The first time a String is written, it is
+ * written in full with its index in the table. After that, only a reference to the index is written. The reading end
+ * keeps the Strings it has read, such that a reference returns the same String without decoding it again.
+ * <p>
+ * Each String is prefixed by a varint tag:
+ * <ul>
+ * <li>0: Not in the table. Followed by the String with its 1B length.</li>
+ * <li>Odd: Defines the index {@code tag >>> 1}. Followed by the String with its 1B length.</li>
+ * <li>Even: References the index {@code ( tag >>> 1 ) - 1}.</li>
+ * </ul>
+ * Definitions must be read in the order they are written, so a writing StringTable must only be used for data that is
+ * sent in the order it is written, and is never discarded. See {@link #truncate(int)}.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Rasmus Ljungmann Pedersen <rasmuslp@gmail.com>
+ * 
+ */
+public class StringTable {
+
+	/**
+	 * Default maximum number of Strings in a table.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1024;
+
+	/**
+	 * Maximum number of Strings in this. When full, further Strings are written in full every time.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The written Strings by index. Created on first use.
+	 */
+	private Map< String, Integer > indices = null;
+
+	/**
+	 * The written or read Strings, in order of definition. Created on first use.
+	 */
+	private List< String > strings = null;
+
+	public StringTable() {
+		this( StringTable.DEFAULT_MAX_SIZE );
+	}
+
+	/**
+	 * Create a StringTable.
+	 * 
+	 * @param maxSize
+	 *            The maximum number of Strings.
+	 */
+	public StringTable( final int maxSize ) {
+		if ( maxSize < 0 ) {
+			throw new IllegalArgumentException( "maxSize cannot be negative." );
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Writes a String, or a reference to it if it has been written before.
+	 * 
+	 * @param to
+	 *            The destination.
+	 * @param string
+	 *            The String to write. Must not exceed 255 bytes as UTF-8.
+	 * @throws IOException
+	 *             If a serialisation error occurs.
+	 */
+	public void write( ByteArrayWriter to, String string ) throws IOException {
+		if ( this.indices == null ) {
+			this.indices = new HashMap<>();
+			this.strings = new ArrayList<>();
+		}
+
+		Integer index = this.indices.get( string );
+		if ( index != null ) {
+			to.writeVarInt( ( index + 1 ) << 1 );
+			return;
+		}
+
+		if ( this.strings.size() == this.maxSize ) {
+			StringTable.writeLiteral( to, string );
+			return;
+		}
+
+		// Defined once written, such that a String that is too long is not defined.
+		to.writeVarInt( ( this.strings.size() << 1 ) | 1 );
+		to.writeString255( string );
+		this.indices.put( string, this.strings.size() );
+		this.strings.add( string );
+	}
+
+	/**
+	 * Reads a String, or resolves a reference to one read before.
+	 * 
+	 * @param from
+	 *            The source.
+	 * @return The read String.
+	 * @throws IOException
+	 *             If a deserialisation error occurs, or the reference or definition does not match this.
+	 */
+	public String read( ByteArrayReader from ) throws IOException {
+		int tag = from.readVarInt();
+		if ( tag == 0 ) {
+			return from.readString255();
+		}
+
+		if ( this.strings == null ) {
+			this.strings = new ArrayList<>();
+		}
+
+		int index = tag >>> 1;
+		if ( ( tag & 1 ) == 0 ) {
+			index--;
+			if ( index >= this.strings.size() ) {
+				throw new IOException( "Undefined String reference: " + index + ". Table size is: " + this.strings.size() );
+			}
+			return this.strings.get( index );
+		}
+
+		if ( ( index != this.strings.size() ) || ( index >= this.maxSize ) ) {
+			throw new IOException( "Unexpected String definition: " + index + ". Table size is: " + this.strings.size() );
+		}
+		String string = from.readString255();
+		this.strings.add( string );
+		return string;
+	}
+
+	/**
+	 * Gets the number of Strings in this.
+	 * 
+	 * @return The number of Strings.
+	 */
+	public int size() {
+		return ( this.strings == null ) ? 0 : this.strings.size();
+	}
+
+	/**
+	 * Forgets the Strings defined after the first ones; e.g. if what they were written to was never sent.
+	 * 
+	 * @param size
+	 *            The number of Strings to keep.
+	 */
+	public void truncate( int size ) {
+		while ( this.size() > size ) {
+			String string = this.strings.remove( this.strings.size() - 1 );
+			if ( this.indices != null ) {
+				this.indices.remove( string );
+			}
+		}
+	}
+
+	/**
+	 * Forgets all Strings, for a new session.
+	 */
+	public void clear() {
+		this.indices = null;
+		this.strings = null;
+	}
+
+	/**
+	 * Writes a String that is not in any table.
+	 * 
+	 * @param to
+	 *            The destination.
+	 * @param string
+	 *            The String to write. Must not exceed 255 bytes as UTF-8.
+	 * @throws IOException
+	 *             If a serialisation error occurs.
+	 */
+	static void writeLiteral( ByteArrayWriter to, String string ) throws IOException {
+		to.writeVarInt( 0 );
+		to.writeString255( string );
+	}
+
+}